@@ -0,0 +1,201 @@
+package be.cytomine.benchmark;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.service.dto.Kmeans;
+import be.cytomine.service.ontology.AnnotationClusterService;
+import be.cytomine.service.utils.KmeansGeometryService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kmeans request of an annotation layer on seeded annotations (centroids and envelopes, grouped in hot spots).
+ * 'kmeans' clusters the annotations of the bbox for each request (5 clusters, as ST_ClusterKMeans in the listing),
+ * 'pyramid' reads the precomputed cells of the level matching the bbox.
+ * Both run in memory: only the work done per request is compared, not the database access.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AnnotationClusterBenchmark {
+
+    private static final int WIDTH = 100000;
+
+    private static final int HEIGHT = 80000;
+
+    private static final int CLUSTERS = 5;
+
+    private static final int ITERATIONS = 10;
+
+    @Param({"10000", "100000", "1000000"})
+    int annotations;
+
+    @Param({"100", "25"})
+    int viewPercent;
+
+    private double[] xs;
+
+    private double[] ys;
+
+    private double[] sizes;
+
+    private List<Map<Long, double[]>> pyramid;
+
+    private double minX;
+
+    private double minY;
+
+    private double maxX;
+
+    private double maxY;
+
+    @Setup
+    public void setup() {
+        Random random = BenchmarkFixtures.random();
+        xs = new double[annotations];
+        ys = new double[annotations];
+        sizes = new double[annotations];
+        double[][] spots = new double[20][];
+        for (int i = 0; i < spots.length; i++) {
+            spots[i] = new double[]{random.nextDouble() * WIDTH, random.nextDouble() * HEIGHT, 1000 + random.nextDouble() * 5000};
+        }
+        for (int i = 0; i < annotations; i++) {
+            double[] spot = spots[random.nextInt(spots.length)];
+            xs[i] = Math.min(WIDTH - 1, Math.max(0, spot[0] + random.nextGaussian() * spot[2]));
+            ys[i] = Math.min(HEIGHT - 1, Math.max(0, spot[1] + random.nextGaussian() * spot[2]));
+            sizes[i] = 20 + random.nextDouble() * 80;
+        }
+
+        // same content as annotation_cluster after the fold of all the annotations
+        pyramid = new ArrayList<>();
+        for (int level = 0; level < AnnotationClusterService.LEVELS; level++) {
+            double cellSize = AnnotationClusterService.cellSize(level);
+            Map<Long, double[]> cells = new HashMap<>();
+            for (int i = 0; i < annotations; i++) {
+                double[] cell = cells.computeIfAbsent(key((long) Math.floor(xs[i] / cellSize), (long) Math.floor(ys[i] / cellSize)),
+                        k -> new double[]{0, 0, 0, Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE});
+                cell[0]++;
+                cell[1] += xs[i];
+                cell[2] += ys[i];
+                cell[3] = Math.min(cell[3], xs[i] - sizes[i]);
+                cell[4] = Math.min(cell[4], ys[i] - sizes[i]);
+                cell[5] = Math.max(cell[5], xs[i] + sizes[i]);
+                cell[6] = Math.max(cell[6], ys[i] + sizes[i]);
+            }
+            pyramid.add(cells);
+        }
+
+        double viewWidth = WIDTH * viewPercent / 100d;
+        double viewHeight = HEIGHT * viewPercent / 100d;
+        minX = (WIDTH - viewWidth) / 2;
+        minY = (HEIGHT - viewHeight) / 2;
+        maxX = minX + viewWidth;
+        maxY = minY + viewHeight;
+    }
+
+    @Benchmark
+    public List<Kmeans> kmeans() {
+        int[] inView = new int[annotations];
+        int count = 0;
+        for (int i = 0; i < annotations; i++) {
+            if (xs[i] + sizes[i] >= minX && xs[i] - sizes[i] <= maxX && ys[i] + sizes[i] >= minY && ys[i] - sizes[i] <= maxY) {
+                inView[count++] = i;
+            }
+        }
+        int k = Math.min(CLUSTERS, count);
+        double[] centerX = new double[k];
+        double[] centerY = new double[k];
+        for (int c = 0; c < k; c++) {
+            centerX[c] = xs[inView[c * count / k]];
+            centerY[c] = ys[inView[c * count / k]];
+        }
+        int[] assignment = new int[count];
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            double[] sumX = new double[k];
+            double[] sumY = new double[k];
+            long[] sizeOf = new long[k];
+            for (int j = 0; j < count; j++) {
+                int i = inView[j];
+                int best = 0;
+                double bestDistance = Double.MAX_VALUE;
+                for (int c = 0; c < k; c++) {
+                    double dx = xs[i] - centerX[c];
+                    double dy = ys[i] - centerY[c];
+                    double distance = dx * dx + dy * dy;
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = c;
+                    }
+                }
+                assignment[j] = best;
+                sumX[best] += xs[i];
+                sumY[best] += ys[i];
+                sizeOf[best]++;
+            }
+            for (int c = 0; c < k; c++) {
+                if (sizeOf[c] > 0) {
+                    centerX[c] = sumX[c] / sizeOf[c];
+                    centerY[c] = sumY[c] / sizeOf[c];
+                }
+            }
+        }
+        List<AnnotationClusterService.Cell> clusters = new ArrayList<>();
+        for (int c = 0; c < k; c++) {
+            long size = 0;
+            double sumX = 0;
+            double sumY = 0;
+            for (int j = 0; j < count; j++) {
+                if (assignment[j] == c) {
+                    size++;
+                    sumX += xs[inView[j]];
+                    sumY += ys[inView[j]];
+                }
+            }
+            if (size > 0) {
+                clusters.add(new AnnotationClusterService.Cell(size, sumX, sumY, 0, 0, 0, 0));
+            }
+        }
+        return AnnotationClusterService.toKmeans(clusters, KmeansGeometryService.KMEANSSOFT);
+    }
+
+    @Benchmark
+    public List<Kmeans> pyramid() {
+        int level = AnnotationClusterService.level(Math.max(maxX - minX, maxY - minY), 4);
+        double cellSize = AnnotationClusterService.cellSize(level);
+        Map<Long, double[]> cells = pyramid.get(level);
+        List<AnnotationClusterService.Cell> clusters = new ArrayList<>();
+        for (long x = (long) Math.floor(minX / cellSize); x <= (long) Math.floor(maxX / cellSize); x++) {
+            for (long y = (long) Math.floor(minY / cellSize); y <= (long) Math.floor(maxY / cellSize); y++) {
+                double[] cell = cells.get(key(x, y));
+                if (cell != null) {
+                    clusters.add(new AnnotationClusterService.Cell((long) cell[0], cell[1], cell[2], cell[3], cell[4], cell[5], cell[6]));
+                }
+            }
+        }
+        return AnnotationClusterService.toKmeans(clusters, KmeansGeometryService.KMEANSSOFT);
+    }
+
+    private static long key(long x, long y) {
+        return (x << 32) ^ y;
+    }
+}
@@ -0,0 +1,97 @@
+package be.cytomine.benchmark;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+import be.cytomine.domain.image.ImageInstance;
+import be.cytomine.dto.SimplifiedAnnotation;
+import be.cytomine.service.ontology.UserAnnotationService;
+import be.cytomine.service.utils.SimplifyGeometryService;
+import be.cytomine.service.utils.ValidateGeometryService;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Geometry checks of a list of imported annotations (parse, validate, simplify).
+ * 'oneByOne' prepares the locations sequentially, as addMultiple does for each annotation,
+ * 'imported' prepares them in parallel, as UserAnnotationImportService does.
+ * The import is not compared with addMultiple here: most of their cost is the database writes (one command by annotation
+ * or JDBC batches), and benchmarks run without a database. Only the geometry preparation is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AnnotationImportBenchmark {
+
+    @Param({"500", "5000"})
+    int annotations;
+
+    @Param({"10", "500"})
+    int points;
+
+    private UserAnnotationService userAnnotationService;
+
+    private ImageInstance image;
+
+    private List<String> locations;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        SimplifyGeometryService simplifyGeometryService = new SimplifyGeometryService();
+        // application.annotation.maxNumberOfPoint default value
+        Field maxNumberOfPoint = SimplifyGeometryService.class.getDeclaredField("maxNumberOfPoint");
+        maxNumberOfPoint.setAccessible(true);
+        maxNumberOfPoint.set(simplifyGeometryService, 200d);
+        userAnnotationService = new UserAnnotationService();
+        Field simplifyGeometryServiceField = UserAnnotationService.class.getDeclaredField("simplifyGeometryService");
+        simplifyGeometryServiceField.setAccessible(true);
+        simplifyGeometryServiceField.set(userAnnotationService, simplifyGeometryService);
+        // the locations are valid, the database is never used to repair them
+        Field validateGeometryServiceField = UserAnnotationService.class.getDeclaredField("validateGeometryService");
+        validateGeometryServiceField.setAccessible(true);
+        validateGeometryServiceField.set(userAnnotationService, new ValidateGeometryService(BenchmarkFixtures.entityManager()));
+
+        image = BenchmarkFixtures.image(10L, BenchmarkFixtures.project(1L), 10000, 10000);
+        Random random = BenchmarkFixtures.random();
+        locations = new ArrayList<>();
+        for (int i = 0; i < annotations; i++) {
+            locations.add(BenchmarkFixtures.polygon(random, points).toText());
+        }
+    }
+
+    @Benchmark
+    public List<SimplifiedAnnotation> oneByOne() {
+        List<SimplifiedAnnotation> prepared = new ArrayList<>();
+        for (String location : locations) {
+            prepared.add(userAnnotationService.prepareLocation(location, image, null, null));
+        }
+        return prepared;
+    }
+
+    @Benchmark
+    public List<SimplifiedAnnotation> imported() {
+        return locations.parallelStream()
+                .map(location -> userAnnotationService.prepareLocation(location, image, null, null))
+                .collect(Collectors.toList());
+    }
+}
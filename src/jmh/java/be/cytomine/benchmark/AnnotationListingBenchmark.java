@@ -0,0 +1,83 @@
+package be.cytomine.benchmark;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+import be.cytomine.domain.image.ImageInstance;
+import be.cytomine.domain.project.Project;
+import be.cytomine.repository.UserAnnotationListing;
+import com.vividsolutions.jts.geom.Polygon;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SQL generation of the user annotation listing, as done for each annotation layer request of the viewer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AnnotationListingBenchmark {
+
+    @Param({"1", "50"})
+    int users;
+
+    @Param({"0", "20"})
+    int terms;
+
+    private EntityManager entityManager;
+
+    private ImageInstance image;
+
+    private List<Long> userIds;
+
+    private List<Long> termIds;
+
+    private String bbox;
+
+    @Setup
+    public void setup() {
+        Project project = BenchmarkFixtures.project(1L);
+        image = BenchmarkFixtures.image(10L, project, 100000, 80000);
+        entityManager = BenchmarkFixtures.entityManager(project, image);
+        userIds = new ArrayList<>();
+        for (long i = 0; i < users; i++) {
+            userIds.add(1000 + i);
+        }
+        termIds = new ArrayList<>();
+        for (long i = 0; i < terms; i++) {
+            termIds.add(2000 + i);
+        }
+        Polygon polygon = BenchmarkFixtures.polygon(BenchmarkFixtures.random(), 4);
+        bbox = polygon.getEnvelope().toText();
+    }
+
+    @Benchmark
+    public String getAnnotationsRequest() {
+        UserAnnotationListing listing = new UserAnnotationListing(entityManager);
+        listing.setColumnsToPrint(new ArrayList<>(List.of("basic", "meta", "term", "gis", "wkt")));
+        listing.setProject(image.getProject().getId());
+        listing.setImage(image.getId());
+        listing.setUsers(userIds);
+        listing.setTerms(termIds.isEmpty() ? null : termIds);
+        listing.setBbox(bbox);
+        return listing.getAnnotationsRequest();
+    }
+}
@@ -0,0 +1,74 @@
+package be.cytomine.benchmark;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+import be.cytomine.utils.GeometryUtils;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.util.AffineTransformation;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merge of overlapping annotations done by an annotation correction (union mode):
+ * one union per covering annotation versus a single cascaded union.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AnnotationUnionBenchmark {
+
+    @Param({"10", "100", "500"})
+    int annotations;
+
+    @Param({"100"})
+    int points;
+
+    private List<Geometry> locations;
+
+    @Setup
+    public void setup() {
+        Random random = BenchmarkFixtures.random();
+        int columns = (int) Math.ceil(Math.sqrt(annotations));
+        locations = new ArrayList<>(annotations);
+        for (int i = 0; i < annotations; i++) {
+            // polygons of radius ~1000 every 1500 pixels: each one overlaps its neighbours
+            double dx = (i % columns) * 1500 + random.nextDouble() * 200;
+            double dy = (i / columns) * 1500 + random.nextDouble() * 200;
+            locations.add(AffineTransformation.translationInstance(dx, dy)
+                    .transform(BenchmarkFixtures.polygon(random, points)));
+        }
+    }
+
+    @Benchmark
+    public Geometry iterativeUnion() {
+        Geometry union = locations.get(0);
+        for (int i = 1; i < locations.size(); i++) {
+            union = union.union(locations.get(i));
+        }
+        return union;
+    }
+
+    @Benchmark
+    public Geometry cascadedUnion() {
+        return GeometryUtils.union(locations);
+    }
+}
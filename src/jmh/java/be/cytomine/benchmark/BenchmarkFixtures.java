@@ -0,0 +1,149 @@
+package be.cytomine.benchmark;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.domain.CytomineDomain;
+import be.cytomine.domain.image.AbstractImage;
+import be.cytomine.domain.image.ImageInstance;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.project.Project;
+import be.cytomine.domain.security.User;
+import be.cytomine.utils.JsonObject;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+
+import javax.persistence.EntityManager;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+/**
+ * Synthetic data shared by the benchmarks.
+ * Everything is derived from a fixed seed, so that results of different commits are computed on the same inputs.
+ */
+public final class BenchmarkFixtures {
+
+    public static final long SEED = 42L;
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    private BenchmarkFixtures() {
+    }
+
+    public static Random random() {
+        return new Random(SEED);
+    }
+
+    /**
+     * Closed star-shaped polygon (valid, no self intersection) with the given number of distinct points
+     */
+    public static Polygon polygon(Random random, int points) {
+        double[] angles = new double[points];
+        for (int i = 0; i < points; i++) {
+            angles[i] = random.nextDouble() * 2 * Math.PI;
+        }
+        Arrays.sort(angles);
+        Coordinate[] coordinates = new Coordinate[points + 1];
+        for (int i = 0; i < points; i++) {
+            double radius = 1000 + random.nextDouble() * 200;
+            coordinates[i] = new Coordinate(5000 + radius * Math.cos(angles[i]), 5000 + radius * Math.sin(angles[i]));
+        }
+        coordinates[points] = coordinates[0];
+        return GEOMETRY_FACTORY.createPolygon(GEOMETRY_FACTORY.createLinearRing(coordinates), null);
+    }
+
+    public static Project project(long id) {
+        Project project = new Project();
+        project.setId(id);
+        project.setName("benchmark");
+        return project;
+    }
+
+    public static ImageInstance image(long id, Project project, int width, int height) {
+        AbstractImage baseImage = new AbstractImage();
+        baseImage.setId(id + 1);
+        baseImage.setWidth(width);
+        baseImage.setHeight(height);
+        ImageInstance image = new ImageInstance();
+        image.setId(id);
+        image.setProject(project);
+        image.setBaseImage(baseImage);
+        return image;
+    }
+
+    public static List<SliceInstance> slices(ImageInstance image, int count) {
+        List<SliceInstance> slices = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            SliceInstance slice = new SliceInstance();
+            slice.setId(image.getId() + 100 + i);
+            slice.setImage(image);
+            slice.setProject(image.getProject());
+            slices.add(slice);
+        }
+        return slices;
+    }
+
+    public static User user(long id) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername("benchmark");
+        user.setPublicKey(new UUID(SEED, id).toString());
+        user.setPrivateKey(new UUID(id, SEED).toString());
+        return user;
+    }
+
+    /**
+     * Annotation as returned by the annotation listing (light JSON with a WKT location)
+     */
+    public static JsonObject annotation(Random random, long id, int points) {
+        JsonObject json = new JsonObject();
+        json.put("id", id);
+        json.put("class", "be.cytomine.domain.ontology.UserAnnotation");
+        json.put("created", 1_600_000_000_000L + id);
+        json.put("updated", null);
+        json.put("project", 1L);
+        json.put("image", 10L);
+        json.put("slice", 110L);
+        json.put("user", 5L);
+        json.put("nbComments", 0);
+        json.put("reviewed", false);
+        json.put("area", random.nextDouble() * 10000);
+        json.put("perimeter", random.nextDouble() * 1000);
+        json.put("term", List.of(random.nextInt(20) + 1L));
+        json.put("userByTerm", List.of(Map.of("term", 1L, "user", List.of(5L))));
+        json.put("location", polygon(random, points).toText());
+        return json;
+    }
+
+    /**
+     * Entity manager only able to find the given domains, for code that only needs entityManager.find
+     */
+    public static EntityManager entityManager(CytomineDomain... domains) {
+        return (EntityManager) Proxy.newProxyInstance(EntityManager.class.getClassLoader(), new Class[]{EntityManager.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("find")) {
+                        for (CytomineDomain domain : domains) {
+                            if (((Class<?>) args[0]).isInstance(domain) && domain.getId().equals(args[1])) {
+                                return domain;
+                            }
+                        }
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
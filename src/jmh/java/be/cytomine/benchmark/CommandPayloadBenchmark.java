@@ -0,0 +1,68 @@
+package be.cytomine.benchmark;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.utils.JsonObject;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON conversions done for each command (request body, command data, response).
+ * The 'perCallMapper' benchmarks build a new mapper for each conversion, as JsonObject used to.
+ * Run with -PjmhProfilers=gc to compare the allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CommandPayloadBenchmark {
+
+    @Param({"10", "200"})
+    int points;
+
+    private JsonObject payload;
+
+    private String json;
+
+    @Setup
+    public void setup() {
+        payload = BenchmarkFixtures.annotation(BenchmarkFixtures.random(), 1L, points);
+        json = payload.toJsonString();
+    }
+
+    @Benchmark
+    public String writeWithSharedMapper() {
+        return JsonObject.toJsonString(payload);
+    }
+
+    @Benchmark
+    public String writeWithPerCallMapper() throws JsonProcessingException {
+        return new ObjectMapper().writeValueAsString(payload);
+    }
+
+    @Benchmark
+    public JsonObject readWithSharedMapper() {
+        return JsonObject.toJsonObject(json);
+    }
+
+    @Benchmark
+    public JsonObject readWithPerCallMapper() throws JsonProcessingException {
+        return new ObjectMapper().readValue(json, JsonObject.class);
+    }
+}
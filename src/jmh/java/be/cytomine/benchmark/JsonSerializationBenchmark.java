@@ -0,0 +1,60 @@
+package be.cytomine.benchmark;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+import be.cytomine.utils.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of an annotation listing response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonSerializationBenchmark {
+
+    @Param({"1", "1000"})
+    int annotations;
+
+    @Param({"10", "500"})
+    int points;
+
+    private JsonObject response;
+
+    @Setup
+    public void setup() {
+        Random random = BenchmarkFixtures.random();
+        List<JsonObject> collection = new ArrayList<>();
+        for (long i = 0; i < annotations; i++) {
+            collection.add(BenchmarkFixtures.annotation(random, i, points));
+        }
+        response = new JsonObject();
+        response.put("collection", collection);
+        response.put("size", annotations);
+    }
+
+    @Benchmark
+    public String toJsonString() {
+        return response.toJsonString();
+    }
+}
@@ -0,0 +1,77 @@
+package be.cytomine.benchmark;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+import be.cytomine.domain.image.ImageInstance;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.project.Project;
+import be.cytomine.domain.security.SecUser;
+import be.cytomine.service.ontology.AnnotationIndexService;
+import be.cytomine.service.utils.KmeansGeometryService;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Choice of the kmeans level for an annotation layer request.
+ * Annotation index counts are fixed, so that only the service logic is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KmeansGeometryBenchmark {
+
+    @Param({"50", "20000", "500000"})
+    long annotations;
+
+    @Param({"1", "20"})
+    int slices;
+
+    private KmeansGeometryService kmeansGeometryService;
+
+    private List<SliceInstance> sliceInstances;
+
+    private SecUser user;
+
+    private Geometry bbox;
+
+    @Setup
+    public void setup() {
+        Project project = BenchmarkFixtures.project(1L);
+        ImageInstance image = BenchmarkFixtures.image(10L, project, 100000, 80000);
+        sliceInstances = BenchmarkFixtures.slices(image, slices);
+        user = BenchmarkFixtures.user(5L);
+        bbox = new GeometryFactory().toGeometry(new Envelope(0, 60000, 0, 40000));
+        AnnotationIndexService annotationIndexService = new AnnotationIndexService() {
+            @Override
+            public Long count(List<SliceInstance> slices, SecUser user) {
+                return annotations;
+            }
+        };
+        kmeansGeometryService = new KmeansGeometryService(annotationIndexService, BenchmarkFixtures.entityManager(project, image), null);
+    }
+
+    @Benchmark
+    public int mustBeReduce() {
+        return kmeansGeometryService.mustBeReduce(sliceInstances, user, bbox);
+    }
+}
@@ -0,0 +1,84 @@
+package be.cytomine.benchmark;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.LocalCacheProperties;
+import be.cytomine.domain.security.SecUser;
+import be.cytomine.domain.security.User;
+import be.cytomine.repository.security.SecUserRepository;
+import be.cytomine.security.PrincipalCache;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.core.userdetails.UserDetailsService;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Principal lookup done by the authentication filters for each request (JWT subject, API public key).
+ * The repository returns its user immediately: the uncached run only measures the lookup around it, not the user queries
+ * it saves, and the cached run measures the cache and the copy of the user given to each request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PrincipalCacheBenchmark {
+
+    @Param({"true", "false"})
+    private boolean cached;
+
+    private PrincipalCache principalCache;
+
+    private User user;
+
+    @Setup
+    public void setup() {
+        user = BenchmarkFixtures.user(5L);
+        LocalCacheProperties properties = new LocalCacheProperties();
+        properties.setEnabled(cached);
+        UserDetailsService userDetailsService = username -> new org.springframework.security.core.userdetails.User(username, "", List.of());
+        principalCache = new PrincipalCache(properties, repository(user), userDetailsService);
+    }
+
+    @Benchmark
+    public Optional<SecUser> userByUsername() {
+        return principalCache.findUserByUsername(user.getUsername());
+    }
+
+    @Benchmark
+    public SecUser principalByPublicKey() {
+        return principalCache.findPrincipalByPublicKey(user.getPublicKey()).map(PrincipalCache.ApiKeyPrincipal::getUser).orElseThrow();
+    }
+
+    /**
+     * Repository only able to find the given user by username or public key
+     */
+    private static SecUserRepository repository(SecUser user) {
+        return (SecUserRepository) Proxy.newProxyInstance(SecUserRepository.class.getClassLoader(), new Class[]{SecUserRepository.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "findByUsernameLikeIgnoreCase":
+                            return Optional.of(user).filter(candidate -> candidate.getUsername().equalsIgnoreCase((String) args[0]));
+                        case "findByPublicKeyAndEnabled":
+                            return Optional.of(user).filter(candidate -> candidate.getPublicKey().equals(args[0]));
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,49 @@
+package be.cytomine.benchmark;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+import be.cytomine.domain.security.User;
+import be.cytomine.utils.SecurityUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.UnsupportedEncodingException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HMAC signature of an API key request, computed by the API key filter for each signed request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SignatureBenchmark {
+
+    private User user;
+
+    @Setup
+    public void setup() {
+        user = BenchmarkFixtures.user(5L);
+    }
+
+    @Benchmark
+    public String generateKeys() throws NoSuchAlgorithmException, InvalidKeyException, UnsupportedEncodingException {
+        return SecurityUtils.generateKeys("GET", "", "application/json,*/*", "Tue, 18 Oct 2022 10:00:00 +0000",
+                "?max=100&offset=0", "/api/project/1/userannotation.json", user);
+    }
+}
@@ -0,0 +1,62 @@
+package be.cytomine.benchmark;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+import be.cytomine.dto.SimplifiedAnnotation;
+import be.cytomine.service.utils.SimplifyGeometryService;
+import com.vividsolutions.jts.geom.Polygon;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simplification of large polygons, done for each created or edited annotation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SimplifyGeometryBenchmark {
+
+    @Param({"500", "2000", "5000"})
+    int points;
+
+    private SimplifyGeometryService simplifyGeometryService;
+
+    private Polygon polygon;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        simplifyGeometryService = new SimplifyGeometryService();
+        // application.annotation.maxNumberOfPoint default value
+        Field maxNumberOfPoint = SimplifyGeometryService.class.getDeclaredField("maxNumberOfPoint");
+        maxNumberOfPoint.setAccessible(true);
+        maxNumberOfPoint.set(simplifyGeometryService, 200d);
+        polygon = BenchmarkFixtures.polygon(BenchmarkFixtures.random(), points);
+    }
+
+    @Benchmark
+    public SimplifiedAnnotation simplifyPolygon() {
+        return simplifyGeometryService.simplifyPolygon(polygon, null, null);
+    }
+
+    @Benchmark
+    public SimplifiedAnnotation simplifyPolygonWithBounds() {
+        return simplifyGeometryService.simplifyPolygon(polygon, 10L, 150L);
+    }
+}
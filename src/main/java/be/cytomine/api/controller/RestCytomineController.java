@@ -27,17 +27,18 @@ import be.cytomine.dto.JsonSingleObject;
 import be.cytomine.exceptions.CytomineException;
 import be.cytomine.exceptions.CytomineMethodNotYetImplementedException;
 import be.cytomine.exceptions.InvalidRequestException;
+import be.cytomine.exceptions.ServerException;
 import be.cytomine.exceptions.WrongArgumentException;
 import be.cytomine.service.ModelService;
 import be.cytomine.service.command.TransactionService;
 import be.cytomine.utils.CommandResponse;
 import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.JsonUtils;
 import be.cytomine.utils.OffsetBasedPageRequest;
 import be.cytomine.utils.Task;
 import be.cytomine.utils.filters.SearchParameterEntry;
 import be.cytomine.utils.filters.SearchParametersUtils;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
@@ -49,12 +50,14 @@ import org.springframework.http.ResponseEntity;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URLDecoder;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -372,18 +375,18 @@ public abstract class RestCytomineController {
     }
 
     public ResponseEntity<String> add(ModelService service, String json) {
-        JsonInput data;
+        return add(service, readJsonInput(json));
+    }
+
+    /**
+     * Parse a request body holding either a list of objects or a single object
+     */
+    protected JsonInput readJsonInput(String json) {
         try {
-            data = new ObjectMapper().readValue(json, JsonMultipleObject.class);
-            // If fails to parse as a single object, parse as a list
-        } catch (Exception ex) {
-            try {
-                data = new ObjectMapper().readValue(json, JsonSingleObject.class);
-            } catch (JsonProcessingException e) {
-                throw new WrongArgumentException("Json not valid");
-            }
+            return JsonUtils.toJsonInput(json);
+        } catch (JsonProcessingException e) {
+            throw new WrongArgumentException("Json not valid");
         }
-        return add(service, data);
     }
 
 
@@ -562,6 +565,14 @@ public abstract class RestCytomineController {
     }
 
     protected void responseReportFile(String name, byte[] array, String format) throws IOException {
+        responseReportHeaders(name, format);
+        try(OutputStream os = response.getOutputStream()) {
+            os.write(array , 0, array.length);
+            os.flush();
+        }
+    }
+
+    protected void responseReportHeaders(String name, String format) {
         response.setStatus(200);
         switch (format) {
             case "pdf":
@@ -573,11 +584,27 @@ public abstract class RestCytomineController {
             case "xls":
                 response.setHeader("Content-Type", "application/octet-stream");
                 break;
+            case "xlsx":
+                response.setHeader("Content-Type", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+                break;
         }
         response.setHeader("Content-disposition", "attachment; filename=" + name);
-        try(OutputStream os = response.getOutputStream()) {
-            os.write(array , 0, array.length);
-            os.flush();
+    }
+
+    /**
+     * Stream a report to the response.
+     * Once the response is committed, an error cannot be sent to the client anymore: it reaches the servlet container
+     * as a ServerException, and the container closes the connection so that the client does not get a truncated report.
+     */
+    protected void responseReport(String name, String format, Consumer<OutputStream> report) throws IOException {
+        responseReportHeaders(name, format);
+        try {
+            report.accept(response.getOutputStream());
+        } catch (RuntimeException e) {
+            if (response.isCommitted() && !(e instanceof ServerException)) {
+                throw new ServerException("Report " + name + " interrupted: " + e.getMessage(), e);
+            }
+            throw e;
         }
     }
 
@@ -589,12 +616,26 @@ public abstract class RestCytomineController {
     }
 
     protected void responseImage(PimsResponse image) throws IOException {
-        // TODO: insread of loading the image in byte[] then in response, we should try to connect
-        // PIMS answer directly to the response.outpustream
         String contentType = image.getHeaders().get("Content-Type");
         if (request.getMethod().equals("HEAD")) {
+            if (image.isStreaming()) {
+                image.getStream().close();
+            }
             responseString(contentType, "");
         }
+        else if (image.isStreaming()) {
+            // PIMS answer is piped to the response output stream, it is never fully loaded in memory
+            for (Map.Entry<String, String> entry : image.getHeaders().entrySet()) {
+                response.setHeader(entry.getKey(), entry.getValue());
+            }
+            if (image.getContentLength() != null) {
+                response.setContentLengthLong(image.getContentLength());
+            }
+            try(InputStream is = image.getStream(); OutputStream os = response.getOutputStream()) {
+                is.transferTo(os);
+                os.flush();
+            }
+        }
         else {
             for (Map.Entry<String, String> entry : image.getHeaders().entrySet()) {
                 response.setHeader(entry.getKey(), entry.getValue());
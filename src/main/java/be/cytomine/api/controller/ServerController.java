@@ -21,12 +21,12 @@ import be.cytomine.config.properties.ApplicationProperties;
 import be.cytomine.domain.security.SecUser;
 import be.cytomine.domain.social.LastConnection;
 import be.cytomine.domain.social.PersistentConnection;
-import be.cytomine.repositorynosql.social.LastConnectionRepository;
-import be.cytomine.repositorynosql.social.PersistentConnectionRepository;
 import be.cytomine.security.jwt.TokenProvider;
 import be.cytomine.security.jwt.TokenType;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.database.SequenceService;
+import be.cytomine.service.social.PresenceRegistry;
+import be.cytomine.service.social.SocialWriteBuffer;
 import be.cytomine.utils.JsonObject;
 import be.cytomine.utils.SecurityUtils;
 import lombok.RequiredArgsConstructor;
@@ -54,9 +54,9 @@ public class ServerController extends RestCytomineController {
 
     private final SequenceService sequenceService;
 
-    private final PersistentConnectionRepository persistentConnectionRepository;
+    private final SocialWriteBuffer socialWriteBuffer;
 
-    private final LastConnectionRepository lastConnectionRepository;
+    private final PresenceRegistry presenceRegistry;
 
     private final TokenProvider tokenProvider;
 
@@ -100,7 +100,8 @@ public class ServerController extends RestCytomineController {
             connection.setDate(new Date());
             connection.setCreated(connection.getDate());
             connection.setProject(idProject);
-            lastConnectionRepository.insert(connection); //don't use save (stateless collection)
+            socialWriteBuffer.addLastConnection(connection); //don't use save (stateless collection)
+            presenceRegistry.connection(user.getId(), idProject, connection.getCreated());
 
             PersistentConnection connectionPersist = new PersistentConnection();
             connectionPersist.setId(sequenceService.generateID());
@@ -108,7 +109,7 @@ public class ServerController extends RestCytomineController {
             connectionPersist.setProject(idProject);
             connectionPersist.setCreated(new Date());
             connectionPersist.setSession(RequestContextHolder.currentRequestAttributes().getSessionId());
-            persistentConnectionRepository.insert(connectionPersist); //don't use save (stateless collection)
+            socialWriteBuffer.addHistory(connectionPersist); //don't use save (stateless collection)
         } catch (NonTransientDataAccessException e) {
             log.error(e.getMessage());
         }
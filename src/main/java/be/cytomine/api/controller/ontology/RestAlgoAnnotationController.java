@@ -38,8 +38,6 @@ import be.cytomine.service.security.SecUserService;
 import be.cytomine.service.utils.ParamsService;
 import be.cytomine.utils.CommandResponse;
 import be.cytomine.utils.JsonObject;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.vividsolutions.jts.io.ParseException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -123,24 +121,17 @@ public class RestAlgoAnnotationController extends RestCytomineController {
             @RequestParam(required = false) Long maxPoint
     ) {
         log.debug("REST request to save algo annotation");
-        JsonInput data;
-        try {
-            data = new ObjectMapper().readValue(json, JsonMultipleObject.class);
-            for (JsonObject datum : ((JsonMultipleObject) data)) {
+        JsonInput data = readJsonInput(json);
+        if (data instanceof JsonMultipleObject multipleObject) {
+            for (JsonObject datum : multipleObject) {
                 datum.putIfAbsent("minPoint", minPoint);
                 datum.putIfAbsent("maxPoint", maxPoint);
             }
-            // If fails to parse as a single object, parse as a list
-        } catch (Exception ex) {
-            try {
-                data = new ObjectMapper().readValue(json, JsonSingleObject.class);
-                ((JsonSingleObject)data).putIfAbsent("minPoint", minPoint);
-                ((JsonSingleObject)data).putIfAbsent("maxPoint", maxPoint);
-            } catch (JsonProcessingException e) {
-                throw new WrongArgumentException("Json not valid");
-            }
+        } else {
+            ((JsonSingleObject)data).putIfAbsent("minPoint", minPoint);
+            ((JsonSingleObject)data).putIfAbsent("maxPoint", maxPoint);
         }
-        return add(algoAnnotationService, json);
+        return add(algoAnnotationService, data);
     }
 
     public CommandResponse addOne(ModelService service, JsonObject json) {
@@ -186,11 +177,11 @@ public class RestAlgoAnnotationController extends RestCytomineController {
     ) throws IOException {
         Project project = projectService.find(idProject)
                 .orElseThrow(() -> new ObjectNotFoundException("Project", idProject));
-        users = secUserService.fillEmptyUserIds(users, idProject);
-        terms = termService.fillEmptyTermIds(terms, project);
+        String filledUsers = secUserService.fillEmptyUserIds(users, idProject);
+        String filledTerms = termService.fillEmptyTermIds(terms, project);
         JsonObject params = mergeQueryParamsAndBodyParams();
-        byte[] report = annotationListingBuilder.buildAnnotationReport(idProject, users, params, terms, format);
-        responseReportFile(reportService.getAnnotationReportFileName(format, idProject), report, format);
+        responseReport(reportService.getAnnotationReportFileName(format, idProject), ReportService.getStreamedReportFormat(format),
+                output -> annotationListingBuilder.writeAnnotationReport(idProject, filledUsers, params, filledTerms, format, output));
     }
     // TODO
 //    @RestApiMethod(description="Download a report (pdf, xls,...) with software annotation data from a specific project")
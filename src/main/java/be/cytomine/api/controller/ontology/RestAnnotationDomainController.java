@@ -29,6 +29,7 @@ import be.cytomine.exceptions.ObjectNotFoundException;
 import be.cytomine.exceptions.WrongArgumentException;
 import be.cytomine.repository.*;
 import be.cytomine.service.AnnotationListingService;
+import be.cytomine.service.dto.AnnotationPage;
 import be.cytomine.service.dto.CropParameter;
 import be.cytomine.service.image.CompanionFileService;
 import be.cytomine.service.image.ImageInstanceService;
@@ -42,18 +43,29 @@ import be.cytomine.service.utils.ParamsService;
 import be.cytomine.service.utils.SimplifyGeometryService;
 import be.cytomine.utils.GeometryUtils;
 import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.JsonUtils;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.vividsolutions.jts.io.ParseException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
 
 import javax.persistence.EntityManager;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @RestController
@@ -106,6 +118,23 @@ public class RestAnnotationDomainController extends RestCytomineController {
     public ResponseEntity<String> search() throws IOException {
         JsonObject params = mergeQueryParamsAndBodyParams();
         AnnotationListing annotationListing = annotationListingBuilder.buildAnnotationListing(params);
+        Long offset = params.getJSONAttrLong("offset", 0L);
+        Long max = params.getJSONAttrLong("max", 0L);
+        Long cursor = params.getJSONAttrLong("cursor", null);
+        if (!(annotationListing instanceof AlgoAnnotationListing)
+                && (max > 0 || cursor != null)
+                && annotationListingService.isPaginable(annotationListing)) {
+            // only the requested page is read from the database, the total size requires a separate count request
+            AnnotationPage page = annotationListingService.listPage(annotationListing, offset, max, cursor,
+                    params.getJSONAttrBoolean("withCount", cursor == null));
+            return responseSuccess(buildJsonPage(page, offset, max).toJsonString());
+        }
+        if (max == 0 && offset == 0 && cursor == null) {
+            // whole listing: annotations are written while they are read, the response is already sent
+            streamAnnotations(annotationListing, params);
+            return null;
+        }
+
         List annotations = annotationListingService.listGeneric(annotationListing);
         if (annotationListing instanceof AlgoAnnotationListing) {
             //if algo, we look for user_annotation JOIN algo_annotation_term  too
@@ -116,7 +145,97 @@ public class RestAnnotationDomainController extends RestCytomineController {
             annotations.addAll(annotationListingService.listGeneric(annotationListing));
         }
 
-        return responseSuccess(annotations, params.getJSONAttrLong("offset", 0L),params.getJSONAttrLong("max", 0L));
+        return responseSuccess(annotations, offset, max);
+    }
+
+    private void streamAnnotations(AnnotationListing annotationListing, JsonObject params) throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        JsonGenerator generator = JsonUtils.factory().createGenerator(response.getOutputStream());
+        AtomicLong size = new AtomicLong();
+        Consumer<Object> writer = annotation -> {
+            try {
+                generator.writeObject(annotation);
+                size.incrementAndGet();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        try {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("collection");
+            annotationListingService.streamGeneric(annotationListing, writer);
+            if (annotationListing instanceof AlgoAnnotationListing) {
+                //if algo, we look for user_annotation JOIN algo_annotation_term  too
+                params.put("suggestedTerm", params.get("term"));
+                params.remove("term");
+                params.remove("usersForTermAlgo");
+                annotationListingService.streamGeneric(annotationListingBuilder.buildAnnotationListing(new UserAnnotationListing(entityManager), params), writer);
+            }
+            generator.writeEndArray();
+            generator.writeNumberField("offset", 0);
+            generator.writeNumberField("perPage", size.get());
+            generator.writeNumberField("size", size.get());
+            generator.writeNumberField("totalPages", size.get() > 0 ? 1 : 0);
+            generator.writeEndObject();
+            generator.close();
+        } catch (RuntimeException e) {
+            // nothing sent yet: let the exception handler write the error response
+            if (!response.isCommitted()) {
+                response.resetBuffer();
+            }
+            throw e;
+        }
+    }
+
+    private JsonObject buildJsonPage(AnnotationPage page, Long offset, Long max) {
+        JsonObject json = JsonObject.of("collection", page.getAnnotations(), "offset", offset, "nextCursor", page.getNextCursor());
+        if (page.getSize() != null) {
+            long perPage = (max > 0 ? max : Long.MAX_VALUE);
+            json.put("perPage", Math.min(perPage, page.getSize()));
+            json.put("size", page.getSize());
+            json.put("totalPages", (int) Math.ceil((double) page.getSize() / (double) perPage));
+        } else {
+            json.put("perPage", page.getAnnotations().size());
+        }
+        return json;
+    }
+
+    /**
+     * Annotations of an image tile as a Mapbox Vector Tile, with the same filters as the annotation search (user(s), term(s), reviewed,...).
+     * The ETag is the hash of the tile: an unchanged tile is not sent again.
+     */
+    @GetMapping(value = {"/image/{id}/annotation/tile/{z}/{x}/{y}.mvt", "/imageinstance/{id}/annotation/tile/{z}/{x}/{y}.mvt"})
+    public ResponseEntity<byte[]> tile(
+            @PathVariable Long id,
+            @PathVariable Integer z,
+            @PathVariable Integer x,
+            @PathVariable Integer y
+    ) throws IOException {
+        ImageInstance image = imageInstanceService.find(id)
+                .orElseThrow(() -> new ObjectNotFoundException("ImageInstance", id));
+        if (image.getBaseImage().getWidth() == null || image.getBaseImage().getHeight() == null) {
+            throw new WrongArgumentException("Image " + id + " has no dimension, it cannot be tiled");
+        }
+        JsonObject params = mergeQueryParamsAndBodyParams();
+        params.put("image", id);
+        params.remove("bbox");
+        params.remove("kmeans");
+        params.remove("kmeansValue");
+        AnnotationListing annotationListing = annotationListingBuilder.buildAnnotationListing(params);
+        byte[] tile = annotationListingService.listTile(annotationListing,
+                AnnotationListingService.tileEnvelope(image.getBaseImage().getWidth(), image.getBaseImage().getHeight(), z, x, y));
+
+        String etag = "\"" + DigestUtils.md5DigestAsHex(tile) + "\"";
+        if (etag.equals(getRequestETag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(CacheControl.noCache().cachePrivate()).build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/vnd.mapbox-vector-tile"))
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache().cachePrivate())
+                .body(tile);
     }
 
     @RequestMapping(value = {"/project/{project}/annotation/download"}, method = {RequestMethod.GET})
@@ -284,12 +284,12 @@ public class RestReviewedAnnotationController extends RestCytomineController {
     ) throws IOException {
         Project project = projectService.find(idProject)
                 .orElseThrow(() -> new ObjectNotFoundException("Project", idProject));
-        reviewUsers = secUserService.fillEmptyUserIds(reviewUsers, idProject);
-        terms = termService.fillEmptyTermIds(terms, project);
+        String filledUsers = secUserService.fillEmptyUserIds(reviewUsers, idProject);
+        String filledTerms = termService.fillEmptyTermIds(terms, project);
         JsonObject params = mergeQueryParamsAndBodyParams();
         params.put("reviewed", true);
-        byte[] report = annotationListingBuilder.buildAnnotationReport(idProject, reviewUsers, params, terms, format);
-        responseReportFile(reportService.getAnnotationReportFileName(format, idProject), report, format);
+        responseReport(reportService.getAnnotationReportFileName(format, idProject), ReportService.getStreamedReportFormat(format),
+                output -> annotationListingBuilder.writeAnnotationReport(idProject, filledUsers, params, filledTerms, format, output));
     }
 
     @RequestMapping(value = "/reviewedannotation/{id}/crop.{format}", method = {GET, POST})
@@ -34,13 +34,14 @@ import be.cytomine.service.middleware.ImageServerService;
 import be.cytomine.service.ontology.SharedAnnotationService;
 import be.cytomine.service.ontology.TermService;
 import be.cytomine.service.ontology.UserAnnotationService;
+import be.cytomine.service.ontology.UserAnnotationImportService;
 import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.report.ReportService;
 import be.cytomine.service.security.SecUserService;
 import be.cytomine.utils.CommandResponse;
 import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.JsonUtils;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.vividsolutions.jts.io.ParseException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -59,6 +60,8 @@ public class RestUserAnnotationController extends RestCytomineController {
 
     private final UserAnnotationService userAnnotationService;
 
+    private final UserAnnotationImportService userAnnotationImportService;
+
     private final ProjectService projectService;
 
     private final SecUserService secUserService;
@@ -127,11 +130,11 @@ public class RestUserAnnotationController extends RestCytomineController {
     ) throws IOException {
         Project project = projectService.find(idProject)
                 .orElseThrow(() -> new ObjectNotFoundException("Project", idProject));
-        users = secUserService.fillEmptyUserIds(users, idProject);
-        terms = termService.fillEmptyTermIds(terms, project);
+        String filledUsers = secUserService.fillEmptyUserIds(users, idProject);
+        String filledTerms = termService.fillEmptyTermIds(terms, project);
         JsonObject params = mergeQueryParamsAndBodyParams();
-        byte[] report = annotationListingBuilder.buildAnnotationReport(idProject, users, params, terms, format);
-        responseReportFile(reportService.getAnnotationReportFileName(format, idProject), report, format);
+        responseReport(reportService.getAnnotationReportFileName(format, idProject), ReportService.getStreamedReportFormat(format),
+                output -> annotationListingBuilder.writeAnnotationReport(idProject, filledUsers, params, filledTerms, format, output));
     }
 
     /**
@@ -204,26 +207,39 @@ public class RestUserAnnotationController extends RestCytomineController {
             @RequestParam(required = false) Long maxPoint
     ) {
         log.debug("REST request to save user annotation");
-        JsonInput data;
-        try {
-            data = new ObjectMapper().readValue(json, JsonMultipleObject.class);
-            for (JsonObject datum : ((JsonMultipleObject) data)) {
+        JsonInput data = readJsonInput(json);
+        if (data instanceof JsonMultipleObject multipleObject) {
+            for (JsonObject datum : multipleObject) {
                 datum.putIfAbsent("minPoint", minPoint);
                 datum.putIfAbsent("maxPoint", maxPoint);
             }
-            // If fails to parse as a single object, parse as a list
-        } catch (Exception ex) {
-            try {
-                data = new ObjectMapper().readValue(json, JsonSingleObject.class);
-                ((JsonSingleObject)data).putIfAbsent("minPoint", minPoint);
-                ((JsonSingleObject)data).putIfAbsent("maxPoint", maxPoint);
-            } catch (JsonProcessingException e) {
-                throw new WrongArgumentException("Json not valid");
-            }
+        } else {
+            ((JsonSingleObject)data).putIfAbsent("minPoint", minPoint);
+            ((JsonSingleObject)data).putIfAbsent("maxPoint", maxPoint);
         }
         return add(userAnnotationService, data);
     }
 
+    /**
+     * Import a list of annotations in a single transaction (see UserAnnotationImportService).
+     * The response gives the number of imported annotations and the error of each rejected item (by index).
+     */
+    @PostMapping("/userannotation/import.json")
+    public ResponseEntity<String> importAnnotations(
+            @RequestBody String json,
+            @RequestParam(required = false) Long minPoint,
+            @RequestParam(required = false) Long maxPoint
+    ) {
+        log.debug("REST request to import user annotations");
+        JsonMultipleObject data;
+        try {
+            data = JsonUtils.jsonMultipleObjectReader().readValue(json);
+        } catch (JsonProcessingException e) {
+            throw new WrongArgumentException("Json not valid: a list of annotations is expected");
+        }
+        return responseSuccess(userAnnotationImportService.importAnnotations(data, minPoint, maxPoint));
+    }
+
     public CommandResponse addOne(ModelService service, JsonObject json) {
         if (json.isMissing("location")) {
             throw new WrongArgumentException("Annotation must have a valid geometry:" + json.get("location"));
@@ -228,8 +228,8 @@ public class RestProjectController extends RestCytomineController {
             @RequestParam(required = false) Long endDate,
             @RequestParam(required = false, defaultValue = "false") Boolean fullData,
             @RequestParam(required = false, defaultValue = "0") Long max,
-            @RequestParam(required = false, defaultValue = "0") Long offset
-
+            @RequestParam(required = false, defaultValue = "0") Long offset,
+            @RequestParam(required = false) Long cursor
     ) {
         log.debug("REST request to list history with project {}", id);
         List<Project> projects = new ArrayList<>();
@@ -241,7 +241,7 @@ public class RestProjectController extends RestCytomineController {
             projects.addAll(projectService.listForCurrentUser());
         }
 
-        return responseSuccess(JsonObject.toJsonString(projectService.findCommandHistory(projects, user, max, offset, fullData, startDate, endDate)));
+        return responseSuccess(JsonObject.toJsonString(projectService.findCommandHistory(projects, user, max, offset, fullData, startDate, endDate, cursor)));
     }
 
 
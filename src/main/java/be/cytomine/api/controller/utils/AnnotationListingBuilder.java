@@ -37,6 +37,7 @@ import lombok.AllArgsConstructor;
 import org.springframework.stereotype.Component;
 
 import javax.persistence.EntityManager;
+import java.io.OutputStream;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -59,39 +60,38 @@ public class AnnotationListingBuilder {
     private final ProjectService projectService;
 
 
-    public byte[] buildAnnotationReport(Long project, String users, JsonObject params, String terms, String format){
-        List<Map<String, Object>> annotations = buildAnnotationList(params, users);
-        Set<String> termNames = getTermNames(terms);
-        Set<String> userNames = getUserNames(users);
-        return reportService.generateAnnotationsReport(projectService.get(project).getName(), termNames, userNames, annotations, format);
-    }
-
-    public List<Map<String, Object>> buildAnnotationList(JsonObject params, String users){
+    /**
+     * Write the annotation report to the output stream.
+     * Annotations are read with a database cursor and written one by one, the users filter is done by the request.
+     */
+    public void writeAnnotationReport(Long project, String users, JsonObject params, String terms, String format, OutputStream output){
         AnnotationListing annotationListing = buildAnnotationListing(params);
         annotationListing.getColumnsToPrint().add("gis");
         annotationListing.getColumnsToPrint().add("image");
         annotationListing.getColumnsToPrint().add("user");
-        return filterAnnotationByUsers(annotationListingService.listGeneric(annotationListing), users);
+        List<Long> userIds = extractUserIds(users);
+        if (annotationListing.getUsers() != null) {
+            userIds.retainAll(annotationListing.getUsers());
+        }
+        annotationListing.setUsers(userIds);
+
+        Set<String> termNames = getTermNames(terms);
+        Set<String> userNames = getUserNames(users);
+        reportService.writeAnnotationsReport(projectService.get(project).getName(), termNames, userNames, format, output, consumer -> {
+            if (!userIds.isEmpty()) {
+                annotationListingService.streamGeneric(annotationListing, annotation -> consumer.accept((AnnotationResult) annotation));
+            }
+        });
     }
 
-    private List<Map<String, Object>> filterAnnotationByUsers(List<AnnotationResult> annotations, String users){
-        List<Map<String, Object>> filteredAnnotations = new ArrayList<>();
-        List<Long> userIds = Arrays.stream(users.split(","))
+    private List<Long> extractUserIds(String users){
+        return Arrays.stream(users.split(","))
                 .sequential()
                 .filter(id -> !id.isEmpty())
                 .map(id -> Long.parseLong(id))
                 .collect(Collectors.toList());
-
-        for(AnnotationResult annotation : annotations){
-            if(userIds.contains((long)annotation.get("user"))){
-                filteredAnnotations.add(annotation);
-            }
-        }
-
-        return filteredAnnotations;
     }
 
-
     public AnnotationListing buildAnnotationListing(JsonObject params) {
         AnnotationListing al;
         if(isReviewedAnnotationAsked(params)) {
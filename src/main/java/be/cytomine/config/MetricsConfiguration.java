@@ -0,0 +1,110 @@
+package be.cytomine.config;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.service.WebSocketMessageDispatcher;
+import be.cytomine.service.middleware.ImageServerResponseCache;
+import be.cytomine.service.ontology.AnnotationClusterService;
+import be.cytomine.service.ontology.AnnotationCounterService;
+import be.cytomine.service.project.ProjectSummaryService;
+import be.cytomine.service.social.PresenceRegistry;
+import be.cytomine.service.social.SocialWriteBuffer;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Publish the statistics already kept by the caches and buffers, so that they are scraped with the other metrics.
+ */
+@Configuration
+public class MetricsConfiguration {
+
+    @Bean
+    public MeterBinder imageServerResponseCacheMetrics(ImageServerResponseCache cache) {
+        return registry -> {
+            String name = "cytomine.imageserver.cache";
+            FunctionCounter.builder(name, cache, ImageServerResponseCache::getHits).tag("result", "hit").register(registry);
+            FunctionCounter.builder(name, cache, ImageServerResponseCache::getMisses).tag("result", "miss").register(registry);
+            FunctionCounter.builder(name, cache, ImageServerResponseCache::getRevalidations).tag("result", "revalidation").register(registry);
+            FunctionCounter.builder(name, cache, ImageServerResponseCache::getCoalesced).tag("result", "coalesced").register(registry);
+            FunctionCounter.builder("cytomine.imageserver.cache.evictions", cache, ImageServerResponseCache::getEvictions).register(registry);
+            Gauge.builder("cytomine.imageserver.cache.size", cache, ImageServerResponseCache::size).register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder socialWriteBufferMetrics(SocialWriteBuffer buffer) {
+        return registry -> {
+            String name = "cytomine.social.writes";
+            FunctionCounter.builder(name, buffer, SocialWriteBuffer::getBuffered).tag("state", "buffered").register(registry);
+            FunctionCounter.builder(name, buffer, SocialWriteBuffer::getCoalesced).tag("state", "coalesced").register(registry);
+            FunctionCounter.builder(name, buffer, SocialWriteBuffer::getFlushed).tag("state", "flushed").register(registry);
+            FunctionCounter.builder(name, buffer, SocialWriteBuffer::getDirectWrites).tag("state", "direct").register(registry);
+            FunctionCounter.builder(name, buffer, SocialWriteBuffer::getFailures).tag("state", "failed").register(registry);
+            Gauge.builder("cytomine.social.writes.pending", buffer, SocialWriteBuffer::getPending).register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder webSocketDispatcherMetrics(WebSocketMessageDispatcher dispatcher) {
+        return registry -> {
+            String name = "cytomine.websocket.messages";
+            FunctionCounter.builder(name, dispatcher, WebSocketMessageDispatcher::getSent).tag("state", "sent").register(registry);
+            FunctionCounter.builder(name, dispatcher, WebSocketMessageDispatcher::getDropped).tag("state", "dropped").register(registry);
+            FunctionCounter.builder(name, dispatcher, WebSocketMessageDispatcher::getFailed).tag("state", "failed").register(registry);
+            Gauge.builder("cytomine.websocket.sessions", dispatcher, WebSocketMessageDispatcher::getSessions).register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder annotationCounterMetrics(AnnotationCounterService annotationCounterService) {
+        return registry -> {
+            FunctionCounter.builder("cytomine.annotation.counters.folded", annotationCounterService, AnnotationCounterService::getFolded)
+                    .description("Counter delta rows folded into the counters").register(registry);
+            FunctionCounter.builder("cytomine.annotation.counters.fold.failures", annotationCounterService, AnnotationCounterService::getFailures)
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder annotationClusterMetrics(AnnotationClusterService annotationClusterService) {
+        return registry -> {
+            FunctionCounter.builder("cytomine.annotation.clusters.folded", annotationClusterService, AnnotationClusterService::getFolded)
+                    .description("Cluster delta rows folded into the pyramid").register(registry);
+            FunctionCounter.builder("cytomine.annotation.clusters.fold.failures", annotationClusterService, AnnotationClusterService::getFailures)
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder projectSummaryMetrics(ProjectSummaryService projectSummaryService) {
+        return registry -> {
+            FunctionCounter.builder("cytomine.project.summaries.folded", projectSummaryService, ProjectSummaryService::getFolded)
+                    .description("Activity delta rows folded into the project summaries").register(registry);
+            FunctionCounter.builder("cytomine.project.summaries.fold.failures", projectSummaryService, ProjectSummaryService::getFailures)
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder presenceRegistryMetrics(PresenceRegistry presenceRegistry) {
+        return registry -> Gauge.builder("cytomine.presence.users", presenceRegistry, PresenceRegistry::size)
+                .description("Users tracked by the presence registry").register(registry);
+    }
+}
@@ -17,7 +17,6 @@ package be.cytomine.config;
 */
 
 import be.cytomine.config.security.ApiKeyFilter;
-import be.cytomine.repository.security.SecUserRepository;
 import be.cytomine.security.*;
 import be.cytomine.config.security.JWTConfigurer;
 import be.cytomine.security.jwt.TokenProvider;
@@ -46,16 +45,16 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
 
     private final DomainUserDetailsService domainUserDetailsService;
 
-    private final SecUserRepository secUserRepository;
+    private final PrincipalCache principalCache;
 
     @Value("${application.authentication.jwt.token-validity-in-seconds}")
     Long tokenValidityInSeconds;
 
 
-    public SecurityConfiguration(TokenProvider tokenProvider, DomainUserDetailsService domainUserDetailsService, SecUserRepository secUserRepository) {
+    public SecurityConfiguration(TokenProvider tokenProvider, DomainUserDetailsService domainUserDetailsService, PrincipalCache principalCache) {
         this.tokenProvider = tokenProvider;
         this.domainUserDetailsService = domainUserDetailsService;
-        this.secUserRepository = secUserRepository;
+        this.principalCache = principalCache;
     }
 
     @Bean
@@ -117,7 +116,7 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
         http.sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS).and()
             .csrf()
             .disable()
-            .addFilterBefore(new ApiKeyFilter(domainUserDetailsService, secUserRepository), BasicAuthenticationFilter.class)
+            .addFilterBefore(new ApiKeyFilter(principalCache), BasicAuthenticationFilter.class)
             .exceptionHandling().authenticationEntryPoint(
                     (request, response, authException) -> response.sendError(HttpServletResponse.SC_UNAUTHORIZED))
 //        .and()
@@ -137,6 +136,8 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
             .antMatchers("/session/admin/**").authenticated()
             .antMatchers(HttpMethod.GET, "/server/**").permitAll()
             .antMatchers(HttpMethod.POST, "/server/**").permitAll()
+            .antMatchers("/actuator/health").permitAll()
+            .antMatchers("/actuator/**").hasAnyAuthority("ROLE_ADMIN", "ROLE_SUPER_ADMIN")
             .antMatchers("/**").permitAll()
 //        .and()
 //            .httpBasic()
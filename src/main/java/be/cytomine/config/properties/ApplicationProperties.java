@@ -46,6 +46,28 @@ public class ApplicationProperties {
 
     private AuthenticationProperties authentication = new AuthenticationProperties();
 
+    private ImageServerClientProperties imageServerClient = new ImageServerClientProperties();
+
+    private ImageServerCacheProperties imageServerCache = new ImageServerCacheProperties();
+
+    private LocalCacheProperties aclCache = new LocalCacheProperties();
+
+    private LocalCacheProperties principalCache = new LocalCacheProperties();
+
+    private SocialWriteBufferProperties socialWriteBuffer = new SocialWriteBufferProperties();
+
+    private AnnotationCounterProperties annotationCounter = new AnnotationCounterProperties();
+
+    private AnnotationClusterProperties annotationCluster = new AnnotationClusterProperties();
+
+    private ProjectSummaryProperties projectSummary = new ProjectSummaryProperties();
+
+    private PresenceRegistryProperties presenceRegistry = new PresenceRegistryProperties();
+
+    private SocialRollupProperties socialRollup = new SocialRollupProperties();
+
+    private CascadeDeleteProperties cascadeDelete = new CascadeDeleteProperties();
+
     private String instanceHostWebsite;
 
     private String instanceHostSupportMail;
@@ -16,9 +16,7 @@ package be.cytomine.config.security;
 * limitations under the License.
 */
 
-import be.cytomine.repository.security.SecUserRepository;
-import be.cytomine.security.DomainUserDetailsService;
-import be.cytomine.security.jwt.TokenProvider;
+import be.cytomine.security.PrincipalCache;
 import org.springframework.security.config.annotation.SecurityConfigurerAdapter;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.web.DefaultSecurityFilterChain;
@@ -26,19 +24,16 @@ import org.springframework.security.web.authentication.UsernamePasswordAuthentic
 
 public class ApiKeyConfigurer extends SecurityConfigurerAdapter<DefaultSecurityFilterChain, HttpSecurity> {
 
-    private final DomainUserDetailsService domainUserDetailsService;
+    private final PrincipalCache principalCache;
 
-    private final SecUserRepository secUserRepository;
 
-
-    public ApiKeyConfigurer(DomainUserDetailsService domainUserDetailsService, SecUserRepository secUserRepository) {
-        this.domainUserDetailsService = domainUserDetailsService;
-        this.secUserRepository = secUserRepository;
+    public ApiKeyConfigurer(PrincipalCache principalCache) {
+        this.principalCache = principalCache;
     }
 
     @Override
     public void configure(HttpSecurity http) {
-        ApiKeyFilter customFilter = new ApiKeyFilter(domainUserDetailsService, secUserRepository);
+        ApiKeyFilter customFilter = new ApiKeyFilter(principalCache);
         http.addFilterBefore(customFilter, UsernamePasswordAuthenticationFilter.class);
     }
 }
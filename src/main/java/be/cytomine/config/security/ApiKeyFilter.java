@@ -18,15 +18,14 @@ package be.cytomine.config.security;
 
 import be.cytomine.domain.security.SecUser;
 import be.cytomine.exceptions.AuthenticationException;
-import be.cytomine.repository.security.SecUserRepository;
-import be.cytomine.security.DomainUserDetailsService;
+import be.cytomine.security.PrincipalCache;
+import be.cytomine.security.PrincipalCache.ApiKeyPrincipal;
 import be.cytomine.utils.SecurityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import javax.servlet.FilterChain;
@@ -40,14 +39,11 @@ public class ApiKeyFilter extends OncePerRequestFilter {
 
     private final Logger log = LoggerFactory.getLogger(ApiKeyFilter.class);
 
-    private final DomainUserDetailsService domainUserDetailsService;
+    private final PrincipalCache principalCache;
 
-    private final SecUserRepository secUserRepository;
 
-
-    public ApiKeyFilter(DomainUserDetailsService domainUserDetailsService, SecUserRepository secUserRepository) {
-        this.domainUserDetailsService = domainUserDetailsService;
-        this.secUserRepository = secUserRepository;
+    public ApiKeyFilter(PrincipalCache principalCache) {
+        this.principalCache = principalCache;
     }
 
     @Override
@@ -122,25 +118,26 @@ public class ApiKeyFilter extends OncePerRequestFilter {
             String accessKey = authorization.substring(authorization.indexOf(" ") + 1, authorization.indexOf(":"));
             String authorizationSign = authorization.substring(authorization.indexOf(":") + 1);
 
-            Optional<SecUser> user = secUserRepository.findByPublicKeyAndEnabled(accessKey,true);
+            Optional<ApiKeyPrincipal> principal = principalCache.findPrincipalByPublicKey(accessKey);
 
-            if (user.isEmpty()) {
+            if (principal.isEmpty()) {
                 log.debug("User cannot be extracted with accessKey {}", accessKey);
                 //response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Unauthorized");
                 throw new AuthenticationException("User cannot be extracted with accessKey " + accessKey);
             } else {
-                String signature = SecurityUtils.generateKeys(request.getMethod(),content_md5, content_type,date,queryString,path,user.get());
+                SecUser user = principal.get().getUser();
+                String signature = SecurityUtils.generateKeys(request.getMethod(),content_md5, content_type,date,queryString,path,user);
                 if (authorizationSign.equals(signature)) {
-                    this.reauthenticate(user.get(), null);
+                    this.reauthenticate(user, principal.get().getUserDetails(), null);
                     return true;
                 } else {
                     // the java client does not set content-type, so we override the header to application/json BEFORE this authentication.
                     // So the client thinks content-type is "" while spring boot set it to application/json. In order to match the client signature, we generate it
                     // with an empty value.
                     // => it would be better to improve the java client to set a valid content type.
-                    String signatureWithEmptyContentType = SecurityUtils.generateKeys(request.getMethod(),content_md5, "",date,queryString,path,user.get());
+                    String signatureWithEmptyContentType = SecurityUtils.generateKeys(request.getMethod(),content_md5, "",date,queryString,path,user);
                     if (authorizationSign.equals(signatureWithEmptyContentType)) {
-                        this.reauthenticate(user.get(), null);
+                        this.reauthenticate(user, principal.get().getUserDetails(), null);
                         return true;
                     }
 
@@ -182,13 +179,11 @@ public class ApiKeyFilter extends OncePerRequestFilter {
      * <p/>
      * Also removes the user from the user cache to force a refresh at next login.
      *
-     * @param username the user's login name
+     * @param secUser the user
+     * @param userDetails the user's spring security details
      * @param password optional
      */
-    public void reauthenticate(final SecUser secUser, final String password) {
-        UserDetailsService userDetailsService = this.domainUserDetailsService;
-
-        UserDetails userDetails = userDetailsService.loadUserByUsername(secUser.getUsername());
+    public void reauthenticate(final SecUser secUser, final UserDetails userDetails, final String password) {
         UsernamePasswordAuthenticationToken usernamePasswordAuthenticationToken = new UsernamePasswordAuthenticationToken(
                 userDetails, password == null ? userDetails.getPassword() : password, userDetails.getAuthorities());
         usernamePasswordAuthenticationToken.setDetails(secUser);
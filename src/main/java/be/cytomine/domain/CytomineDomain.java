@@ -48,7 +48,9 @@ public abstract class CytomineDomain {
             name = "myGenerator",
             strategy = "be.cytomine.config.CustomIdentifierGenerator",
             parameters = {
-                    @org.hibernate.annotations.Parameter(name = "sequence_name", value = "hibernate_sequence")
+                    @org.hibernate.annotations.Parameter(name = "sequence_name", value = "hibernate_sequence"),
+                    // ids are reserved by blocks, the actual size is the sequence increment (see SequenceService)
+                    @org.hibernate.annotations.Parameter(name = "increment_size", value = "50")
             }
     )
     @GeneratedValue(generator = "myGenerator")
@@ -1,8 +1,11 @@
 package be.cytomine.dto;
 
+import be.cytomine.exceptions.ServerException;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -11,9 +14,15 @@ import java.util.stream.Collectors;
 @Getter
 @Setter
 public class PimsResponse {
-    private byte[] content; //TODO: use stream
+    private byte[] content;
     private Map<String, String> headers;
 
+    /**
+     * Body not yet read from the image server. When set, the response is streamed to the client.
+     */
+    private InputStream stream;
+    private Long contentLength;
+
     public PimsResponse(byte[] content, Map<String, String> headers) {
         this.content = content;
         this.headers = headers;
@@ -23,6 +32,32 @@ public class PimsResponse {
         this(content, new LinkedHashMap<>());
     }
 
+    public PimsResponse(InputStream stream, Long contentLength, Map<String, String> headers) {
+        this.stream = stream;
+        this.contentLength = contentLength;
+        this.headers = headers;
+    }
+
+    public boolean isStreaming() {
+        return content == null && stream != null;
+    }
+
+    /**
+     * Get the whole body in memory. A streamed body is read (and closed) on first access.
+     */
+    public byte[] getContent() {
+        if (isStreaming()) {
+            try (InputStream is = stream) {
+                content = is.readAllBytes();
+            } catch (IOException e) {
+                throw new ServerException("Cannot read image server response", e);
+            } finally {
+                stream = null;
+            }
+        }
+        return content;
+    }
+
     public void setCacheControlMaxAge(int timeToLive) {
         String cacheControl = headers.get("Cache-Control");
         if (!headers.containsKey("Cache-Control")) {
@@ -115,6 +115,17 @@ public abstract class AnnotationListing {
     Boolean kmeans = false;
     Integer kmeansValue = 3;
 
+    /**
+     * Keyset pagination: only annotations with an id lower than the cursor (results are ordered by id desc)
+     */
+    Long cursor = null;
+
+    /**
+     * Keyset pagination: maximum number of rows returned by the request (an annotation may span several rows).
+     * Term/track requests also limit their inner annotation selection to as many annotations.
+     */
+    Integer rowLimit = null;
+
     abstract String getFrom();
 
     public abstract String getDomainClass();
@@ -268,6 +279,7 @@ public abstract class AnnotationListing {
 
                         getBeforeThan() +
                         getAfterThan() +
+                        getCursorConst() +
                         createOrderBy();
 
         if (term!=null || terms!=null || track!=null || tracks!=null) {
@@ -300,7 +312,7 @@ public abstract class AnnotationListing {
                 request += "atr.track_id as track, atr.id as annotationTracks ";
             }
 
-            request += "FROM (" + getSelect(sqlColumns) + getFrom() + whereRequest + ") a \n";
+            request += "FROM (" + getLimitedSelection(getSelect(sqlColumns) + getFrom() + whereRequest) + ") a \n";
 
             if (term!=null || terms!=null) {
                 if (this instanceof AlgoAnnotationListing) {
@@ -339,11 +351,55 @@ public abstract class AnnotationListing {
                 }
             }
             request += ((track!=null || tracks!=null) ? ", atr.track_id " : "");
-            return request;
+            return request + getRowLimit();
+        }
+
+        return getSelect(sqlColumns) + getFrom() + whereRequest + getRowLimit();
+
+    }
+
+    /**
+     * Generate SQL request counting the annotations matching the filters (cursor and row limit are ignored)
+     */
+    public String getAnnotationsCountRequest() {
+        Long currentCursor = cursor;
+        Integer currentRowLimit = rowLimit;
+        cursor = null;
+        rowLimit = null;
+        try {
+            return "SELECT COUNT(DISTINCT c.id) FROM (" + getAnnotationsRequest() + ") c";
+        } finally {
+            cursor = currentCursor;
+            rowLimit = currentRowLimit;
         }
+    }
 
-        return getSelect(sqlColumns) + getFrom() + whereRequest;
+    /**
+     * Keyset pagination relies on the default order (annotation id desc)
+     */
+    public boolean isOrderedById() {
+        return (orderBy == null || orderBy.isEmpty())
+                && track == null && tracks == null
+                && userForTermAlgo == null && usersForTermAlgo == null
+                && suggestedTerm == null && suggestedTerms == null;
+    }
 
+    /**
+     * Annotations are only filtered by project, image, slice, user and bbox (e.g. an annotation layer of a viewer)
+     */
+    public boolean hasOnlyLocationFilters() {
+        return track == null && tracks == null && beforeSlice == null && afterSlice == null
+                && annotationGroup == null && annotationGroups == null
+                && userForTermAlgo == null && usersForTermAlgo == null
+                && term == null && terms == null && suggestedTerm == null && suggestedTerms == null
+                && usersForTerm == null && reviewUsers == null
+                && tag == null && tags == null
+                && afterThan == null && beforeThan == null
+                && !Boolean.TRUE.equals(notReviewedOnly) && !Boolean.TRUE.equals(noTerm) && !Boolean.TRUE.equals(noTag)
+                && !Boolean.TRUE.equals(noAlgoTerm) && !Boolean.TRUE.equals(multipleTerm)
+                && !Boolean.TRUE.equals(noTrack) && !Boolean.TRUE.equals(multipleTrack)
+                && bboxAnnotation == null && baseAnnotation == null && parents == null
+                && !Boolean.TRUE.equals(avoidEmptyCentroid) && excludedAnnotation == null;
     }
 
     /**
@@ -612,6 +668,26 @@ public abstract class AnnotationListing {
         }
     }
 
+    String getCursorConst() {
+        return (cursor!=null ? "AND a.id < " + cursor + "\n" : "");
+    }
+
+    String getRowLimit() {
+        return (rowLimit!=null ? "\nLIMIT " + rowLimit : "");
+    }
+
+    /**
+     * Keyset pagination for term/track requests: the cursor is already in the inner selection,
+     * the limit must be there too, otherwise the inner selection is read entirely before the outer DISTINCT.
+     * It is applied on distinct annotations: the outer request reads all the terms of each one again.
+     */
+    String getLimitedSelection(String selection) {
+        if (rowLimit==null) {
+            return selection;
+        }
+        return "SELECT DISTINCT ON (a.id) * FROM (" + selection + ") a ORDER BY a.id desc" + getRowLimit();
+    }
+
     String getExcludedAnnotationConst() {
         return (excludedAnnotation!=null ? "AND a.id <> " + excludedAnnotation + "\n" : "");
     }
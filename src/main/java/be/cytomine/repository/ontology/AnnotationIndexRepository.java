@@ -30,11 +30,34 @@ import java.util.Optional;
 
 public interface AnnotationIndexRepository extends JpaRepository<AnnotationIndex, Long>, JpaSpecificationExecutor<AnnotationIndex>  {
 
-    @Query( value = "SELECT user_id as user, slice_id as slice ,count_annotation as countAnnotation,count_reviewed_annotation as countReviewedAnnotation " +
-            " FROM annotation_index " +
-            " WHERE slice_id = :slice", nativeQuery = true)
+    /**
+     * Index rows of the slice, with the counter deltas not folded yet
+     */
+    @Query( value = "SELECT ai.user_id as user, ai.slice_id as slice, " +
+            " ai.count_annotation + COALESCE(d.count_annotation, 0) as countAnnotation, " +
+            " ai.count_reviewed_annotation + COALESCE(d.count_reviewed_annotation, 0) as countReviewedAnnotation " +
+            " FROM annotation_index ai " +
+            " LEFT JOIN (SELECT user_id, slice_id, CAST(sum(count_index_annotations) AS BIGINT) as count_annotation, " +
+            "   CAST(sum(count_index_reviewed_annotations) AS BIGINT) as count_reviewed_annotation " +
+            "   FROM annotation_counter_delta WHERE slice_id = :slice GROUP BY user_id, slice_id) d " +
+            " ON d.user_id = ai.user_id AND d.slice_id = ai.slice_id " +
+            " WHERE ai.slice_id = :slice", nativeQuery = true)
     List<AnnotationIndexLightDTO> findAllLightBySliceInstance(long slice);
 
+    /**
+     * Index rows of the slices, with the counter deltas not folded yet
+     */
+    @Query( value = "SELECT ai.user_id as user, ai.slice_id as slice, " +
+            " ai.count_annotation + COALESCE(d.count_annotation, 0) as countAnnotation, " +
+            " ai.count_reviewed_annotation + COALESCE(d.count_reviewed_annotation, 0) as countReviewedAnnotation " +
+            " FROM annotation_index ai " +
+            " LEFT JOIN (SELECT user_id, slice_id, CAST(sum(count_index_annotations) AS BIGINT) as count_annotation, " +
+            "   CAST(sum(count_index_reviewed_annotations) AS BIGINT) as count_reviewed_annotation " +
+            "   FROM annotation_counter_delta WHERE slice_id IN (:slices) GROUP BY user_id, slice_id) d " +
+            " ON d.user_id = ai.user_id AND d.slice_id = ai.slice_id " +
+            " WHERE ai.slice_id IN (:slices)", nativeQuery = true)
+    List<AnnotationIndexLightDTO> findAllLightBySliceInstanceIn(List<Long> slices);
+
 
     Optional<AnnotationIndexLightDTO> findOneBySliceAndUser(SliceInstance slice, SecUser user);
 
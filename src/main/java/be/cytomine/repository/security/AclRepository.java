@@ -52,6 +52,12 @@ public interface AclRepository extends JpaRepository<SecUser, Long> {
     @Query(value = "SELECT id FROM acl_object_identity WHERE object_id_identity = :domainId", nativeQuery = true)
     Long getAclObjectIdentityFromDomainId(Long domainId);
 
+    @Query(value = "SELECT object_id_identity FROM acl_object_identity WHERE id = :aclObjectIdentity", nativeQuery = true)
+    Long getDomainIdFromAclObjectIdentity(Long aclObjectIdentity);
+
+    @Query(value = "SELECT sid FROM acl_sid WHERE id = :sid", nativeQuery = true)
+    String getUsernameFromAclSid(Long sid);
+
     @Query(value = "SELECT id FROM acl_sid WHERE sid = :username", nativeQuery = true)
     Long getAclSidFromUsername(String username);
 
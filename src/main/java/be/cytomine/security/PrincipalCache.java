@@ -0,0 +1,171 @@
+package be.cytomine.security;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.LocalCacheProperties;
+import be.cytomine.domain.security.SecUser;
+import be.cytomine.repository.security.SecUserRepository;
+import be.cytomine.utils.ExpiringLruCache;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Hibernate;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Users resolved by the authentication filters (JWT subject, API public key).
+ * Without it, every authenticated request costs one or two user queries before reaching the controller.
+ * Entries live a few seconds and are evicted as soon as a user, its roles or its keys are modified.
+ * The cached users are shared by all requests, so each request gets its own copy.
+ */
+@Slf4j
+@Component
+public class PrincipalCache {
+
+    private final SecUserRepository secUserRepository;
+
+    private final UserDetailsService userDetailsService;
+
+    private final ExpiringLruCache<String, SecUser> usersByUsername;
+
+    private final ExpiringLruCache<String, ApiKeyPrincipal> principalsByPublicKey;
+
+    @Autowired
+    public PrincipalCache(ApplicationProperties applicationProperties, SecUserRepository secUserRepository, DomainUserDetailsService domainUserDetailsService) {
+        this(applicationProperties.getPrincipalCache(), secUserRepository, domainUserDetailsService);
+    }
+
+    public PrincipalCache(LocalCacheProperties properties, SecUserRepository secUserRepository, UserDetailsService userDetailsService) {
+        this.secUserRepository = secUserRepository;
+        this.userDetailsService = userDetailsService;
+        if (properties.getEnabled()) {
+            long timeToLive = properties.getTimeToLiveInSeconds() * 1000;
+            this.usersByUsername = new ExpiringLruCache<>(properties.getMaxEntries(), timeToLive);
+            this.principalsByPublicKey = new ExpiringLruCache<>(properties.getMaxEntries(), timeToLive);
+        } else {
+            this.usersByUsername = null;
+            this.principalsByPublicKey = null;
+        }
+    }
+
+    public Optional<SecUser> findUserByUsername(String username) {
+        if (usersByUsername == null) {
+            return secUserRepository.findByUsernameLikeIgnoreCase(username);
+        }
+        return Optional.ofNullable(usersByUsername.get(username.toLowerCase(Locale.ENGLISH),
+                key -> secUserRepository.findByUsernameLikeIgnoreCase(key).orElse(null))).map(PrincipalCache::copyOf);
+    }
+
+    /**
+     * Enabled user owning the public key, with its spring security details.
+     */
+    public Optional<ApiKeyPrincipal> findPrincipalByPublicKey(String publicKey) {
+        if (principalsByPublicKey == null) {
+            return loadPrincipalByPublicKey(publicKey);
+        }
+        return Optional.ofNullable(principalsByPublicKey.get(publicKey, key -> loadPrincipalByPublicKey(key).orElse(null)));
+    }
+
+    private Optional<ApiKeyPrincipal> loadPrincipalByPublicKey(String publicKey) {
+        return secUserRepository.findByPublicKeyAndEnabled(publicKey, true)
+                .map(user -> new ApiKeyPrincipal(user, userDetailsService.loadUserByUsername(user.getUsername())));
+    }
+
+    /**
+     * Evict the user now and once the current transaction is completed,
+     * so that a request running meanwhile cannot put the old version back.
+     */
+    public void evictUser(Long userId) {
+        if (usersByUsername == null || userId == null) {
+            return;
+        }
+        log.debug("Evict principal for user {}", userId);
+        doEvictUser(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    doEvictUser(userId);
+                }
+            });
+        }
+    }
+
+    public void clear() {
+        if (usersByUsername != null) {
+            usersByUsername.clear();
+            principalsByPublicKey.clear();
+        }
+    }
+
+    public ExpiringLruCache<String, SecUser> getUsersByUsername() {
+        return usersByUsername;
+    }
+
+    public ExpiringLruCache<String, ApiKeyPrincipal> getPrincipalsByPublicKey() {
+        return principalsByPublicKey;
+    }
+
+    private void doEvictUser(Long userId) {
+        usersByUsername.invalidateValuesIf(user -> Objects.equals(user.getId(), userId));
+        principalsByPublicKey.invalidateValuesIf(principal -> Objects.equals(principal.user.getId(), userId));
+    }
+
+    /**
+     * Detached copy of a cached user, with its own set of roles.
+     */
+    static SecUser copyOf(SecUser user) {
+        SecUser implementation = (SecUser) Hibernate.unproxy(user);
+        SecUser copy = BeanUtils.instantiateClass(implementation.getClass());
+        BeanUtils.copyProperties(implementation, copy);
+        copy.setRoles(new HashSet<>(implementation.getRoles()));
+        return copy;
+    }
+
+    public static class ApiKeyPrincipal {
+
+        private final SecUser user;
+
+        private final UserDetails userDetails;
+
+        public ApiKeyPrincipal(SecUser user, UserDetails userDetails) {
+            this.user = user;
+            this.userDetails = userDetails;
+        }
+
+        /**
+         * A copy for the current request, see {@link PrincipalCache#copyOf(SecUser)}
+         */
+        public SecUser getUser() {
+            return copyOf(user);
+        }
+
+        public UserDetails getUserDetails() {
+            return userDetails;
+        }
+    }
+}
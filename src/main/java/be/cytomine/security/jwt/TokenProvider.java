@@ -18,7 +18,7 @@ package be.cytomine.security.jwt;
 
 import be.cytomine.config.properties.ApplicationProperties;
 import be.cytomine.exceptions.AuthenticationException;
-import be.cytomine.repository.security.SecUserRepository;
+import be.cytomine.security.PrincipalCache;
 import be.cytomine.utils.StringUtils;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
@@ -60,15 +60,15 @@ public class TokenProvider {
 
     private final long tokenValidityInMillisecondsForShortTerm;
 
-    private final SecUserRepository secUserRepository;
+    private final PrincipalCache principalCache;
 
-    public TokenProvider(ApplicationProperties applicationProperties, SecUserRepository secUserRepository) {
+    public TokenProvider(ApplicationProperties applicationProperties, PrincipalCache principalCache) {
         byte[] keyBytes;
         String secret = applicationProperties.getAuthentication().getJwt().getSecret();
         keyBytes = secret.getBytes(StandardCharsets.UTF_8);
         this.key = Keys.hmacShaKeyFor(keyBytes);
         jwtParser = Jwts.parserBuilder().setSigningKey(key).build();
-        this.secUserRepository = secUserRepository;
+        this.principalCache = principalCache;
         this.tokenValidityInMilliseconds =
                 1000 * applicationProperties.getAuthentication().getJwt().getTokenValidityInSeconds();
         this.tokenValidityInMillisecondsForRememberMe =
@@ -130,7 +130,7 @@ public class TokenProvider {
 
         User principal = new User(claims.getSubject(), "", authorities);
         UsernamePasswordAuthenticationToken usernamePasswordAuthenticationToken = new UsernamePasswordAuthenticationToken(principal, token, authorities);
-        usernamePasswordAuthenticationToken.setDetails(secUserRepository.findByUsernameLikeIgnoreCase(claims.getSubject()).orElseThrow(() -> new AuthenticationException("User " + claims.getSubject() + " not found")));
+        usernamePasswordAuthenticationToken.setDetails(principalCache.findUserByUsername(claims.getSubject()).orElseThrow(() -> new AuthenticationException("User " + claims.getSubject() + " not found")));
         return usernamePasswordAuthenticationToken;
     }
 
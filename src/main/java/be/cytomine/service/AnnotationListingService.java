@@ -19,23 +19,36 @@ package be.cytomine.service;
 import be.cytomine.exceptions.WrongArgumentException;
 import be.cytomine.repository.AlgoAnnotationListing;
 import be.cytomine.repository.AnnotationListing;
+import be.cytomine.repository.RoiAnnotationListing;
 import be.cytomine.repository.UserAnnotationListing;
+import be.cytomine.service.dto.AnnotationPage;
 import be.cytomine.service.dto.AnnotationResult;
 import be.cytomine.service.dto.Point;
+import be.cytomine.service.ontology.AnnotationClusterService;
 import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.service.utils.KmeansGeometryService;
 import be.cytomine.utils.GisUtils;
 import be.cytomine.utils.JsonObject;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.hibernate.Session;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import javax.persistence.EntityManager;
-import javax.persistence.Query;
 import javax.persistence.Tuple;
 import javax.persistence.TupleElement;
 import javax.transaction.Transactional;
 import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static org.springframework.security.acls.domain.BasePermission.READ;
 
@@ -52,8 +65,122 @@ public class AnnotationListingService {
     @Autowired
     private KmeansGeometryService kmeansGeometryService;
 
+    @Autowired
+    private AnnotationClusterService annotationClusterService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    static final String LISTING_TIMER = "cytomine.annotation.listing";
+
+    static final String LISTING_ROWS_SUMMARY = "cytomine.annotation.listing.rows";
+
+    /**
+     * Minimum number of rows fetched by a keyset page request
+     */
+    static final int KEYSET_MIN_ROW_LIMIT = 100;
+
+    /**
+     * Number of rows fetched at once by the database cursor when streaming annotations
+     */
+    static final int STREAM_FETCH_SIZE = 1000;
+
+    /**
+     * Vector tiles: size of a tile in screen pixels, resolution of the tile coordinates and clipping buffer (in tile coordinates)
+     */
+    public static final int TILE_SIZE = 256;
+
+    public static final int TILE_EXTENT = 4096;
+
+    public static final int TILE_BUFFER = 64;
+
+    public static final String TILE_LAYER = "annotations";
+
 
     public List listGeneric(AnnotationListing al) {
+        checkAndDefineKmeans(al);
+        return executeRequest(al);
+    }
+
+    /**
+     * Keyset pagination is available for listings in default order, without kmeans
+     */
+    public boolean isPaginable(AnnotationListing al) {
+        return al.isOrderedById() && !(al.getKmeans() != null && al.getKmeans());
+    }
+
+    /**
+     * Retrieve a page of annotations without loading the annotations before or after it.
+     * Annotations are ordered by id desc, the page starts after the cursor (if any) and skips 'offset' annotations.
+     * As an annotation may span several rows (terms, tracks,...), rows are read by chunks until the page is full.
+     */
+    public AnnotationPage listPage(AnnotationListing al, long offset, long max, Long cursor, boolean withCount) {
+        if (!isPaginable(al)) {
+            throw new WrongArgumentException("Keyset pagination is only available for annotations ordered by id, without kmeans");
+        }
+        securityACLService.check(al.container(), READ);
+        al.setKmeansValue(KmeansGeometryService.FULL);
+
+        AnnotationPage page = new AnnotationPage();
+        long toSkip = offset;
+        long pageSize = (max > 0 ? max : Long.MAX_VALUE);
+        int rowLimit = (int) Math.max(KEYSET_MIN_ROW_LIMIT, Math.min(Integer.MAX_VALUE / 2, 2 * (offset + Math.min(pageSize, Integer.MAX_VALUE) + 1)));
+        Long position = cursor;
+        boolean exhausted = false;
+        boolean hasMore = false;
+
+        while (!exhausted && page.getAnnotations().size() < pageSize) {
+            al.setCursor(position);
+            al.setRowLimit(rowLimit);
+            List<Tuple> rows = selectRows(al);
+            List<AnnotationResult> annotations = selectGenericAnnotation(al, rows);
+            exhausted = rows.size() < rowLimit;
+            if (!exhausted) {
+                if (annotations.size() == 1) {
+                    // a single annotation fills the chunk, we cannot know if all its rows are there
+                    rowLimit = rowLimit * 2;
+                    continue;
+                }
+                // the last annotation of a full chunk may be incomplete, it will be read again with the next chunk
+                annotations.remove(annotations.size() - 1);
+            }
+            // not exhausted: at least the annotation removed above comes after this chunk
+            hasMore = !exhausted;
+            for (AnnotationResult annotation : annotations) {
+                if (toSkip > 0) {
+                    toSkip--;
+                } else if (page.getAnnotations().size() < pageSize) {
+                    page.getAnnotations().add(annotation);
+                } else {
+                    hasMore = true;
+                    break;
+                }
+            }
+            if (!annotations.isEmpty()) {
+                position = (Long) annotations.get(annotations.size() - 1).get("id");
+            }
+        }
+        al.setCursor(null);
+        al.setRowLimit(null);
+
+        if (hasMore && !page.getAnnotations().isEmpty()) {
+            page.setNextCursor((Long) page.getAnnotations().get(page.getAnnotations().size() - 1).get("id"));
+        }
+        if (withCount) {
+            page.setSize(countGeneric(al));
+        }
+        return page;
+    }
+
+    /**
+     * Number of annotations matching the listing filters
+     */
+    public long countGeneric(AnnotationListing al) {
+        Object count = entityManager.createNativeQuery(al.getAnnotationsCountRequest()).getSingleResult();
+        return ((Number) count).longValue();
+    }
+
+    private void checkAndDefineKmeans(AnnotationListing al) {
         securityACLService.check(al.container(), READ);
         if ((al.getKmeans() != null && al.getKmeans()) && al.getKmeansValue() == null) {
             if (al.getBbox() == null) {
@@ -70,171 +197,223 @@ public class AnnotationListingService {
             //no kmeans
             al.setKmeansValue(KmeansGeometryService.FULL);
         }
-        return executeRequest(al);
     }
 
     public List executeRequest(AnnotationListing al) {
         if (al.getKmeansValue() == KmeansGeometryService.FULL) {
             return selectGenericAnnotation(al);
         } else if (al.getKmeansValue() == KmeansGeometryService.KMEANSFULL) {
-            return kmeansGeometryService.doKeamsFullRequest(al.getAnnotationsRequest());
+            if (annotationClusterService.canServe(al)) {
+                return time(al, "kmeans_full", "pyramid", () -> annotationClusterService.listClusters(al, KmeansGeometryService.KMEANSFULL));
+            }
+            return time(al, "kmeans_full", "sql", () -> kmeansGeometryService.doKeamsFullRequest(al.getAnnotationsRequest()));
         } else {
-            return kmeansGeometryService.doKeamsSoftRequest(al.getAnnotationsRequest());
+            if (annotationClusterService.canServe(al)) {
+                return time(al, "kmeans_soft", "pyramid", () -> annotationClusterService.listClusters(al, KmeansGeometryService.KMEANSSOFT));
+            }
+            return time(al, "kmeans_soft", "sql", () -> kmeansGeometryService.doKeamsSoftRequest(al.getAnnotationsRequest()));
         }
     }
 
     /**
-     * Execute request and format result into a list of map
+     * Image area covered by a vector tile. At the highest zoom level, a tile pixel is an image pixel.
+     * Tile rows are counted from the top of the image while annotations have their origin at the bottom left.
      */
-    private List<AnnotationResult> selectGenericAnnotation(AnnotationListing al) {
-
-        List<AnnotationResult> data = new ArrayList<>();
-        long lastAnnotationId = -1;
-        long lastTermId = -1;
-        long lastTrackId = -1;
-        long lastGroupId = -1;
-
-        boolean first = true;
+    public static Envelope tileEnvelope(double imageWidth, double imageHeight, int z, int x, int y) {
+        if (z < 0 || x < 0 || y < 0) {
+            throw new WrongArgumentException("Tile coordinates cannot be negative: " + z + "/" + x + "/" + y);
+        }
+        int maxZoom = (int) Math.max(0, Math.ceil(Math.log(Math.max(imageWidth, imageHeight) / TILE_SIZE) / Math.log(2)));
+        double tileWidth = TILE_SIZE * Math.pow(2, maxZoom - z);
+        double maxY = imageHeight - y * tileWidth;
+        return new Envelope(x * tileWidth, (x + 1) * tileWidth, maxY - tileWidth, maxY);
+    }
 
-        List<String> realColumn = new ArrayList<>();
-        String request = al.getAnnotationsRequest();
+    /**
+     * Annotations of the listing intersecting the tile, encoded as a Mapbox Vector Tile (one 'annotations' layer).
+     * Features hold the annotation id, its user and its terms (comma separated).
+     */
+    public byte[] listTile(AnnotationListing al, Envelope tile) {
+        securityACLService.check(al.container(), READ);
+        Envelope buffered = new Envelope(tile);
+        buffered.expandBy(tile.getWidth() * TILE_BUFFER / TILE_EXTENT);
+        al.setBbox(new GeometryFactory().toGeometry(buffered).toText());
+        al.setKmeansValue(KmeansGeometryService.FULL);
+        if (al instanceof RoiAnnotationListing) {
+            // no term on a region of interest
+            al.setColumnsToPrint(new ArrayList<>(List.of("basic")));
+            al.addExtraColumn("term", "CAST(NULL AS BIGINT)");
+        } else {
+            al.setColumnsToPrint(new ArrayList<>(List.of("basic", "term")));
+        }
+        al.addExtraColumn("user", "a.user_id");
+        al.addExtraColumn("tileLocation", "a.location");
+
+        String bounds = "ST_MakeEnvelope(" + tile.getMinX() + ", " + tile.getMinY() + ", " + tile.getMaxX() + ", " + tile.getMaxY() + ")";
+        String request = "SELECT ST_AsMVT(t, '" + TILE_LAYER + "', " + TILE_EXTENT + ", 'geom') FROM (\n" +
+                "SELECT l.id, max(l.user) AS \"user\", string_agg(DISTINCT CAST(l.term AS VARCHAR), ',') AS terms, " +
+                "ST_AsMVTGeom((array_agg(l.tilelocation))[1], " + bounds + ", " + TILE_EXTENT + ", " + TILE_BUFFER + ", true) AS geom\n" +
+                "FROM (" + al.getAnnotationsRequest() + ") l GROUP BY l.id\n" +
+                ") t WHERE t.geom IS NOT NULL";
+        Object tileBytes = time(al, "tile", "sql", () -> entityManager.createNativeQuery(request).getSingleResult());
+        return tileBytes != null ? (byte[]) tileBytes : new byte[0];
+    }
 
-        boolean termAsked = false;
-        boolean trackAsked = false;
-        boolean groupAsked = false;
-        List<Long> annotationLinksIds = new ArrayList<>();
+    /**
+     * Execute request and format result into a list of map
+     */
+    private List<AnnotationResult> selectGenericAnnotation(AnnotationListing al) {
+        return selectGenericAnnotation(al, selectRows(al));
+    }
 
-        List<String> excludedColumns = List.of(
-                "annotationTerms", "annotationTracks", "userTerm", "x", "y",
-                "annotationLinks", "linkedAnnotations", "linkedImages", "linkedUpdated"
-        );
+    private List<Tuple> selectRows(AnnotationListing al) {
+        List<Tuple> rows = time(al, "full", "sql", () -> entityManager.createNativeQuery(al.getAnnotationsRequest(), Tuple.class).getResultList());
+        DistributionSummary.builder(LISTING_ROWS_SUMMARY)
+                .description("Rows read by an annotation listing request")
+                .tag("listing", al.getClass().getSimpleName())
+                .register(meterRegistry)
+                .record(rows.size());
+        return rows;
+    }
 
+    /**
+     * Time the database request ('sql') apart from the conversion of its rows ('mapping').
+     * Kmeans requests read from the cluster pyramid are timed as 'pyramid'.
+     */
+    private <T> T time(AnnotationListing al, String mode, String phase, Supplier<T> step) {
+        return Timer.builder(LISTING_TIMER)
+                .description("Annotation listing requests, by phase")
+                .tag("listing", al.getClass().getSimpleName())
+                .tag("mode", mode)
+                .tag("phase", phase)
+                .register(meterRegistry)
+                .record(step);
+    }
 
-        Query nativeQuery = entityManager.createNativeQuery(request, Tuple.class);
-        List<Tuple> resultList = nativeQuery.getResultList();
+    private List<AnnotationResult> selectGenericAnnotation(AnnotationListing al, List<Tuple> resultList) {
+        return time(al, "full", "mapping", () -> mapRows(al, resultList));
+    }
 
+    private List<AnnotationResult> mapRows(AnnotationListing al, List<Tuple> resultList) {
+        List<AnnotationResult> data = new ArrayList<>();
+        AnnotationRowMerger merger = new AnnotationRowMerger(al);
         for (Tuple rowResult : resultList) {
             Map<String, Object> tuple = new LinkedHashMap<>();
             for (TupleElement<?> element : rowResult.getElements()) {
-                Object value = rowResult.get(element.getAlias());
-                if (value instanceof BigInteger) {
-                    value = ((BigInteger) value).longValue();
-                }
-                tuple.put(element.getAlias(), value);
+                tuple.put(element.getAlias(), normalizeValue(rowResult.get(element.getAlias())));
+            }
+            AnnotationResult completed = merger.add(tuple);
+            if (completed != null) {
+                data.add(completed);
             }
+        }
+        AnnotationResult last = merger.finish();
+        if (last != null) {
+            data.add(last);
+        }
+        return data;
+    }
 
-            /**
-             * If an annotation has n multiple term, it will be on "n" lines.
-             * For the first line for this annotation (it.id!=lastAnnotationId), add the annotation data,
-             * For the other lines, we add term data to the last annotation
-             */
-            if ((Long) tuple.get("id") != lastAnnotationId) {
-                termAsked = false;
-                trackAsked = false;
-                groupAsked = false;
-                annotationLinksIds = new ArrayList<>();
-
-                if (first) {
-                    for (String columnName : al.getAllPropertiesName()) {
-                        if (columnExists(tuple, columnName) && !excludedColumns.contains(columnName)) {
-                            realColumn.add(columnName);
+    /**
+     * Same result as listGeneric, but each annotation is given to the consumer as soon as its rows are read.
+     * Rows are read with a forward-only cursor, so the result is never fully loaded in memory.
+     */
+    public void streamGeneric(AnnotationListing al, Consumer<Object> consumer) {
+        checkAndDefineKmeans(al);
+        if (al.getKmeansValue() != KmeansGeometryService.FULL) {
+            // kmeans results are aggregated, they are small
+            List<?> results = executeRequest(al);
+            results.forEach(consumer);
+            return;
+        }
+        String request = al.getAnnotationsRequest();
+        AnnotationRowMerger merger = new AnnotationRowMerger(al);
+        entityManager.flush();
+        // rows are mapped while they are read: both phases are timed together
+        time(al, "full", "stream", () -> {
+            doStreamGeneric(request, merger, consumer);
+            return null;
+        });
+        AnnotationResult last = merger.finish();
+        if (last != null) {
+            consumer.accept(last);
+        }
+    }
+
+    private void doStreamGeneric(String request, AnnotationRowMerger merger, Consumer<Object> consumer) {
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(request, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(STREAM_FETCH_SIZE);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    ResultSetMetaData metaData = resultSet.getMetaData();
+                    while (resultSet.next()) {
+                        Map<String, Object> tuple = new LinkedHashMap<>();
+                        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                            tuple.put(metaData.getColumnLabel(i), normalizeValue(resultSet.getObject(i)));
+                        }
+                        AnnotationResult completed = merger.add(tuple);
+                        if (completed != null) {
+                            consumer.accept(completed);
                         }
                     }
-                    first = false;
                 }
+            }
+        });
+    }
 
-                AnnotationResult item = new AnnotationResult();
-                item.put("class", al.getDomainClass());
+    private static Object normalizeValue(Object value) {
+        if (value instanceof BigInteger) {
+            return ((BigInteger) value).longValue();
+        }
+        return value;
+    }
 
-                for (String columnName : realColumn) {
-                    item.put(columnName, tuple.get(columnName) != null ? tuple.get(columnName) : tuple.get(columnName.toLowerCase()));
-                }
+    /**
+     * Build annotation results from request rows (ordered by annotation id).
+     * If an annotation has n multiple term, it will be on "n" lines.
+     * For the first line for this annotation (it.id!=lastAnnotationId), add the annotation data,
+     * For the other lines, we add term data to the last annotation.
+     * An annotation is only complete when the first row of the next one is read.
+     */
+    private class AnnotationRowMerger {
 
+        private final AnnotationListing al;
 
-                if (al.getColumnsToPrint().contains("term")) {
-                    termAsked = true;
-                    item.put("term", tuple.get("term") != null ? buildList(tuple.get("term")) : new ArrayList<>());
-                    item.put("userByTerm",
-                            tuple.get("term") != null ?
-                                    buildList(new HashMap<>(JsonObject.of("id", tuple.get("annotationterms"), "term", tuple.get("term"), "user", buildList(tuple.get("userterm"))))) : new ArrayList<>());
-                }
+        private final List<String> realColumn = new ArrayList<>();
 
-                if (al.getColumnsToPrint().contains("track") && (al instanceof UserAnnotationListing || al instanceof AlgoAnnotationListing)) {
-                    trackAsked = true;
-                    item.put("track", (tuple.get("track") != null ? buildList(tuple.get("track")) : new ArrayList<>()));
-                    item.put("annotationTrack", (tuple.get("track") != null ? buildList(new HashMap<>(Map.of("id", tuple.get("annotationtracks"), "track", tuple.get("track")))) : new ArrayList<>()));
-                }
+        private final List<String> excludedColumns = List.of(
+                "annotationTerms", "annotationTracks", "userTerm", "x", "y",
+                "annotationLinks", "linkedAnnotations", "linkedImages", "linkedUpdated"
+        );
 
-                if (al.getColumnsToPrint().contains("group")) {
-                    groupAsked = true;
-                    item.put("group", tuple.get("group"));
-                    item.put("annotationLink", (tuple.get("group") != null ? buildList(new HashMap<>(Map.of(
-                            "id", tuple.get("annotationlinks"),
-                            "annotation", tuple.get("linkedannotations"),
-                            "image", tuple.get("linkedimages"),
-                            "updated", tuple.get("linkedupdated")
-                    ))) : new ArrayList<>()));
-                    annotationLinksIds.add((Long) tuple.get("annotationLinks"));
-                }
+        private AnnotationResult current = null;
 
-                if (al.getColumnsToPrint().contains("gis")) {
-                    item.put("perimeterUnit", tuple.get("perimeterunit") != null ? GisUtils.retrieveUnit((Integer) tuple.get("perimeterunit")) : null);
-                    item.put("areaUnit", tuple.get("areaunit") != null ? GisUtils.retrieveUnit((Integer) tuple.get("areaunit")) : null);
-                    item.put("centroid", new Point((Double) tuple.get("x"), (Double) tuple.get("y")));
-                }
+        private long lastAnnotationId = -1;
+        private long lastTermId = -1;
+        private long lastTrackId = -1;
+        private long lastGroupId = -1;
 
-                if (al.getColumnsToPrint().contains("meta")) {
-                    if (al.getClass().getName().contains("UserAnnotation")) {
-                        item.put("cropURL", UrlApi.getUserAnnotationCropWithAnnotationId((Long) tuple.get("id"), "png"));
-                        item.put("smallCropURL", UrlApi.getUserAnnotationCropWithAnnotationIdWithMaxSize((Long) tuple.get("id"), 256, "png"));
-                        item.put("url", UrlApi.getUserAnnotationCropWithAnnotationId((Long) tuple.get("id"), "png"));
-                        item.put("imageURL", UrlApi.getAnnotationURL((Long) tuple.get("project"), (Long) tuple.get("image"), (Long) tuple.get("id")));
-                    } else if (al.getClass().getName().contains("AlgoAnnotation")) {
-                        item.put("cropURL", UrlApi.getAlgoAnnotationCropWithAnnotationId((Long) tuple.get("id"), "png"));
-                        item.put("smallCropURL", UrlApi.getAlgoAnnotationCropWithAnnotationIdWithMaxSize((Long) tuple.get("id"), 256, "png"));
-                        item.put("url", UrlApi.getAlgoAnnotationCropWithAnnotationId((Long) tuple.get("id"), "png"));
-                        item.put("imageURL", UrlApi.getAnnotationURL((Long) tuple.get("project"), (Long) tuple.get("image"), (Long) tuple.get("id")));
-                    } else if (al.getClass().getName().contains("ReviewedAnnotation")) {
-                        item.put("cropURL", UrlApi.getReviewedAnnotationCropWithAnnotationId((Long) tuple.get("id"), "png"));
-                        item.put("smallCropURL", UrlApi.getReviewedAnnotationCropWithAnnotationIdWithMaxSize((Long) tuple.get("id"), 256, "png"));
-                        item.put("url", UrlApi.getReviewedAnnotationCropWithAnnotationId((Long) tuple.get("id"), "png"));
-                        item.put("imageURL", UrlApi.getAnnotationURL((Long) tuple.get("project"), (Long) tuple.get("image"), (Long) tuple.get("id")));
-                    }
-                }
-                data.add(item);
-            } else {
-                AnnotationResult lastResult = data.get(data.size() - 1);
-                if (termAsked && tuple.get("term") != null) {
-                    List lasResultUserByTerm = (List) lastResult.get("userByTerm");
-                    Map userByTerm = (Map) (lasResultUserByTerm).get(lasResultUserByTerm.size() - 1);
-                    List term = ((List) lastResult.get("term"));
-                    if ((Long) tuple.get("term") == lastTermId) {
-                        if (!((List) (userByTerm.get("user"))).contains(tuple.get("userterm"))) {
-                            ((List) (userByTerm.get("user"))).add(tuple.get("userterm"));
-                        }
-                    } else if (!term.contains(tuple.get("term"))) {
-                        ((List) (lastResult.get("term"))).add(tuple.get("term"));
-                        ((List) lastResult.get("userByTerm")).add(new HashMap<>(Map.of("id", tuple.get("annotationterms"), "term", tuple.get("term"), "user", buildList(tuple.get("userterm")))));
-                    }
-                }
+        private boolean first = true;
 
-                if (trackAsked && tuple.get("track") != null && (long) tuple.get("track") != lastTrackId && !((List) lastResult.get("track")).contains(tuple.get("track"))) {
-                    ((List) lastResult.get("track")).add(tuple.get("track"));
-                    ((List) lastResult.get("annotationTrack")).add(new HashMap<>(Map.of("id", tuple.get("annotationtracks"), "track", tuple.get("track"))));
-                }
+        private boolean termAsked = false;
+        private boolean trackAsked = false;
+        private boolean groupAsked = false;
+        private List<Long> annotationLinksIds = new ArrayList<>();
 
-                if (groupAsked && tuple.get("group") != null
-                        && (long) tuple.get("group") == lastGroupId
-                        && !annotationLinksIds.contains(tuple.get("annotationlinks"))
-                ) {
-                    annotationLinksIds.add((Long) tuple.get("annotationlinks"));
-                    ((List) lastResult.get("annotationLink")).add(new HashMap<>(Map.of(
-                            "id", tuple.get("annotationlinks"),
-                            "annotation", tuple.get("linkedannotations"),
-                            "image", tuple.get("linkedimages"),
-                            "updated", tuple.get("linkedupdated")
-                    )));
-                }
+        AnnotationRowMerger(AnnotationListing al) {
+            this.al = al;
+        }
+
+        /**
+         * Add a row, return the previous annotation if this row starts a new one
+         */
+        AnnotationResult add(Map<String, Object> tuple) {
+            AnnotationResult completed = null;
+            if ((Long) tuple.get("id") != lastAnnotationId) {
+                completed = current;
+                current = newAnnotation(tuple);
+            } else {
+                mergeRow(current, tuple);
             }
 
             if (termAsked) {
@@ -250,9 +429,127 @@ public class AnnotationListingService {
             }
 
             lastAnnotationId = (long) tuple.get("id");
+            return completed;
         }
 
-        return data;
+        /**
+         * Return the last annotation (complete once all rows are read)
+         */
+        AnnotationResult finish() {
+            AnnotationResult last = current;
+            current = null;
+            return last;
+        }
+
+        private AnnotationResult newAnnotation(Map<String, Object> tuple) {
+            termAsked = false;
+            trackAsked = false;
+            groupAsked = false;
+            annotationLinksIds = new ArrayList<>();
+
+            if (first) {
+                for (String columnName : al.getAllPropertiesName()) {
+                    if (columnExists(tuple, columnName) && !excludedColumns.contains(columnName)) {
+                        realColumn.add(columnName);
+                    }
+                }
+                first = false;
+            }
+
+            AnnotationResult item = new AnnotationResult();
+            item.put("class", al.getDomainClass());
+
+            for (String columnName : realColumn) {
+                item.put(columnName, tuple.get(columnName) != null ? tuple.get(columnName) : tuple.get(columnName.toLowerCase()));
+            }
+
+
+            if (al.getColumnsToPrint().contains("term")) {
+                termAsked = true;
+                item.put("term", tuple.get("term") != null ? buildList(tuple.get("term")) : new ArrayList<>());
+                item.put("userByTerm",
+                        tuple.get("term") != null ?
+                                buildList(new HashMap<>(JsonObject.of("id", tuple.get("annotationterms"), "term", tuple.get("term"), "user", buildList(tuple.get("userterm"))))) : new ArrayList<>());
+            }
+
+            if (al.getColumnsToPrint().contains("track") && (al instanceof UserAnnotationListing || al instanceof AlgoAnnotationListing)) {
+                trackAsked = true;
+                item.put("track", (tuple.get("track") != null ? buildList(tuple.get("track")) : new ArrayList<>()));
+                item.put("annotationTrack", (tuple.get("track") != null ? buildList(new HashMap<>(Map.of("id", tuple.get("annotationtracks"), "track", tuple.get("track")))) : new ArrayList<>()));
+            }
+
+            if (al.getColumnsToPrint().contains("group")) {
+                groupAsked = true;
+                item.put("group", tuple.get("group"));
+                item.put("annotationLink", (tuple.get("group") != null ? buildList(new HashMap<>(Map.of(
+                        "id", tuple.get("annotationlinks"),
+                        "annotation", tuple.get("linkedannotations"),
+                        "image", tuple.get("linkedimages"),
+                        "updated", tuple.get("linkedupdated")
+                ))) : new ArrayList<>()));
+                annotationLinksIds.add((Long) tuple.get("annotationLinks"));
+            }
+
+            if (al.getColumnsToPrint().contains("gis")) {
+                item.put("perimeterUnit", tuple.get("perimeterunit") != null ? GisUtils.retrieveUnit((Integer) tuple.get("perimeterunit")) : null);
+                item.put("areaUnit", tuple.get("areaunit") != null ? GisUtils.retrieveUnit((Integer) tuple.get("areaunit")) : null);
+                item.put("centroid", new Point((Double) tuple.get("x"), (Double) tuple.get("y")));
+            }
+
+            if (al.getColumnsToPrint().contains("meta")) {
+                if (al.getClass().getName().contains("UserAnnotation")) {
+                    item.put("cropURL", UrlApi.getUserAnnotationCropWithAnnotationId((Long) tuple.get("id"), "png"));
+                    item.put("smallCropURL", UrlApi.getUserAnnotationCropWithAnnotationIdWithMaxSize((Long) tuple.get("id"), 256, "png"));
+                    item.put("url", UrlApi.getUserAnnotationCropWithAnnotationId((Long) tuple.get("id"), "png"));
+                    item.put("imageURL", UrlApi.getAnnotationURL((Long) tuple.get("project"), (Long) tuple.get("image"), (Long) tuple.get("id")));
+                } else if (al.getClass().getName().contains("AlgoAnnotation")) {
+                    item.put("cropURL", UrlApi.getAlgoAnnotationCropWithAnnotationId((Long) tuple.get("id"), "png"));
+                    item.put("smallCropURL", UrlApi.getAlgoAnnotationCropWithAnnotationIdWithMaxSize((Long) tuple.get("id"), 256, "png"));
+                    item.put("url", UrlApi.getAlgoAnnotationCropWithAnnotationId((Long) tuple.get("id"), "png"));
+                    item.put("imageURL", UrlApi.getAnnotationURL((Long) tuple.get("project"), (Long) tuple.get("image"), (Long) tuple.get("id")));
+                } else if (al.getClass().getName().contains("ReviewedAnnotation")) {
+                    item.put("cropURL", UrlApi.getReviewedAnnotationCropWithAnnotationId((Long) tuple.get("id"), "png"));
+                    item.put("smallCropURL", UrlApi.getReviewedAnnotationCropWithAnnotationIdWithMaxSize((Long) tuple.get("id"), 256, "png"));
+                    item.put("url", UrlApi.getReviewedAnnotationCropWithAnnotationId((Long) tuple.get("id"), "png"));
+                    item.put("imageURL", UrlApi.getAnnotationURL((Long) tuple.get("project"), (Long) tuple.get("image"), (Long) tuple.get("id")));
+                }
+            }
+            return item;
+        }
+
+        private void mergeRow(AnnotationResult lastResult, Map<String, Object> tuple) {
+            if (termAsked && tuple.get("term") != null) {
+                List lasResultUserByTerm = (List) lastResult.get("userByTerm");
+                Map userByTerm = (Map) (lasResultUserByTerm).get(lasResultUserByTerm.size() - 1);
+                List term = ((List) lastResult.get("term"));
+                if ((Long) tuple.get("term") == lastTermId) {
+                    if (!((List) (userByTerm.get("user"))).contains(tuple.get("userterm"))) {
+                        ((List) (userByTerm.get("user"))).add(tuple.get("userterm"));
+                    }
+                } else if (!term.contains(tuple.get("term"))) {
+                    ((List) (lastResult.get("term"))).add(tuple.get("term"));
+                    ((List) lastResult.get("userByTerm")).add(new HashMap<>(Map.of("id", tuple.get("annotationterms"), "term", tuple.get("term"), "user", buildList(tuple.get("userterm")))));
+                }
+            }
+
+            if (trackAsked && tuple.get("track") != null && (long) tuple.get("track") != lastTrackId && !((List) lastResult.get("track")).contains(tuple.get("track"))) {
+                ((List) lastResult.get("track")).add(tuple.get("track"));
+                ((List) lastResult.get("annotationTrack")).add(new HashMap<>(Map.of("id", tuple.get("annotationtracks"), "track", tuple.get("track"))));
+            }
+
+            if (groupAsked && tuple.get("group") != null
+                    && (long) tuple.get("group") == lastGroupId
+                    && !annotationLinksIds.contains(tuple.get("annotationlinks"))
+            ) {
+                annotationLinksIds.add((Long) tuple.get("annotationlinks"));
+                ((List) lastResult.get("annotationLink")).add(new HashMap<>(Map.of(
+                        "id", tuple.get("annotationlinks"),
+                        "annotation", tuple.get("linkedannotations"),
+                        "image", tuple.get("linkedimages"),
+                        "updated", tuple.get("linkedupdated")
+                )));
+            }
+        }
     }
 
     private boolean columnExists(Map<String, Object> tuple, String columnName) {
@@ -26,6 +26,8 @@ import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.utils.CommandResponse;
 import be.cytomine.utils.JsonObject;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -38,6 +40,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Service
@@ -64,6 +67,11 @@ public class CommandService {
     @Autowired
     SecurityACLService securityACLService;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    static final String COMMAND_TIMER = "cytomine.commands";
+
     static final int SUCCESS_ADD_CODE = 200;
     static final int SUCCESS_EDIT_CODE = 200;
     static final int SUCCESS_DELETE_CODE = 200;
@@ -112,6 +120,24 @@ public class CommandService {
      * if success, put http response code as successCode
      */
     CommandResponse processCommand(Command c, ModelService service, int successCode) throws CytomineException {
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            CommandResponse result = doProcessCommand(c, service, successCode);
+            outcome = (result.getStatus() == successCode ? "success" : "failure");
+            return result;
+        } finally {
+            Timer.builder(COMMAND_TIMER)
+                    .description("Commands executed, with their history")
+                    .tag("type", c.getClass().getSimpleName())
+                    .tag("service", String.valueOf(c.getServiceName()))
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private CommandResponse doProcessCommand(Command c, ModelService service, int successCode) throws CytomineException {
         //execute command
         log.debug("processCommand");
         CommandResponse result = c.execute(service);
@@ -192,6 +218,7 @@ public class CommandService {
         if (transaction==null) {
             log.debug("Transaction not in progress");
             //Not Transaction, no other command must be deleted
+            checkUndoIsAllowed(undoItem.getCommand());
             result = performUndo(undoItem.getCommand());
             //An undo command must be move to redo stack
             moveToRedoStack(undoItem);
@@ -200,12 +227,12 @@ public class CommandService {
             log.debug("Transaction in progress");
             //Its a transaction, many other command will be deleted
             List<UndoStackItem> undoStacks = commandRepository.findAllUndoOrderByCreatedDesc(user, transaction);
+            // nothing is undone if one of the commands refuses it
+            for (UndoStackItem undoStack : undoStacks) {
+                checkUndoIsAllowed(undoStack.getCommand());
+            }
             for (UndoStackItem undoStack : undoStacks) {
                 //browse all command and undo it while its the same transaction
-                if(undoStack.getCommand().isRefuseUndo()) {
-                    //responseError(new ObjectNotFoundException("You cannot delete your last operation!")) //undo delete project is not possible
-                    throw new ObjectNotFoundException("You cannot delete your last operation!"); //undo delete project is not possible
-                }
                 result = performUndo(undoStack.getCommand());
                 log.info("Undo stack transaction: " + result);
                 results.add(result);
@@ -216,6 +243,13 @@ public class CommandService {
         return results;
     }
 
+    private void checkUndoIsAllowed(Command command) {
+        if(command.isRefuseUndo()) {
+            //responseError(new ObjectNotFoundException("You cannot delete your last operation!")) //undo delete project is not possible
+            throw new ObjectNotFoundException("You cannot delete your last operation!"); //undo delete project is not possible
+        }
+    }
+
     public List<CommandResponse> redo() {
         return redo(null);
     }
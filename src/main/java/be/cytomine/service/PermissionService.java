@@ -16,11 +16,14 @@ package be.cytomine.service;
 * limitations under the License.
 */
 
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.LocalCacheProperties;
 import be.cytomine.domain.CytomineDomain;
 import be.cytomine.domain.security.SecUser;
 import be.cytomine.domain.security.User;
 import be.cytomine.exceptions.ObjectNotFoundException;
 import be.cytomine.repository.security.AclRepository;
+import be.cytomine.utils.ExpiringLruCache;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -28,8 +31,12 @@ import org.springframework.security.acls.domain.BasePermission;
 import org.springframework.security.acls.model.Permission;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.persistence.EntityManager;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 
@@ -44,6 +51,30 @@ public class PermissionService {
     @Autowired
     private AclRepository aclRepository;
 
+    @Autowired
+    private ApplicationProperties applicationProperties;
+
+    /**
+     * Key used to bind, to the current transaction, the ACL entries it has modified.
+     */
+    private static final Object MODIFIED_ACL_KEYS = new Object();
+
+    /**
+     * Masks by (domain id, username). Every ACL write goes through this service and evicts the entry.
+     */
+    private ExpiringLruCache<String, List<Integer>> maskCache;
+
+    @PostConstruct
+    public void initMaskCache() {
+        LocalCacheProperties properties = applicationProperties.getAclCache();
+        maskCache = properties.getEnabled() ?
+                new ExpiringLruCache<>(properties.getMaxEntries(), properties.getTimeToLiveInSeconds() * 1000) : null;
+    }
+
+    public ExpiringLruCache<String, List<Integer>> getMaskCache() {
+        return maskCache;
+    }
+
     public boolean hasACLPermission(CytomineDomain domain, String username, Permission permission) {
         List<Integer> masks = getPermissionInACL(domain,username);
         return masks.stream().max(Integer::compare).orElse(-1) >= permission.getMask();
@@ -63,11 +94,62 @@ public class PermissionService {
     }
 
     List<Integer> getPermissionInACL(CytomineDomain domain, User user) {
-        return aclRepository.listMaskForUsers(domain.getId(), user.humanUsername());
+        return getPermissionInACL(domain, user.humanUsername());
     }
 
     List<Integer> getPermissionInACL(CytomineDomain domain, String username) {
-        return aclRepository.listMaskForUsers(domain.getId(), username);
+        String key = maskCacheKey(domain.getId(), username);
+        ModifiedAclKeys modifiedKeys = (ModifiedAclKeys) TransactionSynchronizationManager.getResource(MODIFIED_ACL_KEYS);
+        if (maskCache == null || (modifiedKeys != null && modifiedKeys.contains(key))) {
+            // not committed yet: must not be visible to other transactions through the cache
+            return aclRepository.listMaskForUsers(domain.getId(), username);
+        }
+        return maskCache.get(key, k -> aclRepository.listMaskForUsers(domain.getId(), username));
+    }
+
+    private static String maskCacheKey(Long domainId, String username) {
+        return domainId + ":" + username;
+    }
+
+    /**
+     * Evict the cached masks now, and again when the current transaction ends (commit or rollback),
+     * so that a value read in between can never survive the transaction.
+     */
+    private void evictMasks(Long domainId, String username) {
+        if (maskCache == null) {
+            return;
+        }
+        String key = maskCacheKey(domainId, username);
+        maskCache.invalidate(key);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            ModifiedAclKeys modifiedKeys = (ModifiedAclKeys) TransactionSynchronizationManager.getResource(MODIFIED_ACL_KEYS);
+            if (modifiedKeys == null) {
+                ModifiedAclKeys keys = new ModifiedAclKeys();
+                TransactionSynchronizationManager.bindResource(MODIFIED_ACL_KEYS, keys);
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        TransactionSynchronizationManager.unbindResourceIfPossible(MODIFIED_ACL_KEYS);
+                        keys.forEach(maskCache::invalidate);
+                    }
+                });
+                modifiedKeys = keys;
+            }
+            modifiedKeys.add(key);
+        }
+    }
+
+    private void evictMasks(Long aclObjectIdentity, Long sid) {
+        if (maskCache == null) {
+            return;
+        }
+        Long domainId = aclRepository.getDomainIdFromAclObjectIdentity(aclObjectIdentity);
+        String username = aclRepository.getUsernameFromAclSid(sid);
+        if (domainId == null || username == null) {
+            maskCache.clear();
+        } else {
+            evictMasks(domainId, username);
+        }
     }
 
 
@@ -84,6 +166,7 @@ public class PermissionService {
                 throw new ObjectNotFoundException("User " + username + " or Object " + domain.getId() + " are not in ACL");
             }
             aclRepository.deleteAclEntry(aclObjectIdentity, mask, sid);
+            evictMasks(domain.getId(), username);
 
             log.info("User " + username + " right " + permission.getMask() + " in domain " + domain + " => " + hasACLPermission(domain, username, permission));
         }
@@ -128,6 +211,7 @@ public class PermissionService {
         //get acl sid for the user
         Long sid = getAclSid(username);
         aclRepository.insertAclEntry(index, aclObjectIdentity, permission.getMask(), sid);
+        evictMasks(aclObjectIdentity, sid);
     }
 
 
@@ -148,6 +232,7 @@ public class PermissionService {
                 }
                 log.debug("next ace order {} for {}", max, aoi);
                 aclRepository.insertAclEntry(max, aoi, mask, sid);
+                evictMasks(aoi, sid);
                 aclEntryId = aclRepository.getAclEntryId(aoi, sid, mask);
             }
             return aclEntryId;
@@ -196,4 +281,10 @@ public class PermissionService {
         }
         throw new RuntimeException("Mask " + mask + " not supported");
     }
+
+    /**
+     * Mask cache keys modified by the current transaction, bound to it as MODIFIED_ACL_KEYS
+     */
+    private static class ModifiedAclKeys extends HashSet<String> {
+    }
 }
@@ -0,0 +1,186 @@
+package be.cytomine.service;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Send websocket messages from a fixed pool of threads.
+ * Each session has its own bounded outbound queue, drained by at most one thread at a time (messages stay ordered).
+ * When a slow session queue is full, its oldest message is dropped: followers only need the latest positions.
+ */
+@Slf4j
+@Component
+public class WebSocketMessageDispatcher {
+
+    static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    private final int queueCapacity;
+
+    private final ExecutorService executor;
+
+    private final Map<String, Outbound> outbounds = new ConcurrentHashMap<>();
+
+    private final AtomicLong sent = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    public WebSocketMessageDispatcher() {
+        this(Math.max(2, Runtime.getRuntime().availableProcessors()), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public WebSocketMessageDispatcher(int threads, int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        AtomicInteger threadNumber = new AtomicInteger();
+        // each session has at most one pending task, the queue cannot grow beyond the number of sessions
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "websocket-dispatcher-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void send(WebSocketSession session, TextMessage message) {
+        Outbound outbound;
+        if (session.isOpen()) {
+            outbound = outbounds.compute(session.getId(), (id, existing) -> (existing != null && existing.session == session ? existing : new Outbound(session)));
+            if (!session.isOpen()) {
+                // closed meanwhile, remove() may have run before compute: do not keep the new queue
+                outbounds.remove(session.getId(), outbound);
+            }
+        } else {
+            // a closed session never gets a new queue, it would not be removed anymore
+            outbound = outbounds.computeIfPresent(session.getId(), (id, existing) -> existing);
+            if (outbound == null) {
+                return;
+            }
+        }
+        boolean schedule;
+        synchronized (outbound) {
+            if (outbound.messages.size() >= queueCapacity) {
+                outbound.messages.pollFirst();
+                dropped.incrementAndGet();
+            }
+            outbound.messages.addLast(message);
+            schedule = !outbound.scheduled;
+            outbound.scheduled = true;
+        }
+        if (schedule) {
+            schedule(outbound);
+        }
+    }
+
+    public void send(WebSocketSession[] sessions, TextMessage message) {
+        for (WebSocketSession session : sessions) {
+            send(session, message);
+        }
+    }
+
+    /**
+     * Forget the outbound queue of a closed session
+     */
+    public void remove(String sessionId) {
+        outbounds.remove(sessionId);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void schedule(Outbound outbound) {
+        try {
+            executor.execute(() -> drain(outbound));
+        } catch (RejectedExecutionException e) {
+            synchronized (outbound) {
+                outbound.messages.clear();
+                outbound.scheduled = false;
+            }
+        }
+    }
+
+    private void drain(Outbound outbound) {
+        // a busy session gives the thread back after a full queue, other sessions are not delayed
+        for (int i = 0; i < queueCapacity; i++) {
+            TextMessage message;
+            synchronized (outbound) {
+                message = outbound.messages.pollFirst();
+                if (message == null) {
+                    outbound.scheduled = false;
+                    return;
+                }
+            }
+            deliver(outbound.session, message);
+        }
+        schedule(outbound);
+    }
+
+    private void deliver(WebSocketSession session, TextMessage message) {
+        if (!session.isOpen()) {
+            return;
+        }
+        try {
+            session.sendMessage(message);
+            sent.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            log.error("Failed to send message to session : " + session.getId() + " " + e.getMessage());
+        }
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public int getSessions() {
+        return outbounds.size();
+    }
+
+    private static class Outbound {
+
+        private final WebSocketSession session;
+
+        private final ArrayDeque<TextMessage> messages = new ArrayDeque<>();
+
+        private boolean scheduled = false;
+
+        Outbound(WebSocketSession session) {
+            this.session = session;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package be.cytomine.service.database;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base of the services whose database triggers append rows to a delta table instead of updating shared rows.
+ * A daemon thread calls the fold function of the table periodically, and once more at shutdown.
+ * Folds are serialized by the database function.
+ */
+@Slf4j
+public abstract class DeltaFoldService {
+
+    protected final JdbcTemplate jdbcTemplate;
+
+    private final String name;
+
+    private final String foldFunction;
+
+    private final String deltaTable;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong folded = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @param name Name of the deltas in the logs and the thread name (e.g. "annotation counter")
+     * @param foldFunction Database function applying the committed deltas and returning the number of delta rows consumed
+     * @param deltaTable Table of the pending deltas
+     */
+    protected DeltaFoldService(JdbcTemplate jdbcTemplate, String name, String foldFunction, String deltaTable,
+                               boolean enabled, long foldIntervalInMillis) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.name = name;
+        this.foldFunction = foldFunction;
+        this.deltaTable = deltaTable;
+        if (enabled) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name.replace(' ', '-') + "-fold");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.scheduler.scheduleWithFixedDelay(this::foldQuietly, foldIntervalInMillis, foldIntervalInMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Apply all committed deltas and return the number of delta rows consumed.
+     */
+    public long fold() {
+        Long count = jdbcTemplate.queryForObject("SELECT " + foldFunction + "()", Long.class);
+        long result = count != null ? count : 0;
+        folded.addAndGet(result);
+        return result;
+    }
+
+    public long countPendingDeltas() {
+        Long count = jdbcTemplate.queryForObject("SELECT count(*) FROM " + deltaTable, Long.class);
+        return count != null ? count : 0;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            foldQuietly();
+        }
+    }
+
+    public long getFolded() {
+        return folded.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    private void foldQuietly() {
+        try {
+            long count = fold();
+            if (count > 0) {
+                log.debug("{} {} deltas folded", count, name);
+            }
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            log.error("Cannot fold {} deltas: {}", name, e.getMessage(), e);
+        }
+    }
+}
@@ -24,9 +24,6 @@ import javax.persistence.Query;
 import javax.sql.DataSource;
 import javax.transaction.Transactional;
 import java.math.BigInteger;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
 
 @Service
 @Transactional
@@ -64,19 +61,42 @@ public class SequenceService {
 //            throwables.printStackTrace();
 //        }
 //    }
+    /**
+     * Ids are reserved by blocks: each nextval returns the last id of a block of 'increment' ids,
+     * the same convention as the hibernate pooled optimizer used for the domains.
+     */
+    private long nextId = 1;
+
+    private long lastId = 0;
+
+    private Long blockSize;
+
     /**
      * Get a new id number
      */
-    public Long generateID()  {
-        Statement statement = null;
+    public synchronized Long generateID()  {
         try {
-            Query query = entityManager.createNativeQuery("select nextval('" + SEQ_NAME + "');");
-            BigInteger val = (BigInteger) query.getSingleResult();
-            return val.longValue();
+            if (nextId > lastId) {
+                if (blockSize == null) {
+                    blockSize = Math.max(1, fetchIncrement());
+                }
+                lastId = fetchNextValue();
+                nextId = Math.max(1, lastId - blockSize + 1);
+            }
+            return nextId++;
         } catch (Exception e) {
             throw new RuntimeException("Cannot generate ID with sequence: " + e, e);
         }
+    }
+
+    long fetchNextValue() {
+        Query query = entityManager.createNativeQuery("select nextval('" + SEQ_NAME + "');");
+        return ((BigInteger) query.getSingleResult()).longValue();
+    }
 
+    long fetchIncrement() {
+        Query query = entityManager.createNativeQuery("select increment_by from pg_sequences where sequencename = '" + SEQ_NAME + "';");
+        return ((Number) query.getSingleResult()).longValue();
     }
 
 }
@@ -18,12 +18,17 @@ package be.cytomine.service.dto;
 
 import be.cytomine.domain.image.AbstractImage;
 import be.cytomine.domain.image.ImageInstance;
+import be.cytomine.exceptions.ServerException;
+import be.cytomine.utils.JsonUtils;
 import be.cytomine.utils.MinMax;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import lombok.Getter;
 
+import javax.persistence.Tuple;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.function.Function;
 
 @Getter
 public class AbstractBounds {
@@ -67,5 +72,49 @@ public class AbstractBounds {
             currentValue.add(newValue);
         }
     }
-}
 
+    /**
+     * Submit the MIN and MAX columns ("min_<column>" and "max_<column>") of an aggregate row
+     */
+    protected <T extends Comparable> void updateMinMax(MinMax<T> currentValue, Tuple aggregate, String column, Function<Object, T> converter) {
+        updateMinMax(currentValue, convert(aggregate.get("min_" + column), converter));
+        updateMinMax(currentValue, convert(aggregate.get("max_" + column), converter));
+    }
+
+    /**
+     * Submit the distinct values of an aggregate row column holding a json array (json_agg(DISTINCT ...))
+     */
+    protected <T extends Comparable> void updateChoices(MinMax<T> currentValue, Tuple aggregate, String column, Function<Object, T> converter) {
+        Object json = aggregate.get(column);
+        if (json == null) {
+            return;
+        }
+        try {
+            for (Object value : JsonUtils.reader(List.class).<List<Object>>readValue(json.toString())) {
+                updateChoices(currentValue, convert(value, converter));
+            }
+        } catch (JsonProcessingException e) {
+            throw new ServerException("Cannot read bounds values of " + column, e);
+        }
+    }
+
+    protected static Date toDate(Object value) {
+        return new Date(((Date) value).getTime());
+    }
+
+    protected static Long toLong(Object value) {
+        return ((Number) value).longValue();
+    }
+
+    protected static Integer toInteger(Object value) {
+        return ((Number) value).intValue();
+    }
+
+    protected static Double toDouble(Object value) {
+        return ((Number) value).doubleValue();
+    }
+
+    private static <T> T convert(Object value, Function<Object, T> converter) {
+        return value != null ? converter.apply(value) : null;
+    }
+}
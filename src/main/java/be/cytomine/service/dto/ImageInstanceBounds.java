@@ -21,6 +21,7 @@ import be.cytomine.domain.image.ImageInstance;
 import be.cytomine.utils.MinMax;
 import lombok.Getter;
 
+import javax.persistence.Tuple;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -92,6 +93,38 @@ public class ImageInstanceBounds extends AbstractBounds {
 
         updateMinMax(instanceFilename, imageInstance.getInstanceFilename());
     }
+
+    /**
+     * Submit the row of ImageInstanceService.BOUNDS_REQUEST, aggregated over all the images of a project
+     */
+    public void submit(Tuple aggregate) {
+        updateMinMax(created, aggregate, "created", AbstractBounds::toDate);
+        updateMinMax(updated, aggregate, "updated", AbstractBounds::toDate);
+        updateMinMax(reviewStart, aggregate, "review_start", AbstractBounds::toDate);
+        updateMinMax(reviewStop, aggregate, "review_stop", AbstractBounds::toDate);
+
+        updateMinMax(magnification, aggregate, "magnification", AbstractBounds::toInteger);
+        updateChoices(magnification, aggregate, "magnifications", AbstractBounds::toInteger);
+
+        updateMinMax(physicalSizeX, aggregate, "physical_size_x", AbstractBounds::toDouble);
+        updateChoices(physicalSizeX, aggregate, "physical_sizes_x", AbstractBounds::toDouble);
+
+        updateMinMax(physicalSizeY, aggregate, "physical_size_y", AbstractBounds::toDouble);
+        updateMinMax(physicalSizeZ, aggregate, "physical_size_z", AbstractBounds::toDouble);
+        updateMinMax(fps, aggregate, "fps", AbstractBounds::toDouble);
+
+        updateChoices(mimeType, aggregate, "content_types", Object::toString);
+        updateChoices(format, aggregate, "content_types", Object::toString);
+
+        updateMinMax(countImageAnnotations, aggregate, "count_image_annotations", AbstractBounds::toLong);
+        updateMinMax(countImageJobAnnotations, aggregate, "count_image_job_annotations", AbstractBounds::toLong);
+        updateMinMax(countImageReviewedAnnotations, aggregate, "count_image_reviewed_annotations", AbstractBounds::toLong);
+
+        updateMinMax(width, aggregate, "width", AbstractBounds::toInteger);
+        updateMinMax(height, aggregate, "height", AbstractBounds::toInteger);
+
+        updateMinMax(instanceFilename, aggregate, "instance_filename", Object::toString);
+    }
 }
 
 
@@ -24,6 +24,7 @@ import be.cytomine.utils.MinMax;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
+import javax.persistence.Tuple;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -92,6 +93,24 @@ public class ProjectBounds extends AbstractBounds {
         updateMinMax(numberOfImages, project.getJSONAttrLong("numberOfImages"));
         updateMinMax(members, project.getJSONAttrLong("membersCount"));
     }
+
+    /**
+     * Submit the row of ProjectService.BOUNDS_REQUEST, aggregated over all the projects listed for a user
+     */
+    public void submit(Tuple aggregate, boolean withMembersCount) {
+        updateMinMax(created, aggregate, "created", AbstractBounds::toDate);
+        updateMinMax(updated, aggregate, "updated", AbstractBounds::toDate);
+
+        updateMinMax(name, aggregate, "name", Object::toString);
+        updateMinMax(numberOfAnnotations, aggregate, "count_annotations", AbstractBounds::toLong);
+        updateMinMax(numberOfJobAnnotations, aggregate, "count_job_annotations", AbstractBounds::toLong);
+
+        updateMinMax(numberOfReviewedAnnotations, aggregate, "count_reviewed_annotations", AbstractBounds::toLong);
+        updateMinMax(numberOfImages, aggregate, "count_images", AbstractBounds::toLong);
+        if (withMembersCount) {
+            updateMinMax(members, aggregate, "member_count", AbstractBounds::toLong);
+        }
+    }
 }
 
 
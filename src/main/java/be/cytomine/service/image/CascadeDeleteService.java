@@ -0,0 +1,227 @@
+package be.cytomine.service.image;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.CascadeDeleteProperties;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.service.utils.TaskService;
+import be.cytomine.utils.Task;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.*;
+
+/**
+ * Set-based deletion of the rows depending on image instances: reviewed, algo and user annotations
+ * (with their terms, comments, annotation tracks and metadata), then slices, annotation indexes and tracks.
+ * It replaces one delete command (JSON backup, dependency walk) by row.
+ * It runs from the deleteDependencies of the image/project delete command.
+ * Annotations are deleted by chunks of ids, each chunk being committed in its own transaction
+ * (so that deleting a large image does not hold one long transaction), and the task progress is updated after each chunk.
+ * If the command fails afterwards, the deleted rows are not restored: the delete can be run again.
+ * Deleted rows are not kept in the command backup, so image and project delete commands refuse the undo (see isUndoable).
+ * Image metadata and MongoDB data (positions, consultations, actions) are still deleted by ImageInstanceService.
+ */
+@Slf4j
+@Service
+public class CascadeDeleteService {
+
+    private static final String SHARED_ANNOTATION_IDS = "SELECT id FROM shared_annotation WHERE annotation_ident IN (:ids)";
+
+    private static final List<Dependent> REVIEWED_ANNOTATION = List.of(
+            new Dependent("reviewed_annotation_term", "t.reviewed_annotation_terms_id IN (:ids)"),
+            new Dependent("algo_annotation_term", "t.annotation_ident IN (:ids)"),
+            new Dependent("reviewed_annotation", "t.id IN (:ids)"));
+
+    private static final List<Dependent> ALGO_ANNOTATION = List.of(
+            new Dependent("algo_annotation_term", "t.annotation_ident IN (:ids)"),
+            new Dependent("shared_annotation_user", "t.shared_annotation_receivers_id IN (" + SHARED_ANNOTATION_IDS + ")"),
+            new Dependent("shared_annotation", "t.annotation_ident IN (:ids)"),
+            new Dependent("annotation_track", "t.annotation_ident IN (:ids)"),
+            new Dependent("algo_annotation", "t.id IN (:ids)"));
+
+    private static final String USER_ANNOTATION_METADATA = "t.domain_ident IN (:ids) AND t.domain_class_name = '" + UserAnnotation.class.getName() + "'";
+
+    private static final List<Dependent> USER_ANNOTATION = List.of(
+            new Dependent("algo_annotation_term", "t.annotation_ident IN (:ids)"),
+            new Dependent("annotation_term", "t.user_annotation_id IN (:ids)"),
+            new Dependent("shared_annotation_user", "t.shared_annotation_receivers_id IN (" + SHARED_ANNOTATION_IDS + ")"),
+            new Dependent("shared_annotation", "t.annotation_ident IN (:ids)"),
+            new Dependent("annotation_track", "t.annotation_ident IN (:ids)"),
+            new Dependent("property", USER_ANNOTATION_METADATA),
+            new Dependent("description", USER_ANNOTATION_METADATA),
+            new Dependent("attached_file", USER_ANNOTATION_METADATA),
+            new Dependent("tag_domain_association", USER_ANNOTATION_METADATA),
+            new Dependent("user_annotation", "t.id IN (:ids)"));
+
+    private static final String IMAGE_SLICE_IDS = "SELECT id FROM slice_instance WHERE image_id = :image";
+
+    private static final List<Dependent> IMAGE = List.of(
+            new Dependent("annotation_track", "t.slice_id IN (" + IMAGE_SLICE_IDS + ") OR t.track_id IN (SELECT id FROM track WHERE image_id = :image)"),
+            new Dependent("annotation_index", "t.slice_id IN (" + IMAGE_SLICE_IDS + ")"),
+            new Dependent("slice_instance", "t.image_id = :image"),
+            new Dependent("track", "t.image_id = :image"));
+
+    private final CascadeDeleteProperties properties;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    private final PlatformTransactionManager transactionManager;
+
+    private final EntityManager entityManager;
+
+    private final TaskService taskService;
+
+    @Autowired
+    public CascadeDeleteService(ApplicationProperties applicationProperties, JdbcTemplate jdbcTemplate,
+                                PlatformTransactionManager transactionManager, EntityManager entityManager,
+                                TaskService taskService) {
+        this(applicationProperties.getCascadeDelete(), jdbcTemplate, transactionManager, entityManager, taskService);
+    }
+
+    public CascadeDeleteService(CascadeDeleteProperties properties, JdbcTemplate jdbcTemplate,
+                                PlatformTransactionManager transactionManager, EntityManager entityManager,
+                                TaskService taskService) {
+        this.properties = properties;
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.transactionManager = transactionManager;
+        this.entityManager = entityManager;
+        this.taskService = taskService;
+    }
+
+    public boolean isEnabled() {
+        return properties.getEnabled();
+    }
+
+    /**
+     * Image and project deletes can only be undone when their dependencies are deleted through commands (with a backup)
+     */
+    public boolean isUndoable() {
+        return !isEnabled();
+    }
+
+    /**
+     * Delete annotations, slices and tracks of the images, without any permission check.
+     * @return Number of deleted annotations
+     */
+    public long deleteImageDependencies(Collection<Long> imageIds, Task task) {
+        if (imageIds.isEmpty()) {
+            return 0;
+        }
+        if (!properties.getChunkTransactions() && TransactionSynchronizationManager.isActualTransactionActive()) {
+            // rows created through the entity manager must reach the database before the statements
+            entityManager.flush();
+        }
+        Long total = jdbcTemplate.queryForObject(
+                "SELECT (SELECT count(*) FROM reviewed_annotation WHERE image_id IN (:images)) " +
+                "+ (SELECT count(*) FROM algo_annotation WHERE image_id IN (:images)) " +
+                "+ (SELECT count(*) FROM user_annotation WHERE image_id IN (:images))",
+                Map.of("images", imageIds), Long.class);
+        Progress progress = new Progress(task, total != null ? total : 0);
+        for (Long imageId : imageIds) {
+            deleteAnnotations(imageId, "reviewed_annotation", REVIEWED_ANNOTATION, progress);
+            deleteAnnotations(imageId, "algo_annotation", ALGO_ANNOTATION, progress);
+            deleteAnnotations(imageId, "user_annotation", USER_ANNOTATION, progress);
+            chunkTransaction().executeWithoutResult(status -> {
+                MapSqlParameterSource parameters = new MapSqlParameterSource("image", imageId);
+                // index deltas of deleted slices must not be applied to indexes created again later
+                jdbcTemplate.update("UPDATE annotation_counter_delta SET slice_id = NULL WHERE slice_id IN (" + IMAGE_SLICE_IDS + ")", parameters);
+                delete(IMAGE, parameters);
+            });
+        }
+        log.info("{} annotations of {} images deleted", progress.done, imageIds.size());
+        return progress.done;
+    }
+
+    private void deleteAnnotations(Long imageId, String table, List<Dependent> dependents, Progress progress) {
+        int chunkSize = properties.getChunkSize();
+        int deleted;
+        do {
+            Integer count = chunkTransaction().execute(status -> {
+                List<Long> ids = jdbcTemplate.queryForList("SELECT id FROM " + table + " WHERE image_id = :image ORDER BY id LIMIT :limit",
+                        new MapSqlParameterSource("image", imageId).addValue("limit", chunkSize), Long.class);
+                if (!ids.isEmpty()) {
+                    delete(dependents, new MapSqlParameterSource("ids", ids));
+                }
+                return ids.size();
+            });
+            deleted = count != null ? count : 0;
+            progress.add(deleted, table);
+        } while (deleted == chunkSize);
+    }
+
+    private TransactionTemplate chunkTransaction() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        if (properties.getChunkTransactions()) {
+            transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        }
+        return transactionTemplate;
+    }
+
+    private void delete(List<Dependent> dependents, MapSqlParameterSource parameters) {
+        for (Dependent dependent : dependents) {
+            jdbcTemplate.update("DELETE FROM " + dependent.table + " t WHERE " + dependent.where, parameters);
+        }
+    }
+
+    private static class Dependent {
+
+        private final String table;
+
+        private final String where;
+
+        Dependent(String table, String where) {
+            this.table = table;
+            this.where = where;
+        }
+    }
+
+    private class Progress {
+
+        private final Task task;
+
+        private final long total;
+
+        private long done;
+
+        Progress(Task task, long total) {
+            this.task = task;
+            this.total = total;
+        }
+
+        void add(int deleted, String table) {
+            if (deleted == 0) {
+                return;
+            }
+            done += deleted;
+            if (task != null) {
+                taskService.updateTask(task, (int) Math.min(99, done * 100 / Math.max(total, 1)),
+                        "Delete " + table + ": " + done + "/" + total + " annotations deleted");
+            }
+        }
+    }
+}
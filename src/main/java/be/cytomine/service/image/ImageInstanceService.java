@@ -42,6 +42,7 @@ import be.cytomine.service.meta.PropertyService;
 import be.cytomine.service.ontology.*;
 import be.cytomine.service.search.ImageSearchExtension;
 import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.service.social.SocialRollupService;
 import be.cytomine.utils.*;
 import be.cytomine.utils.filters.SQLSearchParameter;
 import be.cytomine.utils.filters.SearchOperation;
@@ -83,6 +84,38 @@ public class ImageInstanceService extends ModelService {
 
     private static List<String> ABSTRACT_IMAGE_COLUMNS_FOR_SEARCH = List.of("width", "height");
 
+    /**
+     * Bounds of the images of a project in a single aggregate row (see ImageInstanceBounds.submit(Tuple)).
+     * Image values equal to 0 or null fall back to the abstract image ones, as the ImageInstance getters do.
+     * Strings are compared with the "C" collation to get the same order as String.compareTo.
+     */
+    public static final String BOUNDS_REQUEST = "SELECT " +
+            minMax("ii.created", "created") +
+            minMax("ii.updated", "updated") +
+            minMax("ii.review_start", "review_start") +
+            minMax("ii.review_stop", "review_stop") +
+            minMax("COALESCE(NULLIF(ii.magnification, 0), ai.magnification)", "magnification") +
+            "CAST(json_agg(DISTINCT COALESCE(NULLIF(ii.magnification, 0), ai.magnification)) " +
+            "FILTER (WHERE COALESCE(NULLIF(ii.magnification, 0), ai.magnification) IS NOT NULL) AS TEXT) AS magnifications, " +
+            minMax("COALESCE(NULLIF(ii.physical_size_x, 0), ai.physical_size_x)", "physical_size_x") +
+            "CAST(json_agg(DISTINCT COALESCE(NULLIF(ii.physical_size_x, 0), ai.physical_size_x)) " +
+            "FILTER (WHERE COALESCE(NULLIF(ii.physical_size_x, 0), ai.physical_size_x) IS NOT NULL) AS TEXT) AS physical_sizes_x, " +
+            minMax("COALESCE(NULLIF(ii.physical_size_y, 0), ai.physical_size_y)", "physical_size_y") +
+            minMax("COALESCE(NULLIF(ii.physical_size_z, 0), ai.physical_size_z)", "physical_size_z") +
+            minMax("COALESCE(NULLIF(ii.fps, 0), ai.fps)", "fps") +
+            "CAST(json_agg(DISTINCT uf.content_type) FILTER (WHERE uf.content_type IS NOT NULL) AS TEXT) AS content_types, " +
+            minMax("ii.count_image_annotations", "count_image_annotations") +
+            minMax("ii.count_image_job_annotations", "count_image_job_annotations") +
+            minMax("ii.count_image_reviewed_annotations", "count_image_reviewed_annotations") +
+            minMax("ai.width", "width") +
+            minMax("ai.height", "height") +
+            "MIN(ii.instance_filename COLLATE \"C\") AS min_instance_filename, " +
+            "MAX(ii.instance_filename COLLATE \"C\") AS max_instance_filename " +
+            "FROM image_instance ii " +
+            "JOIN abstract_image ai ON ai.id = ii.base_image_id " +
+            "LEFT OUTER JOIN uploaded_file uf ON uf.id = ai.uploaded_file_id " +
+            "WHERE ii.project_id = :project";
+
     @Autowired
     private EntityManager entityManager;
 
@@ -104,6 +137,9 @@ public class ImageInstanceService extends ModelService {
     @Autowired
     private SliceInstanceService sliceInstanceService;
 
+    @Autowired
+    private CascadeDeleteService cascadeDeleteService;
+
     @Autowired
     private NestedImageInstanceRepository nestedImageInstanceRepository;
 
@@ -140,6 +176,9 @@ public class ImageInstanceService extends ModelService {
     @Autowired
     private PersistentImageConsultationRepository persistentImageConsultationRepository;
 
+    @Autowired
+    private SocialRollupService socialRollupService;
+
     @Autowired
     PropertyService propertyService;
 
@@ -210,11 +249,18 @@ public class ImageInstanceService extends ModelService {
 
     public ImageInstanceBounds computeBounds(Project project) {
         securityACLService.check(project, READ);
+        Tuple aggregate = (Tuple) getEntityManager().createNativeQuery(BOUNDS_REQUEST, Tuple.class)
+                .setParameter("project", project.getId())
+                .getSingleResult();
         ImageInstanceBounds imageInstanceBounds = new ImageInstanceBounds();
-        imageInstanceRepository.findAllWithBaseImageUploadedFileByProject(project).forEach(imageInstanceBounds::submit);
+        imageInstanceBounds.submit(aggregate);
         return imageInstanceBounds;
     }
 
+    private static String minMax(String expression, String column) {
+        return "MIN(" + expression + ") AS min_" + column + ", MAX(" + expression + ") AS max_" + column + ", ";
+    }
+
     private List<SearchParameterEntry> getDomainAssociatedSearchParameters(List<SearchParameterEntry> searchParameters, boolean blinded) {
         for (SearchParameterEntry parameter : searchParameters) {
             log.debug(parameter.toString());
@@ -888,6 +934,7 @@ public class ImageInstanceService extends ModelService {
             try {
                 log.debug("Delete image " + domain.getId());
                 Command c = new DeleteCommand(currentUser, transaction);
+                c.setRefuseUndo(!cascadeDeleteService.isUndoable());
                 return executeCommand(c, domain, null);
             } finally {
                 Lock.getInstance().unlockProject(project);
@@ -900,9 +947,13 @@ public class ImageInstanceService extends ModelService {
     @Override
     public void deleteDependencies(CytomineDomain domain, Transaction transaction, Task task) {
         ImageInstance imageInstance = (ImageInstance) domain;
-        deleteDependentAlgoAnnotation(imageInstance, transaction, task);
-        deleteDependentReviewedAnnotation(imageInstance, transaction, task);
-        deleteDependentUserAnnotation(imageInstance, transaction, task);
+        if (cascadeDeleteService.isEnabled()) {
+            cascadeDeleteService.deleteImageDependencies(List.of(imageInstance.getId()), task);
+        } else {
+            deleteDependentAlgoAnnotation(imageInstance, transaction, task);
+            deleteDependentReviewedAnnotation(imageInstance, transaction, task);
+            deleteDependentUserAnnotation(imageInstance, transaction, task);
+        }
         deleteDependentAnnotationAction(imageInstance, transaction, task);
         deleteDependentLastUserPosition(imageInstance, transaction, task);
         deleteDependentPersistentUserPosition(imageInstance, transaction, task);
@@ -912,8 +963,10 @@ public class ImageInstanceService extends ModelService {
         deleteDependentAttachedFile(imageInstance, transaction, task);
         deleteDependentTagDomainAssociation(imageInstance, transaction, task);
         deleteDependentNestedImageInstance(imageInstance, transaction, task);
-        deleteDependentSliceInstance(imageInstance, transaction, task);
-        deleteDependentTrack(imageInstance, transaction, task);
+        if (!cascadeDeleteService.isEnabled()) {
+            deleteDependentSliceInstance(imageInstance, transaction, task);
+            deleteDependentTrack(imageInstance, transaction, task);
+        }
     }
 
     private void deleteDependentAlgoAnnotation(ImageInstance image, Transaction transaction, Task task) {
@@ -950,6 +1003,7 @@ public class ImageInstanceService extends ModelService {
 
     private void deleteDependentPersistentImageConsultation(ImageInstance image, Transaction transaction, Task task) {
         persistentImageConsultationRepository.deleteAllByImage(image.getId());
+        socialRollupService.deleteConsultationsOfImage(image.getId());
     }
 
 
@@ -0,0 +1,162 @@
+package be.cytomine.service.middleware;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.ImageServerClientProperties;
+import be.cytomine.exceptions.ServerException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds one long-lived HttpClient per image server (scheme + host + port).
+ * The JDK client keeps its connections alive and reuses them across requests,
+ * so we must not build a new client for each thumb/crop/window call.
+ * A semaphore per server bounds the number of requests in flight to that server.
+ * A streamed response (InputStream body) holds its permit until the body stream is closed,
+ * so the bound also covers the transfers and not only the connection setup.
+ */
+@Slf4j
+@Component
+public class ImageServerHttpClient {
+
+    private final ImageServerClientProperties properties;
+
+    private final Map<String, ServerClient> clients = new ConcurrentHashMap<>();
+
+    public ImageServerHttpClient(ApplicationProperties applicationProperties) {
+        this.properties = applicationProperties.getImageServerClient();
+    }
+
+    public HttpRequest.Builder newRequestBuilder() {
+        return HttpRequest.newBuilder()
+                .timeout(Duration.ofSeconds(properties.getRequestTimeoutInSeconds()));
+    }
+
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) throws IOException, InterruptedException {
+        ServerClient serverClient = clients.computeIfAbsent(serverKey(request.uri()), this::buildClient);
+        if (!serverClient.permits.tryAcquire(properties.getAcquireTimeoutInSeconds(), TimeUnit.SECONDS)) {
+            throw new ServerException("Too many concurrent requests to image server " + serverKey(request.uri()));
+        }
+        Permit permit = new Permit(serverClient.permits);
+        boolean streaming = false;
+        try {
+            HttpResponse<T> response = serverClient.client.send(request, responseInfo ->
+                    HttpResponse.BodySubscribers.mapping(bodyHandler.apply(responseInfo), permit::holdUntilClosed));
+            streaming = permit.isHeld();
+            return response;
+        } finally {
+            if (!streaming) {
+                permit.release();
+            }
+        }
+    }
+
+    public int numberOfClients() {
+        return clients.size();
+    }
+
+    public int availablePermits(String imageServerUrl) {
+        ServerClient serverClient = clients.get(serverKey(URI.create(imageServerUrl)));
+        return serverClient != null ? serverClient.permits.availablePermits() : properties.getMaxConcurrentRequestsPerServer();
+    }
+
+    private ServerClient buildClient(String key) {
+        log.info("Create HTTP client for image server " + key);
+        HttpClient client = HttpClient.newBuilder()
+                .version(properties.getHttp2() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(properties.getConnectTimeoutInSeconds()))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+        return new ServerClient(client, new Semaphore(properties.getMaxConcurrentRequestsPerServer(), true));
+    }
+
+    static String serverKey(URI uri) {
+        return uri.getScheme() + "://" + uri.getAuthority();
+    }
+
+    private static class ServerClient {
+
+        private final HttpClient client;
+
+        private final Semaphore permits;
+
+        ServerClient(HttpClient client, Semaphore permits) {
+            this.client = client;
+            this.permits = permits;
+        }
+    }
+
+    /**
+     * Permit of one request, released once: when the response is received,
+     * or when the body stream is closed for a streamed response.
+     */
+    private static class Permit {
+
+        private final Semaphore permits;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private volatile boolean held;
+
+        Permit(Semaphore permits) {
+            this.permits = permits;
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> T holdUntilClosed(T body) {
+            if (!(body instanceof InputStream)) {
+                return body;
+            }
+            held = true;
+            return (T) new FilterInputStream((InputStream) body) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        release();
+                    }
+                }
+            };
+        }
+
+        boolean isHeld() {
+            return held;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+            }
+        }
+    }
+}
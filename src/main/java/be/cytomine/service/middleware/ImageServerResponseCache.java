@@ -0,0 +1,257 @@
+package be.cytomine.service.middleware;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.ImageServerCacheProperties;
+import be.cytomine.dto.PimsResponse;
+import be.cytomine.exceptions.NotModifiedException;
+import be.cytomine.utils.JsonObject;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * In-memory cache of image server responses (thumb, crop, window, label).
+ * The cache is bounded by the total size of the cached images (LRU eviction).
+ * Identical requests that are in flight at the same time are coalesced: only the first one reaches
+ * the image server, the others wait for its response.
+ * Expired entries with an ETag are revalidated with If-None-Match instead of being downloaded again.
+ * Streamed responses larger than the maximum entry size (or without length) are passed through without caching.
+ */
+@Slf4j
+@Component
+public class ImageServerResponseCache {
+
+    private final ImageServerCacheProperties properties;
+
+    private final Clock clock;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Map<String, CompletableFuture<PimsResponse>> inFlight = new ConcurrentHashMap<>();
+
+    private long currentSizeInBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong revalidations = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Autowired
+    public ImageServerResponseCache(ApplicationProperties applicationProperties) {
+        this(applicationProperties.getImageServerCache(), Clock.systemUTC());
+    }
+
+    ImageServerResponseCache(ImageServerCacheProperties properties, Clock clock) {
+        this.properties = properties;
+        this.clock = clock;
+    }
+
+    public boolean isEnabled() {
+        return properties.getEnabled();
+    }
+
+    /**
+     * Build a cache key from the request. Parameters are sorted so that the same request built
+     * in a different order hits the same entry.
+     */
+    public static String key(String httpMethod, String url, Map<String, Object> parameters, String format, Map<String, Object> headers) {
+        return (httpMethod == null ? "GET" : httpMethod) + " " + url + " " + format + " "
+                + JsonObject.toJsonString(new TreeMap<>(parameters)) + " "
+                + JsonObject.toJsonString(new TreeMap<>(headers));
+    }
+
+    /**
+     * Get the response for this key, from the cache if it is still fresh, otherwise from the loader.
+     * The loader receives the ETag to revalidate (or null) and may throw NotModifiedException
+     * if the cached version is still valid.
+     */
+    public PimsResponse get(String key, Function<String, PimsResponse> loader) {
+        Entry entry = lookup(key);
+        if (entry != null && !entry.isExpired(clock.millis())) {
+            hits.incrementAndGet();
+            return copy(entry.response);
+        }
+
+        CompletableFuture<PimsResponse> future = new CompletableFuture<>();
+        CompletableFuture<PimsResponse> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            PimsResponse response = join(existing);
+            if (response.isStreaming()) {
+                // a stream can only be read once: too large to share, do our own request
+                misses.incrementAndGet();
+                return loader.apply(null);
+            }
+            coalesced.incrementAndGet();
+            return copy(response);
+        }
+
+        try {
+            PimsResponse response = load(key, entry, loader);
+            future.complete(response);
+            return copy(response);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private PimsResponse load(String key, Entry previous, Function<String, PimsResponse> loader) {
+        String etag = previous != null ? previous.response.getHeaders().get("ETag") : null;
+        if (etag != null) {
+            try {
+                PimsResponse response = bufferIfCacheable(loader.apply(etag));
+                misses.incrementAndGet();
+                store(key, response);
+                return response;
+            } catch (NotModifiedException e) {
+                revalidations.incrementAndGet();
+                store(key, previous.response);
+                return previous.response;
+            }
+        }
+        misses.incrementAndGet();
+        PimsResponse response = bufferIfCacheable(loader.apply(null));
+        store(key, response);
+        return response;
+    }
+
+    private PimsResponse bufferIfCacheable(PimsResponse response) {
+        if (response.isStreaming() && response.getContentLength() != null
+                && response.getContentLength() <= properties.getMaxEntrySizeInBytes()) {
+            response.getContent();
+        }
+        return response;
+    }
+
+    private synchronized Entry lookup(String key) {
+        return entries.get(key);
+    }
+
+    private synchronized void store(String key, PimsResponse response) {
+        if (response.isStreaming()) {
+            return;
+        }
+        long size = response.getContent() != null ? response.getContent().length : 0;
+        String cacheControl = response.getHeaders().getOrDefault("Cache-Control", "");
+        if (size > properties.getMaxEntrySizeInBytes() || cacheControl.contains("no-store")) {
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(response, size, clock.millis() + properties.getTimeToLiveInSeconds() * 1000));
+        if (previous != null) {
+            currentSizeInBytes -= previous.size;
+        }
+        currentSizeInBytes += size;
+
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (currentSizeInBytes > properties.getMaxSizeInBytes() && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            currentSizeInBytes -= eldest.size;
+            evictions.incrementAndGet();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentSizeInBytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long sizeInBytes() {
+        return currentSizeInBytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getRevalidations() {
+        return revalidations.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private static PimsResponse join(CompletableFuture<PimsResponse> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Controllers update the headers of the response (e.g. Cache-Control), so each caller gets its own header map.
+     */
+    private static PimsResponse copy(PimsResponse response) {
+        if (response.isStreaming()) {
+            return response;
+        }
+        return new PimsResponse(response.getContent(), new LinkedHashMap<>(response.getHeaders()));
+    }
+
+    private static class Entry {
+
+        private final PimsResponse response;
+
+        private final long size;
+
+        private final long expiresAt;
+
+        Entry(PimsResponse response, long size, long expiresAt) {
+            this.response = response;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
@@ -36,23 +36,26 @@ import be.cytomine.utils.*;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.io.ParseException;
 import com.vividsolutions.jts.io.WKTReader;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import javax.transaction.Transactional;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-
-import static be.cytomine.utils.HttpUtils.getContentFromUrl;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 @Slf4j
 @Service
@@ -61,6 +64,17 @@ public class ImageServerService extends ModelService {
 
     private static final int GET_URL_MAX_LENGTH = 512;
 
+    static final String REQUEST_TIMER = "cytomine.imageserver.requests";
+
+    static final String RESPONSE_SIZE_SUMMARY = "cytomine.imageserver.response.size";
+
+    /**
+     * Image path segment, e.g. /image/{path}/window or /file/{path}/histogram/per-image
+     */
+    private static final Pattern RESOURCE_PATH_SEGMENT = Pattern.compile("^/(image|file)/[^/]+");
+
+    private static final Pattern NUMERIC_SEGMENT = Pattern.compile("/\\d+(?=/|$)");
+
     @Autowired
     private ImageInstanceService imageInstanceService;
 
@@ -79,6 +93,15 @@ public class ImageServerService extends ModelService {
     @Autowired
     private ApplicationProperties applicationProperties;
 
+    @Autowired
+    private ImageServerHttpClient imageServerHttpClient;
+
+    @Autowired
+    private ImageServerResponseCache imageServerResponseCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Autowired
     public void setImageInstanceService(ImageInstanceService imageInstanceService) {
         this.imageInstanceService = imageInstanceService;
@@ -100,12 +123,12 @@ public class ImageServerService extends ModelService {
     }
 
     public StorageStats storageSpace(ImageServer imageServer) throws IOException {
-        return JsonObject.toObject(getContentFromUrl(imageServer.getInternalUrl() + "/storage/size.json"), StorageStats.class);
+        return JsonObject.toObject(getContent(imageServer.getInternalUrl() + "/storage/size.json"), StorageStats.class);
     }
 
     public List<Map<String, Object>> formats(ImageServer imageServer) throws IOException {
         log.debug(imageServer.getInternalUrl() + "/formats");
-        String response = getContentFromUrl(imageServer.getInternalUrl() + "/formats");
+        String response = getContent(imageServer.getInternalUrl() + "/formats");
         JsonObject jsonObject = JsonObject.toJsonObject(response);
         return ((List<Map<String,Object>>)jsonObject.get("items")).stream().map(x -> StringUtils.keysToCamelCase(x)).toList();
     }
@@ -138,14 +161,14 @@ public class ImageServerService extends ModelService {
     public Map<String, Object> properties(AbstractImage image) throws IOException {
         String server = image.getImageServerInternalUrl();
         String path = image.getPath();
-        String content = getContentFromUrl(server + "/image/"+URLEncoder.encode(path, StandardCharsets.UTF_8)+"/info");
+        String content = getContent(server + "/image/"+URLEncoder.encode(path, StandardCharsets.UTF_8)+"/info");
         return JsonObject.toMap(content);
     }
 
     public List<Map<String, Object>> rawProperties(AbstractImage image) throws IOException {
         String server = image.getImageServerInternalUrl();
         String path = image.getPath();
-        String content = getContentFromUrl(server + "/image/"+URLEncoder.encode(path, StandardCharsets.UTF_8)+"/metadata");
+        String content = getContent(server + "/image/"+URLEncoder.encode(path, StandardCharsets.UTF_8)+"/metadata");
         return JsonObject.toJsonObject(content).getJSONAttrListMap("items");
     }
     public Map<String, Object> imageHistogram(AbstractImage image, int nBins) {
@@ -309,7 +332,7 @@ public class ImageServerService extends ModelService {
     public List<String> associated(AbstractImage image) throws IOException {
         String server = image.getImageServerInternalUrl();
         String path = image.getPath();
-        String content = getContentFromUrl(server + ("/image/"+URLEncoder.encode(path, StandardCharsets.UTF_8)+"/info/associated"));
+        String content = getContent(server + ("/image/"+URLEncoder.encode(path, StandardCharsets.UTF_8)+"/info/associated"));
         return JsonObject.toJsonObject(content).getJSONAttrListMap("items").stream().map(x -> (String)x.get("name")).toList();
     }
 
@@ -337,7 +360,7 @@ public class ImageServerService extends ModelService {
         if (etag!=null) {
             headers.put("If-None-Match", etag);
         }
-        return makeRequest("GET", server, uri, parameters, format, headers);
+        return makeCachedRequest("GET", server, uri, parameters, format, headers);
     }
 
     public PimsResponse thumb(ImageInstance image, ImageParameter params, String etag)  {
@@ -389,7 +412,7 @@ public class ImageServerService extends ModelService {
         if (etag!=null) {
             headers.put("If-None-Match", etag);
         }
-        return makeRequest("GET", server, uri, parameters, format, headers);
+        return makeCachedRequest("GET", server, uri, parameters, format, headers);
     }
 
 //    public PimsResponse thumb(String server, String path, ImageParameter params, String etag) {
@@ -459,7 +482,7 @@ public class ImageServerService extends ModelService {
             }
         }
 
-        return makeRequest("POST", server, cropUrl, parameters, format, headers);
+        return makeCachedRequest("POST", server, cropUrl, parameters, format, headers);
     }
 
 
@@ -626,7 +649,7 @@ public class ImageServerService extends ModelService {
             headers.put("If-None-Match", etag);
         }
 
-        return makeRequest("POST", server, uri, parameters, format, headers);
+        return makeCachedRequest("POST", server, uri, parameters, format, headers);
     }
 
     public String windowUrl(AbstractSlice slice, WindowParameter windowParameter) throws UnsupportedEncodingException, ParseException {
@@ -763,32 +786,88 @@ public class ImageServerService extends ModelService {
         return extractedHeaders;
     }
 
+    private String getContent(String url) throws IOException {
+        HttpRequest request = imageServerHttpClient.newRequestBuilder().GET().uri(URI.create(url)).build();
+        try {
+            HttpResponse<String> response = imageServerHttpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() >= 400) {
+                throw new IOException(url + " returned a " + response.statusCode());
+            }
+            return response.body();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Request to " + url + " has been interrupted", e);
+        }
+    }
+
+    private PimsResponse makeCachedRequest(String httpMethod, String imageServerInternalUrl, String path, LinkedHashMap<String, Object> parameters, String format, Map<String, Object> headers) {
+        if (!imageServerResponseCache.isEnabled()) {
+            return makeStreamingRequest(httpMethod, imageServerInternalUrl, path, parameters, format, headers);
+        }
+        // The client ETag is not part of the key: the cache revalidates with its own ETag
+        String clientEtag = (String) headers.get("If-None-Match");
+        Map<String, Object> forwardedHeaders = new LinkedHashMap<>(headers);
+        forwardedHeaders.remove("If-None-Match");
+
+        String key = ImageServerResponseCache.key(httpMethod, imageServerInternalUrl + path, filterParameters(parameters), format, forwardedHeaders);
+        PimsResponse response = imageServerResponseCache.get(key, etag -> {
+            Map<String, Object> requestHeaders = new LinkedHashMap<>(forwardedHeaders);
+            if (etag != null) {
+                requestHeaders.put("If-None-Match", etag);
+            }
+            return makeStreamingRequest(httpMethod, imageServerInternalUrl, path, parameters, format, requestHeaders);
+        });
+        if (clientEtag != null && clientEtag.equals(response.getHeaders().get("ETag"))) {
+            if (response.isStreaming()) {
+                try {
+                    response.getStream().close();
+                } catch (IOException ignored) {
+                }
+            }
+            throw new NotModifiedException(response.getHeaders());
+        }
+        return response;
+    }
+
     private PimsResponse makeRequest(String httpMethod, String imageServerInternalUrl, String path, LinkedHashMap<String, Object> parameters, String format, Map<String, Object> headers) {
         return makeRequest(httpMethod, imageServerInternalUrl, path, parameters, format, headers, false);
     }
 
     private PimsResponse makeRequest(String httpMethod, String imageServerInternalUrl, String path, LinkedHashMap<String, Object> parameters, String format, Map<String, Object> headers, boolean hms)  {
+        return makeRequest(httpMethod, imageServerInternalUrl, path, parameters, format, headers, hms, false);
+    }
+
+    /**
+     * Same as makeRequest, but the body is not read: the returned response holds the image server stream
+     * so that it can be piped to the client without buffering the whole image.
+     */
+    PimsResponse makeStreamingRequest(String httpMethod, String imageServerInternalUrl, String path, LinkedHashMap<String, Object> parameters, String format, Map<String, Object> headers) {
+        return makeRequest(httpMethod, imageServerInternalUrl, path, parameters, format, headers, false, true);
+    }
+
+    private PimsResponse makeRequest(String httpMethod, String imageServerInternalUrl, String path, LinkedHashMap<String, Object> parameters, String format, Map<String, Object> headers, boolean hms, boolean stream)  {
 
         parameters = filterParameters(parameters);
         String parameterUrl = "";
         String fullUrl = "";
 
         String responseContentType = formatToContentType(format);
+        String requestMethod = "GET";
+        String status = "error";
+        long start = System.nanoTime();
 
         try {
             parameterUrl = makeParameterUrl(parameters);
             fullUrl = imageServerInternalUrl + path + "?" + parameterUrl;
             log.debug(fullUrl);
-            HttpClient httpClient = HttpClient.newBuilder()
-                    .version(HttpClient.Version.HTTP_1_1)
-                    .build();
 
-            HttpRequest.Builder requestBuilder = HttpRequest.newBuilder();
+            HttpRequest.Builder requestBuilder = imageServerHttpClient.newRequestBuilder();
             if ((fullUrl).length() < GET_URL_MAX_LENGTH && (httpMethod==null || httpMethod.equals("GET"))) {
                 log.debug("GET " + fullUrl);
                 requestBuilder.GET()
                         .uri(URI.create(fullUrl));
             } else {
+                requestMethod = "POST";
                 log.debug("POST " + imageServerInternalUrl + path);
                 log.debug(JsonObject.toJsonString(parameters));
                 String requestContentType = "application/json";
@@ -812,20 +891,65 @@ public class ImageServerService extends ModelService {
                 requestBuilder.setHeader(entry.getKey(), (String) entry.getValue());
             }
             HttpRequest request = requestBuilder.build();
-            HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
-            return processResponse(fullUrl, responseContentType, response);
+            HttpResponse<?> response;
+            if (stream) {
+                response = imageServerHttpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            } else {
+                response = imageServerHttpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            }
+            status = String.valueOf(response.statusCode());
+            PimsResponse pimsResponse = processResponse(fullUrl, responseContentType, response);
+            recordResponseSize(path, pimsResponse);
+            return pimsResponse;
         } catch(NotModifiedException e){
             throw e;
         } catch(Exception e){
             log.error("Error for url : " + fullUrl + " with parameters " + parameterUrl, e);
             throw new InvalidRequestException("Cannot generate thumb for " + fullUrl + " with " + parameterUrl);
+        } finally {
+            // for a streamed response, this is the time to first byte
+            Timer.builder(REQUEST_TIMER)
+                    .description("Requests sent to the image servers")
+                    .tag("method", requestMethod)
+                    .tag("operation", operation(path))
+                    .tag("status", status)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         }
     }
 
-    private PimsResponse processResponse(String fullUrl, String responseContentType, HttpResponse<byte[]> response) {
+    private void recordResponseSize(String path, PimsResponse response) {
+        Long size = response.isStreaming() ? response.getContentLength() : Long.valueOf(response.getContent().length);
+        if (size != null) {
+            DistributionSummary.builder(RESPONSE_SIZE_SUMMARY)
+                    .description("Size of the image server responses")
+                    .baseUnit("bytes")
+                    .tag("operation", operation(path))
+                    .register(meterRegistry)
+                    .record(size);
+        }
+    }
+
+    /**
+     * Path without image identifiers, so that each kind of request is a single time series
+     */
+    static String operation(String path) {
+        String operation = RESOURCE_PATH_SEGMENT.matcher(path).replaceFirst("/$1/{path}");
+        return NUMERIC_SEGMENT.matcher(operation).replaceAll("/{id}");
+    }
+
+    private PimsResponse processResponse(String fullUrl, String responseContentType, HttpResponse<?> response) throws IOException {
         if (response.statusCode()==200) {
-            return new PimsResponse(response.body(), extractPIMSHeaders(response.headers()));
-        } else  if (response.statusCode()==304) {
+            if (response.body() instanceof InputStream) {
+                Long contentLength = response.headers().firstValueAsLong("Content-Length").stream().boxed().findFirst().orElse(null);
+                return new PimsResponse((InputStream) response.body(), contentLength, extractPIMSHeaders(response.headers()));
+            }
+            return new PimsResponse((byte[]) response.body(), extractPIMSHeaders(response.headers()));
+        }
+        if (response.body() instanceof InputStream) {
+            ((InputStream) response.body()).close();
+        }
+        if (response.statusCode()==304) {
             throw new NotModifiedException(extractPIMSHeaders(response.headers()));
         } else  if (response.statusCode()==400) {
             throw new InvalidRequestException(fullUrl + " returned a 400 bad request");
@@ -0,0 +1,262 @@
+package be.cytomine.service.ontology;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+import be.cytomine.config.properties.AnnotationClusterProperties;
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.exceptions.WrongArgumentException;
+import be.cytomine.repository.AlgoAnnotationListing;
+import be.cytomine.repository.AnnotationListing;
+import be.cytomine.repository.ReviewedAnnotationListing;
+import be.cytomine.repository.UserAnnotationListing;
+import be.cytomine.service.database.DeltaFoldService;
+import be.cytomine.service.dto.Kmeans;
+import be.cytomine.service.utils.KmeansGeometryService;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Kmeans requests on an annotation layer are served from a precomputed pyramid of grid cells (annotation_cluster)
+ * instead of clustering all the annotations of the bbox for each request.
+ * Annotation triggers append a row in annotation_cluster_delta, folded periodically into the cells of each level.
+ * Cells hold the annotation count, the sum of the centroids and the envelope of the annotations.
+ */
+@Service
+public class AnnotationClusterService extends DeltaFoldService {
+
+    /**
+     * Cell size of level 0, doubled at each level (see annotationClusterCellSize())
+     */
+    public static final double BASE_CELL_SIZE = 256;
+
+    /**
+     * Number of levels of the pyramid (see annotationClusterLevels())
+     */
+    public static final int LEVELS = 12;
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    private final boolean enabled;
+
+    private final int cellsPerView;
+
+    @Autowired
+    public AnnotationClusterService(ApplicationProperties applicationProperties, JdbcTemplate jdbcTemplate) {
+        this(applicationProperties.getAnnotationCluster(), jdbcTemplate);
+    }
+
+    public AnnotationClusterService(AnnotationClusterProperties properties, JdbcTemplate jdbcTemplate) {
+        super(jdbcTemplate, "annotation cluster", "foldAnnotationClusters", "annotation_cluster_delta",
+                properties.getEnabled(), properties.getFoldIntervalInMillis());
+        this.enabled = properties.getEnabled();
+        this.cellsPerView = properties.getCellsPerView();
+    }
+
+    /**
+     * The pyramid only knows the slice, the user and the location of the annotations:
+     * listings filtered on anything else (terms, tracks, tags, dates,...) are clustered with kmeans.
+     */
+    public boolean canServe(AnnotationListing al) {
+        return enabled
+                && domain(al) != null
+                && al.getBbox() != null
+                && !slices(al).isEmpty()
+                && al.hasOnlyLocationFilters();
+    }
+
+    /**
+     * Clusters of the listing bbox: the cells of the level matching the bbox size.
+     * KMEANSFULL locations are the envelopes of the cell annotations, KMEANSSOFT locations their mean centroid.
+     * Deltas not folded yet are added to the cells on the fly.
+     */
+    public List<Kmeans> listClusters(AnnotationListing al, int kmeansValue) {
+        Envelope bbox;
+        try {
+            bbox = new WKTReader().read(al.getBbox()).getEnvelopeInternal();
+        } catch (ParseException e) {
+            throw new WrongArgumentException("Annotation location cannot be converted to geometry: " + al.getBbox());
+        }
+        if (al.getImages() != null && al.getImages().isEmpty()) {
+            return new ArrayList<>();
+        }
+        int level = level(Math.max(bbox.getWidth(), bbox.getHeight()), cellsPerView);
+        double cellSize = cellSize(level);
+
+        List<Object> filterArgs = new ArrayList<>();
+        StringBuilder filters = new StringBuilder("domain = ? ");
+        filterArgs.add(domain(al));
+        List<Long> slices = slices(al);
+        filters.append("AND slice_id IN (").append(placeholders(slices.size())).append(") ");
+        filterArgs.addAll(slices);
+        if (al.getUser() != null) {
+            filters.append("AND user_id = ? ");
+            filterArgs.add(al.getUser());
+        }
+        if (!isEmpty(al.getUsers())) {
+            filters.append("AND user_id IN (").append(placeholders(al.getUsers().size())).append(") ");
+            filterArgs.addAll(al.getUsers());
+        }
+        if (al.getImage() != null) {
+            filters.append("AND image_id = ? ");
+            filterArgs.add(al.getImage());
+        }
+        if (al.getImages() != null) {
+            filters.append("AND image_id IN (").append(placeholders(al.getImages().size())).append(") ");
+            filterArgs.addAll(al.getImages());
+        }
+        if (al.getProject() != null) {
+            filters.append("AND project_id = ? ");
+            filterArgs.add(al.getProject());
+        }
+
+        List<Object> args = new ArrayList<>();
+        String request = "SELECT sum(count) AS count, sum(sum_x) AS sum_x, sum(sum_y) AS sum_y, " +
+                "min(min_x) AS min_x, min(min_y) AS min_y, max(max_x) AS max_x, max(max_y) AS max_y " +
+                "FROM (" +
+                "SELECT cell_x, cell_y, count, sum_x, sum_y, min_x, min_y, max_x, max_y " +
+                "FROM annotation_cluster WHERE level = ? AND " + filters +
+                "UNION ALL " +
+                "SELECT floor(x / ?)::BIGINT AS cell_x, floor(y / ?)::BIGINT AS cell_y, count, x * count, y * count, " +
+                "CASE WHEN count > 0 THEN min_x END, CASE WHEN count > 0 THEN min_y END, " +
+                "CASE WHEN count > 0 THEN max_x END, CASE WHEN count > 0 THEN max_y END " +
+                "FROM annotation_cluster_delta WHERE " + filters +
+                ") cells " +
+                "WHERE cell_x BETWEEN ? AND ? AND cell_y BETWEEN ? AND ? " +
+                "GROUP BY cell_x, cell_y HAVING sum(count) > 0 ORDER BY cell_x, cell_y";
+        args.add(level);
+        args.addAll(filterArgs);
+        args.add(cellSize);
+        args.add(cellSize);
+        args.addAll(filterArgs);
+        args.add((long) Math.floor(bbox.getMinX() / cellSize));
+        args.add((long) Math.floor(bbox.getMaxX() / cellSize));
+        args.add((long) Math.floor(bbox.getMinY() / cellSize));
+        args.add((long) Math.floor(bbox.getMaxY() / cellSize));
+
+        List<Cell> cells = jdbcTemplate.query(request, (rs, rowNum) -> new Cell(
+                rs.getLong("count"), rs.getDouble("sum_x"), rs.getDouble("sum_y"),
+                rs.getDouble("min_x"), rs.getDouble("min_y"), rs.getDouble("max_x"), rs.getDouble("max_y")), args.toArray());
+        return toKmeans(cells, kmeansValue);
+    }
+
+    /**
+     * Smallest level whose cells are large enough to have at most 'cellsPerView' cells across the view
+     */
+    public static int level(double viewSize, int cellsPerView) {
+        double wanted = viewSize / Math.max(1, cellsPerView);
+        int level = 0;
+        while (level < LEVELS - 1 && cellSize(level) < wanted) {
+            level++;
+        }
+        return level;
+    }
+
+    public static double cellSize(int level) {
+        return BASE_CELL_SIZE * Math.pow(2, level);
+    }
+
+    public static List<Kmeans> toKmeans(List<Cell> cells, int kmeansValue) {
+        List<Kmeans> data = new ArrayList<>(cells.size());
+        double max = 1;
+        for (Cell cell : cells) {
+            Kmeans kmeans = new Kmeans();
+            kmeans.setId((long) data.size());
+            kmeans.setCount(cell.count);
+            if (kmeansValue == KmeansGeometryService.KMEANSFULL) {
+                kmeans.setLocation(GEOMETRY_FACTORY.toGeometry(new Envelope(cell.minX, cell.maxX, cell.minY, cell.maxY)).toText());
+            } else {
+                kmeans.setLocation(GEOMETRY_FACTORY.createPoint(new Coordinate(cell.sumX / cell.count, cell.sumY / cell.count)).toText());
+            }
+            if (cell.count > max) {
+                max = cell.count;
+            }
+            data.add(kmeans);
+        }
+        for (Kmeans datum : data) {
+            datum.setRatio(((double) datum.getCount() / max));
+        }
+        return data;
+    }
+
+    private static String domain(AnnotationListing al) {
+        if (al instanceof UserAnnotationListing) {
+            return "USER";
+        } else if (al instanceof AlgoAnnotationListing) {
+            return "ALGO";
+        } else if (al instanceof ReviewedAnnotationListing) {
+            return "REVIEWED";
+        }
+        return null;
+    }
+
+    private static List<Long> slices(AnnotationListing al) {
+        if (!isEmpty(al.getSlices())) {
+            return al.getSlices();
+        }
+        return al.getSlice() != null ? List.of(al.getSlice()) : List.of();
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private static boolean isEmpty(Collection<?> values) {
+        return values == null || values.isEmpty();
+    }
+
+    /**
+     * Annotations of a pyramid cell, merged over the requested slices and users
+     */
+    public static class Cell {
+
+        final long count;
+
+        final double sumX;
+
+        final double sumY;
+
+        final double minX;
+
+        final double minY;
+
+        final double maxX;
+
+        final double maxY;
+
+        public Cell(long count, double sumX, double sumY, double minX, double minY, double maxX, double maxY) {
+            this.count = count;
+            this.sumX = sumX;
+            this.sumY = sumY;
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+    }
+}
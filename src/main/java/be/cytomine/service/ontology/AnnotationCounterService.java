@@ -0,0 +1,66 @@
+package be.cytomine.service.ontology;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+import be.cytomine.config.properties.AnnotationCounterProperties;
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.project.Project;
+import be.cytomine.service.database.DeltaFoldService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+
+/**
+ * Annotation triggers do not update the project, image instance and annotation index counters themselves:
+ * they append a row in annotation_counter_delta, so that concurrent writers never wait on the same counter rows.
+ * Deltas are folded into the counters periodically. Annotation index reads add the pending deltas on the fly.
+ */
+@Service
+public class AnnotationCounterService extends DeltaFoldService {
+
+    @Autowired
+    public AnnotationCounterService(ApplicationProperties applicationProperties, JdbcTemplate jdbcTemplate) {
+        this(applicationProperties.getAnnotationCounter(), jdbcTemplate);
+    }
+
+    public AnnotationCounterService(AnnotationCounterProperties properties, JdbcTemplate jdbcTemplate) {
+        super(jdbcTemplate, "annotation counter", "foldAnnotationCounters", "annotation_counter_delta",
+                properties.getEnabled(), properties.getFoldIntervalInMillis());
+    }
+
+    /**
+     * Recompute the project annotation counters from the annotation tables.
+     * Deltas not folded yet are subtracted (in the same statement) as they will be applied by the next fold.
+     */
+    public void refreshProjectCounts(Project project) {
+        Map<String, Object> counts = jdbcTemplate.queryForMap(
+                "SELECT (SELECT count(*) FROM user_annotation WHERE project_id = d.project_id) - d.annotations AS annotations, " +
+                "(SELECT count(*) FROM algo_annotation WHERE project_id = d.project_id) - d.job_annotations AS job_annotations, " +
+                "(SELECT count(*) FROM reviewed_annotation WHERE project_id = d.project_id) - d.reviewed_annotations AS reviewed_annotations " +
+                "FROM (SELECT CAST(? AS BIGINT) AS project_id, " +
+                "COALESCE(sum(count_annotations), 0) AS annotations, " +
+                "COALESCE(sum(count_job_annotations), 0) AS job_annotations, " +
+                "COALESCE(sum(count_reviewed_annotations), 0) AS reviewed_annotations " +
+                "FROM annotation_counter_delta WHERE project_id = ?) d", project.getId(), project.getId());
+        project.setCountAnnotations(((Number) counts.get("annotations")).longValue());
+        project.setCountJobAnnotations(((Number) counts.get("job_annotations")).longValue());
+        project.setCountReviewedAnnotations(((Number) counts.get("reviewed_annotations")).longValue());
+    }
+}
@@ -28,6 +28,7 @@ import org.springframework.stereotype.Service;
 import javax.persistence.EntityManager;
 import javax.transaction.Transactional;
 import java.util.List;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
@@ -49,22 +50,23 @@ public class AnnotationIndexService {
      * If user is null, return the number of reviewed annotation for this slice
      */
     public Long count(SliceInstance slice, SecUser user) {
-        if (user!=null) {
-            return annotationIndexRepository.findOneBySliceAndUser(slice, user)
-                    .map(AnnotationIndexLightDTO::getCountAnnotation).orElse(0L);
-        } else {
-            return annotationIndexRepository.findAllBySlice(slice)
-                    .stream().mapToLong(AnnotationIndexLightDTO::getCountReviewedAnnotation).sum();
-        }
+        return sum(annotationIndexRepository.findAllLightBySliceInstance(slice.getId()), user);
     }
 
     public Long count(List<SliceInstance> slices, SecUser user) {
+        if (slices.isEmpty()) {
+            return 0L;
+        }
+        return sum(annotationIndexRepository.findAllLightBySliceInstanceIn(
+                slices.stream().map(SliceInstance::getId).collect(Collectors.toList())), user);
+    }
+
+    private Long sum(List<AnnotationIndexLightDTO> indexes, SecUser user) {
         if (user!=null) {
-            return annotationIndexRepository.findOneBySliceInAndUser(slices, user)
-                    .map(AnnotationIndexLightDTO::getCountAnnotation).orElse(0L);
+            return indexes.stream().filter(index -> user.getId().equals(index.getUser()))
+                    .mapToLong(AnnotationIndexLightDTO::getCountAnnotation).sum();
         } else {
-            return annotationIndexRepository.findAllBySliceIn(slices)
-                    .stream().mapToLong(AnnotationIndexLightDTO::getCountReviewedAnnotation).sum();
+            return indexes.stream().mapToLong(AnnotationIndexLightDTO::getCountReviewedAnnotation).sum();
         }
     }
 
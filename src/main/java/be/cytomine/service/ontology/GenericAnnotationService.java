@@ -122,12 +122,8 @@ public class GenericAnnotationService {
                 }
             }
 
-//            annotations = new ArrayList<>();
-            for (AnnotationDomain annotation : annotations) {
-                if (!annotation.termsId().contains(goodTerm)) {
-                    annotations.remove(annotation);
-                }
-            }
+            Long smallestTerm = goodTerm;
+            annotations.removeIf(annotation -> !annotation.termsId().contains(smallestTerm));
         }
 
         return annotations.stream().distinct().collect(Collectors.toList());
@@ -327,7 +327,7 @@ public class ReviewedAnnotationService extends ModelService {
         SecUser currentUser = currentUserService.getCurrentUser();
         securityACLService.checkUser(currentUser);
         securityACLService.checkIsCreator(domain, currentUser);
-        CommandResponse result = executeCommand(new EditCommand(currentUser, null), domain, jsonNewData);
+        CommandResponse result = executeCommand(new EditCommand(currentUser, transaction), domain, jsonNewData);
         return result;
     }
 
@@ -620,6 +620,8 @@ public class ReviewedAnnotationService extends ModelService {
 
         CommandResponse result = null;
         Geometry oldLocation = based.getLocation();
+        //all the commands of the correction are undone/redone together
+        Transaction transaction = transactionService.start();
         if (remove) {
             log.info("doCorrectUserAnnotation : remove");
             //diff will be made
@@ -632,27 +634,34 @@ public class ReviewedAnnotationService extends ModelService {
 
             JsonObject jsonObject = based.toJsonObject();
             based.setLocation(oldLocation);
-            result = update(based, jsonObject);
+            result = update(based, jsonObject, transaction);
 
             for(int i = 0; i < allAnnotationWithSameTerm.size(); i++) {
                 ReviewedAnnotation other = allAnnotationWithSameTerm.get(i);
                 other.setLocation(other.getLocation().difference(newGeometry));
-                update(other, other.toJsonObject());
+                update(other, other.toJsonObject(), transaction);
             }
         } else {
             log.info("doCorrectUserAnnotation : union");
             //union will be made:
             // -add the new geometry to the based annotation location.
             // -add all other annotation geometry to the based annotation location (and delete other annotation)
-            based.setLocation(based.getLocation().union(newGeometry));
+            //the covering annotations already intersect the new geometry (see findAnnotationThatTouch):
+            //all the locations are merged at once with a cascaded union
+            List<Geometry> locations = new ArrayList<>();
+            locations.add(based.getLocation());
+            locations.add(newGeometry);
+            for (ReviewedAnnotation other : allAnnotationWithSameTerm) {
+                locations.add(other.getLocation());
+            }
+            based.setLocation(GeometryUtils.union(locations));
             for (ReviewedAnnotation other : allAnnotationWithSameTerm) {
-                based.setLocation(based.getLocation().union(other.getLocation()));
-                delete(other, null, null, false);
+                delete(other, transaction, null, false);
             }
 
             JsonObject jsonObject = based.toJsonObject();
             based.setLocation(oldLocation);
-            result = update(based, jsonObject);
+            result = update(based, jsonObject, transaction);
         }
         return result;
     }
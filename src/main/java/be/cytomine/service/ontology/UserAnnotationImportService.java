@@ -0,0 +1,329 @@
+package be.cytomine.service.ontology;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+import be.cytomine.domain.command.AddCommand;
+import be.cytomine.domain.command.CommandHistory;
+import be.cytomine.domain.image.ImageInstance;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.ontology.Term;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.domain.project.Project;
+import be.cytomine.domain.security.SecUser;
+import be.cytomine.domain.security.User;
+import be.cytomine.dto.SimplifiedAnnotation;
+import be.cytomine.exceptions.CytomineException;
+import be.cytomine.exceptions.ObjectNotFoundException;
+import be.cytomine.exceptions.WrongArgumentException;
+import be.cytomine.service.CurrentUserService;
+import be.cytomine.service.database.SequenceService;
+import be.cytomine.service.image.SliceCoordinatesService;
+import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.utils.JsonObject;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.springframework.security.acls.domain.BasePermission.READ;
+
+/**
+ * Import of a large number of user annotations (algorithm results, migrations,...).
+ * Items are checked like in UserAnnotationService.add, the geometries being prepared in parallel,
+ * then annotations and their terms are written with JDBC batches in the current transaction.
+ * A single command is recorded by project, it is not saved on the undo stack.
+ * Tracks, groups and properties are not supported by this import.
+ */
+@Slf4j
+@Service
+@Transactional
+public class UserAnnotationImportService {
+
+    static final int BATCH_SIZE = 1000;
+
+    private static final List<String> UNSUPPORTED_ATTRIBUTES = List.of("track", "tracks", "group", "property", "properties");
+
+    @Autowired
+    private UserAnnotationService userAnnotationService;
+
+    @Autowired
+    private SliceCoordinatesService sliceCoordinatesService;
+
+    @Autowired
+    private SecurityACLService securityACLService;
+
+    @Autowired
+    private CurrentUserService currentUserService;
+
+    @Autowired
+    private SequenceService sequenceService;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Import the annotations and report the items that could not be imported (by index in the list)
+     */
+    public JsonObject importAnnotations(List<JsonObject> items, Long minPoint, Long maxPoint) {
+        SecUser currentUser = currentUserService.getCurrentUser();
+        securityACLService.checkGuest(currentUser);
+
+        Map<Long, SliceInstance> slices = new HashMap<>();
+        Map<Long, SliceInstance> referenceSlices = new HashMap<>();
+        Map<Long, Optional<User>> users = new HashMap<>();
+        Map<Long, Optional<Term>> terms = new HashMap<>();
+        Map<Long, Optional<CytomineException>> projectChecks = new HashMap<>();
+        Map<Long, Optional<CytomineException>> ownerChecks = new HashMap<>();
+
+        List<ImportItem> checked = new ArrayList<>();
+        List<JsonObject> errors = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            ImportItem item = new ImportItem(i, items.get(i));
+            try {
+                resolve(item, currentUser, slices, referenceSlices, users, terms, projectChecks, ownerChecks);
+                checked.add(item);
+            } catch (CytomineException e) {
+                errors.add(error(item.index, e));
+            }
+        }
+
+        // geometries are independent, this is the expensive part of the checks
+        checked.parallelStream().forEach(item -> {
+            try {
+                item.location = userAnnotationService.prepareLocation(item.json.getJSONAttrStr("location"), item.image,
+                        item.json.getJSONAttrLong("minPoint", minPoint), item.json.getJSONAttrLong("maxPoint", maxPoint));
+            } catch (CytomineException e) {
+                item.error = e;
+            } catch (RuntimeException e) {
+                item.error = new WrongArgumentException("Annotation location is not valid: " + e.getMessage());
+            }
+        });
+
+        List<UserAnnotation> annotations = new ArrayList<>();
+        List<Object[]> annotationTerms = new ArrayList<>();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        for (ImportItem item : checked) {
+            if (item.error != null) {
+                errors.add(error(item.index, item.error));
+                continue;
+            }
+            UserAnnotation annotation = new UserAnnotation();
+            annotation.setId(sequenceService.generateID());
+            annotation.setSlice(item.slice);
+            annotation.setImage(item.image);
+            annotation.setProject(item.slice.getProject());
+            annotation.setUser(item.user);
+            annotation.setLocation(item.location.getNewAnnotation());
+            annotation.setGeometryCompression(item.location.getRate());
+            annotation.setCreated(now);
+            annotation.beforeCreate();
+            annotations.add(annotation);
+            for (Term term : item.terms) {
+                annotationTerms.add(new Object[]{sequenceService.generateID(), now, term.getId(), currentUser.getId(), annotation.getId()});
+            }
+        }
+        errors.sort(Comparator.comparing(error -> error.getJSONAttrInteger("index")));
+
+        insertAnnotations(annotations);
+        insertAnnotationTerms(annotationTerms);
+        List<Long> commands = recordCommands(annotations, currentUser);
+
+        JsonObject response = new JsonObject();
+        JsonObject data = JsonObject.of("count", annotations.size(), "errors", errors, "command", commands);
+        if (errors.isEmpty()) {
+            data.put("success", true);
+            data.put("message", annotations.size() + " annotations imported");
+            response.put("status", 200);
+        } else if (annotations.isEmpty()) {
+            data.put("success", false);
+            data.put("message", "No entry saved");
+            response.put("status", 400);
+        } else {
+            data.put("success", false);
+            data.put("message", "Only part of the entries (" + annotations.size() + " annotations) imported");
+            response.put("status", 206);
+        }
+        response.put("data", data);
+        return response;
+    }
+
+    private void resolve(ImportItem item, SecUser currentUser,
+                         Map<Long, SliceInstance> slices, Map<Long, SliceInstance> referenceSlices,
+                         Map<Long, Optional<User>> users, Map<Long, Optional<Term>> terms,
+                         Map<Long, Optional<CytomineException>> projectChecks,
+                         Map<Long, Optional<CytomineException>> ownerChecks) {
+        JsonObject json = item.json;
+        for (String attribute : UNSUPPORTED_ATTRIBUTES) {
+            if (!json.isMissing(attribute)) {
+                throw new WrongArgumentException("Attribute " + attribute + " is not supported by the annotation import");
+            }
+        }
+        if (!json.isMissing("slice")) {
+            Long sliceId = json.getJSONAttrLong("slice");
+            item.slice = slices.computeIfAbsent(sliceId, id -> entityManager.find(SliceInstance.class, id));
+            if (item.slice == null) {
+                throw new ObjectNotFoundException("SliceInstance with id " + sliceId);
+            }
+        } else if (!json.isMissing("image")) {
+            Long imageId = json.getJSONAttrLong("image");
+            item.slice = referenceSlices.computeIfAbsent(imageId, id -> Optional.ofNullable(entityManager.find(ImageInstance.class, id))
+                    .map(image -> sliceCoordinatesService.getReferenceSlice(image)).orElse(null));
+            if (item.slice == null) {
+                throw new ObjectNotFoundException("ImageInstance with id " + imageId);
+            }
+        } else {
+            throw new WrongArgumentException("Cannot retrieve slice or image");
+        }
+        item.image = item.slice.getImage();
+        Project project = item.slice.getProject();
+
+        if (json.isMissing("location")) {
+            throw new WrongArgumentException("Annotation must have a valid geometry:" + json.get("location"));
+        }
+
+        Optional<CytomineException> projectError = projectChecks.computeIfAbsent(project.getId(), id -> check(() -> {
+            securityACLService.check(project, READ, currentUser);
+            securityACLService.checkIsNotReadOnly(project);
+        }));
+        if (projectError.isPresent()) {
+            throw projectError.get();
+        }
+
+        Long userId = json.getJSONAttrLong("user", currentUser.getId());
+        if (!Objects.equals(userId, currentUser.getId())) {
+            Optional<CytomineException> ownerError = ownerChecks.computeIfAbsent(project.getId(), id -> check(() ->
+                    securityACLService.checkFullOrRestrictedForOwner(project, null)));
+            if (ownerError.isPresent()) {
+                throw ownerError.get();
+            }
+        }
+        item.user = users.computeIfAbsent(userId, id -> Optional.ofNullable(entityManager.find(User.class, id)))
+                .orElseThrow(() -> new ObjectNotFoundException("User", userId));
+
+        List<Long> termIds = new ArrayList<>();
+        termIds.addAll(json.getJSONAttrListLong("term", new ArrayList<>()));
+        termIds.addAll(json.getJSONAttrListLong("terms", new ArrayList<>()));
+        for (Long termId : termIds.stream().distinct().collect(Collectors.toList())) {
+            Term term = terms.computeIfAbsent(termId, id -> Optional.ofNullable(entityManager.find(Term.class, id)))
+                    .orElseThrow(() -> new ObjectNotFoundException("Term", termId));
+            if (project.getOntology() == null || !Objects.equals(term.getOntology().getId(), project.getOntology().getId())) {
+                throw new WrongArgumentException("Term " + term.getName() + " from ontology " + term.getOntology().getName() + " is not in ontology from the annotation project");
+            }
+            item.terms.add(term);
+        }
+    }
+
+    private void insertAnnotations(List<UserAnnotation> annotations) {
+        for (List<UserAnnotation> batch : partition(annotations)) {
+            jdbcTemplate.batchUpdate("INSERT INTO user_annotation(id, version, created, user_id, image_id, slice_id, project_id, " +
+                            "location, wkt_location, geometry_compression, area, area_unit, perimeter, perimeter_unit, " +
+                            "count_comments, count_reviewed_annotations) " +
+                            "VALUES (?, 0, ?, ?, ?, ?, ?, ST_GeomFromText(?, 0), ?, ?, ?, ?, ?, ?, 0, 0)",
+                    batch.stream().map(annotation -> new Object[]{
+                            annotation.getId(), annotation.getCreated(), annotation.getUser().getId(),
+                            annotation.getImage().getId(), annotation.getSlice().getId(), annotation.getProject().getId(),
+                            annotation.getWktLocation(), annotation.getWktLocation(), annotation.getGeometryCompression(),
+                            annotation.getArea(), annotation.getAreaUnit(), annotation.getPerimeter(), annotation.getPerimeterUnit()
+                    }).collect(Collectors.toList()));
+        }
+    }
+
+    private void insertAnnotationTerms(List<Object[]> annotationTerms) {
+        for (List<Object[]> batch : partition(annotationTerms)) {
+            jdbcTemplate.batchUpdate("INSERT INTO annotation_term(id, version, created, term_id, user_id, user_annotation_id) " +
+                    "VALUES (?, 0, ?, ?, ?, ?)", batch);
+        }
+    }
+
+    /**
+     * One compact command by project: the number of annotations and the images concerned.
+     */
+    private List<Long> recordCommands(List<UserAnnotation> annotations, SecUser currentUser) {
+        List<Long> commands = new ArrayList<>();
+        Map<Project, List<UserAnnotation>> byProject = annotations.stream()
+                .collect(Collectors.groupingBy(UserAnnotation::getProject, LinkedHashMap::new, Collectors.toList()));
+        for (Map.Entry<Project, List<UserAnnotation>> entry : byProject.entrySet()) {
+            List<Long> images = entry.getValue().stream().map(annotation -> annotation.getImage().getId()).distinct().collect(Collectors.toList());
+            AddCommand command = new AddCommand(currentUser);
+            command.setProject(entry.getKey());
+            command.setServiceName("userAnnotationService");
+            command.setSaveOnUndoRedoStack(false);
+            command.setPrintMessage(false);
+            command.setData(JsonObject.of("count", entry.getValue().size(), "project", entry.getKey().getId(), "images", images).toJsonString());
+            command.setActionMessage(entry.getValue().size() + " annotations imported");
+            entityManager.persist(command);
+            entityManager.persist(new CommandHistory(command));
+            commands.add(command.getId());
+        }
+        return commands;
+    }
+
+    private static JsonObject error(int index, CytomineException e) {
+        return JsonObject.of("index", index, "message", e.msg, "status", e.code);
+    }
+
+    private static Optional<CytomineException> check(Runnable check) {
+        try {
+            check.run();
+            return Optional.empty();
+        } catch (CytomineException e) {
+            return Optional.of(e);
+        }
+    }
+
+    private static <T> List<List<T>> partition(List<T> list) {
+        List<List<T>> batches = new ArrayList<>();
+        for (int i = 0; i < list.size(); i += BATCH_SIZE) {
+            batches.add(list.subList(i, Math.min(i + BATCH_SIZE, list.size())));
+        }
+        return batches;
+    }
+
+    private static class ImportItem {
+
+        final int index;
+
+        final JsonObject json;
+
+        SliceInstance slice;
+
+        ImageInstance image;
+
+        User user;
+
+        List<Term> terms = new ArrayList<>();
+
+        SimplifiedAnnotation location;
+
+        CytomineException error;
+
+        ImportItem(int index, JsonObject json) {
+            this.index = index;
+            this.json = json;
+        }
+    }
+}
@@ -354,62 +354,10 @@ public class UserAnnotationService extends ModelService {
             securityACLService.checkFullOrRestrictedForOwner(project, null);
         }
 
-        Geometry annotationShape;
-        try {
-            annotationShape = new WKTReader().read(jsonObject.getJSONAttrStr("location"));
-        }
-        catch (Exception ignored) {
-            throw new WrongArgumentException("Annotation location is not valid");
-        }
-
-        if (!annotationShape.isValid()) {
-            throw new WrongArgumentException("Annotation location is not valid");
-        }
-
-
-        Envelope envelope = annotationShape.getEnvelopeInternal();
-        boolean isSizeDefined = image.getBaseImage().getWidth()!=null && image.getBaseImage().getHeight()!=null;
-        if (isSizeDefined && (envelope.getMinX() < 0 || envelope.getMinY() < 0 ||
-                envelope.getMaxX() > image.getBaseImage().getWidth() ||
-                envelope.getMaxY() > image.getBaseImage().getHeight())) {
-            double maxX = Math.min(envelope.getMaxX(), image.getBaseImage().getWidth());
-            double maxY = Math.min(envelope.getMaxY(), image.getBaseImage().getHeight());
-            Geometry insideBounds = null;
-            try {
-                insideBounds = new WKTReader().read("POLYGON((0 0,0 " + maxY + "," + maxX + " " + maxY + "," + maxX + " 0,0 0))");
-            } catch (ParseException e) {
-                throw new WrongArgumentException("Annotation cannot be parsed with maxX/maxY:" + e.getMessage());
-            }
-            annotationShape = annotationShape.intersection(insideBounds);
-        }
-
-        if(!(annotationShape.getGeometryType().equals("LineString"))) {
-            BoundariesCropParameter boundaries = GeometryUtils.getGeometryBoundaries(annotationShape);
-            if (boundaries == null || boundaries.getWidth() == 0 || boundaries.getHeight() == 0) {
-                throw new WrongArgumentException("Annotation dimension not valid");
-            }
-        }
-
-        //simplify annotation
-        try {
-            SimplifiedAnnotation simplifiedAnnotation =
-                    simplifyGeometryService.simplifyPolygon(annotationShape, jsonObject.getJSONAttrLong("minPoint", null), jsonObject.getJSONAttrLong("maxPoint", null));
-            jsonObject.put("location", simplifiedAnnotation.getNewAnnotation());
-            jsonObject.put("geometryCompression", simplifiedAnnotation.getRate());
-        } catch (Exception e) {
-            log.error("Cannot simplify annotation location:" + e);
-        }
-
-        if (jsonObject.isMissing("location")) {
-            jsonObject.put("location", annotationShape);
-            jsonObject.put("geometryCompression", 0.0d);
-        }
-
-        if (jsonObject.get("location") instanceof Geometry) {
-            jsonObject.put("location", validateGeometryService.tryToMakeItValidIfNotValid((Geometry)jsonObject.get("location")));
-        } else {
-            jsonObject.put("location", validateGeometryService.tryToMakeItValidIfNotValid(jsonObject.getJSONAttrStr("location")));
-        }
+        SimplifiedAnnotation location = prepareLocation(jsonObject.getJSONAttrStr("location"), image,
+                jsonObject.getJSONAttrLong("minPoint", null), jsonObject.getJSONAttrLong("maxPoint", null));
+        jsonObject.put("location", location.getNewAnnotation());
+        jsonObject.put("geometryCompression", location.getRate());
 
         //Start transaction
         Transaction transaction = transactionService.start();
@@ -482,6 +430,60 @@ public class UserAnnotationService extends ModelService {
         return commandResponse;
     }
 
+    /**
+     * Parse, check, clip (to the image bounds), simplify and repair the location of a new annotation.
+     * Does not touch the database unless the geometry cannot be repaired locally.
+     */
+    public SimplifiedAnnotation prepareLocation(String wkt, ImageInstance image, Long minPoint, Long maxPoint) {
+        Geometry annotationShape;
+        try {
+            annotationShape = new WKTReader().read(wkt);
+        }
+        catch (Exception ignored) {
+            throw new WrongArgumentException("Annotation location is not valid");
+        }
+
+        if (!annotationShape.isValid()) {
+            throw new WrongArgumentException("Annotation location is not valid");
+        }
+
+
+        Envelope envelope = annotationShape.getEnvelopeInternal();
+        boolean isSizeDefined = image.getBaseImage().getWidth()!=null && image.getBaseImage().getHeight()!=null;
+        if (isSizeDefined && (envelope.getMinX() < 0 || envelope.getMinY() < 0 ||
+                envelope.getMaxX() > image.getBaseImage().getWidth() ||
+                envelope.getMaxY() > image.getBaseImage().getHeight())) {
+            double maxX = Math.min(envelope.getMaxX(), image.getBaseImage().getWidth());
+            double maxY = Math.min(envelope.getMaxY(), image.getBaseImage().getHeight());
+            Geometry insideBounds = null;
+            try {
+                insideBounds = new WKTReader().read("POLYGON((0 0,0 " + maxY + "," + maxX + " " + maxY + "," + maxX + " 0,0 0))");
+            } catch (ParseException e) {
+                throw new WrongArgumentException("Annotation cannot be parsed with maxX/maxY:" + e.getMessage());
+            }
+            annotationShape = annotationShape.intersection(insideBounds);
+        }
+
+        if(!(annotationShape.getGeometryType().equals("LineString"))) {
+            BoundariesCropParameter boundaries = GeometryUtils.getGeometryBoundaries(annotationShape);
+            if (boundaries == null || boundaries.getWidth() == 0 || boundaries.getHeight() == 0) {
+                throw new WrongArgumentException("Annotation dimension not valid");
+            }
+        }
+
+        //simplify annotation
+        SimplifiedAnnotation simplifiedAnnotation;
+        try {
+            simplifiedAnnotation = simplifyGeometryService.simplifyPolygon(annotationShape, minPoint, maxPoint);
+        } catch (Exception e) {
+            log.error("Cannot simplify annotation location:" + e);
+            simplifiedAnnotation = new SimplifiedAnnotation(annotationShape, 0.0d);
+        }
+
+        simplifiedAnnotation.setNewAnnotation(validateGeometryService.tryToMakeItValidIfNotValid(simplifiedAnnotation.getNewAnnotation()));
+        return simplifiedAnnotation;
+    }
+
     protected void beforeAdd(CytomineDomain domain) {
         // this will be done in the PrePersist method ; but the validation is done before PrePersist
         ((UserAnnotation)domain).setWktLocation(((UserAnnotation)domain).getLocation().toText());
@@ -573,7 +575,7 @@ public class UserAnnotationService extends ModelService {
         } else {
             jsonNewData.put("location", validateGeometryService.tryToMakeItValidIfNotValid(jsonNewData.getJSONAttrStr("location")));
         }
-        CommandResponse result = executeCommand(new EditCommand(currentUser, null), domain, jsonNewData);
+        CommandResponse result = executeCommand(new EditCommand(currentUser, transaction), domain, jsonNewData);
 
         return result;
     }
@@ -706,6 +708,8 @@ public class UserAnnotationService extends ModelService {
 
         CommandResponse result = null;
         Geometry oldLocation = based.getLocation();
+        //all the commands of the correction are undone/redone together
+        Transaction transaction = transactionService.start();
         if (remove) {
             log.info("doCorrectUserAnnotation : remove");
             //diff will be made
@@ -718,26 +722,33 @@ public class UserAnnotationService extends ModelService {
 
             JsonObject jsonObject = based.toJsonObject();
             based.setLocation(oldLocation);
-            result = update(based, jsonObject);
+            result = update(based, jsonObject, transaction);
 
             for(int i = 0; i < allAnnotationWithSameTerm.size(); i++) {
                 UserAnnotation other = allAnnotationWithSameTerm.get(i);
                 other.setLocation(other.getLocation().difference(newGeometry));
-                update(other, other.toJsonObject());
+                update(other, other.toJsonObject(), transaction);
             }
         } else {
             log.info("doCorrectUserAnnotation : union");
             //union will be made:
             // -add the new geometry to the based annotation location.
             // -add all other annotation geometry to the based annotation location (and delete other annotation)
-            based.setLocation(based.getLocation().union(newGeometry));
+            //the covering annotations already intersect the new geometry (see findAnnotationThatTouch):
+            //all the locations are merged at once with a cascaded union
+            List<Geometry> locations = new ArrayList<>();
+            locations.add(based.getLocation());
+            locations.add(newGeometry);
+            for (UserAnnotation other : allAnnotationWithSameTerm) {
+                locations.add(other.getLocation());
+            }
+            based.setLocation(GeometryUtils.union(locations));
             for (UserAnnotation other : allAnnotationWithSameTerm) {
-                based.setLocation(based.getLocation().union(other.getLocation()));
-                delete(other, null, null, false);
+                delete(other, transaction, null, false);
             }
             JsonObject jsonObject = based.toJsonObject();
             based.setLocation(oldLocation);
-            result = update(based, jsonObject);
+            result = update(based, jsonObject, transaction);
         }
         return result;
     }
@@ -36,7 +36,6 @@ import be.cytomine.repository.command.CommandRepository;
 import be.cytomine.repository.command.RedoStackItemRepository;
 import be.cytomine.repository.command.UndoStackItemRepository;
 import be.cytomine.repository.image.ImageInstanceRepository;
-import be.cytomine.repository.ontology.AnnotationDomainRepository;
 import be.cytomine.repository.project.ProjectRepository;
 import be.cytomine.repository.project.ProjectRepresentativeUserRepository;
 import be.cytomine.repository.security.SecRoleRepository;
@@ -46,8 +45,10 @@ import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
 import be.cytomine.service.PermissionService;
 import be.cytomine.service.dto.ProjectBounds;
+import be.cytomine.service.image.CascadeDeleteService;
 import be.cytomine.service.image.ImageInstanceService;
 import be.cytomine.service.ontology.AlgoAnnotationTermService;
+import be.cytomine.service.ontology.AnnotationCounterService;
 import be.cytomine.service.ontology.AnnotationTermService;
 import be.cytomine.service.ontology.OntologyService;
 import be.cytomine.service.ontology.ReviewedAnnotationService;
@@ -55,6 +56,7 @@ import be.cytomine.service.search.ProjectSearchExtension;
 import be.cytomine.service.security.SecUserSecRoleService;
 import be.cytomine.service.security.SecUserService;
 import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.service.social.PresenceRegistry;
 import be.cytomine.service.utils.NotificationService;
 import be.cytomine.service.utils.TaskService;
 import be.cytomine.utils.*;
@@ -77,6 +79,7 @@ import org.springframework.web.client.RestTemplate;
 
 import javax.mail.MessagingException;
 import javax.persistence.Query;
+import javax.persistence.TemporalType;
 import javax.persistence.Tuple;
 import javax.persistence.TupleElement;
 import javax.transaction.Transactional;
@@ -140,7 +143,7 @@ public class ProjectService extends ModelService {
     private ProjectRepresentativeUserService projectRepresentativeUserService;
 
     @Autowired
-    private AnnotationDomainRepository annotationDomainRepository;
+    private AnnotationCounterService annotationCounterService;
 
     @Autowired
     private ImageInstanceRepository imageInstanceRepository;
@@ -151,9 +154,15 @@ public class ProjectService extends ModelService {
     @Autowired
     private ImageInstanceService imageInstanceService;
 
+    @Autowired
+    private CascadeDeleteService cascadeDeleteService;
+
     @Autowired
     private UndoStackItemRepository undoStackItemRepository;
 
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+
     @Autowired
     private RedoStackItemRepository redoStackItemRepository;
 
@@ -204,12 +213,29 @@ public class ProjectService extends ModelService {
         } else {
             securityACLService.checkGuest(user);
         }
-        ProjectSearchExtension projectSearchExtension = new ProjectSearchExtension();
-        projectSearchExtension.setWithMembersCount(withMembersCount);
-
-        Page<JsonObject> results = this.list(user, projectSearchExtension, new ArrayList<>(), "created", "desc", 0L, 0L);
+        boolean membersCount = Boolean.TRUE.equals(withMembersCount);
+        String request = "SELECT " +
+                "MIN(p.created) AS min_created, MAX(p.created) AS max_created, " +
+                "MIN(p.updated) AS min_updated, MAX(p.updated) AS max_updated, " +
+                "MIN(p.name COLLATE \"C\") AS min_name, MAX(p.name COLLATE \"C\") AS max_name, " +
+                "MIN(p.count_annotations) AS min_count_annotations, MAX(p.count_annotations) AS max_count_annotations, " +
+                "MIN(p.count_job_annotations) AS min_count_job_annotations, MAX(p.count_job_annotations) AS max_count_job_annotations, " +
+                "MIN(p.count_reviewed_annotations) AS min_count_reviewed_annotations, MAX(p.count_reviewed_annotations) AS max_count_reviewed_annotations, " +
+                "MIN(p.count_images) AS min_count_images, MAX(p.count_images) AS max_count_images " +
+                (membersCount ? ", MIN(NULLIF(ps.member_count, 0)) AS min_member_count, MAX(NULLIF(ps.member_count, 0)) AS max_member_count " : "") +
+                "FROM project p " +
+                (membersCount ? "LEFT OUTER JOIN project_summary ps ON ps.project_id = p.id " : "") +
+                (user != null ? "WHERE p.id IN (" +
+                        "SELECT aclObjectId.object_id_identity FROM acl_object_identity AS aclObjectId " +
+                        "JOIN acl_entry AS aclEntry ON aclEntry.acl_object_identity = aclObjectId.id " +
+                        "JOIN acl_sid AS aclSid ON aclEntry.sid = aclSid.id " +
+                        "WHERE aclSid.sid = :username) " : "");
+        Query query = getEntityManager().createNativeQuery(request, Tuple.class);
+        if (user != null) {
+            query.setParameter("username", user.getUsername());
+        }
         ProjectBounds projectBounds = new ProjectBounds();
-        results.forEach(projectBounds::submit);
+        projectBounds.submit((Tuple) query.getSingleResult(), membersCount);
         return projectBounds;
     }
 
@@ -375,20 +401,11 @@ public class ProjectService extends ModelService {
 
         if(projectSearchExtension.isWithLastActivity()) {
             select += ", activities.max_date ";
-            from += "LEFT OUTER JOIN " +
-                    "( SELECT  project_id, MAX(created) max_date " +
-                    "  FROM command_history " +
-                    "  GROUP BY project_id " +
-                    ") activities ON p.id = activities.project_id ";
+            from += "LEFT OUTER JOIN (" + ProjectSummaryService.LAST_ACTIVITY_REQUEST + ") activities ON p.id = activities.project_id ";
         }
         if(projectSearchExtension.isWithMembersCount()) {
             select += ", members.member_count ";
-            from += "LEFT OUTER JOIN " +
-                    " ( SELECT aclObjectId.object_id_identity as project_id, COUNT(DISTINCT secUser.id) as member_count " +
-                    "   FROM acl_object_identity as aclObjectId, acl_entry as aclEntry, acl_sid as aclSid, sec_user as secUser " +
-                    "   WHERE aclEntry.acl_object_identity = aclObjectId.id and aclEntry.sid = aclSid.id and aclSid.sid = secUser.username and secUser.class = 'be.cytomine.domain.security.User' " +
-                    "   GROUP BY aclObjectId.object_id_identity " +
-                    ") members ON p.id = members.project_id ";
+            from += "LEFT OUTER JOIN (" + ProjectSummaryService.MEMBERS_COUNT_REQUEST + ") members ON p.id = members.project_id ";
 
             if(!members.isBlank()){
                 search +=" AND ";
@@ -519,37 +536,77 @@ public class ProjectService extends ModelService {
 
     public List<JsonObject> findCommandHistory(List<Project> projects, Long user, Long max, Long offset,
                                                Boolean fullData, Long startDate, Long endDate) {
+        return findCommandHistory(projects, user, max, offset, fullData, startDate, endDate, null);
+    }
+
+    /**
+     * List the command history, most recent first.
+     * Pages are read with a keyset on (created, id): give the id of the last row of a page as cursor to get the next one
+     * (the offset is then applied after the cursor). Command data is only read for the rows of the page, if fullData.
+     */
+    public List<JsonObject> findCommandHistory(List<Project> projects, Long user, Long max, Long offset,
+                                               Boolean fullData, Long startDate, Long endDate, Long cursor) {
+        if (projects != null && projects.isEmpty()) {
+            return new ArrayList<>();
+        }
 
-        if (max == 0) {
-            max = Long.MAX_VALUE;
+        Map<String, Object> parameters = new HashMap<>();
+        String where = "WHERE true ";
+        if (projects != null) {
+            where += "AND ch.project_id IN (:projects) ";
+            parameters.put("projects", projects.stream().map(CytomineDomain::getId).collect(Collectors.toList()));
+        }
+        if (user != null) {
+            where += "AND ch.user_id = :user ";
+            parameters.put("user", user);
+        }
+        if (startDate != null) {
+            where += "AND ch.created > :startDate ";
+            parameters.put("startDate", new Date(startDate));
+        }
+        if (endDate != null) {
+            where += "AND ch.created < :endDate ";
+            parameters.put("endDate", new Date(endDate));
+        }
+        if (cursor != null) {
+            where += "AND (ch.created, ch.id) < (SELECT created, id FROM command_history WHERE id = :cursor) ";
+            parameters.put("cursor", cursor);
+        }
+        String page = "SELECT ch.id, ch.created, ch.message, ch.prefix_action, ch.user_id, ch.project_id, ch.command_id " +
+                "FROM command_history ch " + where +
+                "ORDER BY ch.created DESC, ch.id DESC " +
+                (max > 0 ? "LIMIT :max " : "") +
+                (offset > 0 ? "OFFSET :offset " : "");
+        if (max > 0) {
+            parameters.put("max", max);
+        }
+        if (offset > 0) {
+            parameters.put("offset", offset);
         }
 
         String select = "SELECT ch.id as id, ch.created as created, ch.message as message, " +
                 "ch.prefix_action as prefixAction, ch.user_id as user, ch.project_id as project ";
-        String from = "FROM command_history ch ";
-        String where = "WHERE true " +
-                (projects!=null? "AND ch.project_id IN ("+projects.stream().map(x -> x.getId().toString()).collect(Collectors.joining(","))+") " : " ") +
-                (user!=null? "AND ch.user_id =  "+user+" " : " ") +
-                (startDate!=null ? "AND ch.created > '"+new Date(startDate)+"' " : "") +
-                (endDate!=null ? "AND ch.created < '"+new Date(endDate)+"' " : "");
-        String orderBy = "ORDER BY ch.created desc LIMIT "+max+" OFFSET " + offset;
-
+        String from = "FROM (" + page + ") ch ";
         if(fullData) {
             select += ", c.data as data,c.service_name as serviceName, " +
                     "c.class as className, c.action_message as actionMessage, u.username as username ";
             from += "LEFT JOIN command c ON ch.command_id = c.id " +
                     "LEFT JOIN sec_user u ON u.id = ch.user_id ";
         }
+        String orderBy = "ORDER BY ch.created DESC, ch.id DESC";
 
         List<JsonObject> data = new ArrayList<>();
-        Long start = System.currentTimeMillis();
 
-        Query nativeQuery = getEntityManager().createNativeQuery(select + from + where + orderBy, Tuple.class);
+        Query nativeQuery = getEntityManager().createNativeQuery(select + from + orderBy, Tuple.class);
+        for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+            if (parameter.getValue() instanceof Date) {
+                nativeQuery.setParameter(parameter.getKey(), (Date) parameter.getValue(), TemporalType.TIMESTAMP);
+            } else {
+                nativeQuery.setParameter(parameter.getKey(), parameter.getValue());
+            }
+        }
         List<Tuple> resultList = nativeQuery.getResultList();
         for (Tuple tuple : resultList) {
-            if(data.isEmpty()) {
-                start = System.currentTimeMillis();
-            }
             JsonObject jsonObject = JsonObject.of(
                   "id", tuple.get("id"),
                   "created", tuple.get("created"),
@@ -840,6 +897,9 @@ public class ProjectService extends ModelService {
     }
 
     public List<Long> getActiveProjects() {
+        if (presenceRegistry.isEnabled()) {
+            return presenceRegistry.activeProjects();
+        }
         Date xSecondAgo = DateUtils.addSeconds(new Date(), -120);
         List<Bson> requests = new ArrayList<>();
         requests.add(match(gte("created", xSecondAgo)));
@@ -851,17 +911,23 @@ public class ProjectService extends ModelService {
     }
 
     public List<JsonObject> getActiveProjectsWithNumberOfUsers() {
-        Date xSecondAgo = DateUtils.addSeconds(new Date(), -120);
-        List<Bson> requests = new ArrayList<>();
-        requests.add(match(gte("created", xSecondAgo)));
-        requests.add(group(Document.parse("{project: '$project', user: '$user'}")));
-        requests.add(group("$_id.project", Accumulators.sum("users", 1)));
+        List<JsonObject> tmp;
+        if (presenceRegistry.isEnabled()) {
+            tmp = presenceRegistry.activeProjectsWithNumberOfUsers().entrySet().stream()
+                    .map(x -> JsonObject.of("project", x.getKey(), "users", x.getValue())).collect(Collectors.toList());
+        } else {
+            Date xSecondAgo = DateUtils.addSeconds(new Date(), -120);
+            List<Bson> requests = new ArrayList<>();
+            requests.add(match(gte("created", xSecondAgo)));
+            requests.add(group(Document.parse("{project: '$project', user: '$user'}")));
+            requests.add(group("$_id.project", Accumulators.sum("users", 1)));
 
-        MongoCollection<Document> persistentImageConsultation = mongoClient.getDatabase(DATABASE_NAME).getCollection("persistentProjectConnection");
-        List<Document> results = persistentImageConsultation.aggregate(requests)
-                .into(new ArrayList<>());
+            MongoCollection<Document> persistentImageConsultation = mongoClient.getDatabase(DATABASE_NAME).getCollection("persistentProjectConnection");
+            List<Document> results = persistentImageConsultation.aggregate(requests)
+                    .into(new ArrayList<>());
 
-        List<JsonObject> tmp = results.stream().map(x -> JsonObject.of("project", x.get("_id"), "users", x.get("users"))).collect(Collectors.toList());
+            tmp = results.stream().map(x -> JsonObject.of("project", x.get("_id"), "users", x.get("users"))).collect(Collectors.toList());
+        }
 
         List<Project> projects = projectRepository.findAllByIdIn(tmp.stream().map(x-> (Long)x.get("project")).collect(Collectors.toList()));
 
@@ -890,6 +956,7 @@ public class ProjectService extends ModelService {
         securityACLService.check(domain.container(),ADMINISTRATION);
         securityACLService.checkIsNotReadOnly(domain.container());
         Command c = new DeleteCommand(currentUser, transaction);
+        c.setRefuseUndo(!cascadeDeleteService.isUndoable());
         return executeCommand(c,domain, null);
     }
 
@@ -957,9 +1024,7 @@ public class ProjectService extends ModelService {
 
     protected void beforeUpdate(CytomineDomain domain) {
         Project project = (Project)domain;
-        project.setCountAnnotations(annotationDomainRepository.countAllUserAnnotationAndProject(domain.getId()));
-        project.setCountJobAnnotations(annotationDomainRepository.countAllAlgoAnnotationAndProject(domain.getId()));
-        project.setCountReviewedAnnotations(annotationDomainRepository.countAllReviewedAnnotationAndProject(domain.getId()));
+        annotationCounterService.refreshProjectCounts(project);
         project.setCountImages(imageInstanceRepository.countAllByProject(project));
     }
 
@@ -1015,7 +1080,11 @@ public class ProjectService extends ModelService {
 
     private void deleteDependentImageInstance(Project project, Transaction transaction, Task task) {
          taskService.updateTask(task,(task!=null? "Delete " +imageInstanceRepository.countAllByProject(project)+ " images":""));
-        for (ImageInstance imageInstance : imageInstanceRepository.findAllByProject(project)) {
+        List<ImageInstance> images = imageInstanceRepository.findAllByProject(project);
+        if (cascadeDeleteService.isEnabled()) {
+            cascadeDeleteService.deleteImageDependencies(images.stream().map(CytomineDomain::getId).collect(Collectors.toList()), task);
+        }
+        for (ImageInstance imageInstance : images) {
             imageInstanceService.delete(imageInstance, transaction, task , false);
         }
 
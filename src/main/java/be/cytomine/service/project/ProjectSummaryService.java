@@ -0,0 +1,60 @@
+package be.cytomine.service.project;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.ProjectSummaryProperties;
+import be.cytomine.service.database.DeltaFoldService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * Last activity and member count of each project are kept in project_summary, so that the project listing
+ * does not aggregate command_history and the ACL tables.
+ * Command history inserts append a row in project_activity_delta, folded periodically into the summaries;
+ * member counts are recomputed by the ACL triggers. The image count is the project count_images column.
+ */
+@Service
+public class ProjectSummaryService extends DeltaFoldService {
+
+    /**
+     * Projects with their last activity, pending deltas included (see ProjectService.list)
+     */
+    public static final String LAST_ACTIVITY_REQUEST =
+            "SELECT project_id, MAX(last_activity) AS max_date " +
+            "FROM (SELECT project_id, last_activity FROM project_summary " +
+            "      UNION ALL " +
+            "      SELECT project_id, created FROM project_activity_delta) summaries " +
+            "GROUP BY project_id";
+
+    /**
+     * Projects with their member count, null without member as the count was not stored (see ProjectService.list)
+     */
+    public static final String MEMBERS_COUNT_REQUEST =
+            "SELECT project_id, NULLIF(member_count, 0) AS member_count FROM project_summary";
+
+    @Autowired
+    public ProjectSummaryService(ApplicationProperties applicationProperties, JdbcTemplate jdbcTemplate) {
+        this(applicationProperties.getProjectSummary(), jdbcTemplate);
+    }
+
+    public ProjectSummaryService(ProjectSummaryProperties properties, JdbcTemplate jdbcTemplate) {
+        super(jdbcTemplate, "project activity", "foldProjectActivity", "project_activity_delta",
+                properties.getEnabled(), properties.getFoldIntervalInMillis());
+    }
+}
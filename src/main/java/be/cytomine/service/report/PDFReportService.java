@@ -24,6 +24,7 @@ import java.awt.*;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import be.quodlibet.boxable.BaseTable;
 import be.quodlibet.boxable.Cell;
@@ -38,6 +39,7 @@ import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.font.PDType1Font;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -152,6 +154,41 @@ public class PDFReportService {
         }
     }
 
+    /**
+     * Create a writer for a PDF report.
+     * The table layout needs all the rows, so rows are kept until the writer is closed
+     * and the PDF is then written to the output stream.
+     */
+    public ReportWriter createPdfWriter(OutputStream output,
+                                        String title,
+                                        float[] columnWidth,
+                                        boolean hasPagination,
+                                        boolean hasHeader) {
+        List<Object[]> rows = new ArrayList<>();
+        return new ReportWriter() {
+            @Override
+            public void writeRow(Object[] row) {
+                rows.add(row);
+            }
+
+            @Override
+            public void close() throws ServerException {
+                byte[] pdf = writePDF(rows.toArray(new Object[0][]), title, columnWidth, hasPagination, hasHeader);
+                try {
+                    output.write(pdf);
+                    output.flush();
+                } catch (IOException e) {
+                    throw new ServerException(String.format("Cannot write pdf report with title=%s. Error: %s", title, e.getMessage()));
+                }
+            }
+
+            @Override
+            public void abort() {
+                rows.clear();
+            }
+        };
+    }
+
     /**
      * Verify that all rows have the same number of cells
      * Throw a Report Generation error if not
@@ -25,8 +25,10 @@ import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.io.OutputStream;
 import java.text.ParseException;
 import java.util.*;
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
@@ -98,6 +100,49 @@ public class ReportService {
         return generateReport(getAnnotationReportTitle(projectName, terms, users), dataForReport, ANNOTATION_REPORT_COLUMNS, format);
     }
 
+    /**
+     * Write an annotation report to the output stream while annotations are produced,
+     * so that the whole report is never held in memory (except for pdf, see PDFReportService).
+     * If the annotations cannot be read, the report is not completed and the exception is rethrown.
+     *
+     * @param annotations source pushing each annotation to the given consumer
+     */
+    public void writeAnnotationsReport(String projectName, Set<String> terms, Set<String> users, String format, OutputStream output, Consumer<Consumer<Map<String, Object>>> annotations) throws ServerException {
+        ReportWriter writer = createReportWriter(getAnnotationReportTitle(projectName, terms, users), ANNOTATION_REPORT_COLUMNS, format, output);
+        try {
+            annotations.accept(annotation -> writer.writeRow(reportFormatService.formatAnnotationForReport(ANNOTATION_REPORT_COLUMNS, annotation)));
+        } catch (RuntimeException e) {
+            // a failed report must not look complete
+            writer.abort();
+            throw e;
+        }
+        writer.close();
+    }
+
+    /**
+     * Create a report writer for the format, with the column titles as first row.
+     * Spreadsheets are written as csv or xlsx.
+     */
+    public ReportWriter createReportWriter(String title, List<ReportColumn> columns, String format, OutputStream output) throws ServerException {
+        ReportWriter writer;
+        switch (format){
+            case "csv":
+                writer = spreadsheetReportService.createCsvWriter(output);
+                break;
+            case "xls":
+                writer = spreadsheetReportService.createXlsxWriter(output);
+                break;
+            case "pdf":
+                writer = pdfReportService.createPdfWriter(output, title, reportFormatService.getColumnWidth(columns), HAS_PAGINATION, HAS_HEADER);
+                break;
+            default :
+                log.error("Format should be one of these types: 'pdf', 'csv' or 'xls'.");
+                throw new ServerException("Failed to generate report, invalid format. Format should be one of these types: 'pdf', 'csv' or 'xls'.");
+        }
+        writer.writeRow(ReportFormatService.getColumnTitles(columns));
+        return writer;
+    }
+
     private byte[] generateJsonObjectReport(String title, List<JsonObject> data, List<ReportColumn> columns){
         Object[][] dataForReport = reportFormatService.formatJsonObjectForReport(columns, data);
         return generateReport(title, dataForReport, columns, "csv");
@@ -143,7 +188,14 @@ public class ReportService {
     }
 
     public String getAnnotationReportFileName(String format, Long projectId){
-        return DateUtils.getSimpleFormatLocaleDate(new Date()) + "_annotations_project" + projectId + "." + format;
+        return DateUtils.getSimpleFormatLocaleDate(new Date()) + "_annotations_project" + projectId + "." + getStreamedReportFormat(format);
+    }
+
+    /**
+     * Format of a report written with createReportWriter: spreadsheets requested as "xls" are xlsx workbooks
+     */
+    public static String getStreamedReportFormat(String format) {
+        return "xls".equals(format) ? "xlsx" : format;
     }
 
     public String getUsersReportFileName(String format, Long projectId){
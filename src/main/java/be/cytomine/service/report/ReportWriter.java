@@ -0,0 +1,33 @@
+package be.cytomine.service.report;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.exceptions.ServerException;
+
+/**
+ * Write a report row by row, so that a report does not need to be fully built in memory.
+ * Closing the writer completes the report, aborting it releases the writer without completing it.
+ */
+public interface ReportWriter extends AutoCloseable {
+
+    void writeRow(Object[] row) throws ServerException;
+
+    @Override
+    void close() throws ServerException;
+
+    void abort();
+}
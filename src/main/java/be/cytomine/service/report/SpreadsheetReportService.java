@@ -24,10 +24,13 @@ import org.apache.poi.hssf.usermodel.HSSFSheet;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.springframework.stereotype.Service;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.math.BigDecimal;
 
@@ -35,6 +38,11 @@ import java.math.BigDecimal;
 @Slf4j
 public class SpreadsheetReportService {
 
+    /**
+     * Number of xlsx rows kept in memory, older rows are flushed to a temporary file
+     */
+    static final int XLSX_ROW_WINDOW = 100;
+
     /**
      * Write a spreadsheet report (xls)
      *
@@ -76,20 +84,7 @@ public class SpreadsheetReportService {
             var currentRow = sheet.createRow(rowNum++);
             int colNum = 0;
             for (var field : row) {
-                var currentCell = currentRow.createCell(colNum++);
-                if (field instanceof String) {
-                    currentCell.setCellValue((String) field);
-                } else if (field instanceof Integer) {
-                    currentCell.setCellValue((Integer) field);
-                } else if (field instanceof Double) {
-                    currentCell.setCellValue((Double) field);
-                } else if (field instanceof Boolean) {
-                    currentCell.setCellValue((Boolean) field);
-                } else if (field instanceof Long) {
-                    currentCell.setCellValue((Long) field);
-                } else if (field instanceof BigDecimal) {
-                    currentCell.setCellValue(((BigDecimal) field).doubleValue());
-                }
+                setCellValue(currentRow.createCell(colNum++), field);
             }
         }
 
@@ -104,5 +99,104 @@ public class SpreadsheetReportService {
 
     }
 
-}
+    /**
+     * Create a writer printing csv rows directly to the output stream
+     *
+     * @param  output
+     * @return ReportWriter
+     */
+    public ReportWriter createCsvWriter(OutputStream output) throws ServerException {
+        CSVFormat format = CSVFormat.EXCEL.withDelimiter(';');
+        try {
+            CSVPrinter csvPrinter = new CSVPrinter(new OutputStreamWriter(output), format);
+            return new ReportWriter() {
+                @Override
+                public void writeRow(Object[] row) throws ServerException {
+                    try {
+                        csvPrinter.printRecord(row);
+                    } catch (IOException e) {
+                        throw new ServerException(String.format("Cannot write spread sheet row. Error: %s", e.getMessage()));
+                    }
+                }
+
+                @Override
+                public void close() throws ServerException {
+                    try {
+                        csvPrinter.close();
+                        log.info("Spread sheet file has been generated");
+                    } catch (IOException e) {
+                        throw new ServerException(String.format("Cannot generate spread sheet. Error: %s", e.getMessage()));
+                    }
+                }
+
+                @Override
+                public void abort() {
+                    // the buffered rows are not flushed
+                }
+            };
+        } catch (IOException e) {
+            throw new ServerException(String.format("Cannot generate spread sheet with params: format=%s. Error: %s", format, e.getMessage()));
+        }
+    }
 
+    /**
+     * Create a writer for a streaming xlsx workbook.
+     * Only the last rows are kept in memory, the others are flushed to a (compressed) temporary file.
+     * The workbook is written to the output stream when the writer is closed.
+     *
+     * @param  output
+     * @return ReportWriter
+     */
+    public ReportWriter createXlsxWriter(OutputStream output) {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(XLSX_ROW_WINDOW);
+        workbook.setCompressTempFiles(true);
+        Sheet sheet = workbook.createSheet("Sheet1");
+        return new ReportWriter() {
+            private int rowNum = 0;
+
+            @Override
+            public void writeRow(Object[] row) {
+                Row currentRow = sheet.createRow(rowNum++);
+                int colNum = 0;
+                for (Object field : row) {
+                    setCellValue(currentRow.createCell(colNum++), field);
+                }
+            }
+
+            @Override
+            public void close() throws ServerException {
+                try {
+                    workbook.write(output);
+                    output.flush();
+                    log.info("Spreadsheet file has been generated");
+                } catch (IOException e) {
+                    log.error("Failed to generate spreadsheet. Error: {}", e.getMessage());
+                    throw new ServerException(String.format("Cannot generate spreadsheet. Error: %s", e.getMessage()));
+                } finally {
+                    workbook.dispose();
+                }
+            }
+
+            @Override
+            public void abort() {
+                workbook.dispose();
+            }
+        };
+    }
+
+    private static void setCellValue(Cell cell, Object field) {
+        if (field instanceof String) {
+            cell.setCellValue((String) field);
+        } else if (field instanceof Integer) {
+            cell.setCellValue((Integer) field);
+        } else if (field instanceof Double) {
+            cell.setCellValue((Double) field);
+        } else if (field instanceof Boolean) {
+            cell.setCellValue((Boolean) field);
+        } else if (field instanceof Long) {
+            cell.setCellValue((Long) field);
+        } else if (field instanceof BigDecimal) {
+            cell.setCellValue(((BigDecimal) field).doubleValue());
+        }
+    }
+}
@@ -29,6 +29,7 @@ import be.cytomine.exceptions.ObjectNotFoundException;
 import be.cytomine.repository.security.SecRoleRepository;
 import be.cytomine.repository.security.SecUserRepository;
 import be.cytomine.repository.security.SecUserSecRoleRepository;
+import be.cytomine.security.PrincipalCache;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
 import be.cytomine.utils.CommandResponse;
@@ -64,6 +65,9 @@ public class SecUserSecRoleService extends ModelService {
     @Autowired
     SecUserRepository secUserRepository;
 
+    @Autowired
+    PrincipalCache principalCache;
+
     @Override
     public Class currentDomain() {
         return SecUserSecRoleService.class;
@@ -214,6 +218,7 @@ public class SecUserSecRoleService extends ModelService {
             susr.setSecRole(role);
             susr.setSecUser(user);
             super.saveDomain(susr);
+            principalCache.evictUser(user.getId());
         }
     }
     private void removeRole(SecUser user,SecRole role) {
@@ -223,9 +228,18 @@ public class SecUserSecRoleService extends ModelService {
                 throw new ForbiddenException("You cannot remove you a role");
             }
             super.removeDomain(linked.get());
+            principalCache.evictUser(user.getId());
         }
     }
 
+    protected void afterAdd(CytomineDomain domain, CommandResponse response) {
+        principalCache.evictUser(((SecUserSecRole) domain).getSecUser().getId());
+    }
+
+    protected void afterDelete(CytomineDomain domain, CommandResponse response) {
+        principalCache.evictUser(((SecUserSecRole) domain).getSecUser().getId());
+    }
+
     /**
      * Retrieve domain thanks to a JSON object
      * @return domain retrieve thanks to json
@@ -43,6 +43,7 @@ import be.cytomine.repository.project.ProjectDefaultLayerRepository;
 import be.cytomine.repository.project.ProjectRepository;
 import be.cytomine.repository.project.ProjectRepresentativeUserRepository;
 import be.cytomine.repository.security.*;
+import be.cytomine.security.PrincipalCache;
 import be.cytomine.repositorynosql.social.AnnotationActionRepository;
 import be.cytomine.repositorynosql.social.LastConnectionRepository;
 import be.cytomine.repositorynosql.social.PersistentImageConsultationRepository;
@@ -60,6 +61,7 @@ import be.cytomine.service.project.ProjectRepresentativeUserService;
 import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.search.UserSearchExtension;
 import be.cytomine.service.social.ImageConsultationService;
+import be.cytomine.service.social.PresenceRegistry;
 import be.cytomine.service.social.ProjectConnectionService;
 import be.cytomine.service.social.UserPositionService;
 import be.cytomine.utils.*;
@@ -130,6 +132,9 @@ public class SecUserService extends ModelService {
     @Autowired
     private LastConnectionRepository lastConnectionRepository;
 
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+
     @Autowired
     private CommandHistoryRepository commandHistoryRepository;
 
@@ -229,6 +234,9 @@ public class SecUserService extends ModelService {
     @Autowired
     private StorageRepository storageRepository;
 
+    @Autowired
+    private PrincipalCache principalCache;
+
     public Optional<SecUser> find(Long id) {
         securityACLService.checkGuest(currentUserService.getCurrentUser());
         return secUserRepository.findById(id);
@@ -890,6 +898,9 @@ public class SecUserService extends ModelService {
      */
     public List<SecUser> getAllOnlineUsers() {
         securityACLService.checkGuest(currentUserService.getCurrentUser());
+        if (presenceRegistry.isEnabled()) {
+            return secUserRepository.findAllByIdIn(presenceRegistry.onlineUsers());
+        }
         //get date with -X secondes
         Date xSecondAgo = DateUtils.addSeconds(new Date(), -300);
         // TODO: could be improve regarding performance...
@@ -903,6 +914,9 @@ public class SecUserService extends ModelService {
      */
     public List<Long> getAllOnlineUserIds(Project project) {
         securityACLService.checkGuest(currentUserService.getCurrentUser());
+        if (presenceRegistry.isEnabled()) {
+            return presenceRegistry.onlineUsers(project.getId());
+        }
         //get date with -X secondes
         Date xSecondAgo = DateUtils.addSeconds(new Date(), -300);
         // TODO: could be improve regarding performance...
@@ -1062,6 +1076,7 @@ public class SecUserService extends ModelService {
         user.setPasswordExpired(false);
         user.setNewPassword(null);
         this.saveDomain(user);
+        principalCache.evictUser(user.getId());
     }
 
     public boolean isUserPassword(User user, String password) {
@@ -1213,6 +1228,14 @@ public class SecUserService extends ModelService {
         }
     }
 
+    protected void afterUpdate(CytomineDomain domain, CommandResponse response) {
+        principalCache.evictUser(domain.getId());
+    }
+
+    protected void afterDelete(CytomineDomain domain, CommandResponse response) {
+        principalCache.evictUser(domain.getId());
+    }
+
     @Override
     public CytomineDomain retrieve(JsonObject json) {
         return secUserRepository.findById(json.getJSONAttrLong("id"))
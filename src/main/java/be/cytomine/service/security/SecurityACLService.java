@@ -37,7 +37,10 @@ import be.cytomine.repository.security.AclRepository;
 import be.cytomine.service.CurrentRoleService;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.PermissionService;
+import be.cytomine.utils.ClassUtils;
 import be.cytomine.utils.StringUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.acls.model.Permission;
@@ -50,6 +53,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static org.springframework.security.acls.domain.BasePermission.*;
@@ -58,6 +62,8 @@ import static org.springframework.security.acls.domain.BasePermission.*;
 @Service
 public class SecurityACLService {
 
+    static final String CHECK_TIMER = "cytomine.acl.checks";
+
     @Autowired
     private EntityManager entityManager;
 
@@ -79,6 +85,9 @@ public class SecurityACLService {
     @Autowired
     private ProjectRepository projectRepository;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Autowired
     private AclRepository aclRepository;
 
@@ -122,7 +131,16 @@ public class SecurityACLService {
 
     public void check(CytomineDomain domain, Permission permission, SecUser currentUser) {
         if (domain!=null) {
-            if (!hasPermission(retrieveContainer(domain), permission, currentRoleService.isAdminByNow(currentUser))) {
+            long start = System.nanoTime();
+            boolean granted = hasPermission(retrieveContainer(domain), permission, currentRoleService.isAdminByNow(currentUser));
+            Timer.builder(CHECK_TIMER)
+                    .description("ACL checks on a domain")
+                    .tag("domain", ClassUtils.getClassName(domain))
+                    .tag("permission", permissionName(permission))
+                    .tag("outcome", granted ? "granted" : "denied")
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (!granted) {
                 throw new ForbiddenException("You don't have the right to read or modify this resource! "  + domain.getClass() + " " + domain.getId());
             }
         } else {
@@ -130,6 +148,21 @@ public class SecurityACLService {
         }
     }
 
+    private static String permissionName(Permission permission) {
+        if (READ.equals(permission)) {
+            return "READ";
+        } else if (WRITE.equals(permission)) {
+            return "WRITE";
+        } else if (CREATE.equals(permission)) {
+            return "CREATE";
+        } else if (DELETE.equals(permission)) {
+            return "DELETE";
+        } else if (ADMINISTRATION.equals(permission)) {
+            return "ADMINISTRATION";
+        }
+        return String.valueOf(permission.getMask());
+    }
+
     public void check(CytomineDomain domain, Permission permission) {
         check(domain, permission, currentUserService.getCurrentUser());
 
@@ -123,6 +123,9 @@ public class ImageConsultationService {
     @Autowired
     ImageInstanceService imageInstanceService;
 
+    @Autowired
+    SocialRollupService socialRollupService;
+
     public PersistentImageConsultation add(SecUser user, Long imageId, String session, String mode, Date created) {
         System.out.println(currentUserService.getCurrentUser());
         ImageInstance imageInstance = imageInstanceRepository.findById(imageId)
@@ -153,6 +156,7 @@ public class ImageConsultationService {
 
 
         persistentImageConsultationRepository.insert(consultation);
+        socialRollupService.recordConsultation(consultation);
 
         return consultation;
     }
@@ -517,6 +521,11 @@ public class ImageConsultationService {
 
 
     public Long countByProject(Project project, Long startDate, Long endDate) {
+        if (socialRollupService.canServe(SocialRollupService.Kind.CONSULTATION)) {
+            // created > startDate and created < endDate, as the repository queries
+            return socialRollupService.count(SocialRollupService.Kind.CONSULTATION,
+                    startDate != null ? startDate + 1 : null, endDate, eq("project", project.getId()));
+        }
         if (startDate == null && endDate == null) {
             return persistentImageConsultationRepository.countByProject(project.getId());
         } else if (endDate == null) {
@@ -533,17 +542,25 @@ public class ImageConsultationService {
         SecUser user = (SecUser)currentUserService.getCurrentUser();
         securityACLService.checkIsSameUser(user, currentUserService.getCurrentUser());
 
+        boolean rollups = socialRollupService.canServe(SocialRollupService.Kind.CONSULTATION);
         List<Bson> requests = new ArrayList<>();
         requests.add(match(eq("user", user.getId())));
-        requests.add(sort(ascending("created")));
-        requests.add(group("$image",
-                Accumulators.max("date", "$created")));
+        if (rollups) {
+            requests.add(match(eq("period", SocialRollupService.DAY)));
+            requests.add(group("$image",
+                    Accumulators.max("date", "$last")));
+        } else {
+            requests.add(sort(ascending("created")));
+            requests.add(group("$image",
+                    Accumulators.max("date", "$created")));
+        }
         requests.add(sort(descending("date")));
         requests.add(limit(max == null || max ==0 ? 5 : max.intValue()));
 
         List<JsonObject> data = new ArrayList<>();
 
-        MongoCollection<Document> persistentImageConsultation = mongoClient.getDatabase(DATABASE_NAME).getCollection("persistentImageConsultation");
+        MongoCollection<Document> persistentImageConsultation = mongoClient.getDatabase(DATABASE_NAME)
+                .getCollection(rollups ? SocialRollupService.Kind.CONSULTATION.getRollup() : "persistentImageConsultation");
 
 
         List<Document> results = persistentImageConsultation.aggregate(requests)
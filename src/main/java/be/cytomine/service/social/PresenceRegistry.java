@@ -0,0 +1,301 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.PresenceRegistryProperties;
+import be.cytomine.domain.social.LastConnection;
+import be.cytomine.domain.social.LastUserPosition;
+import be.cytomine.domain.social.PersistentProjectConnection;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Clock;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * In memory view of who is currently online, fed by the ping, project connection and position write paths.
+ * Each user keeps its last seen time per project and per image, so that the online users and active projects
+ * are answered from the entries of the current window instead of aggregating the mongo collections on each call.
+ * Entries older than their window are purged periodically: the registry only holds the active users.
+ * It only sees the events received by this instance; the mongo collections are still written and can rebuild it at startup.
+ */
+@Slf4j
+@Component
+public class PresenceRegistry {
+
+    /**
+     * A user is online if it pinged during the last 5 minutes
+     */
+    public static final long ONLINE_USER_WINDOW_IN_MILLIS = 300000;
+
+    /**
+     * A project is active if a user opened it during the last 2 minutes
+     */
+    public static final long ACTIVE_PROJECT_WINDOW_IN_MILLIS = 120000;
+
+    /**
+     * A user is online on an image if it sent a position during the last 30 seconds
+     */
+    public static final long ONLINE_IMAGE_WINDOW_IN_MILLIS = 30000;
+
+    private final PresenceRegistryProperties properties;
+
+    private final MongoOperations mongoOperations;
+
+    private final Clock clock;
+
+    private final ScheduledExecutorService scheduler;
+
+    // user -> last ping
+    private final Map<Long, Long> lastConnections = new ConcurrentHashMap<>();
+
+    // project -> user -> last ping in the project
+    private final Map<Long, Map<Long, Long>> lastProjectPings = new ConcurrentHashMap<>();
+
+    // project -> user -> last project connection
+    private final Map<Long, Map<Long, Long>> lastProjectConnections = new ConcurrentHashMap<>();
+
+    // image -> (user, slice, broadcast) -> last position
+    private final Map<Long, Map<Position, Long>> lastPositions = new ConcurrentHashMap<>();
+
+    @Autowired
+    public PresenceRegistry(ApplicationProperties applicationProperties, MongoOperations mongoOperations) {
+        this(applicationProperties.getPresenceRegistry(), mongoOperations, Clock.systemUTC());
+    }
+
+    PresenceRegistry(PresenceRegistryProperties properties, MongoOperations mongoOperations, Clock clock) {
+        this.properties = properties;
+        this.mongoOperations = mongoOperations;
+        this.clock = clock;
+        if (properties.getEnabled()) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "presence-registry-purge");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.scheduler.scheduleWithFixedDelay(this::purge,
+                    properties.getPurgeIntervalInMillis(), properties.getPurgeIntervalInMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return properties.getEnabled();
+    }
+
+    /**
+     * A ping of the user, on a project or not (project is null)
+     */
+    public void connection(Long user, Long project, Date created) {
+        if (!isEnabled()) {
+            return;
+        }
+        lastConnections.merge(user, created.getTime(), Math::max);
+        if (project != null) {
+            touch(lastProjectPings, project, user, created);
+        }
+    }
+
+    /**
+     * The user opened the project
+     */
+    public void projectConnection(Long user, Long project, Date created) {
+        if (!isEnabled()) {
+            return;
+        }
+        touch(lastProjectConnections, project, user, created);
+    }
+
+    /**
+     * A position of the user on an image slice
+     */
+    public void position(Long user, Long image, Long slice, boolean broadcast, Date created) {
+        if (!isEnabled()) {
+            return;
+        }
+        touch(lastPositions, image, new Position(user, slice, broadcast), created);
+    }
+
+    public List<Long> onlineUsers() {
+        long since = clock.millis() - ONLINE_USER_WINDOW_IN_MILLIS;
+        return lastConnections.entrySet().stream()
+                .filter(entry -> entry.getValue() >= since)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    public List<Long> onlineUsers(Long project) {
+        long since = clock.millis() - ONLINE_USER_WINDOW_IN_MILLIS;
+        return lastProjectPings.getOrDefault(project, Map.of()).entrySet().stream()
+                .filter(entry -> entry.getValue() >= since)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    public List<Long> activeProjects() {
+        return new ArrayList<>(activeProjectsWithNumberOfUsers().keySet());
+    }
+
+    /**
+     * Number of users who opened each active project
+     */
+    public Map<Long, Integer> activeProjectsWithNumberOfUsers() {
+        long since = clock.millis() - ACTIVE_PROJECT_WINDOW_IN_MILLIS;
+        Map<Long, Integer> projects = new HashMap<>();
+        lastProjectConnections.forEach((project, users) -> {
+            int count = (int) users.values().stream().filter(created -> created >= since).count();
+            if (count > 0) {
+                projects.put(project, count);
+            }
+        });
+        return projects;
+    }
+
+    /**
+     * Users with a position on the image (on the slice if not null, broadcasted only if required)
+     */
+    public List<Long> onlineUsersByImage(Long image, Long slice, boolean broadcast) {
+        long since = clock.millis() - ONLINE_IMAGE_WINDOW_IN_MILLIS;
+        return lastPositions.getOrDefault(image, Map.of()).entrySet().stream()
+                .filter(entry -> entry.getValue() >= since)
+                .map(Map.Entry::getKey)
+                .filter(position -> slice == null || slice.equals(position.slice))
+                .filter(position -> !broadcast || position.broadcast)
+                .map(position -> position.user)
+                .distinct()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Remove the entries older than their window
+     */
+    public void purge() {
+        long now = clock.millis();
+        lastConnections.values().removeIf(created -> created < now - ONLINE_USER_WINDOW_IN_MILLIS);
+        purge(lastProjectPings, now - ONLINE_USER_WINDOW_IN_MILLIS);
+        purge(lastProjectConnections, now - ACTIVE_PROJECT_WINDOW_IN_MILLIS);
+        purge(lastPositions, now - ONLINE_IMAGE_WINDOW_IN_MILLIS);
+    }
+
+    public int size() {
+        return lastConnections.size();
+    }
+
+    /**
+     * Load the events of the current windows from mongo (e.g. after a restart)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildOnStartup() {
+        if (isEnabled() && properties.getRebuildOnStartup()) {
+            try {
+                rebuild();
+            } catch (DataAccessException e) {
+                log.error("Cannot rebuild presence registry: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    public void rebuild() {
+        long now = clock.millis();
+        for (LastConnection connection : findCreatedAfter(LastConnection.class, now - ONLINE_USER_WINDOW_IN_MILLIS)) {
+            connection(connection.getUser(), connection.getProject(), connection.getCreated());
+        }
+        for (PersistentProjectConnection connection : findCreatedAfter(PersistentProjectConnection.class, now - ACTIVE_PROJECT_WINDOW_IN_MILLIS)) {
+            projectConnection(connection.getUser(), connection.getProject(), connection.getCreated());
+        }
+        for (LastUserPosition position : findCreatedAfter(LastUserPosition.class, now - ONLINE_IMAGE_WINDOW_IN_MILLIS)) {
+            position(position.getUser(), position.getImage(), position.getSlice(), position.isBroadcast(), position.getCreated());
+        }
+        log.info("Presence registry rebuilt with {} online users", size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private <T> List<T> findCreatedAfter(Class<T> type, long since) {
+        return mongoOperations.find(Query.query(Criteria.where("created").gte(new Date(since))), type);
+    }
+
+    private static <K> void touch(Map<Long, Map<K, Long>> entries, Long id, K key, Date created) {
+        entries.compute(id, (k, values) -> {
+            Map<K, Long> result = values != null ? values : new ConcurrentHashMap<>();
+            result.merge(key, created.getTime(), Math::max);
+            return result;
+        });
+    }
+
+    private static <K> void purge(Map<Long, Map<K, Long>> entries, long since) {
+        for (Long id : entries.keySet()) {
+            // computed atomically with touch() so that a new entry is never dropped with its emptied map
+            entries.computeIfPresent(id, (k, values) -> {
+                values.values().removeIf(created -> created < since);
+                return values.isEmpty() ? null : values;
+            });
+        }
+    }
+
+    private static final class Position {
+
+        private final Long user;
+
+        private final Long slice;
+
+        private final boolean broadcast;
+
+        private Position(Long user, Long slice, boolean broadcast) {
+            this.user = user;
+            this.slice = slice;
+            this.broadcast = broadcast;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Position)) {
+                return false;
+            }
+            Position position = (Position) o;
+            return broadcast == position.broadcast && Objects.equals(user, position.user) && Objects.equals(slice, position.slice);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(user, slice, broadcast);
+        }
+    }
+}
@@ -41,6 +41,8 @@ import be.cytomine.utils.filters.SearchParameterEntry;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.Accumulators;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.time.DateUtils;
 import org.bson.Document;
@@ -66,8 +68,12 @@ import static com.mongodb.client.model.Aggregates.*;
 import static com.mongodb.client.model.Filters.*;
 import static com.mongodb.client.model.Sorts.ascending;
 import static com.mongodb.client.model.Sorts.descending;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static com.mongodb.client.model.Projections.include;
@@ -79,6 +85,9 @@ import static org.springframework.security.acls.domain.BasePermission.*;
 public class ProjectConnectionService {
 
     public static final String DATABASE_NAME = "cytomine";
+
+    static final String AGGREGATION_TIMER = "cytomine.connections.aggregations";
+
     @Autowired
     CurrentUserService currentUserService;
 
@@ -124,6 +133,15 @@ public class ProjectConnectionService {
     @Autowired
     private SessionFactory sessionFactory;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    PresenceRegistry presenceRegistry;
+
+    @Autowired
+    SocialRollupService socialRollupService;
+
     public PersistentProjectConnection add(SecUser user, Project project, String session, String os, String browser, String browserVersion) {
         return add(user, project, session, os, browser, browserVersion, new Date());
     }
@@ -143,6 +161,8 @@ public class ProjectConnectionService {
         connection.setBrowserVersion(browserVersion);
 
         persistentProjectConnectionRepository.insert(connection);
+        presenceRegistry.projectConnection(user.getId(), project.getId(), created);
+        socialRollupService.recordConnection(connection);
 
         return connection;
     }
@@ -178,15 +198,19 @@ public class ProjectConnectionService {
 //        if(max > 0) aggregation.push([$limit : max])
 
 
+        boolean rollups = socialRollupService.canServe(SocialRollupService.Kind.CONNECTION);
         List<Bson> matchsFilters = new ArrayList<>();
         matchsFilters.add(match(eq("project", project.getId())));
         if (users != null) {
             matchsFilters.add(match(in("user", users)));
         }
+        if (rollups) {
+            matchsFilters.add(match(eq("period", SocialRollupService.DAY)));
+        }
 
         Bson sort = sort(sortDirection.equals("desc") ? descending(sortProperty) : ascending(sortProperty));
 
-        Bson group = group("$user", Accumulators.max("created", "$created"));
+        Bson group = group("$user", Accumulators.max("created", rollups ? "$last" : "$created"));
 
         Bson skip = skip(offset.intValue());
 
@@ -198,10 +222,7 @@ public class ProjectConnectionService {
             requests.add(limit(max.intValue()));
         }
 
-        MongoCollection<Document> persistentProjectConnection = mongoClient.getDatabase(DATABASE_NAME).getCollection("persistentProjectConnection");
-
-        List<Document> results = persistentProjectConnection.aggregate(requests)
-                .into(new ArrayList<>());
+        List<Document> results = aggregate("lastConnectionInProject", requests, rollups);
         results.forEach(printDocuments());
 
         //TODO: bug?...seems that sometimes ProjectConnectionServiceTests.* tests are failing. the sorting on created does not work perfectly (only sort with s, not with ms)?
@@ -236,7 +257,7 @@ public class ProjectConnectionService {
 //        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(PersistentProjectConnection.class);
 //        criteria.add(Restrictions.eq("project", project));
 
-        AggregationResults queryResults = persistentProjectConnectionRepository.retrieve(project.getId(), sortProperty, (sortDirection.equals("desc")? -1 : 1));
+        AggregationResults queryResults = timeAggregation("lastConnectionOfGivenUsersInProject", () -> persistentProjectConnectionRepository.retrieve(project.getId(), sortProperty, (sortDirection.equals("desc")? -1 : 1)));
         List aggregation = queryResults.getMappedResults();
         List<Long> connected = (List<Long>) aggregation.stream().map(x -> x instanceof LinkedHashMap ? (Long)((LinkedHashMap)x).get("user") : (Long)((PersistentProjectConnection)x).getUser()).distinct().collect(Collectors.toList());
 
@@ -289,7 +310,7 @@ public class ProjectConnectionService {
 //                [$project: [dateInMillis: [$subtract: ['$created', new Date(0L)]]]]
 //        );
 
-        AggregationResults connections = projectConnectionRepository.retrieve(connection.getProject(), connection.getUser(), before, after, new Date(0));
+        AggregationResults connections = timeAggregation("fillProjectConnection", () -> projectConnectionRepository.retrieve(connection.getProject(), connection.getUser(), before, after, new Date(0)));
         List aggregation = connections.getMappedResults();
 
         List<Long> continuousConnections = new ArrayList<>();
@@ -372,15 +393,21 @@ public class ProjectConnectionService {
 //                    [$sort : ["$sortProperty": sortDirection.equals("desc") ? -1 : 1]],
 //                    [$skip : offset]
 //            ]
+            boolean rollups = socialRollupService.canServe(SocialRollupService.Kind.CONNECTION);
             List<Bson> matchsFilters = new ArrayList<>();
             matchsFilters.add(match(eq("project", project.getId())));
             if (users != null) {
                 matchsFilters.add(match(in("user", users)));
             }
+            if (rollups) {
+                matchsFilters.add(match(eq("period", SocialRollupService.DAY)));
+            }
 
             Bson sort = sort(sortDirection.equals("desc") ? descending(sortProperty) : ascending(sortProperty));
 
-            Bson group = group("$user", Accumulators.sum("frequency", 1), Accumulators.max("created", "$created"));
+            Bson group = rollups ?
+                    group("$user", Accumulators.sum("frequency", "$frequency"), Accumulators.max("created", "$last")) :
+                    group("$user", Accumulators.sum("frequency", 1), Accumulators.max("created", "$created"));
 
             Bson skip = skip(offset.intValue());
 
@@ -392,10 +419,7 @@ public class ProjectConnectionService {
                 requests.add(limit(max.intValue()));
             }
 
-            MongoCollection<Document> persistentProjectConnection = mongoClient.getDatabase(DATABASE_NAME).getCollection("persistentProjectConnection");
-
-            List<Document> results = persistentProjectConnection.aggregate(requests)
-                    .into(new ArrayList<>());
+            List<Document> results = aggregate("numberOfConnectionsByProjectAndUser", requests, rollups);
             results.forEach(printDocuments());
 
             return results.stream().map(x -> JsonObject.of("user", x.get("_id"), "frequency", x.get("frequency"))).collect(Collectors.toList());
@@ -407,10 +431,12 @@ public class ProjectConnectionService {
     public List<JsonObject>  numberOfConnectionsOfGivenByProject(Project project, List<Long> userIds, String sortProperty, String sortDirection, Long max, Long offset){
         List<JsonObject> results = new ArrayList<>();
 
-        MongoCollection<Document> persistentProjectConnection = mongoClient.getDatabase(DATABASE_NAME).getCollection("persistentProjectConnection");
-        List<Document> requestResults = persistentProjectConnection.
-                aggregate(List.of(Document.parse("{$match: {project: "+project.getId()+"}}"),Document.parse("{$group: {_id : '$user', created : {$max :'$created'}}}"), Document.parse("{$sort: {"+sortProperty+": "+(sortDirection.equals("desc")? -1 : 1)+"}}")))
-                .into(new ArrayList<>());
+        List<Document> requestResults;
+        if (socialRollupService.canServe(SocialRollupService.Kind.CONNECTION)) {
+            requestResults = aggregate("numberOfConnectionsOfGivenByProject", List.of(Document.parse("{$match: {project: "+project.getId()+", period: '"+SocialRollupService.DAY+"'}}"),Document.parse("{$group: {_id : '$user', created : {$max :'$last'}}}"), Document.parse("{$sort: {"+sortProperty+": "+(sortDirection.equals("desc")? -1 : 1)+"}}")), true);
+        } else {
+            requestResults = aggregate("numberOfConnectionsOfGivenByProject", List.of(Document.parse("{$match: {project: "+project.getId()+"}}"),Document.parse("{$group: {_id : '$user', created : {$max :'$created'}}}"), Document.parse("{$sort: {"+sortProperty+": "+(sortDirection.equals("desc")? -1 : 1)+"}}")));
+        }
         requestResults.forEach(printDocuments());
 
 //
@@ -460,7 +486,15 @@ public class ProjectConnectionService {
 
         // what we want
         // db.persistentProjectConnection.aggregate([{ $group : { _id : {project:"$project"} , total : { $sum : 1 }}}])
-        AggregationResults aggregationResults = persistentProjectConnectionRepository.countConnectionByProject();
+        if (socialRollupService.canServe(SocialRollupService.Kind.CONNECTION)) {
+            List<Document> results = aggregate("totalNumberOfConnectionsByProject",
+                    List.of(match(eq("period", SocialRollupService.DAY)), group("$project", Accumulators.sum("total", "$frequency"))), true);
+            for (Document result : results) {
+                projectConnections.add(JsonObject.of("project", result.get("_id"), "total", result.get("total")));
+            }
+            return projectConnections;
+        }
+        AggregationResults aggregationResults = timeAggregation("totalNumberOfConnectionsByProject", () -> persistentProjectConnectionRepository.countConnectionByProject());
         List<Document> results = (List<Document>)aggregationResults.getRawResults().get("results");
         for (Document result : results) {
             projectConnections.add(JsonObject.of("project", result.get("_id"), "total", result.get("total")));
@@ -482,6 +516,10 @@ public class ProjectConnectionService {
         Bson group = Document.parse(
                 "{$group : {_id : { year: '$y', month: '$m', day: '$d', hour: '$h'}, \"time\":{$first:'$time'}, \"frequency\":{$sum:1}}}");
 
+        if (socialRollupService.canServe(SocialRollupService.Kind.CONNECTION)) {
+            return countByBucket("numberOfConnectionsByProjectOrderedByHourAndDays", SocialRollupService.HOUR, afterThan, null, project, null);
+        }
+
         Bson match = match(eq("project", project.getId()));
         if (afterThan != null) {
             match = match(and(gte("created", new Date(afterThan)), eq("project", project.getId())));
@@ -489,10 +527,7 @@ public class ProjectConnectionService {
 
         List<Bson> requests = List.of(match, projection1, projection2, group);
 
-        MongoCollection<Document> persistentProjectConnection = mongoClient.getDatabase(DATABASE_NAME).getCollection("persistentProjectConnection");
-
-        List<Document> results = persistentProjectConnection.aggregate(requests)
-                .into(new ArrayList<>());
+        List<Document> results = aggregate("numberOfConnectionsByProjectOrderedByHourAndDays", requests);
         results.forEach(printDocuments());
 
         List<JsonObject> connections = new ArrayList<>();
@@ -522,6 +557,11 @@ public class ProjectConnectionService {
     }
 
     public Long countByProject(Project project, Long startDate, Long endDate) {
+        if (socialRollupService.canServe(SocialRollupService.Kind.CONNECTION)) {
+            // created > startDate and created < endDate, as the repository queries
+            return socialRollupService.count(SocialRollupService.Kind.CONNECTION,
+                    startDate != null ? startDate + 1 : null, endDate, eq("project", project.getId()));
+        }
         if (startDate==null && endDate==null) {
             return persistentProjectConnectionRepository.countByProject(project.getId());
         } else if (endDate==null) {
@@ -558,6 +598,10 @@ public class ProjectConnectionService {
             period = "hour";
         }
 
+        if (!period.equals("week") && socialRollupService.canServe(SocialRollupService.Kind.CONNECTION)) {
+            return countByBucket("numberOfProjectConnections", period, afterThan, beforeThan + 1, project, user);
+        }
+
         switch (period){
             case "hour" :
                 //substract all minutes,seconds & milliseconds (last unit is hour)
@@ -605,10 +649,7 @@ public class ProjectConnectionService {
         requests.addAll(matchs);
         requests.addAll(List.of(projection1, projection2, group));
 
-        MongoCollection<Document> persistentProjectConnection = mongoClient.getDatabase(DATABASE_NAME).getCollection("persistentProjectConnection");
-
-        List<Document> results = persistentProjectConnection.aggregate(requests)
-                .into(new ArrayList<>());
+        List<Document> results = aggregate("numberOfProjectConnections", requests);
 
         List<JsonObject> connections = new ArrayList<>();
         for (Document result : results) {
@@ -650,6 +691,10 @@ public class ProjectConnectionService {
             period = "hour";
         }
 
+        if (!period.equals("week") && socialRollupService.canServe(SocialRollupService.Kind.CONNECTION)) {
+            return averageOfBuckets(period, countByBucket("averageOfProjectConnections", period, afterThan, beforeThan + 1, project, user));
+        }
+
         switch (period){
             case "hour" :
                 //substract all minutes,seconds & milliseconds (last unit is hour)
@@ -694,10 +739,7 @@ public class ProjectConnectionService {
         requests.addAll(matchs);
         requests.addAll(List.of(projection1, projection2, group));
 
-        MongoCollection<Document> persistentProjectConnection = mongoClient.getDatabase(DATABASE_NAME).getCollection("persistentProjectConnection");
-
-        List<Document> results = persistentProjectConnection.aggregate(requests)
-                .into(new ArrayList<>());
+        List<Document> results = aggregate("averageOfProjectConnections", requests);
 
         Integer total = results.stream().map(x -> x.get("frequency",0)).reduce(0, Integer::sum);
         if (total == 0L) {
@@ -762,6 +804,63 @@ public class ProjectConnectionService {
 
 
 
+    /**
+     * Connections by bucket of the period ('hour' or 'day'), read from the rollups
+     */
+    private List<JsonObject> countByBucket(String operation, String period, Long from, Long to, Project project, SecUser user) {
+        Document filter = new Document();
+        if (project != null) {
+            filter.append("project", project.getId());
+        }
+        if (user != null) {
+            filter.append("user", user.getId());
+        }
+        Map<Long, Integer> buckets = timeAggregation(operation, () -> socialRollupService.countByBucket(SocialRollupService.Kind.CONNECTION, period, from, to, filter));
+        List<JsonObject> connections = new ArrayList<>();
+        buckets.forEach((time, frequency) -> connections.add(JsonObject.of("time", new Date(time), "frequency", frequency)));
+        return connections;
+    }
+
+    /**
+     * Share of the connections by hour of the day ('hour') or day of the month ('day'), in UTC as the aggregations.
+     * Buckets are sorted by time: the time of a group is its first bucket.
+     */
+    private static List<JsonObject> averageOfBuckets(String period, List<JsonObject> buckets) {
+        Map<Integer, Date> times = new LinkedHashMap<>();
+        Map<Integer, Integer> frequencies = new HashMap<>();
+        int total = 0;
+        for (JsonObject bucket : buckets) {
+            Date time = (Date) bucket.get("time");
+            ZonedDateTime date = Instant.ofEpochMilli(time.getTime()).atZone(ZoneOffset.UTC);
+            int key = period.equals("day") ? date.getDayOfMonth() : date.getHour();
+            times.putIfAbsent(key, time);
+            frequencies.merge(key, (Integer) bucket.get("frequency"), Integer::sum);
+            total += (Integer) bucket.get("frequency");
+        }
+        double divisor = total == 0 ? 1 : total;
+        List<JsonObject> connections = new ArrayList<>();
+        times.forEach((key, time) -> connections.add(JsonObject.of("time", time, "frequency", frequencies.get(key) / divisor)));
+        return connections;
+    }
+
+    private List<Document> aggregate(String operation, List<? extends Bson> pipeline) {
+        return aggregate(operation, pipeline, false);
+    }
+
+    private List<Document> aggregate(String operation, List<? extends Bson> pipeline, boolean rollups) {
+        MongoCollection<Document> persistentProjectConnection = mongoClient.getDatabase(DATABASE_NAME)
+                .getCollection(rollups ? SocialRollupService.Kind.CONNECTION.getRollup() : "persistentProjectConnection");
+        return timeAggregation(operation, () -> persistentProjectConnection.aggregate(pipeline).into(new ArrayList<>()));
+    }
+
+    private <T> T timeAggregation(String operation, Supplier<T> aggregation) {
+        return Timer.builder(AGGREGATION_TIMER)
+                .description("Aggregations on the project connections")
+                .tag("operation", operation)
+                .register(meterRegistry)
+                .record(aggregation);
+    }
+
     private static Consumer<Document> printDocuments() {
         return doc -> System.out.println(doc.toJson(JsonWriterSettings.builder().indent(true).build()));
     }
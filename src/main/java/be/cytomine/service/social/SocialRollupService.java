@@ -0,0 +1,352 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.SocialRollupProperties;
+import be.cytomine.domain.social.PersistentImageConsultation;
+import be.cytomine.domain.social.PersistentProjectConnection;
+import be.cytomine.service.database.SequenceService;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.*;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.mongodb.client.model.Aggregates.group;
+import static com.mongodb.client.model.Aggregates.match;
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Projections.include;
+
+/**
+ * Hourly and daily rollups of the project connections and image consultations: one document per bucket, project and user
+ * (and image for the consultations) with the number of raw documents and the last creation date.
+ * Statistics read the rollups instead of aggregating the raw collections over the whole project history.
+ * Rollups are incremented when a connection or a consultation is recorded. The first time, they are built from the raw
+ * collection: documents with an id lower than a cutoff id are counted by the rebuild, the others incrementally.
+ * Documents created shortly before the rebuild are counted last, so that the ones inserted while the collection is read
+ * are not missed.
+ * A range that does not start or end on a bucket boundary reads its partial buckets from the raw collection.
+ */
+@Slf4j
+@Service
+public class SocialRollupService {
+
+    public static final String DATABASE_NAME = "cytomine";
+
+    public static final String HOUR = "hour";
+
+    public static final String DAY = "day";
+
+    static final String STATE_COLLECTION = "socialRollupState";
+
+    private static final long HOUR_IN_MILLIS = 3600000L;
+
+    private static final long DAY_IN_MILLIS = 86400000L;
+
+    /**
+     * Cutoff of a rollup not built yet: nothing is recorded incrementally, the rebuild will count it
+     */
+    private static final long NOT_BUILT = Long.MAX_VALUE;
+
+    public enum Kind {
+        CONNECTION("persistentProjectConnection", "projectConnectionRollup", List.of("project", "user"), List.of(HOUR, DAY)),
+        CONSULTATION("persistentImageConsultation", "imageConsultationRollup", List.of("project", "user", "image"), List.of(DAY));
+
+        private final String source;
+
+        private final String rollup;
+
+        private final List<String> keys;
+
+        private final List<String> periods;
+
+        Kind(String source, String rollup, List<String> keys, List<String> periods) {
+            this.source = source;
+            this.rollup = rollup;
+            this.keys = keys;
+            this.periods = periods;
+        }
+
+        public String getRollup() {
+            return rollup;
+        }
+    }
+
+    private final SocialRollupProperties properties;
+
+    private final MongoClient mongoClient;
+
+    private final SequenceService sequenceService;
+
+    private final Map<Kind, Long> cutoffs = new ConcurrentHashMap<>();
+
+    private final Set<Kind> complete = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public SocialRollupService(ApplicationProperties applicationProperties, MongoClient mongoClient, SequenceService sequenceService) {
+        this(applicationProperties.getSocialRollup(), mongoClient, sequenceService);
+    }
+
+    public SocialRollupService(SocialRollupProperties properties, MongoClient mongoClient, SequenceService sequenceService) {
+        this.properties = properties;
+        this.mongoClient = mongoClient;
+        this.sequenceService = sequenceService;
+    }
+
+    public boolean isEnabled() {
+        return properties.getEnabled();
+    }
+
+    /**
+     * Rollups of this kind are built and can answer the statistics
+     */
+    public boolean canServe(Kind kind) {
+        return isEnabled() && cutoff(kind) != NOT_BUILT && complete.contains(kind);
+    }
+
+    public void recordConnection(PersistentProjectConnection connection) {
+        record(Kind.CONNECTION, connection.getId(), connection.getCreated(),
+                new Document("project", connection.getProject()).append("user", connection.getUser()));
+    }
+
+    public void recordConsultation(PersistentImageConsultation consultation) {
+        record(Kind.CONSULTATION, consultation.getId(), consultation.getCreated(),
+                new Document("project", consultation.getProject()).append("user", consultation.getUser()).append("image", consultation.getImage()));
+    }
+
+    /**
+     * Remove the consultations of a deleted image, as its raw consultations are
+     */
+    public void deleteConsultationsOfImage(Long image) {
+        if (isEnabled()) {
+            collection(Kind.CONSULTATION.rollup).deleteMany(eq("image", image));
+        }
+    }
+
+    /**
+     * Number of raw documents created in [from, to[ (null for unbounded) and matching the filter on the rollup keys,
+     * by bucket of the period (bucket start in millis).
+     */
+    public Map<Long, Integer> countByBucket(Kind kind, String period, Long from, Long to, Bson filter) {
+        long size = size(period);
+        Long firstBucket = from != null ? Math.floorDiv(from + size - 1, size) * size : null;
+        Long endBucket = to != null ? Math.floorDiv(to, size) * size : null;
+        Map<Long, Integer> buckets = new TreeMap<>();
+        if (firstBucket != null && endBucket != null && firstBucket >= endBucket) {
+            countRaw(kind, size, from, to, filter, buckets);
+            return buckets;
+        }
+
+        List<Bson> matchs = new ArrayList<>(List.of(filter, eq("period", period)));
+        if (firstBucket != null) {
+            matchs.add(gte("time", new Date(firstBucket)));
+        }
+        if (endBucket != null) {
+            matchs.add(lt("time", new Date(endBucket)));
+        }
+        List<Bson> requests = List.of(match(and(matchs)), group("$time", Accumulators.sum("frequency", "$frequency")));
+        for (Document result : collection(kind.rollup).aggregate(requests)) {
+            buckets.merge(result.getDate("_id").getTime(), ((Number) result.get("frequency")).intValue(), Integer::sum);
+        }
+
+        if (firstBucket != null && from < firstBucket) {
+            countRaw(kind, size, from, firstBucket, filter, buckets);
+        }
+        if (endBucket != null && endBucket < to) {
+            countRaw(kind, size, endBucket, to, filter, buckets);
+        }
+        return buckets;
+    }
+
+    /**
+     * Number of raw documents created in [from, to[ (null for unbounded) and matching the filter on the rollup keys
+     */
+    public long count(Kind kind, Long from, Long to, Bson filter) {
+        return countByBucket(kind, DAY, from, to, filter).values().stream().mapToLong(Integer::longValue).sum();
+    }
+
+    /**
+     * Build the rollups that were never built (or whose build was interrupted)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildIfNeeded() {
+        if (!isEnabled()) {
+            return;
+        }
+        for (Kind kind : Kind.values()) {
+            try {
+                createIndexes(kind);
+                if (cutoff(kind) == NOT_BUILT) {
+                    rebuild(kind);
+                }
+            } catch (MongoException e) {
+                log.error("Cannot build the {} rollups: {}", kind, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Rebuild the rollups of this kind from the raw collection
+     */
+    public void rebuild(Kind kind) {
+        complete.remove(kind);
+        cutoffs.put(kind, NOT_BUILT);
+        collection(kind.rollup).deleteMany(new Document());
+        Date recent = new Date(System.currentTimeMillis() - properties.getLateInsertMarginInMillis());
+        long cutoff = sequenceService.generateID();
+        cutoffs.put(kind, cutoff);
+        state().replaceOne(eq("_id", kind.name()), new Document("_id", kind.name()).append("cutoff", cutoff).append("complete", false),
+                new ReplaceOptions().upsert(true));
+
+        long documents = aggregate(kind, and(lt("_id", cutoff), lt("created", recent)));
+        // an id generated before the cutoff may be inserted after the cursor passed it (and is not recorded incrementally):
+        // recent documents are counted once the whole collection is read
+        documents += aggregate(kind, and(lt("_id", cutoff), gte("created", recent)));
+
+        state().updateOne(eq("_id", kind.name()), Updates.set("complete", true));
+        complete.add(kind);
+        log.info("{} rollups built: {} documents", kind, documents);
+    }
+
+    /**
+     * Increment the rollups with the raw documents matching the filter
+     * @return Number of rollup documents written
+     */
+    private long aggregate(Kind kind, Bson filter) {
+        long documents = 0;
+        for (String period : kind.periods) {
+            Document id = new Document();
+            Document projection = new Document("created", 1).append("time", new Document("$subtract", List.of("$created", truncation(period))));
+            for (String key : kind.keys) {
+                id.append(key, "$" + key);
+                projection.append(key, 1);
+            }
+            id.append("time", "$time");
+            List<Bson> requests = List.of(
+                    match(filter),
+                    new Document("$project", projection),
+                    group(id, Accumulators.sum("frequency", 1), Accumulators.max("last", "$created")));
+
+            List<WriteModel<Document>> updates = new ArrayList<>();
+            for (Document result : collection(kind.source).aggregate(requests).allowDiskUse(true)) {
+                Document keys = new Document();
+                Document group = result.get("_id", Document.class);
+                kind.keys.forEach(key -> keys.append(key, group.get(key)));
+                updates.add(increment(period, group.getDate("time"), keys, ((Number) result.get("frequency")).intValue(), result.getDate("last")));
+                if (updates.size() == properties.getBatchSize()) {
+                    collection(kind.rollup).bulkWrite(updates);
+                    documents += updates.size();
+                    updates.clear();
+                }
+            }
+            if (!updates.isEmpty()) {
+                collection(kind.rollup).bulkWrite(updates);
+                documents += updates.size();
+            }
+        }
+        return documents;
+    }
+
+    private void record(Kind kind, Long id, Date created, Document keys) {
+        if (!isEnabled() || created == null || id <= cutoff(kind)) {
+            return;
+        }
+        List<WriteModel<Document>> updates = new ArrayList<>();
+        for (String period : kind.periods) {
+            long size = size(period);
+            updates.add(increment(period, new Date(Math.floorDiv(created.getTime(), size) * size), keys, 1, created));
+        }
+        collection(kind.rollup).bulkWrite(updates);
+    }
+
+    private long cutoff(Kind kind) {
+        return cutoffs.computeIfAbsent(kind, key -> {
+            Document state = state().find(eq("_id", key.name())).first();
+            if (state == null || !state.getBoolean("complete", false)) {
+                return NOT_BUILT;
+            }
+            complete.add(key);
+            return state.getLong("cutoff");
+        });
+    }
+
+    private void createIndexes(Kind kind) {
+        Document unique = new Document("project", 1).append("period", 1).append("time", 1);
+        kind.keys.stream().filter(key -> !key.equals("project")).forEach(key -> unique.append(key, 1));
+        collection(kind.rollup).createIndex(unique, new IndexOptions().unique(true));
+        collection(kind.rollup).createIndex(new Document("user", 1).append("period", 1).append("time", 1));
+        if (kind.keys.contains("image")) {
+            collection(kind.rollup).createIndex(new Document("image", 1));
+        }
+    }
+
+    private static WriteModel<Document> increment(String period, Date time, Document keys, int frequency, Date last) {
+        Document filter = new Document("period", period).append("time", time);
+        filter.putAll(keys);
+        return new UpdateOneModel<>(filter, Updates.combine(Updates.inc("frequency", frequency), Updates.max("last", last)),
+                new UpdateOptions().upsert(true));
+    }
+
+    private void countRaw(Kind kind, long size, Long from, Long to, Bson filter, Map<Long, Integer> buckets) {
+        List<Bson> matchs = new ArrayList<>(List.of(filter));
+        if (from != null) {
+            matchs.add(gte("created", new Date(from)));
+        }
+        if (to != null) {
+            matchs.add(lt("created", new Date(to)));
+        }
+        for (Document document : collection(kind.source).find(and(matchs)).projection(include("created"))) {
+            buckets.merge(Math.floorDiv(document.getDate("created").getTime(), size) * size, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Milliseconds to subtract from '$created' to get the start of its bucket (same truncation as the statistics)
+     */
+    private static Document truncation(String period) {
+        List<Object> parts = new ArrayList<>(List.of(
+                new Document("$millisecond", "$created"),
+                new Document("$multiply", List.of(new Document("$second", "$created"), 1000)),
+                new Document("$multiply", List.of(new Document("$minute", "$created"), 60000))));
+        if (period.equals(DAY)) {
+            parts.add(new Document("$multiply", List.of(new Document("$hour", "$created"), 3600000)));
+        }
+        return new Document("$add", parts);
+    }
+
+    private static long size(String period) {
+        return period.equals(DAY) ? DAY_IN_MILLIS : HOUR_IN_MILLIS;
+    }
+
+    private MongoCollection<Document> collection(String name) {
+        return mongoClient.getDatabase(DATABASE_NAME).getCollection(name);
+    }
+
+    private MongoCollection<Document> state() {
+        return collection(STATE_COLLECTION);
+    }
+}
@@ -0,0 +1,247 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.SocialWriteBufferProperties;
+import be.cytomine.domain.social.LastConnection;
+import be.cytomine.domain.social.LastUserPosition;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind buffer for the social events sent by each open viewer (ping, position).
+ * Last connections and last positions are coalesced by key, only the most recent one of a flush interval is written.
+ * History documents (persistent connections, positions,...) are queued and inserted by batches.
+ * When the queue is full, the caller writes its document itself (backpressure) so that nothing is lost.
+ */
+@Slf4j
+@Component
+public class SocialWriteBuffer {
+
+    private final MongoOperations mongoOperations;
+
+    private final SocialWriteBufferProperties properties;
+
+    private final Map<String, LastConnection> lastConnections = new ConcurrentHashMap<>();
+
+    private final Map<String, LastUserPosition> lastUserPositions = new ConcurrentHashMap<>();
+
+    private final BlockingQueue<Object> history;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong buffered = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private final AtomicLong flushed = new AtomicLong();
+
+    private final AtomicLong directWrites = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    @Autowired
+    public SocialWriteBuffer(ApplicationProperties applicationProperties, MongoOperations mongoOperations) {
+        this(applicationProperties.getSocialWriteBuffer(), mongoOperations);
+    }
+
+    public SocialWriteBuffer(SocialWriteBufferProperties properties, MongoOperations mongoOperations) {
+        this.mongoOperations = mongoOperations;
+        this.properties = properties;
+        if (properties.getEnabled()) {
+            this.history = new ArrayBlockingQueue<>(properties.getCapacity());
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "social-write-buffer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.scheduler.scheduleWithFixedDelay(this::flush,
+                    properties.getFlushIntervalInMillis(), properties.getFlushIntervalInMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            this.history = null;
+            this.scheduler = null;
+        }
+    }
+
+    public void addLastConnection(LastConnection connection) {
+        if (history == null) {
+            mongoOperations.insert(connection);
+            return;
+        }
+        coalesce(lastConnections, connection.getUser() + "/" + connection.getProject(), connection);
+    }
+
+    public void addLastUserPosition(LastUserPosition position) {
+        if (history == null) {
+            mongoOperations.insert(position);
+            return;
+        }
+        coalesce(lastUserPositions, positionKey(position.getUser(), position.getImage(), position.getSlice(), position.isBroadcast()), position);
+    }
+
+    /**
+     * Queue a document of a history collection (never coalesced)
+     */
+    public void addHistory(Object document) {
+        if (history == null) {
+            mongoOperations.insert(document);
+            return;
+        }
+        if (history.offer(document)) {
+            buffered.incrementAndGet();
+        } else {
+            directWrites.incrementAndGet();
+            mongoOperations.insert(document);
+        }
+    }
+
+    /**
+     * Most recent position not yet written for this user on the slice (broadcasted only if required)
+     */
+    public Optional<LastUserPosition> findLastUserPosition(Long user, Long image, Long slice, boolean broadcast) {
+        if (history == null) {
+            return Optional.empty();
+        }
+        LastUserPosition position = lastUserPositions.get(positionKey(user, image, slice, true));
+        if (!broadcast) {
+            LastUserPosition notBroadcasted = lastUserPositions.get(positionKey(user, image, slice, false));
+            if (position == null || (notBroadcasted != null && notBroadcasted.getCreated().after(position.getCreated()))) {
+                position = notBroadcasted;
+            }
+        }
+        return Optional.ofNullable(position);
+    }
+
+    /**
+     * Write all buffered documents
+     */
+    public synchronized void flush() {
+        if (history == null) {
+            return;
+        }
+        try {
+            flushLast(lastConnections, LastConnection.class);
+            flushLast(lastUserPositions, LastUserPosition.class);
+            List<Object> batch = new ArrayList<>(properties.getBatchSize());
+            while (history.drainTo(batch, properties.getBatchSize()) > 0) {
+                Map<Class<?>, List<Object>> byClass = new LinkedHashMap<>();
+                for (Object document : batch) {
+                    byClass.computeIfAbsent(document.getClass(), key -> new ArrayList<>()).add(document);
+                }
+                byClass.forEach(this::insert);
+                batch.clear();
+            }
+        } catch (RuntimeException e) {
+            log.error("Cannot flush social write buffer: {}", e.getMessage(), e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flush();
+        }
+    }
+
+    private <T> void coalesce(Map<String, T> pending, String key, T document) {
+        buffered.incrementAndGet();
+        if (pending.put(key, document) != null) {
+            coalesced.incrementAndGet();
+        }
+        if (pending.size() > properties.getCapacity()) {
+            directWrites.incrementAndGet();
+            flush();
+        }
+    }
+
+    private <T> void flushLast(Map<String, T> pending, Class<T> type) {
+        List<T> documents = new ArrayList<>();
+        for (Map.Entry<String, T> entry : pending.entrySet()) {
+            // a newer document received meanwhile stays for the next flush
+            if (pending.remove(entry.getKey(), entry.getValue())) {
+                documents.add(entry.getValue());
+            }
+            if (documents.size() == properties.getBatchSize()) {
+                insert(type, new ArrayList<>(documents));
+                documents.clear();
+            }
+        }
+        insert(type, documents);
+    }
+
+    private void insert(Class<?> type, List<?> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        try {
+            mongoOperations.insert(documents, type);
+            flushed.addAndGet(documents.size());
+        } catch (RuntimeException e) {
+            failures.addAndGet(documents.size());
+            log.error("Cannot write {} {}: {}", documents.size(), type.getSimpleName(), e.getMessage());
+        }
+    }
+
+    private static String positionKey(Long user, Long image, Long slice, boolean broadcast) {
+        return user + "/" + image + "/" + slice + "/" + broadcast;
+    }
+
+    public long getBuffered() {
+        return buffered.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getFlushed() {
+        return flushed.get();
+    }
+
+    /**
+     * Documents written by the caller because the buffer was full
+     */
+    public long getDirectWrites() {
+        return directWrites.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public int getPending() {
+        return (history == null ? 0 : history.size() + lastConnections.size() + lastUserPositions.size());
+    }
+
+    public int getRemainingCapacity() {
+        return (history == null ? 0 : history.remainingCapacity());
+    }
+}
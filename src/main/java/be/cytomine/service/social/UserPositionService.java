@@ -122,6 +122,12 @@ public class UserPositionService {
     @Autowired
     SequenceService sequenceService;
 
+    @Autowired
+    SocialWriteBuffer socialWriteBuffer;
+
+    @Autowired
+    PresenceRegistry presenceRegistry;
+
 //
 //    public LastUserPosition add(SecUser user, SliceInstance sliceInstance) {
 //
@@ -147,7 +153,12 @@ public class UserPositionService {
             Double rotation,
             Boolean broadcast) {
 
-        Optional<LastUserPosition> lastPosition = lastPositionByUser(imageInstance, sliceInstance, user, broadcast);
+        Optional<LastUserPosition> lastPosition = socialWriteBuffer.findLastUserPosition(user.getId(), imageInstance.getId(), sliceInstance.getId(), broadcast);
+        if (lastPosition.isPresent()) {
+            securityACLService.check(imageInstance, READ);
+        } else {
+            lastPosition = lastPositionByUser(imageInstance, sliceInstance, user, broadcast);
+        }
 
         //TODO: no ACL???
         LastUserPosition position = new LastUserPosition();
@@ -164,7 +175,8 @@ public class UserPositionService {
         position.setCreated(created);
         position.setUpdated(created);
         position.setImageName(imageInstance.getBlindInstanceFilename());
-        lastUserPositionRepository.insert(position);
+        socialWriteBuffer.addLastUserPosition(position);
+        presenceRegistry.position(user.getId(), imageInstance.getId(), sliceInstance.getId(), broadcast, created);
 
         if(lastPosition.isPresent() && !LastUserPosition.isSameLocation(lastPosition.get().getLocation(), currentLocation)){
             try{
@@ -187,7 +199,7 @@ public class UserPositionService {
         persistedPosition.setCreated(created);
         persistedPosition.setUpdated(created);
         persistedPosition.setImageName(imageInstance.getBlindInstanceFilename());
-        persistentUserPositionRepository.insert(persistedPosition);
+        socialWriteBuffer.addHistory(persistedPosition);
 
         return persistedPosition;
     }
@@ -234,6 +246,9 @@ public class UserPositionService {
 
     public List<Long> listOnlineUsersByImage(ImageInstance image, SliceInstance slice, boolean broadcast) {
         securityACLService.check(image,READ);
+        if (presenceRegistry.isEnabled()) {
+            return presenceRegistry.onlineUsersByImage(image.getId(), slice != null ? slice.getId() : null, broadcast);
+        }
         Date thirtySecondsAgo = DateUtils.addSeconds(new Date(), -30);
 
         List<Bson> request = new ArrayList<>();
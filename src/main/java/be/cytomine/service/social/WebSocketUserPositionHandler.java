@@ -6,6 +6,7 @@ import be.cytomine.domain.security.User;
 import be.cytomine.domain.social.LastUserPosition;
 import be.cytomine.exceptions.ServerException;
 import be.cytomine.service.CytomineWebSocketHandler;
+import be.cytomine.service.WebSocketMessageDispatcher;
 import be.cytomine.service.image.ImageInstanceService;
 import be.cytomine.service.image.SliceInstanceService;
 import be.cytomine.service.security.SecUserService;
@@ -48,6 +49,9 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
     @Autowired
     SecUserService secUserService;
 
+    @Autowired
+    WebSocketMessageDispatcher webSocketMessageDispatcher;
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
         sessions = super.afterConnectionEstablished(session, sessions);
@@ -69,13 +73,16 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
         if(Boolean.parseBoolean(session.getAttributes().get("broadcast").toString())){
             String userAndImageId = session.getAttributes().get("userId").toString() + '/' + session.getAttributes().get("imageId").toString();
             ConcurrentWebSocketSessionDecorator broadcastSession = sessionsBroadcast.get(userAndImageId);
-            removeFromBroadcastSession(broadcastSession);
-            removeFromTrackerSessions(broadcastSession);
+            if(broadcastSession != null){
+                removeFromBroadcastSession(userAndImageId, broadcastSession);
+                removeFromTrackerSessions(broadcastSession);
+            }
         }
         else{
             removeSessionFromTrackerSessions(session);
         }
         removeFromSessions(session);
+        webSocketMessageDispatcher.remove(session.getId());
         log.debug("Closing user position WebSocket connection from {}", session.getRemoteAddress());
     }
 
@@ -92,21 +99,28 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
             addToTrackedSessions(broadcastSession, followerSession);
         }
 
-        moveFollowerAfterInitialConnection(Long.parseLong(broadcasterId), Long.parseLong(imageId), session);
+        moveFollowerAfterInitialConnection(Long.parseLong(broadcasterId), Long.parseLong(imageId), (followerSession != null ? followerSession : session));
     }
 
     private ConcurrentWebSocketSessionDecorator getSession(String followerId, String sessionId){
-        ConcurrentWebSocketSessionDecorator followerSession = null;
-        ConcurrentWebSocketSessionDecorator[] followerSessions = WebSocketUserPositionHandler.sessions.get(followerId);
-
-        try {
-            followerSession = Arrays.stream(followerSessions).filter(session -> session.getId().equals(sessionId)).toList().get(0);
-        }catch (NullPointerException e){
+        ConcurrentWebSocketSessionDecorator followerSession = findSession(WebSocketUserPositionHandler.sessions.get(followerId), sessionId);
+        if(followerSession == null){
             log.error("Follower : " + followerId + " has no session with id : " + sessionId);
         }
         return followerSession;
     }
 
+    private static ConcurrentWebSocketSessionDecorator findSession(ConcurrentWebSocketSessionDecorator[] userSessions, String sessionId){
+        if(userSessions != null){
+            for(ConcurrentWebSocketSessionDecorator session : userSessions){
+                if(session.getId().equals(sessionId)){
+                    return session;
+                }
+            }
+        }
+        return null;
+    }
+
     private void addToTrackedSessions(ConcurrentWebSocketSessionDecorator broadcastSession, ConcurrentWebSocketSessionDecorator trackingSession){
         if (WebSocketUserPositionHandler.sessionsTracked.containsKey(broadcastSession)) {
             ConcurrentWebSocketSessionDecorator[] trackedSessions = WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession);
@@ -161,16 +175,11 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
     }
 
     private void sendPosition(ConcurrentWebSocketSessionDecorator[] sessions, String position){
-        TextMessage message = new TextMessage(position);
-        for(ConcurrentWebSocketSessionDecorator s : sessions){
-            new Thread(() -> {
-                sendPosition(s, message);
-            }).start();
-        }
+        webSocketMessageDispatcher.send(sessions, new TextMessage(position));
     }
 
     private void sendPosition(WebSocketSession session, TextMessage position){
-        super.sendWebSocketMessage(session, position);
+        webSocketMessageDispatcher.send(session, position);
     }
 
     public List<String> getSessionsUserIds(ConcurrentWebSocketSessionDecorator[] sessions){
@@ -185,30 +194,24 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
     }
 
     private String getSessionUserId(ConcurrentWebSocketSessionDecorator session){
-        String userId = "";
-        loop:
+        // sessions are indexed by the user id set in the session attributes during the handshake
+        Object userId = session.getAttributes().get("userId");
+        if(userId != null && findSession(WebSocketUserPositionHandler.sessions.get(userId.toString()), session.getId()) != null){
+            return userId.toString();
+        }
         for(Map.Entry<String, ConcurrentWebSocketSessionDecorator[]> entry : WebSocketUserPositionHandler.sessions.entrySet()){
-            for(ConcurrentWebSocketSessionDecorator sessionDecorator : entry.getValue()){
-
-                if(sessionDecorator.getId().equals(session.getId())){
-                    System.out.println("Find user !");
-                    userId = entry.getKey();
-                    break loop;
-                }
-
+            if(findSession(entry.getValue(), session.getId()) != null){
+                return entry.getKey();
             }
         }
-        return userId;
+        return "";
     }
 
     private void removeSessionFromTrackerSessions(WebSocketSession session) {
         log.debug("Remove this tracking session from tracked sessions");
         for (Map.Entry<ConcurrentWebSocketSessionDecorator, ConcurrentWebSocketSessionDecorator[]> entry : WebSocketUserPositionHandler.sessionsTracked.entrySet()) {
-
-            for(ConcurrentWebSocketSessionDecorator trackedSession : entry.getValue()){
-                if(trackedSession.getId().equals(session.getId())){
-                    removeSessionFromTrackerSessions(session, entry.getKey());
-                }
+            if(findSession(entry.getValue(), session.getId()) != null){
+                removeSessionFromTrackerSessions(session, entry.getKey());
             }
         }
     }
@@ -220,16 +223,15 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
     }
 
     private void removeFromSessions(WebSocketSession session) {
-        for (Map.Entry<String, ConcurrentWebSocketSessionDecorator[]> entry : WebSocketUserPositionHandler.sessions.entrySet()) {
-
-            for(ConcurrentWebSocketSessionDecorator trackedSession : entry.getValue()){
-                if(trackedSession.getId().equals(session.getId())){
-                    String userId = entry.getKey();
-                    ConcurrentWebSocketSessionDecorator[] oldSessions = WebSocketUserPositionHandler.sessions.get(userId);
-                    ConcurrentWebSocketSessionDecorator[] newSessions = removeSession(oldSessions, session);
-                    WebSocketUserPositionHandler.sessions.replace(userId, oldSessions, newSessions);
-                }
-            }
+        Object userAttribute = session.getAttributes().get("userId");
+        if(userAttribute == null){
+            return;
+        }
+        String userId = userAttribute.toString();
+        ConcurrentWebSocketSessionDecorator[] oldSessions = WebSocketUserPositionHandler.sessions.get(userId);
+        if(findSession(oldSessions, session.getId()) != null){
+            ConcurrentWebSocketSessionDecorator[] newSessions = removeSession(oldSessions, session);
+            WebSocketUserPositionHandler.sessions.replace(userId, oldSessions, newSessions);
         }
     }
 
@@ -242,23 +244,15 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
         WebSocketUserPositionHandler.sessionsTracked.remove(broadcastSession);
     }
 
-    private void removeFromBroadcastSession(ConcurrentWebSocketSessionDecorator broadcastSession){
+    private void removeFromBroadcastSession(String userAndImageId, ConcurrentWebSocketSessionDecorator broadcastSession){
         log.debug("Remove this broadcast session from broadcast sessions");
-        for(Map.Entry<String, ConcurrentWebSocketSessionDecorator> entry : WebSocketUserPositionHandler.sessionsBroadcast.entrySet()){
-            if(entry.getValue().getId().equals(broadcastSession.getId())){
-                WebSocketUserPositionHandler.sessionsBroadcast.remove(entry.getKey());
-            }
-        }
+        WebSocketUserPositionHandler.sessionsBroadcast.remove(userAndImageId, broadcastSession);
     }
 
     private ConcurrentWebSocketSessionDecorator[] removeSession(ConcurrentWebSocketSessionDecorator[] oldSessions, WebSocketSession oldSession){
-        ConcurrentWebSocketSessionDecorator[] newSessions = new ConcurrentWebSocketSessionDecorator[oldSessions.length - 1];
-        for(int i=0; i < oldSessions.length; i++){
-            if(!oldSessions[i].getId().equals(oldSession.getId())){
-                newSessions[i] = oldSessions[i];
-            }
-        }
-        return newSessions;
+        return Arrays.stream(oldSessions)
+                .filter(session -> !session.getId().equals(oldSession.getId()))
+                .toArray(ConcurrentWebSocketSessionDecorator[]::new);
     }
 
     private void sendNotificationsAndCloseSessions(List<ConcurrentWebSocketSessionDecorator> sessionDecorators){
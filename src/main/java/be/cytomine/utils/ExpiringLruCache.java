@@ -0,0 +1,157 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import java.time.Clock;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Small in-process cache bounded in number of entries (LRU) with a time to live.
+ * Values are loaded outside of the lock, so a slow loader does not block other keys.
+ * A loader returning null is not cached (negative lookups always go to the loader).
+ */
+public class ExpiringLruCache<K, V> {
+
+    private final int maxEntries;
+
+    private final long timeToLiveInMillis;
+
+    private final Clock clock;
+
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Incremented on each invalidation: a value loaded before an invalidation must not be stored after it.
+     */
+    private long generation = 0;
+
+    public ExpiringLruCache(int maxEntries, long timeToLiveInMillis) {
+        this(maxEntries, timeToLiveInMillis, Clock.systemUTC());
+    }
+
+    public ExpiringLruCache(int maxEntries, long timeToLiveInMillis, Clock clock) {
+        this.maxEntries = maxEntries;
+        this.timeToLiveInMillis = timeToLiveInMillis;
+        this.clock = clock;
+    }
+
+    public V get(K key, Function<K, V> loader) {
+        long loadGeneration;
+        synchronized (this) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && clock.millis() < entry.expiresAt) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+            loadGeneration = generation;
+        }
+        misses.incrementAndGet();
+        V value = loader.apply(key);
+        synchronized (this) {
+            if (value != null && loadGeneration == generation) {
+                entries.put(key, new Entry<>(value, clock.millis() + timeToLiveInMillis));
+                Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+                while (entries.size() > maxEntries && iterator.hasNext()) {
+                    iterator.next();
+                    iterator.remove();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+        return value;
+    }
+
+    public synchronized void invalidate(K key) {
+        generation++;
+        if (entries.remove(key) != null) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    public synchronized void invalidateIf(Predicate<K> predicate) {
+        generation++;
+        Iterator<K> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (predicate.test(iterator.next())) {
+                iterator.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public synchronized void invalidateValuesIf(Predicate<V> predicate) {
+        generation++;
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (predicate.test(iterator.next().value)) {
+                iterator.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        invalidations.addAndGet(entries.size());
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    private static class Entry<V> {
+
+        private final V value;
+
+        private final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
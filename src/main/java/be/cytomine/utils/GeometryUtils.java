@@ -19,10 +19,14 @@ package be.cytomine.utils;
 import be.cytomine.exceptions.WrongArgumentException;
 import be.cytomine.service.dto.BoundariesCropParameter;
 import com.vividsolutions.jts.geom.*;
+import com.vividsolutions.jts.geom.util.PolygonExtracter;
 import com.vividsolutions.jts.io.ParseException;
 import com.vividsolutions.jts.io.WKTReader;
+import com.vividsolutions.jts.operation.union.CascadedPolygonUnion;
+import com.vividsolutions.jts.operation.union.UnaryUnionOp;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -73,6 +77,30 @@ public class GeometryUtils {
         throw new WrongArgumentException("Cannot extract boundaries for " + geometry);
     }
 
+    /**
+     * Union of all the geometries in a single operation.
+     * Polygons are merged by a cascaded union (neighbouring polygons are grouped with an STR-tree and merged
+     * level by level) instead of being added one by one to an ever growing geometry.
+     * @param geometries Geometries to merge (at least one)
+     * @return The merged geometry
+     */
+    public static Geometry union(Collection<Geometry> geometries) {
+        if (geometries.isEmpty()) {
+            throw new WrongArgumentException("Cannot merge an empty list of geometries");
+        }
+        if (geometries.stream().allMatch(geometry -> geometry instanceof Polygonal)) {
+            List<Polygon> polygons = new ArrayList<>();
+            for (Geometry geometry : geometries) {
+                PolygonExtracter.getPolygons(geometry, polygons);
+            }
+            Geometry union = CascadedPolygonUnion.union(polygons);
+            if (union != null) {
+                return union;
+            }
+        }
+        return UnaryUnionOp.union(geometries);
+    }
+
 
     /**
      * Fill polygon to complete empty space inside polygon/mulypolygon
@@ -21,8 +21,6 @@ import be.cytomine.dto.JsonInput;
 import be.cytomine.exceptions.ServerException;
 import be.cytomine.exceptions.WrongArgumentException;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import liquibase.pro.packaged.W;
 
 import javax.persistence.EntityManager;
@@ -128,7 +126,7 @@ public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
     public static String toJsonString(Object o) {
         try {
-            return new ObjectMapper().writeValueAsString(o);
+            return JsonUtils.writer().writeValueAsString(o);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             return "invalid json string";
@@ -137,7 +135,7 @@ public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
     public static Map<String, Object> toMap(String json) {
         try {
-            return new ObjectMapper().readValue(json, new TypeReference<Map<String, Object>>(){});
+            return JsonUtils.mapReader().readValue(json);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             return null;
@@ -146,7 +144,7 @@ public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
     public static <T> T toObject(String json, Class<? extends T> c) {
         try {
-            return new ObjectMapper().readValue(json, c);
+            return JsonUtils.reader(c).readValue(json);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             return null;
@@ -155,7 +153,7 @@ public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
     public static List<String> toStringList(String json) {
         try {
-            return new ObjectMapper().readValue(json, new TypeReference<List<String>>(){});
+            return JsonUtils.stringListReader().readValue(json);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             return null;
@@ -164,7 +162,7 @@ public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
     public static List<Map<String, Object>> toMapList(String json) {
         try {
-            return new ObjectMapper().readValue(json, new TypeReference<List<Map<String, Object>>>(){});
+            return JsonUtils.mapListReader().readValue(json);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             return null;
@@ -174,7 +172,7 @@ public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
     public static JsonObject toJsonObject(String json) {
         try {
-            return new ObjectMapper().readValue(json, new TypeReference<JsonObject>(){});
+            return JsonUtils.jsonObjectReader().readValue(json);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             return null;
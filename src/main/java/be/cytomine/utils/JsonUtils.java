@@ -0,0 +1,113 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.dto.JsonInput;
+import be.cytomine.dto.JsonMultipleObject;
+import be.cytomine.dto.JsonSingleObject;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Jackson mapper shared by JsonObject and the controllers.
+ * Building a mapper and warming its serializer caches is expensive, so a single instance is used;
+ * it keeps the Jackson defaults (e.g. dates as timestamps) that the per-call mappers had.
+ * The mapper itself is not exposed: readers and writers are immutable and safe to share between threads.
+ */
+public final class JsonUtils {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final ObjectWriter WRITER = MAPPER.writer();
+
+    private static final ObjectReader MAP_READER = MAPPER.readerFor(new TypeReference<Map<String, Object>>(){});
+
+    private static final ObjectReader STRING_LIST_READER = MAPPER.readerFor(new TypeReference<List<String>>(){});
+
+    private static final ObjectReader MAP_LIST_READER = MAPPER.readerFor(new TypeReference<List<Map<String, Object>>>(){});
+
+    private static final ObjectReader JSON_OBJECT_READER = MAPPER.readerFor(JsonObject.class);
+
+    private static final ObjectReader JSON_MULTIPLE_OBJECT_READER = MAPPER.readerFor(JsonMultipleObject.class);
+
+    private static final ObjectReader JSON_SINGLE_OBJECT_READER = MAPPER.readerFor(JsonSingleObject.class);
+
+    private JsonUtils() {
+    }
+
+    public static ObjectWriter writer() {
+        return WRITER;
+    }
+
+    public static ObjectReader reader(Class<?> type) {
+        return MAPPER.readerFor(type);
+    }
+
+    public static ObjectReader mapReader() {
+        return MAP_READER;
+    }
+
+    public static ObjectReader stringListReader() {
+        return STRING_LIST_READER;
+    }
+
+    public static ObjectReader mapListReader() {
+        return MAP_LIST_READER;
+    }
+
+    public static ObjectReader jsonObjectReader() {
+        return JSON_OBJECT_READER;
+    }
+
+    public static ObjectReader jsonMultipleObjectReader() {
+        return JSON_MULTIPLE_OBJECT_READER;
+    }
+
+    /**
+     * Factory whose generators write objects with the shared mapper
+     */
+    public static JsonFactory factory() {
+        return MAPPER.getFactory();
+    }
+
+    /**
+     * Read a request body holding either a list of objects or a single object
+     */
+    public static JsonInput toJsonInput(String json) throws JsonProcessingException {
+        if (json != null && isArray(json)) {
+            return JSON_MULTIPLE_OBJECT_READER.readValue(json);
+        }
+        return JSON_SINGLE_OBJECT_READER.readValue(json);
+    }
+
+    private static boolean isArray(String json) {
+        for (int i = 0; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '[';
+            }
+        }
+        return false;
+    }
+}
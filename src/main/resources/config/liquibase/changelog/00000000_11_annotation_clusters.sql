@@ -0,0 +1,128 @@
+-------------------------------------------------------------------------------------
+-- Annotation cluster pyramid: for each slice, user and annotation domain, annotations are counted in a grid of cells
+-- at several levels (cell size doubles at each level). Triggers append a delta row for each added/removed annotation,
+-- foldAnnotationClusters() adds the deltas to the cells of each level. A kmeans request reads the cells in the bbox.
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION annotationClusterLevels() RETURNS INTEGER AS $clusterLevels$
+BEGIN
+RETURN 12;
+END ;
+$clusterLevels$ LANGUAGE plpgsql IMMUTABLE;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION annotationClusterCellSize(level INTEGER) RETURNS DOUBLE PRECISION AS $clusterCellSize$
+BEGIN
+RETURN 256 * power(2, level);
+END ;
+$clusterCellSize$ LANGUAGE plpgsql IMMUTABLE;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION addAnnotationClusterDelta(domainName VARCHAR, projectId BIGINT, imageId BIGINT, sliceId BIGINT,
+        userId BIGINT, annotationLocation GEOMETRY, delta BIGINT) RETURNS VOID AS $addClusterDelta$
+DECLARE
+centroid GEOMETRY;
+BEGIN
+IF annotationLocation IS NULL OR sliceId IS NULL OR ST_IsEmpty(annotationLocation) THEN
+RETURN;
+END IF;
+centroid := ST_Centroid(annotationLocation);
+INSERT INTO annotation_cluster_delta(project_id, image_id, slice_id, user_id, domain, x, y, min_x, min_y, max_x, max_y, count)
+VALUES (projectId, imageId, sliceId, userId, domainName, ST_X(centroid), ST_Y(centroid),
+        ST_XMin(annotationLocation), ST_YMin(annotationLocation), ST_XMax(annotationLocation), ST_YMax(annotationLocation), delta);
+END ;
+$addClusterDelta$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION foldAnnotationClusters() RETURNS BIGINT AS $foldClusters$
+DECLARE
+folded BIGINT;
+sliceIds BIGINT[];
+domains VARCHAR[];
+levels INTEGER[];
+cellXs BIGINT[];
+cellYs BIGINT[];
+userIds BIGINT[];
+BEGIN
+PERFORM pg_advisory_xact_lock(hashtext('annotation_cluster_delta'));
+WITH moved AS (
+    DELETE FROM annotation_cluster_delta RETURNING *
+), cells AS (
+    SELECT max(m.project_id) AS project_id, max(m.image_id) AS image_id, m.slice_id, m.user_id, m.domain, l.level,
+           floor(m.x / annotationClusterCellSize(l.level))::BIGINT AS cell_x,
+           floor(m.y / annotationClusterCellSize(l.level))::BIGINT AS cell_y,
+           sum(m.count) AS count, sum(m.x * m.count) AS sum_x, sum(m.y * m.count) AS sum_y,
+           min(m.min_x) FILTER (WHERE m.count > 0) AS min_x, min(m.min_y) FILTER (WHERE m.count > 0) AS min_y,
+           max(m.max_x) FILTER (WHERE m.count > 0) AS max_x, max(m.max_y) FILTER (WHERE m.count > 0) AS max_y
+    FROM moved m CROSS JOIN generate_series(0, annotationClusterLevels() - 1) AS l(level)
+    GROUP BY m.slice_id, m.user_id, m.domain, l.level, 7, 8
+), upserted AS (
+    INSERT INTO annotation_cluster(project_id, image_id, slice_id, user_id, domain, level, cell_x, cell_y,
+                                   count, sum_x, sum_y, min_x, min_y, max_x, max_y)
+    SELECT project_id, image_id, slice_id, user_id, domain, level, cell_x, cell_y, count, sum_x, sum_y, min_x, min_y, max_x, max_y
+    FROM cells
+    ON CONFLICT (slice_id, domain, level, cell_x, cell_y, user_id) DO UPDATE
+    SET count = annotation_cluster.count + EXCLUDED.count,
+        sum_x = annotation_cluster.sum_x + EXCLUDED.sum_x,
+        sum_y = annotation_cluster.sum_y + EXCLUDED.sum_y,
+        -- envelopes only grow: a removed annotation may leave the envelope larger than needed until its cell is empty
+        min_x = LEAST(annotation_cluster.min_x, EXCLUDED.min_x),
+        min_y = LEAST(annotation_cluster.min_y, EXCLUDED.min_y),
+        max_x = GREATEST(annotation_cluster.max_x, EXCLUDED.max_x),
+        max_y = GREATEST(annotation_cluster.max_y, EXCLUDED.max_y)
+    RETURNING slice_id, domain, level, cell_x, cell_y, user_id, count
+)
+SELECT (SELECT count(*) FROM moved),
+       array_agg(slice_id), array_agg(domain), array_agg(level), array_agg(cell_x), array_agg(cell_y), array_agg(user_id)
+INTO folded, sliceIds, domains, levels, cellXs, cellYs, userIds
+FROM upserted WHERE count <= 0;
+-- only the cells emptied by this fold (the statement above cannot delete the rows it upserts)
+DELETE FROM annotation_cluster c
+USING unnest(sliceIds, domains, levels, cellXs, cellYs, userIds) AS e(slice_id, domain, level, cell_x, cell_y, user_id)
+WHERE c.slice_id = e.slice_id AND c.domain = e.domain AND c.level = e.level
+  AND c.cell_x = e.cell_x AND c.cell_y = e.cell_y AND c.user_id = e.user_id AND c.count <= 0;
+RETURN folded;
+END ;
+$foldClusters$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterChangeAnnotationCluster() RETURNS TRIGGER AS $changeAnnCluster$
+DECLARE
+domainName VARCHAR := CASE TG_TABLE_NAME WHEN 'algo_annotation' THEN 'ALGO' WHEN 'reviewed_annotation' THEN 'REVIEWED' ELSE 'USER' END;
+BEGIN
+IF TG_OP = 'UPDATE' OR TG_OP = 'DELETE' THEN
+IF OLD.deleted IS NULL THEN
+PERFORM addAnnotationClusterDelta(domainName, OLD.project_id, OLD.image_id, OLD.slice_id, OLD.user_id, OLD.location, -1);
+END IF;
+END IF;
+IF TG_OP = 'UPDATE' OR TG_OP = 'INSERT' THEN
+IF NEW.deleted IS NULL THEN
+PERFORM addAnnotationClusterDelta(domainName, NEW.project_id, NEW.image_id, NEW.slice_id, NEW.user_id, NEW.location, 1);
+END IF;
+END IF;
+RETURN NULL;
+END ;
+$changeAnnCluster$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+DROP TRIGGER IF EXISTS afterInsertOrDeleteUserAnnotationClusterTrigger ON user_annotation;
+CREATE TRIGGER afterInsertOrDeleteUserAnnotationClusterTrigger AFTER INSERT OR DELETE ON user_annotation
+    FOR EACH ROW EXECUTE PROCEDURE afterChangeAnnotationCluster();
+DROP TRIGGER IF EXISTS afterUpdateUserAnnotationClusterTrigger ON user_annotation;
+CREATE TRIGGER afterUpdateUserAnnotationClusterTrigger AFTER UPDATE ON user_annotation
+    FOR EACH ROW WHEN (OLD.deleted IS DISTINCT FROM NEW.deleted OR OLD.slice_id IS DISTINCT FROM NEW.slice_id
+                       OR OLD.user_id IS DISTINCT FROM NEW.user_id OR ST_AsBinary(OLD.location) IS DISTINCT FROM ST_AsBinary(NEW.location))
+    EXECUTE PROCEDURE afterChangeAnnotationCluster();
+-------------------------------------------------------------------------------------
+DROP TRIGGER IF EXISTS afterInsertOrDeleteAlgoAnnotationClusterTrigger ON algo_annotation;
+CREATE TRIGGER afterInsertOrDeleteAlgoAnnotationClusterTrigger AFTER INSERT OR DELETE ON algo_annotation
+    FOR EACH ROW EXECUTE PROCEDURE afterChangeAnnotationCluster();
+DROP TRIGGER IF EXISTS afterUpdateAlgoAnnotationClusterTrigger ON algo_annotation;
+CREATE TRIGGER afterUpdateAlgoAnnotationClusterTrigger AFTER UPDATE ON algo_annotation
+    FOR EACH ROW WHEN (OLD.deleted IS DISTINCT FROM NEW.deleted OR OLD.slice_id IS DISTINCT FROM NEW.slice_id
+                       OR OLD.user_id IS DISTINCT FROM NEW.user_id OR ST_AsBinary(OLD.location) IS DISTINCT FROM ST_AsBinary(NEW.location))
+    EXECUTE PROCEDURE afterChangeAnnotationCluster();
+-------------------------------------------------------------------------------------
+DROP TRIGGER IF EXISTS afterInsertOrDeleteReviewedAnnotationClusterTrigger ON reviewed_annotation;
+CREATE TRIGGER afterInsertOrDeleteReviewedAnnotationClusterTrigger AFTER INSERT OR DELETE ON reviewed_annotation
+    FOR EACH ROW EXECUTE PROCEDURE afterChangeAnnotationCluster();
+DROP TRIGGER IF EXISTS afterUpdateReviewedAnnotationClusterTrigger ON reviewed_annotation;
+CREATE TRIGGER afterUpdateReviewedAnnotationClusterTrigger AFTER UPDATE ON reviewed_annotation
+    FOR EACH ROW WHEN (OLD.deleted IS DISTINCT FROM NEW.deleted OR OLD.slice_id IS DISTINCT FROM NEW.slice_id
+                       OR OLD.user_id IS DISTINCT FROM NEW.user_id OR ST_AsBinary(OLD.location) IS DISTINCT FROM ST_AsBinary(NEW.location))
+    EXECUTE PROCEDURE afterChangeAnnotationCluster();
+-------------------------------------------------------------------------------------
@@ -0,0 +1,150 @@
+-------------------------------------------------------------------------------------
+-- Project summary (last activity, member count) read by the project listing instead of aggregating
+-- command_history and the ACL tables for each request.
+-- Command history inserts append a row in project_activity_delta (no lock on the summary row),
+-- folded by foldProjectActivity(). ACL changes are rare: member counts are recomputed by their triggers.
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION refreshProjectActivity(projectId BIGINT) RETURNS VOID AS $refreshActivity$
+BEGIN
+UPDATE project_summary
+SET last_activity = (SELECT max(created) FROM command_history WHERE project_id = projectId)
+WHERE project_id = projectId;
+END ;
+$refreshActivity$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION refreshProjectMembers(projectId BIGINT) RETURNS VOID AS $refreshMembers$
+BEGIN
+-- lock the summary first: the count below is a later statement, its snapshot sees the ACL entries
+-- committed by a concurrent refresh of the same project
+PERFORM 1 FROM project_summary WHERE project_id = projectId FOR UPDATE;
+UPDATE project_summary
+SET member_count = (SELECT COUNT(DISTINCT secUser.id)
+                    FROM acl_object_identity AS aclObjectId, acl_entry AS aclEntry, acl_sid AS aclSid, sec_user AS secUser
+                    WHERE aclObjectId.object_id_identity = projectId
+                      AND aclEntry.acl_object_identity = aclObjectId.id AND aclEntry.sid = aclSid.id
+                      AND aclSid.sid = secUser.username AND secUser.class = 'be.cytomine.domain.security.User')
+WHERE project_id = projectId;
+END ;
+$refreshMembers$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION foldProjectActivity() RETURNS BIGINT AS $foldActivity$
+DECLARE
+folded BIGINT;
+BEGIN
+PERFORM pg_advisory_xact_lock(hashtext('project_activity_delta'));
+WITH moved AS (
+    DELETE FROM project_activity_delta RETURNING *
+), summaries AS (
+    UPDATE project_summary
+    SET last_activity = GREATEST(project_summary.last_activity, d.created)
+    FROM (SELECT project_id, max(created) AS created FROM moved GROUP BY project_id) d
+    WHERE project_summary.project_id = d.project_id
+)
+SELECT count(*) INTO folded FROM moved;
+RETURN folded;
+END ;
+$foldActivity$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterInsertProjectSummary() RETURNS TRIGGER AS $insertProjectSummary$
+BEGIN
+INSERT INTO project_summary(project_id) VALUES (NEW.id) ON CONFLICT (project_id) DO NOTHING;
+-- ACL entries and commands may have been written before the project row
+PERFORM refreshProjectActivity(NEW.id);
+PERFORM refreshProjectMembers(NEW.id);
+RETURN NEW;
+END ;
+$insertProjectSummary$ LANGUAGE plpgsql;
+DROP TRIGGER IF EXISTS afterInsertProjectSummaryTrigger ON project;
+CREATE TRIGGER afterInsertProjectSummaryTrigger AFTER INSERT ON project
+    FOR EACH ROW EXECUTE PROCEDURE afterInsertProjectSummary();
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterInsertCommandHistoryActivity() RETURNS TRIGGER AS $insertActivity$
+BEGIN
+INSERT INTO project_activity_delta(command_history_id, project_id, created) VALUES (NEW.id, NEW.project_id, NEW.created);
+RETURN NEW;
+END ;
+$insertActivity$ LANGUAGE plpgsql;
+DROP TRIGGER IF EXISTS afterInsertCommandHistoryActivityTrigger ON command_history;
+CREATE TRIGGER afterInsertCommandHistoryActivityTrigger AFTER INSERT ON command_history
+    FOR EACH ROW WHEN (NEW.project_id IS NOT NULL) EXECUTE PROCEDURE afterInsertCommandHistoryActivity();
+-------------------------------------------------------------------------------------
+-- the last activity only moves back when the latest command of the project is removed
+CREATE OR REPLACE FUNCTION afterDeleteCommandHistoryActivity() RETURNS TRIGGER AS $deleteActivity$
+BEGIN
+DELETE FROM project_activity_delta WHERE command_history_id = OLD.id;
+IF EXISTS (SELECT 1 FROM project_summary WHERE project_id = OLD.project_id AND last_activity <= OLD.created) THEN
+    PERFORM refreshProjectActivity(OLD.project_id);
+END IF;
+RETURN OLD;
+END ;
+$deleteActivity$ LANGUAGE plpgsql;
+DROP TRIGGER IF EXISTS afterDeleteCommandHistoryActivityTrigger ON command_history;
+CREATE TRIGGER afterDeleteCommandHistoryActivityTrigger AFTER DELETE ON command_history
+    FOR EACH ROW WHEN (OLD.project_id IS NOT NULL) EXECUTE PROCEDURE afterDeleteCommandHistoryActivity();
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterChangeAclEntryMembers() RETURNS TRIGGER AS $changeAclEntry$
+BEGIN
+IF (TG_OP <> 'INSERT') THEN
+    PERFORM refreshProjectMembers(object_id_identity) FROM acl_object_identity WHERE id = OLD.acl_object_identity;
+END IF;
+IF (TG_OP <> 'DELETE') THEN
+    PERFORM refreshProjectMembers(object_id_identity) FROM acl_object_identity WHERE id = NEW.acl_object_identity;
+END IF;
+RETURN NULL;
+END ;
+$changeAclEntry$ LANGUAGE plpgsql;
+DROP TRIGGER IF EXISTS afterInsertOrDeleteAclEntryMembersTrigger ON acl_entry;
+CREATE TRIGGER afterInsertOrDeleteAclEntryMembersTrigger AFTER INSERT OR DELETE ON acl_entry
+    FOR EACH ROW EXECUTE PROCEDURE afterChangeAclEntryMembers();
+DROP TRIGGER IF EXISTS afterUpdateAclEntryMembersTrigger ON acl_entry;
+CREATE TRIGGER afterUpdateAclEntryMembersTrigger AFTER UPDATE ON acl_entry
+    FOR EACH ROW WHEN (OLD.acl_object_identity IS DISTINCT FROM NEW.acl_object_identity OR OLD.sid IS DISTINCT FROM NEW.sid)
+    EXECUTE PROCEDURE afterChangeAclEntryMembers();
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterDeleteAclObjectIdentityMembers() RETURNS TRIGGER AS $deleteAclObjectIdentity$
+BEGIN
+PERFORM refreshProjectMembers(OLD.object_id_identity);
+RETURN NULL;
+END ;
+$deleteAclObjectIdentity$ LANGUAGE plpgsql;
+DROP TRIGGER IF EXISTS afterDeleteAclObjectIdentityMembersTrigger ON acl_object_identity;
+CREATE TRIGGER afterDeleteAclObjectIdentityMembersTrigger AFTER DELETE ON acl_object_identity
+    FOR EACH ROW EXECUTE PROCEDURE afterDeleteAclObjectIdentityMembers();
+-------------------------------------------------------------------------------------
+-- members are matched on the username: creating, renaming or deleting a user (or a sid) changes the counts
+CREATE OR REPLACE FUNCTION afterChangeMemberSid() RETURNS TRIGGER AS $changeMemberSid$
+DECLARE
+sids VARCHAR[] := ARRAY[]::VARCHAR[];
+BEGIN
+IF (TG_OP <> 'INSERT') THEN
+    IF (TG_TABLE_NAME = 'sec_user') THEN
+        sids := sids || OLD.username::VARCHAR;
+    ELSE
+        sids := sids || OLD.sid::VARCHAR;
+    END IF;
+END IF;
+IF (TG_OP <> 'DELETE') THEN
+    IF (TG_TABLE_NAME = 'sec_user') THEN
+        sids := sids || NEW.username::VARCHAR;
+    ELSE
+        sids := sids || NEW.sid::VARCHAR;
+    END IF;
+END IF;
+PERFORM refreshProjectMembers(object_id_identity)
+FROM (SELECT DISTINCT aclObjectId.object_id_identity
+      FROM acl_sid AS aclSid, acl_entry AS aclEntry, acl_object_identity AS aclObjectId
+      WHERE aclSid.sid = ANY(sids) AND aclEntry.sid = aclSid.id AND aclEntry.acl_object_identity = aclObjectId.id) projects;
+RETURN NULL;
+END ;
+$changeMemberSid$ LANGUAGE plpgsql;
+DROP TRIGGER IF EXISTS afterInsertOrDeleteSecUserMembersTrigger ON sec_user;
+CREATE TRIGGER afterInsertOrDeleteSecUserMembersTrigger AFTER INSERT OR DELETE ON sec_user
+    FOR EACH ROW EXECUTE PROCEDURE afterChangeMemberSid();
+DROP TRIGGER IF EXISTS afterUpdateSecUserMembersTrigger ON sec_user;
+CREATE TRIGGER afterUpdateSecUserMembersTrigger AFTER UPDATE ON sec_user
+    FOR EACH ROW WHEN (OLD.username IS DISTINCT FROM NEW.username OR OLD.class IS DISTINCT FROM NEW.class)
+    EXECUTE PROCEDURE afterChangeMemberSid();
+DROP TRIGGER IF EXISTS afterUpdateAclSidMembersTrigger ON acl_sid;
+CREATE TRIGGER afterUpdateAclSidMembersTrigger AFTER UPDATE ON acl_sid
+    FOR EACH ROW WHEN (OLD.sid IS DISTINCT FROM NEW.sid)
+    EXECUTE PROCEDURE afterChangeMemberSid();
@@ -0,0 +1,195 @@
+-------------------------------------------------------------------------------------
+-- Annotation counters (project, image instance and annotation index) are no longer updated by the annotation
+-- triggers: each insert/update/delete appends a delta row, folded into the counters by foldAnnotationCounters().
+-- Concurrent writers on the same image or project do not lock the same rows anymore.
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION addAnnotationCounterDelta(projectId BIGINT, imageId BIGINT, userId BIGINT, sliceId BIGINT,
+        annotations BIGINT, jobAnnotations BIGINT, reviewedAnnotations BIGINT,
+        indexAnnotations BIGINT, indexReviewedAnnotations BIGINT) RETURNS VOID AS $addCounterDelta$
+BEGIN
+IF (indexAnnotations > 0 OR indexReviewedAnnotations > 0) THEN
+INSERT INTO annotation_index(user_id, slice_id, count_annotation, count_reviewed_annotation, version, id)
+SELECT userId, sliceId, 0, 0, 0, nextval('hibernate_sequence')
+WHERE NOT EXISTS (SELECT 1 FROM annotation_index WHERE user_id = userId AND slice_id = sliceId)
+ON CONFLICT (user_id, slice_id) DO NOTHING;
+END IF;
+INSERT INTO annotation_counter_delta(project_id, image_id, user_id, slice_id,
+                                     count_annotations, count_job_annotations, count_reviewed_annotations,
+                                     count_index_annotations, count_index_reviewed_annotations)
+VALUES (projectId, imageId, userId, sliceId, annotations, jobAnnotations, reviewedAnnotations, indexAnnotations, indexReviewedAnnotations);
+END ;
+$addCounterDelta$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION foldAnnotationCounters() RETURNS BIGINT AS $foldCounters$
+DECLARE
+folded BIGINT;
+BEGIN
+PERFORM pg_advisory_xact_lock(hashtext('annotation_counter_delta'));
+WITH moved AS (
+    DELETE FROM annotation_counter_delta RETURNING *
+), projects AS (
+    UPDATE project
+    SET count_annotations = count_annotations + d.annotations,
+        count_job_annotations = count_job_annotations + d.job_annotations,
+        count_reviewed_annotations = count_reviewed_annotations + d.reviewed_annotations
+    FROM (SELECT project_id, sum(count_annotations) AS annotations, sum(count_job_annotations) AS job_annotations,
+                 sum(count_reviewed_annotations) AS reviewed_annotations
+          FROM moved WHERE project_id IS NOT NULL GROUP BY project_id) d
+    WHERE project.id = d.project_id
+), images AS (
+    UPDATE image_instance
+    SET count_image_annotations = count_image_annotations + d.annotations,
+        count_image_job_annotations = count_image_job_annotations + d.job_annotations,
+        count_image_reviewed_annotations = count_image_reviewed_annotations + d.reviewed_annotations
+    FROM (SELECT image_id, sum(count_annotations) AS annotations, sum(count_job_annotations) AS job_annotations,
+                 sum(count_reviewed_annotations) AS reviewed_annotations
+          FROM moved WHERE image_id IS NOT NULL GROUP BY image_id) d
+    WHERE image_instance.id = d.image_id
+), indexes AS (
+    UPDATE annotation_index
+    SET count_annotation = count_annotation + d.annotations,
+        count_reviewed_annotation = count_reviewed_annotation + d.reviewed_annotations,
+        version = version + 1
+    FROM (SELECT user_id, slice_id, sum(count_index_annotations) AS annotations, sum(count_index_reviewed_annotations) AS reviewed_annotations
+          FROM moved WHERE user_id IS NOT NULL AND slice_id IS NOT NULL GROUP BY user_id, slice_id) d
+    WHERE annotation_index.user_id = d.user_id AND annotation_index.slice_id = d.slice_id
+)
+SELECT count(*) INTO folded FROM moved;
+RETURN folded;
+END ;
+$foldCounters$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+DROP TRIGGER IF EXISTS beforeInsertUserAnnotationTrigger on user_annotation;
+DROP FUNCTION IF EXISTS beforeInsertUserAnnotation();
+DROP TRIGGER IF EXISTS beforeDeleteUserAnnotationTrigger on user_annotation;
+DROP FUNCTION IF EXISTS beforeDeleteUserAnnotation();
+DROP TRIGGER IF EXISTS beforeInsertAlgoAnnotationTrigger on algo_annotation;
+DROP FUNCTION IF EXISTS beforeInsertAlgoAnnotation();
+DROP TRIGGER IF EXISTS beforeDeleteAlgoAnnotation on algo_annotation;
+DROP FUNCTION IF EXISTS beforeDeleteAlgoAnnotation();
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterInsertUserAnnotation() RETURNS TRIGGER AS $incUserAnnAfter$
+BEGIN
+PERFORM addAnnotationCounterDelta(NEW.project_id, NEW.image_id, NEW.user_id, NEW.slice_id, 1, 0, 0, 1, 0);
+RETURN NEW;
+END ;
+$incUserAnnAfter$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterUpdateUserAnnotation() RETURNS TRIGGER AS $incUserAnnAfter$
+BEGIN
+IF (NEW.user_id <> OLD.user_id) THEN
+PERFORM addAnnotationCounterDelta(NULL, NULL, NEW.user_id, NEW.slice_id, 0, 0, 0, 1, 0);
+PERFORM addAnnotationCounterDelta(NULL, NULL, OLD.user_id, OLD.slice_id, 0, 0, 0, -1, 0);
+END IF;
+IF NEW.deleted IS NULL AND OLD.deleted IS NOT NULL THEN
+PERFORM addAnnotationCounterDelta(OLD.project_id, OLD.image_id, OLD.user_id, OLD.slice_id, 1, 0, 0, 1, 0);
+ELSEIF NEW.deleted IS NOT NULL AND OLD.deleted IS NULL THEN
+PERFORM addAnnotationCounterDelta(OLD.project_id, OLD.image_id, OLD.user_id, OLD.slice_id, -1, 0, 0, -1, 0);
+END IF;
+RETURN NEW;
+END ;
+$incUserAnnAfter$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterDeleteUserAnnotation() RETURNS TRIGGER AS $decUserAnnAfter$
+BEGIN
+PERFORM addAnnotationCounterDelta(OLD.project_id, OLD.image_id, OLD.user_id, OLD.slice_id, -1, 0, 0, -1, 0);
+RETURN OLD;
+END ;
+$decUserAnnAfter$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterInsertAlgoAnnotation() RETURNS TRIGGER AS $incAlgoAnnAfter$
+BEGIN
+PERFORM addAnnotationCounterDelta(NEW.project_id, NEW.image_id, NEW.user_id, NEW.slice_id, 0, 1, 0, 1, 0);
+RETURN NEW;
+END ;
+$incAlgoAnnAfter$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterUpdateAlgoAnnotation() RETURNS TRIGGER AS $incAlgoAnnAfter$
+BEGIN
+IF NEW.deleted IS NULL AND OLD.deleted IS NOT NULL THEN
+PERFORM addAnnotationCounterDelta(OLD.project_id, OLD.image_id, OLD.user_id, OLD.slice_id, 0, 1, 0, 1, 0);
+ELSEIF NEW.deleted IS NOT NULL AND OLD.deleted IS NULL THEN
+PERFORM addAnnotationCounterDelta(OLD.project_id, OLD.image_id, OLD.user_id, OLD.slice_id, 0, -1, 0, -1, 0);
+END IF;
+RETURN NEW;
+END ;
+$incAlgoAnnAfter$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterDeleteAlgoAnnotation() RETURNS TRIGGER AS $decAlgoAnnAfter$
+BEGIN
+PERFORM addAnnotationCounterDelta(OLD.project_id, OLD.image_id, OLD.user_id, OLD.slice_id, 0, -1, 0, -1, 0);
+RETURN OLD;
+END ;
+$decAlgoAnnAfter$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION beforeInsertReviewedAnnotation() RETURNS trigger as $incAnnRevAnn$
+        DECLARE
+currentUserAnnotation user_annotation%ROWTYPE;
+           currentAlgoAnnotation algo_annotation%ROWTYPE;
+BEGIN
+IF NEW.parent_class_name = 'be.cytomine.domain.ontology.UserAnnotation' THEN
+SELECT * INTO currentUserAnnotation FROM user_annotation WHERE id = NEW.parent_ident FOR UPDATE;
+ELSEIF NEW.parent_class_name = 'be.cytomine.domain.ontology.AlgoAnnotation' THEN
+SELECT * INTO currentAlgoAnnotation FROM algo_annotation WHERE id = NEW.parent_ident FOR UPDATE;
+END IF;
+RETURN NEW;
+END ;
+$incAnnRevAnn$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION beforeDeleteReviewedAnnotation() RETURNS trigger as $incAnnRevAnn$
+        DECLARE
+currentUserAnnotation user_annotation%ROWTYPE;
+           currentAlgoAnnotation algo_annotation%ROWTYPE;
+BEGIN
+IF OLD.parent_class_name = 'be.cytomine.domain.ontology.UserAnnotation' THEN
+SELECT * INTO currentUserAnnotation FROM user_annotation WHERE id = OLD.parent_ident FOR UPDATE;
+ELSEIF OLD.parent_class_name = 'be.cytomine.domain.ontology.AlgoAnnotation' THEN
+SELECT * INTO currentAlgoAnnotation FROM algo_annotation WHERE id = OLD.parent_ident FOR UPDATE;
+END IF;
+RETURN OLD;
+END ;
+$incAnnRevAnn$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION updateParentReviewedAnnotationCount(parentClassName VARCHAR, parentIdent BIGINT, delta BIGINT) RETURNS VOID AS $updParentRevAnn$
+BEGIN
+IF parentClassName = 'be.cytomine.domain.ontology.UserAnnotation' THEN
+UPDATE user_annotation
+SET count_reviewed_annotations = count_reviewed_annotations + delta
+WHERE user_annotation.id = parentIdent;
+ELSEIF parentClassName = 'be.cytomine.domain.ontology.AlgoAnnotation' THEN
+UPDATE algo_annotation
+SET count_reviewed_annotations = count_reviewed_annotations + delta
+WHERE algo_annotation.id = parentIdent;
+END IF;
+END ;
+$updParentRevAnn$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION incrementAnnotationReviewedAnnotation() RETURNS trigger as $incAnnRevAnn$
+BEGIN
+PERFORM addAnnotationCounterDelta(NEW.project_id, NEW.image_id, NEW.review_user_id, NEW.slice_id, 0, 0, 1, 0, 1);
+PERFORM updateParentReviewedAnnotationCount(NEW.parent_class_name, NEW.parent_ident, 1);
+RETURN NEW;
+END ;
+$incAnnRevAnn$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION updateAnnotationReviewedAnnotation() RETURNS trigger as $incAnnRevAnn$
+BEGIN
+IF NEW.deleted IS NULL AND OLD.deleted IS NOT NULL THEN
+PERFORM addAnnotationCounterDelta(NEW.project_id, NEW.image_id, NEW.review_user_id, NEW.slice_id, 0, 0, 1, 0, 1);
+PERFORM updateParentReviewedAnnotationCount(NEW.parent_class_name, NEW.parent_ident, 1);
+ELSEIF NEW.deleted IS NOT NULL AND OLD.deleted IS NULL THEN
+PERFORM addAnnotationCounterDelta(NEW.project_id, NEW.image_id, NEW.review_user_id, NEW.slice_id, 0, 0, -1, 0, -1);
+PERFORM updateParentReviewedAnnotationCount(NEW.parent_class_name, NEW.parent_ident, -1);
+END IF;
+RETURN NEW;
+END ;
+$incAnnRevAnn$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterDeleteReviewedAnnotation() RETURNS trigger as $incAnnRevAnn$
+BEGIN
+PERFORM addAnnotationCounterDelta(OLD.project_id, OLD.image_id, OLD.review_user_id, OLD.slice_id, 0, 0, -1, 0, -1);
+PERFORM updateParentReviewedAnnotationCount(OLD.parent_class_name, OLD.parent_ident, -1);
+RETURN OLD;
+END ;
+$incAnnRevAnn$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
@@ -22,14 +22,16 @@ import be.cytomine.domain.ontology.Term;
 import be.cytomine.domain.project.Project;
 import be.cytomine.domain.security.User;
 import be.cytomine.utils.StringUtils;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
 import org.springframework.test.web.servlet.MvcResult;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 import java.util.stream.Collectors;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
@@ -72,7 +74,7 @@ public class TestUtils {
         ByteArrayInputStream inputStream = new ByteArrayInputStream(spreadsheetData);
         Workbook workbook = null;
 
-        workbook = new HSSFWorkbook(inputStream);
+        workbook = WorkbookFactory.create(inputStream);
 
         Sheet sheet = workbook.getSheetAt(0);
 
@@ -97,4 +99,129 @@ public class TestUtils {
         workbook.close();
 
     }
+
+    /**
+     * Decode the features of a layer of a Mapbox Vector Tile: for each feature, its attributes and its geometry type (1 point, 2 line, 3 polygon).
+     * Only the protobuf wire format is read, geometries are not decoded.
+     */
+    public static List<Map<String, Object>> decodeVectorTile(byte[] tile, String layerName) {
+        List<Map<String, Object>> features = new ArrayList<>();
+        ProtobufReader tileReader = new ProtobufReader(tile);
+        while (tileReader.hasNext()) {
+            int key = (int) tileReader.varint();
+            if (key >>> 3 != 3) {
+                tileReader.skip(key & 7);
+                continue;
+            }
+            ProtobufReader layerReader = new ProtobufReader(tileReader.bytes());
+            String name = null;
+            List<String> keys = new ArrayList<>();
+            List<Object> values = new ArrayList<>();
+            List<byte[]> layerFeatures = new ArrayList<>();
+            while (layerReader.hasNext()) {
+                int layerKey = (int) layerReader.varint();
+                switch (layerKey >>> 3) {
+                    case 1 -> name = new String(layerReader.bytes(), StandardCharsets.UTF_8);
+                    case 2 -> layerFeatures.add(layerReader.bytes());
+                    case 3 -> keys.add(new String(layerReader.bytes(), StandardCharsets.UTF_8));
+                    case 4 -> values.add(decodeVectorTileValue(new ProtobufReader(layerReader.bytes())));
+                    default -> layerReader.skip(layerKey & 7);
+                }
+            }
+            if (!layerName.equals(name)) {
+                continue;
+            }
+            for (byte[] feature : layerFeatures) {
+                Map<String, Object> attributes = new LinkedHashMap<>();
+                ProtobufReader featureReader = new ProtobufReader(feature);
+                while (featureReader.hasNext()) {
+                    int featureKey = (int) featureReader.varint();
+                    if (featureKey >>> 3 == 2) {
+                        ProtobufReader tags = new ProtobufReader(featureReader.bytes());
+                        while (tags.hasNext()) {
+                            attributes.put(keys.get((int) tags.varint()), values.get((int) tags.varint()));
+                        }
+                    } else if (featureKey >>> 3 == 3) {
+                        attributes.put("geometryType", featureReader.varint());
+                    } else {
+                        featureReader.skip(featureKey & 7);
+                    }
+                }
+                features.add(attributes);
+            }
+        }
+        return features;
+    }
+
+    private static Object decodeVectorTileValue(ProtobufReader reader) {
+        Object value = null;
+        while (reader.hasNext()) {
+            int key = (int) reader.varint();
+            switch (key >>> 3) {
+                case 1 -> value = new String(reader.bytes(), StandardCharsets.UTF_8);
+                case 2 -> value = (double) Float.intBitsToFloat((int) reader.fixed(4));
+                case 3 -> value = Double.longBitsToDouble(reader.fixed(8));
+                case 4, 5 -> value = reader.varint();
+                case 6 -> {
+                    long zigzag = reader.varint();
+                    value = (zigzag >>> 1) ^ -(zigzag & 1);
+                }
+                case 7 -> value = reader.varint() != 0;
+                default -> reader.skip(key & 7);
+            }
+        }
+        return value;
+    }
+
+    private static class ProtobufReader {
+
+        private final byte[] buffer;
+
+        private int position = 0;
+
+        ProtobufReader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        boolean hasNext() {
+            return position < buffer.length;
+        }
+
+        long varint() {
+            long result = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer[position++];
+                result |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return result;
+        }
+
+        long fixed(int size) {
+            long result = 0;
+            for (int i = 0; i < size; i++) {
+                result |= (long) (buffer[position++] & 0xFF) << (8 * i);
+            }
+            return result;
+        }
+
+        byte[] bytes() {
+            int length = (int) varint();
+            byte[] result = Arrays.copyOfRange(buffer, position, position + length);
+            position += length;
+            return result;
+        }
+
+        void skip(int wireType) {
+            switch (wireType) {
+                case 0 -> varint();
+                case 1 -> position += 8;
+                case 2 -> bytes();
+                case 5 -> position += 4;
+                default -> throw new IllegalStateException("Unsupported wire type " + wireType);
+            }
+        }
+    }
 }
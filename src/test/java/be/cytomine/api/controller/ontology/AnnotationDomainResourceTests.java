@@ -386,6 +386,72 @@ public class AnnotationDomainResourceTests {
                 .andReturn();
     }
 
+    @Test
+    @Transactional
+    public void get_annotation_vector_tile() throws Exception {
+        // image is 16000 pixels wide: zoom 6 is the full resolution, annotations are in the bottom left tile
+        MvcResult result = restAnnotationDomainControllerMockMvc.perform(get("/api/image/{id}/annotation/tile/{z}/{x}/{y}.mvt", image.getId(), 6, 0, 62))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", "application/vnd.mapbox-vector-tile"))
+                .andExpect(header().exists("ETag"))
+                .andReturn();
+
+        List<Map<String, Object>> features = TestUtils.decodeVectorTile(result.getResponse().getContentAsByteArray(), "annotations");
+        assertThat(features).extracting(x -> x.get("id")).containsExactlyInAnyOrder(a1.getId(), a2.getId(), a3.getId(), a4.getId(), a5.getId());
+        Map<String, Object> feature = features.stream().filter(x -> x.get("id").equals(a1.getId())).findFirst().get();
+        assertThat(feature.get("user")).isEqualTo(me.getId());
+        assertThat(feature.get("terms")).isEqualTo(term.getId().toString());
+        assertThat(feature.get("geometryType")).isEqualTo(3L);
+        assertThat(features.stream().filter(x -> x.get("id").equals(a4.getId())).findFirst().get()).doesNotContainKey("terms");
+
+        result = restAnnotationDomainControllerMockMvc.perform(get("/api/imageinstance/{id}/annotation/tile/{z}/{x}/{y}.mvt", image.getId(), 0, 0, 0))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertThat(TestUtils.decodeVectorTile(result.getResponse().getContentAsByteArray(), "annotations")).hasSize(5);
+
+        result = restAnnotationDomainControllerMockMvc.perform(get("/api/image/{id}/annotation/tile/{z}/{x}/{y}.mvt", image.getId(), 6, 10, 10))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertThat(TestUtils.decodeVectorTile(result.getResponse().getContentAsByteArray(), "annotations")).isEmpty();
+    }
+
+    @Test
+    @Transactional
+    public void get_annotation_vector_tile_with_filters() throws Exception {
+        MvcResult result = restAnnotationDomainControllerMockMvc.perform(get("/api/image/{id}/annotation/tile/{z}/{x}/{y}.mvt", image.getId(), 6, 0, 62)
+                        .param("user", me.getId().toString())
+                        .param("term", term.getId().toString()))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertThat(TestUtils.decodeVectorTile(result.getResponse().getContentAsByteArray(), "annotations"))
+                .extracting(x -> x.get("id")).containsExactlyInAnyOrder(a1.getId(), a2.getId(), a3.getId());
+
+        result = restAnnotationDomainControllerMockMvc.perform(get("/api/image/{id}/annotation/tile/{z}/{x}/{y}.mvt", image.getId(), 6, 0, 62)
+                        .param("reviewed", "true"))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertThat(TestUtils.decodeVectorTile(result.getResponse().getContentAsByteArray(), "annotations"))
+                .extracting(x -> x.get("id")).containsExactlyInAnyOrder(r1.getId(), r2.getId(), r3.getId(), r4.getId(), r5.getId(), r6.getId());
+    }
+
+    @Test
+    @Transactional
+    public void get_unchanged_annotation_vector_tile_is_not_sent_again() throws Exception {
+        String etag = restAnnotationDomainControllerMockMvc.perform(get("/api/image/{id}/annotation/tile/{z}/{x}/{y}.mvt", image.getId(), 6, 0, 62))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        restAnnotationDomainControllerMockMvc.perform(get("/api/image/{id}/annotation/tile/{z}/{x}/{y}.mvt", image.getId(), 6, 0, 62)
+                        .header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+
+        builder.given_a_user_annotation(slice, "POLYGON((10 10,20 10,20 20,10 20,10 10))", me, term);
+        restAnnotationDomainControllerMockMvc.perform(get("/api/image/{id}/annotation/tile/{z}/{x}/{y}.mvt", image.getId(), 6, 0, 62)
+                        .header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", Matchers.not(etag)));
+    }
+
     @Test
     @Transactional
     public void list_annotation_search_by_image_and_user_and_term() throws Exception {
@@ -1078,7 +1144,7 @@ public class AnnotationDomainResourceTests {
         performDownload("xls", this.me.getId().toString(), false)
                 .andDo(print())
                 .andExpect(status().isOk())
-                .andExpect(header().string("Content-Type", "application/octet-stream"))
+                .andExpect(header().string("Content-Type", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
                 .andReturn();
     }
 
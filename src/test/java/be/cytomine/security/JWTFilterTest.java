@@ -63,7 +63,7 @@ class JWTFilterTest {
         secUser.setUsername("test-user");
         Mockito.when(secUserRepository.findByUsernameLikeIgnoreCase(eq("test-user"))).thenReturn(Optional.of(secUser));
 
-        tokenProvider = new TokenProvider(applicationProperties, secUserRepository);
+        tokenProvider = new TokenProvider(applicationProperties, new PrincipalCache(applicationProperties.getPrincipalCache(), secUserRepository, null));
 //        ReflectionTestUtils.setField(tokenProvider, "key", Keys.hmacShaKeyFor(Decoders.BASE64.decode(base64Secret)));
 //        ReflectionTestUtils.setField(tokenProvider, "tokenValidityInMilliseconds", 6000000);
 //        ReflectionTestUtils.setField(tokenProvider, "tokenValidityInMillisecondsForRememberMe", 6000000);
@@ -0,0 +1,153 @@
+package be.cytomine.security;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.LocalCacheProperties;
+import be.cytomine.domain.security.SecRole;
+import be.cytomine.domain.security.SecUser;
+import be.cytomine.repository.security.SecUserRepository;
+import be.cytomine.security.jwt.TokenProvider;
+import be.cytomine.security.jwt.TokenType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetailsService;
+
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class PrincipalCacheTests {
+
+    private static final int REQUESTS = 1000;
+
+    private ApplicationProperties applicationProperties;
+
+    private SecUserRepository secUserRepository;
+
+    private UserDetailsService userDetailsService;
+
+    @BeforeEach
+    public void setup() {
+        applicationProperties = new ApplicationProperties();
+        applicationProperties.getAuthentication().getJwt().setSecret("fd54a45s65fds737b9aafcb3412e07ed99b267f33413274720ddbb7f6c5e64e9f14075f2d7ed041592f0b7657baf8");
+        applicationProperties.getAuthentication().getJwt().setTokenValidityInSeconds(60000L);
+        applicationProperties.getAuthentication().getJwt().setTokenValidityInSecondsForRememberMe(60000L);
+        applicationProperties.getAuthentication().getJwt().setTokenValidityInSecondsForShortTerm(300L);
+
+        SecUser secUser = new SecUser();
+        secUser.setId(1L);
+        secUser.setUsername("test-user");
+        secUserRepository = Mockito.mock(SecUserRepository.class);
+        Mockito.when(secUserRepository.findByUsernameLikeIgnoreCase(eq("test-user"))).thenReturn(Optional.of(secUser));
+        Mockito.when(secUserRepository.findByPublicKeyAndEnabled(eq("public"), eq(true))).thenReturn(Optional.of(secUser));
+
+        userDetailsService = Mockito.mock(UserDetailsService.class);
+        Mockito.when(userDetailsService.loadUserByUsername(anyString()))
+                .thenAnswer(invocation -> new User(invocation.getArgument(0), "", Collections.emptyList()));
+    }
+
+    @Test
+    void jwt_authentications_hit_the_database_once() {
+        TokenProvider tokenProvider = new TokenProvider(applicationProperties, newCache(true));
+        authenticate(tokenProvider, REQUESTS);
+        verify(secUserRepository, times(1)).findByUsernameLikeIgnoreCase(any());
+    }
+
+    @Test
+    void jwt_authentications_hit_the_database_for_each_request_without_cache() {
+        TokenProvider tokenProvider = new TokenProvider(applicationProperties, newCache(false));
+        authenticate(tokenProvider, REQUESTS);
+        verify(secUserRepository, times(REQUESTS)).findByUsernameLikeIgnoreCase(any());
+    }
+
+    @Test
+    void api_key_authentications_hit_the_database_once() {
+        PrincipalCache principalCache = newCache(true);
+        for (int i = 0; i < REQUESTS; i++) {
+            assertThat(principalCache.findPrincipalByPublicKey("public")).isPresent();
+        }
+        verify(secUserRepository, times(1)).findByPublicKeyAndEnabled(any(), eq(true));
+        verify(userDetailsService, times(1)).loadUserByUsername(any());
+    }
+
+    @Test
+    void unknown_key_is_not_cached() {
+        PrincipalCache principalCache = newCache(true);
+        assertThat(principalCache.findPrincipalByPublicKey("unknown")).isEmpty();
+        assertThat(principalCache.findPrincipalByPublicKey("unknown")).isEmpty();
+        verify(secUserRepository, times(2)).findByPublicKeyAndEnabled(eq("unknown"), eq(true));
+    }
+
+    @Test
+    void evicted_user_is_reloaded() {
+        PrincipalCache principalCache = newCache(true);
+        principalCache.findUserByUsername("TEST-USER");
+        principalCache.findPrincipalByPublicKey("public");
+
+        principalCache.evictUser(1L);
+
+        assertThat(principalCache.getUsersByUsername().size()).isEqualTo(0);
+        assertThat(principalCache.getPrincipalsByPublicKey().size()).isEqualTo(0);
+        principalCache.findUserByUsername("test-user");
+        principalCache.findPrincipalByPublicKey("public");
+        verify(secUserRepository, times(2)).findByUsernameLikeIgnoreCase(eq("test-user"));
+        verify(secUserRepository, times(2)).findByPublicKeyAndEnabled(eq("public"), eq(true));
+    }
+
+    @Test
+    void requests_get_their_own_copy_of_the_cached_user() {
+        PrincipalCache principalCache = newCache(true);
+        SecUser user = principalCache.findUserByUsername("test-user").orElseThrow();
+        user.setUsername("modified");
+        user.getRoles().add(new SecRole());
+
+        SecUser other = principalCache.findUserByUsername("test-user").orElseThrow();
+        assertThat(other).isNotSameAs(user);
+        assertThat(other.getId()).isEqualTo(1L);
+        assertThat(other.getUsername()).isEqualTo("test-user");
+        assertThat(other.getRoles()).isEmpty();
+        assertThat(principalCache.findPrincipalByPublicKey("public").orElseThrow().getUser()).isNotSameAs(user);
+        verify(secUserRepository, times(1)).findByUsernameLikeIgnoreCase(any());
+    }
+
+    private PrincipalCache newCache(boolean enabled) {
+        LocalCacheProperties properties = new LocalCacheProperties();
+        properties.setEnabled(enabled);
+        return new PrincipalCache(properties, secUserRepository, userDetailsService);
+    }
+
+    private void authenticate(TokenProvider tokenProvider, int requests) {
+        String jwt = tokenProvider.createToken(new UsernamePasswordAuthenticationToken("test-user", "test-password",
+                Collections.singletonList(new SimpleGrantedAuthority("ROLE_USER"))), TokenType.SESSION);
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            assertThat(tokenProvider.getAuthentication(jwt).getDetails()).isInstanceOf(SecUser.class);
+        }
+        System.out.println(requests + " authentications in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+    }
+}
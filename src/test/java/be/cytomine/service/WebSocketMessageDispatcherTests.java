@@ -0,0 +1,284 @@
+package be.cytomine.service;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WebSocketMessageDispatcherTests {
+
+    private WebSocketMessageDispatcher dispatcher;
+
+    @AfterEach
+    public void shutdown() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    void fan_out_to_hundreds_of_followers_with_a_bounded_number_of_threads() throws Exception {
+        int threads = 4;
+        int followers = 500;
+        int positions = 200;
+        dispatcher = new WebSocketMessageDispatcher(threads, 16);
+        List<LocalSession> sessions = new ArrayList<>();
+        for (int i = 0; i < followers; i++) {
+            sessions.add(new LocalSession("session-" + i));
+        }
+        WebSocketSession[] sessionArray = sessions.toArray(new WebSocketSession[0]);
+
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        int threadsBefore = threadMXBean.getThreadCount();
+        threadMXBean.resetPeakThreadCount();
+        for (int i = 0; i < positions; i++) {
+            dispatcher.send(sessionArray, new TextMessage(i + ";" + System.nanoTime()));
+            Thread.sleep(1);
+        }
+        long timeout = System.currentTimeMillis() + 30_000;
+        while (dispatcher.getSent() + dispatcher.getDropped() < (long) followers * positions && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        int peakThreads = threadMXBean.getPeakThreadCount();
+
+        List<Long> latencies = new ArrayList<>();
+        for (LocalSession session : sessions) {
+            latencies.addAll(session.latencies);
+            assertThat(session.received).isSorted();
+            assertThat(session.received.get(session.received.size() - 1)).isEqualTo(positions - 1);
+        }
+        Collections.sort(latencies);
+        System.out.println(followers + " followers x " + positions + " positions: " + dispatcher.getSent() + " sent, "
+                + dispatcher.getDropped() + " dropped, latency p50=" + latencies.get(latencies.size() / 2) / 1000 + "us p99="
+                + latencies.get(latencies.size() * 99 / 100) / 1000 + "us, threads " + threadsBefore + " -> peak " + peakThreads);
+
+        assertThat(dispatcher.getSent() + dispatcher.getDropped()).isEqualTo((long) followers * positions);
+        assertThat(peakThreads - threadsBefore).isLessThanOrEqualTo(threads);
+    }
+
+    @Test
+    void slow_session_drops_oldest_messages() throws Exception {
+        dispatcher = new WebSocketMessageDispatcher(2, 4);
+        LocalSession slow = new LocalSession("slow");
+        slow.block();
+
+        dispatcher.send(slow, new TextMessage("1;0"));
+        assertThat(slow.sending.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 2; i <= 10; i++) {
+            dispatcher.send(slow, new TextMessage(i + ";0"));
+        }
+        assertThat(dispatcher.getDropped()).isEqualTo(5);
+
+        slow.release();
+        waitForMessages(slow, 5);
+        assertThat(slow.received).containsExactly(1, 7, 8, 9, 10);
+    }
+
+    @Test
+    void slow_session_does_not_delay_other_sessions() throws Exception {
+        dispatcher = new WebSocketMessageDispatcher(2, 4);
+        LocalSession slow = new LocalSession("slow");
+        LocalSession fast = new LocalSession("fast");
+        slow.block();
+
+        dispatcher.send(slow, new TextMessage("1;0"));
+        assertThat(slow.sending.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 1; i <= 100; i++) {
+            dispatcher.send(fast, new TextMessage(i + ";0"));
+            Thread.sleep(1);
+        }
+        long timeout = System.currentTimeMillis() + 5000;
+        while (!fast.received.contains(100) && System.currentTimeMillis() < timeout) {
+            Thread.sleep(5);
+        }
+        assertThat(fast.received).contains(100).isSorted();
+        assertThat(slow.received).isEmpty();
+        slow.release();
+        waitForMessages(slow, 1);
+    }
+
+    @Test
+    void closed_session_is_skipped() throws Exception {
+        dispatcher = new WebSocketMessageDispatcher(2, 4);
+        LocalSession session = new LocalSession("closed");
+        session.close();
+        dispatcher.send(session, new TextMessage("1;0"));
+        dispatcher.remove(session.getId());
+        Thread.sleep(100);
+        assertThat(session.received).isEmpty();
+        assertThat(dispatcher.getSessions()).isEqualTo(0);
+    }
+
+    @Test
+    void send_after_remove_does_not_recreate_the_queue() throws Exception {
+        dispatcher = new WebSocketMessageDispatcher(2, 4);
+        LocalSession session = new LocalSession("removed");
+        dispatcher.send(session, new TextMessage("1;0"));
+        waitForMessages(session, 1);
+        session.close();
+        dispatcher.remove(session.getId());
+
+        dispatcher.send(session, new TextMessage("2;0"));
+        dispatcher.send(new WebSocketSession[]{session}, new TextMessage("3;0"));
+        Thread.sleep(100);
+        assertThat(session.received).containsExactly(1);
+        assertThat(dispatcher.getSessions()).isEqualTo(0);
+    }
+
+    private static void waitForMessages(LocalSession session, int count) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 5000;
+        while (session.received.size() < count && System.currentTimeMillis() < timeout) {
+            Thread.sleep(5);
+        }
+        assertThat(session.received).hasSize(count);
+    }
+
+    /**
+     * In memory websocket session recording the received positions ("index;sentNanoTime") and their latency
+     */
+    static class LocalSession implements WebSocketSession {
+
+        private final String id;
+
+        final List<Integer> received = new CopyOnWriteArrayList<>();
+
+        final List<Long> latencies = new CopyOnWriteArrayList<>();
+
+        final CountDownLatch sending = new CountDownLatch(1);
+
+        private CountDownLatch blocked = new CountDownLatch(0);
+
+        private volatile boolean open = true;
+
+        LocalSession(String id) {
+            this.id = id;
+        }
+
+        void block() {
+            blocked = new CountDownLatch(1);
+        }
+
+        void release() {
+            blocked.countDown();
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            sending.countDown();
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String[] payload = message.getPayload().toString().split(";");
+            latencies.add(System.nanoTime() - Long.parseLong(payload[1]));
+            received.add(Integer.parseInt(payload[0]));
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public URI getUri() {
+            return null;
+        }
+
+        @Override
+        public HttpHeaders getHandshakeHeaders() {
+            return new HttpHeaders();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return new HashMap<>();
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public String getAcceptedProtocol() {
+            return null;
+        }
+
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getTextMessageSizeLimit() {
+            return 0;
+        }
+
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getBinaryMessageSizeLimit() {
+            return 0;
+        }
+
+        @Override
+        public List<WebSocketExtension> getExtensions() {
+            return List.of();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        @Override
+        public void close(CloseStatus status) {
+            open = false;
+        }
+    }
+}
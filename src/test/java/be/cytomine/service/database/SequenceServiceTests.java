@@ -0,0 +1,130 @@
+package be.cytomine.service.database;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SequenceServiceTests {
+
+    private static final int THREADS = 16;
+
+    private static final int IDS_PER_THREAD = 50_000;
+
+    @Test
+    void ids_are_consecutive_within_a_block() {
+        FakeSequenceService sequenceService = new FakeSequenceService(50, 0);
+        for (long i = 1; i <= 120; i++) {
+            assertThat(sequenceService.generateID()).isEqualTo(i);
+        }
+        assertThat(sequenceService.calls.get()).isEqualTo(3);
+    }
+
+    @Test
+    void ids_are_unique_across_threads_and_other_sequence_users() throws Exception {
+        FakeSequenceService sequenceService = new FakeSequenceService(50, 12345);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < IDS_PER_THREAD; i++) {
+                    assertThat(ids.add(sequenceService.generateID())).isTrue();
+                    if (i % 1000 == 0) {
+                        // e.g. a trigger or hibernate calling nextval directly: it owns the whole block
+                        long blockEnd = sequenceService.fetchNextValue();
+                        for (long id = blockEnd - 49; id <= blockEnd; id++) {
+                            assertThat(ids.add(id)).isTrue();
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(ids).hasSize(THREADS * IDS_PER_THREAD + THREADS * (IDS_PER_THREAD / 1000) * 50);
+        assertThat(ids.stream().mapToLong(Long::longValue).min().getAsLong()).isGreaterThan(12345);
+    }
+
+    @Test
+    void block_allocation_throughput() {
+        int count = 1_000_000;
+        FakeSequenceService oneByOne = new FakeSequenceService(1, 0);
+        FakeSequenceService byBlock = new FakeSequenceService(50, 0);
+        long withoutBlocks = measure(oneByOne, count);
+        long withBlocks = measure(byBlock, count);
+        System.out.println(count + " ids: " + withoutBlocks + "ms with increment 1 (" + oneByOne.calls.get() + " nextval), "
+                + withBlocks + "ms with increment 50 (" + byBlock.calls.get() + " nextval)");
+        assertThat(oneByOne.calls.get()).isEqualTo(count);
+        assertThat(byBlock.calls.get()).isEqualTo(count / 50);
+    }
+
+    private static long measure(SequenceService sequenceService, int count) {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            sequenceService.generateID();
+        }
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /**
+     * In memory sequence, each nextval simulates a database round trip
+     */
+    static class FakeSequenceService extends SequenceService {
+
+        private final long increment;
+
+        private final AtomicLong value;
+
+        final AtomicLong calls = new AtomicLong();
+
+        FakeSequenceService(long increment, long currentValue) {
+            this.increment = increment;
+            this.value = new AtomicLong(currentValue);
+        }
+
+        @Override
+        long fetchNextValue() {
+            calls.incrementAndGet();
+            long start = System.nanoTime();
+            while (System.nanoTime() - start < 1_000) {
+                Thread.onSpinWait();
+            }
+            return value.addAndGet(increment);
+        }
+
+        @Override
+        long fetchIncrement() {
+            return increment;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package be.cytomine.service.image;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.image.ImageInstance;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.ontology.AnnotationTrack;
+import be.cytomine.domain.ontology.Term;
+import be.cytomine.domain.ontology.Track;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.domain.project.Project;
+import be.cytomine.exceptions.ObjectNotFoundException;
+import be.cytomine.service.CommandService;
+import be.cytomine.service.project.ProjectService;
+import com.vividsolutions.jts.io.ParseException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(classes = CytomineCoreApplication.class)
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class CascadeDeleteServiceTests {
+
+    private static final String LOCATION = "POLYGON ((1983 2168, 2107 2160, 2047 2074, 1983 2168))";
+
+    private static final List<String> TABLES = List.of("project", "image_instance", "slice_instance", "track",
+            "user_annotation", "algo_annotation", "reviewed_annotation", "annotation_term", "algo_annotation_term",
+            "reviewed_annotation_term", "shared_annotation", "shared_annotation_user", "annotation_track", "annotation_index",
+            "property", "description", "attached_file", "tag_domain_association");
+
+    @Autowired
+    ProjectService projectService;
+
+    @Autowired
+    ImageInstanceService imageInstanceService;
+
+    @Autowired
+    CommandService commandService;
+
+    @Autowired
+    ApplicationProperties applicationProperties;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @AfterEach
+    public void restoreProperties() {
+        applicationProperties.getCascadeDelete().setEnabled(true);
+        applicationProperties.getCascadeDelete().setChunkSize(1000);
+    }
+
+    @Test
+    void set_based_project_delete_leaves_the_same_database_state_as_delete_commands() throws ParseException {
+        Project control = builder.given_a_project();
+        seed(control);
+        Map<String, Long> before = counts();
+
+        Project commandProject = builder.given_a_project();
+        seed(commandProject);
+        applicationProperties.getCascadeDelete().setEnabled(false);
+        assertThat(projectService.delete(commandProject, null, null, true).getStatus()).isEqualTo(200);
+        Map<String, Long> afterCommands = counts();
+
+        Project setBasedProject = builder.given_a_project();
+        seed(setBasedProject);
+        applicationProperties.getCascadeDelete().setEnabled(true);
+        // several chunks by image
+        applicationProperties.getCascadeDelete().setChunkSize(2);
+        assertThat(projectService.delete(setBasedProject, null, null, true).getStatus()).isEqualTo(200);
+        Map<String, Long> afterSetBased = counts();
+
+        for (String table : TABLES) {
+            assertThat(afterSetBased.get(table) - afterCommands.get(table))
+                    .as(table).isEqualTo(afterCommands.get(table) - before.get(table));
+        }
+        assertThat(count("user_annotation", control)).isEqualTo(16L);
+        assertThat(count("algo_annotation", control)).isEqualTo(12L);
+        assertThat(count("reviewed_annotation", control)).isEqualTo(4L);
+        assertThat(count("user_annotation", setBasedProject)).isZero();
+        assertThat(count("image_instance", setBasedProject)).isZero();
+    }
+
+    @Test
+    void set_based_image_delete_cannot_be_undone() throws ParseException {
+        Project project = builder.given_a_project();
+        ImageInstance image = builder.given_an_image_instance(project);
+        seed(image, project);
+        applicationProperties.getCascadeDelete().setEnabled(true);
+        assertThat(imageInstanceService.delete(image, null, null, true).getStatus()).isEqualTo(200);
+
+        assertThatThrownBy(() -> commandService.undo()).isInstanceOf(ObjectNotFoundException.class);
+        assertThat(count("image_instance", project)).isZero();
+    }
+
+    @Test
+    void image_delete_through_commands_can_be_undone() {
+        Project project = builder.given_a_project();
+        ImageInstance image = builder.given_an_image_instance(project);
+        applicationProperties.getCascadeDelete().setEnabled(false);
+        assertThat(imageInstanceService.delete(image, null, null, true).getStatus()).isEqualTo(200);
+
+        commandService.undo();
+        assertThat(count("image_instance", project)).isEqualTo(1L);
+    }
+
+    private void seed(Project project) throws ParseException {
+        for (int i = 0; i < 2; i++) {
+            seed(builder.given_an_image_instance(project), project);
+        }
+    }
+
+    /**
+     * 2 slices, each with 3 user annotations (terms, metadata, comment, track), 3 algo annotations
+     * and 1 reviewed annotation (with its own parent user annotation)
+     */
+    private void seed(ImageInstance image, Project project) throws ParseException {
+        Term term = builder.given_a_term(project.getOntology());
+        Track track = builder.given_a_not_persisted_track();
+        track.setImage(image);
+        track.setProject(project);
+        builder.persistAndReturn(track);
+        for (int z = 0; z < 2; z++) {
+            SliceInstance slice = builder.given_a_slice_instance(image, 0, z, 0);
+            for (int i = 0; i < 3; i++) {
+                UserAnnotation annotation = builder.given_a_user_annotation(slice, LOCATION, builder.given_superadmin(), term);
+                builder.given_a_property(annotation, "key", "value");
+                builder.given_a_description(annotation);
+                builder.given_a_tag_association(builder.given_a_tag(), annotation);
+                builder.given_a_attached_file(annotation);
+                builder.given_a_shared_annotation(annotation);
+                AnnotationTrack annotationTrack = new AnnotationTrack();
+                annotationTrack.setAnnotation(annotation);
+                annotationTrack.setSlice(slice);
+                annotationTrack.setTrack(track);
+                builder.persistAndReturn(annotationTrack);
+                builder.given_a_algo_annotation(slice, LOCATION, builder.given_superadmin_job(), term);
+            }
+            builder.given_a_reviewed_annotation(slice, LOCATION, builder.given_superadmin(), term);
+        }
+    }
+
+    private Map<String, Long> counts() {
+        entityManager.flush();
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (String table : TABLES) {
+            counts.put(table, jdbcTemplate.queryForObject("SELECT count(*) FROM " + table, Long.class));
+        }
+        return counts;
+    }
+
+    private Long count(String table, Project project) {
+        String column = table.equals("project") ? "id" : "project_id";
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM " + table + " WHERE " + column + " = ?", Long.class, project.getId());
+    }
+}
@@ -48,6 +48,7 @@ import be.cytomine.domain.project.Project;
 import be.cytomine.domain.security.User;
 import be.cytomine.exceptions.AlreadyExistException;
 import be.cytomine.exceptions.WrongArgumentException;
+import be.cytomine.repository.image.ImageInstanceRepository;
 import be.cytomine.repositorynosql.social.AnnotationActionRepository;
 import be.cytomine.repositorynosql.social.PersistentImageConsultationRepository;
 import be.cytomine.repositorynosql.social.PersistentUserPositionRepository;
@@ -81,6 +82,9 @@ public class ImageInstanceServiceTests {
     @Autowired
     EntityManager entityManager;
 
+    @Autowired
+    ImageInstanceRepository imageInstanceRepository;
+
     @Autowired
     AnnotationActionRepository annotationActionRepository;
 
@@ -234,6 +238,35 @@ public class ImageInstanceServiceTests {
         assertThat(imageInstanceBounds.getFormat().getList()).contains("aaa", "zzzz", "AAAA");
     }
 
+    @Test
+    void retrieve_image_bounds_match_images_submitted_one_by_one() {
+        Project project = builder.given_a_project();
+        List<Integer> magnifications = Arrays.asList(0, 20, 40, null);
+        for (int i = 0; i < magnifications.size(); i++) {
+            ImageInstance imageInstance = builder.given_an_image_instance(project);
+            imageInstance.setInstanceFilename(i % 2 == 0 ? "Image" + i : "image" + i);
+            imageInstance.setMagnification(magnifications.get(i));
+            imageInstance.setPhysicalSizeX(i == 0 ? 0d : 0.25 * i);
+            imageInstance.setFps(null);
+            imageInstance.setCountImageAnnotations((long) i);
+            imageInstance.getBaseImage().setMagnification(10);
+            imageInstance.getBaseImage().setPhysicalSizeX(0.5);
+            imageInstance.getBaseImage().setFps(i == 1 ? null : 25.0);
+            imageInstance.getBaseImage().setWidth(1000 * (i + 1));
+            imageInstance.getBaseImage().getUploadedFile().setContentType(i % 2 == 0 ? "openslide/svs" : "openslide/mrxs");
+            builder.persistAndReturn(imageInstance);
+        }
+        builder.given_an_image_instance();
+
+        ImageInstanceBounds expected = new ImageInstanceBounds();
+        imageInstanceRepository.findAllWithBaseImageUploadedFileByProject(project).forEach(expected::submit);
+
+        ImageInstanceBounds imageInstanceBounds = imageInstanceService.computeBounds(project);
+        assertThat(imageInstanceBounds).usingRecursiveComparison().ignoringCollectionOrder().isEqualTo(expected);
+        assertThat(imageInstanceBounds.getMagnification().getList()).containsExactlyInAnyOrder(10, 20, 40);
+        assertThat(imageInstanceBounds.getInstanceFilename().getMin()).isEqualTo("Image0");
+    }
+
 
     @Test
     void list_all_image_by_projects() {
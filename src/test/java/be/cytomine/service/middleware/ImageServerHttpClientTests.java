@@ -0,0 +1,148 @@
+package be.cytomine.service.middleware;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ImageServerHttpClientTests {
+
+    HttpServer server;
+
+    Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    AtomicInteger inFlight = new AtomicInteger();
+
+    AtomicInteger maxInFlight = new AtomicInteger();
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/thumb", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException ignored) {
+            }
+            // the client may send its next request as soon as it has read the response
+            inFlight.decrementAndGet();
+            byte[] body = "thumb".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(16));
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private String serverUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @Test
+    void sequential_requests_reuse_the_same_connection() throws Exception {
+        ImageServerHttpClient client = new ImageServerHttpClient(new ApplicationProperties());
+
+        for (int i = 0; i < 10; i++) {
+            HttpRequest request = client.newRequestBuilder().GET().uri(URI.create(serverUrl() + "/thumb?i=" + i)).build();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            assertThat(response.statusCode()).isEqualTo(200);
+            assertThat(response.body()).isEqualTo("thumb");
+        }
+
+        assertThat(clientPorts).hasSize(1);
+        assertThat(client.numberOfClients()).isEqualTo(1);
+    }
+
+    @Test
+    void one_client_per_image_server() throws Exception {
+        ImageServerHttpClient client = new ImageServerHttpClient(new ApplicationProperties());
+
+        client.send(client.newRequestBuilder().GET().uri(URI.create(serverUrl() + "/thumb")).build(), HttpResponse.BodyHandlers.ofString());
+        client.send(client.newRequestBuilder().GET().uri(URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/thumb")).build(), HttpResponse.BodyHandlers.ofString());
+        client.send(client.newRequestBuilder().GET().uri(URI.create(serverUrl() + "/thumb?other")).build(), HttpResponse.BodyHandlers.ofString());
+
+        assertThat(client.numberOfClients()).isEqualTo(2);
+    }
+
+    @Test
+    void concurrent_requests_are_bounded_per_server() throws Exception {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getImageServerClient().setMaxConcurrentRequestsPerServer(2);
+        ImageServerHttpClient client = new ImageServerHttpClient(applicationProperties);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<HttpResponse<String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            HttpRequest request = client.newRequestBuilder().GET().uri(URI.create(serverUrl() + "/thumb?i=" + i)).build();
+            futures.add(executorService.submit(() -> client.send(request, HttpResponse.BodyHandlers.ofString())));
+        }
+        for (Future<HttpResponse<String>> future : futures) {
+            assertThat(future.get(30, TimeUnit.SECONDS).statusCode()).isEqualTo(200);
+        }
+        executorService.shutdown();
+
+        assertThat(maxInFlight.get()).isLessThanOrEqualTo(2);
+        assertThat(clientPorts.size()).isLessThanOrEqualTo(2);
+        assertThat(client.availablePermits(serverUrl())).isEqualTo(2);
+    }
+
+    @Test
+    void streamed_response_holds_its_permit_until_the_body_is_closed() throws Exception {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getImageServerClient().setMaxConcurrentRequestsPerServer(2);
+        ImageServerHttpClient client = new ImageServerHttpClient(applicationProperties);
+
+        HttpRequest request = client.newRequestBuilder().GET().uri(URI.create(serverUrl() + "/thumb")).build();
+        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        assertThat(client.availablePermits(serverUrl())).isEqualTo(1);
+
+        try (InputStream body = response.body()) {
+            assertThat(new String(body.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("thumb");
+        }
+        assertThat(client.availablePermits(serverUrl())).isEqualTo(2);
+
+        client.send(request, HttpResponse.BodyHandlers.ofString());
+        assertThat(client.availablePermits(serverUrl())).isEqualTo(2);
+    }
+}
@@ -0,0 +1,237 @@
+package be.cytomine.service.middleware;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.ImageServerCacheProperties;
+import be.cytomine.dto.PimsResponse;
+import be.cytomine.exceptions.NotModifiedException;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ImageServerResponseCacheTests {
+
+    HttpServer server;
+
+    AtomicInteger serverHits = new AtomicInteger();
+
+    AtomicInteger notModified = new AtomicInteger();
+
+    ImageServerHttpClient httpClient = new ImageServerHttpClient(new ApplicationProperties());
+
+    MutableClock clock = new MutableClock();
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/image", exchange -> {
+            serverHits.incrementAndGet();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+            }
+            String etag = "\"" + exchange.getRequestURI().getQuery() + "\"";
+            exchange.getResponseHeaders().add("ETag", etag);
+            exchange.getResponseHeaders().add("Content-Type", "image/png");
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = new byte[1000];
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(16));
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private PimsResponse fetch(String query, String etag) {
+        try {
+            HttpRequest.Builder builder = httpClient.newRequestBuilder().GET()
+                    .uri(URI.create("http://localhost:" + server.getAddress().getPort() + "/image/thumb?" + query));
+            if (etag != null) {
+                builder.setHeader("If-None-Match", etag);
+            }
+            HttpResponse<byte[]> response = httpClient.send(builder.build(), HttpResponse.BodyHandlers.ofByteArray());
+            Map<String, String> headers = new LinkedHashMap<>();
+            headers.put("ETag", response.headers().firstValue("ETag").orElse(null));
+            if (response.statusCode() == 304) {
+                throw new NotModifiedException(headers);
+            }
+            return new PimsResponse(response.body(), headers);
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private ImageServerResponseCache cache(long maxSize) {
+        ImageServerCacheProperties properties = new ImageServerCacheProperties();
+        properties.setTimeToLiveInSeconds(60L);
+        properties.setMaxSizeInBytes(maxSize);
+        properties.setMaxEntrySizeInBytes(maxSize);
+        return new ImageServerResponseCache(properties, clock);
+    }
+
+    @Test
+    void same_request_is_served_from_cache() {
+        ImageServerResponseCache cache = cache(1_000_000);
+        String key = ImageServerResponseCache.key("GET", "/image/thumb", Map.of("length", 256, "z_slices", 0), "png", Map.of());
+        String sameKeyOtherOrder = ImageServerResponseCache.key("GET", "/image/thumb", new LinkedHashMap<>(Map.of("z_slices", 0, "length", 256)), "png", Map.of());
+        assertThat(key).isEqualTo(sameKeyOtherOrder);
+
+        PimsResponse first = cache.get(key, etag -> fetch("length=256", etag));
+        PimsResponse second = cache.get(key, etag -> fetch("length=256", etag));
+
+        assertThat(second.getContent()).isEqualTo(first.getContent());
+        assertThat(serverHits.get()).isEqualTo(1);
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    void cached_headers_are_not_shared_between_callers() {
+        ImageServerResponseCache cache = cache(1_000_000);
+        PimsResponse first = cache.get("key", etag -> fetch("length=256", etag));
+        first.setCacheControlMaxAge(10);
+
+        PimsResponse second = cache.get("key", etag -> fetch("length=256", etag));
+        assertThat(second.getHeaders()).doesNotContainKey("Cache-Control");
+    }
+
+    @Test
+    void identical_requests_in_flight_are_coalesced() throws Exception {
+        ImageServerResponseCache cache = cache(1_000_000);
+        ExecutorService executorService = Executors.newFixedThreadPool(20);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<PimsResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(executorService.submit(() -> {
+                start.await();
+                return cache.get("key", etag -> fetch("length=512", etag));
+            }));
+        }
+        start.countDown();
+        for (Future<PimsResponse> future : futures) {
+            assertThat(future.get(30, TimeUnit.SECONDS).getContent()).hasSize(1000);
+        }
+        executorService.shutdown();
+
+        assertThat(serverHits.get()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(cache.getHits() + cache.getCoalesced()).isEqualTo(19);
+    }
+
+    @Test
+    void expired_entry_is_revalidated_with_etag() {
+        ImageServerResponseCache cache = cache(1_000_000);
+        cache.get("key", etag -> fetch("length=128", etag));
+        clock.advance(61_000);
+
+        PimsResponse response = cache.get("key", etag -> fetch("length=128", etag));
+
+        assertThat(response.getContent()).hasSize(1000);
+        assertThat(serverHits.get()).isEqualTo(2);
+        assertThat(notModified.get()).isEqualTo(1);
+        assertThat(cache.getRevalidations()).isEqualTo(1);
+
+        cache.get("key", etag -> fetch("length=128", etag));
+        assertThat(serverHits.get()).isEqualTo(2);
+    }
+
+    @Test
+    void cache_is_bounded_by_size_in_bytes() {
+        ImageServerResponseCache cache = cache(2500);
+        cache.get("a", etag -> fetch("a", etag));
+        cache.get("b", etag -> fetch("b", etag));
+        cache.get("a", etag -> fetch("a", etag));
+        cache.get("c", etag -> fetch("c", etag));
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.sizeInBytes()).isEqualTo(2000);
+        assertThat(cache.getEvictions()).isEqualTo(1);
+
+        // "b" was the least recently used entry
+        cache.get("a", etag -> fetch("a", etag));
+        assertThat(serverHits.get()).isEqualTo(3);
+        cache.get("b", etag -> fetch("b", etag));
+        assertThat(serverHits.get()).isEqualTo(4);
+    }
+
+    @Test
+    void failed_request_is_not_cached() {
+        ImageServerResponseCache cache = cache(1_000_000);
+        assertThatThrownBy(() -> cache.get("key", etag -> { throw new IllegalStateException("down"); }))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(cache.get("key", etag -> fetch("x", etag)).getContent()).hasSize(1000);
+    }
+
+    static class MutableClock extends Clock {
+
+        long millis = 0;
+
+        void advance(long delta) {
+            millis += delta;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package be.cytomine.service.middleware;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.dto.PimsResponse;
+import be.cytomine.exceptions.InvalidRequestException;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ImageServerStreamingTests {
+
+    static final long LARGE_BODY_SIZE = 384L * 1024 * 1024;
+
+    HttpServer server;
+
+    ImageServerService imageServerService;
+
+    SimpleMeterRegistry meterRegistry;
+
+    CountDownLatch releaseBody = new CountDownLatch(1);
+
+    AtomicLong largeBodyWritten = new AtomicLong();
+
+    AtomicReference<String> lastMethod = new AtomicReference<>();
+
+    AtomicReference<String> lastBody = new AtomicReference<>();
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/large", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "image/png");
+            exchange.sendResponseHeaders(200, LARGE_BODY_SIZE);
+            byte[] chunk = new byte[1024 * 1024];
+            try (OutputStream os = exchange.getResponseBody()) {
+                while (largeBodyWritten.get() < LARGE_BODY_SIZE) {
+                    os.write(chunk);
+                    largeBodyWritten.addAndGet(chunk.length);
+                }
+            }
+        });
+        server.createContext("/slow", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write("first".getBytes(StandardCharsets.UTF_8));
+                os.flush();
+                releaseBody.await(30, TimeUnit.SECONDS);
+                os.write("last".getBytes(StandardCharsets.UTF_8));
+            } catch (InterruptedException ignored) {
+            }
+        });
+        server.createContext("/window", exchange -> {
+            lastMethod.set(exchange.getRequestMethod());
+            lastBody.set(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            byte[] body = "window".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.createContext("/image/", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+
+        imageServerService = new ImageServerService();
+        ReflectionTestUtils.setField(imageServerService, "imageServerHttpClient", new ImageServerHttpClient(new ApplicationProperties()));
+        meterRegistry = new SimpleMeterRegistry();
+        ReflectionTestUtils.setField(imageServerService, "meterRegistry", meterRegistry);
+    }
+
+    @AfterEach
+    public void stopServer() {
+        releaseBody.countDown();
+        server.stop(0);
+    }
+
+    private String serverUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @Test
+    void large_body_is_streamed_with_a_bounded_buffer() throws IOException, InterruptedException {
+        PimsResponse response = imageServerService.makeStreamingRequest("GET", serverUrl(), "/large", new LinkedHashMap<>(), "png", Map.of());
+
+        assertThat(response.isStreaming()).isTrue();
+        assertThat(response.getContentLength()).isEqualTo(LARGE_BODY_SIZE);
+        assertThat(response.getHeaders()).containsEntry("Content-Type", "image/png");
+
+        // nothing is consumed yet: the server is blocked once the client and socket buffers are full
+        long buffered = waitUntilLargeBodyIsBlocked();
+        assertThat(buffered).isLessThan(LARGE_BODY_SIZE / 8);
+
+        long read = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream is = response.getStream()) {
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                read += n;
+            }
+        }
+        assertThat(read).isEqualTo(LARGE_BODY_SIZE);
+    }
+
+    @Test
+    void headers_and_first_bytes_are_available_before_the_body_is_complete() throws IOException {
+        PimsResponse response = imageServerService.makeStreamingRequest("GET", serverUrl(), "/slow", new LinkedHashMap<>(), "jpg", Map.of());
+
+        assertThat(response.getHeaders()).containsEntry("Content-Type", "image/jpeg");
+        try (InputStream is = response.getStream()) {
+            assertThat(new String(is.readNBytes(5), StandardCharsets.UTF_8)).isEqualTo("first");
+            releaseBody.countDown();
+            assertThat(new String(is.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("last");
+        }
+    }
+
+    @Test
+    void long_request_switches_to_post_and_is_streamed() {
+        LinkedHashMap<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("annotations", Map.of("geometry", "POLYGON((" + "1 1,".repeat(200) + "1 1))"));
+        parameters.put("length", 512);
+
+        PimsResponse response = imageServerService.makeStreamingRequest("GET", serverUrl(), "/window", parameters, "png", Map.of());
+
+        assertThat(response.isStreaming()).isTrue();
+        assertThat(new String(response.getContent(), StandardCharsets.UTF_8)).isEqualTo("window");
+        assertThat(response.isStreaming()).isFalse();
+        assertThat(lastMethod.get()).isEqualTo("POST");
+        assertThat(lastBody.get()).contains("\"length\":512");
+    }
+
+    @Test
+    void requests_are_timed_by_operation_and_status() {
+        imageServerService.makeStreamingRequest("GET", serverUrl(), "/window", new LinkedHashMap<>(), "png", Map.of()).getContent();
+        imageServerService.makeStreamingRequest("GET", serverUrl(), "/window", new LinkedHashMap<>(), "png", Map.of()).getContent();
+        assertThatThrownBy(() -> imageServerService.makeStreamingRequest("GET", serverUrl(), "/image/upload%2F42%2Fslide.svs/window", new LinkedHashMap<>(), "png", Map.of()))
+                .isInstanceOf(InvalidRequestException.class);
+
+        Timer window = meterRegistry.find(ImageServerService.REQUEST_TIMER).tags("method", "GET", "operation", "/window", "status", "200").timer();
+        assertThat(window).isNotNull();
+        assertThat(window.count()).isEqualTo(2);
+        Timer notFound = meterRegistry.find(ImageServerService.REQUEST_TIMER).tags("operation", "/image/{path}/window", "status", "404").timer();
+        assertThat(notFound).isNotNull();
+        assertThat(notFound.count()).isEqualTo(1);
+
+        DistributionSummary size = meterRegistry.find(ImageServerService.RESPONSE_SIZE_SUMMARY).tag("operation", "/window").summary();
+        assertThat(size).isNotNull();
+        assertThat(size.count()).isEqualTo(2);
+        assertThat(size.totalAmount()).isEqualTo(2 * "window".length());
+    }
+
+    @Test
+    void operation_does_not_depend_on_the_image() {
+        assertThat(ImageServerService.operation("/image/upload%2F1%2Fa.svs/info")).isEqualTo("/image/{path}/info");
+        assertThat(ImageServerService.operation("/file/upload%2F2%2Fb.svs/histogram/per-image")).isEqualTo("/file/{path}/histogram/per-image");
+        assertThat(ImageServerService.operation("/slice/12/tile/34")).isEqualTo("/slice/{id}/tile/{id}");
+        assertThat(ImageServerService.operation("/profile.json")).isEqualTo("/profile.json");
+    }
+
+    private long waitUntilLargeBodyIsBlocked() throws InterruptedException {
+        long previous;
+        do {
+            previous = largeBodyWritten.get();
+            Thread.sleep(200);
+        } while (largeBodyWritten.get() != previous);
+        return previous;
+    }
+}
@@ -0,0 +1,180 @@
+package be.cytomine.service.ontology;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.ontology.Term;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.domain.security.User;
+import be.cytomine.repository.UserAnnotationListing;
+import be.cytomine.repository.ontology.UserAnnotationRepository;
+import be.cytomine.service.AnnotationListingService;
+import be.cytomine.service.dto.Kmeans;
+import be.cytomine.service.utils.KmeansGeometryService;
+import com.vividsolutions.jts.io.ParseException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = CytomineCoreApplication.class)
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class AnnotationClusterServiceTests {
+
+    private static final String BBOX = "POLYGON ((0 0, 40000 0, 40000 40000, 0 40000, 0 0))";
+
+    @Autowired
+    AnnotationClusterService annotationClusterService;
+
+    @Autowired
+    AnnotationListingService annotationListingService;
+
+    @Autowired
+    UserAnnotationRepository userAnnotationRepository;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    SliceInstance slice;
+
+    User user;
+
+    List<UserAnnotation> topLeft = new ArrayList<>();
+
+    List<UserAnnotation> bottomRight = new ArrayList<>();
+
+    @BeforeEach
+    public void createAnnotations() throws ParseException {
+        slice = builder.given_a_slice_instance();
+        user = builder.given_superadmin();
+        for (int i = 0; i < 20; i++) {
+            topLeft.add(builder.given_a_user_annotation(slice,
+                    "POLYGON ((" + (1000 + i) + " 1000, " + (1100 + i) + " 1000, " + (1100 + i) + " 1100, " + (1000 + i) + " 1100, " + (1000 + i) + " 1000))", user, null));
+        }
+        for (int i = 0; i < 10; i++) {
+            bottomRight.add(builder.given_a_user_annotation(slice, "POINT (30000 " + (30000 + i) + ")", user, null));
+        }
+    }
+
+    @Test
+    void clusters_count_the_annotations_of_each_cell() {
+        annotationClusterService.fold();
+
+        List<Kmeans> clusters = annotationClusterService.listClusters(listing(), KmeansGeometryService.KMEANSSOFT);
+
+        assertThat(clusters).hasSize(2);
+        assertThat(clusters.get(0).getCount()).isEqualTo(20);
+        assertThat(clusters.get(0).getLocation()).isEqualTo("POINT (1059.5 1050)");
+        assertThat(clusters.get(0).getRatio()).isEqualTo(1.0);
+        assertThat(clusters.get(1).getCount()).isEqualTo(10);
+        assertThat(clusters.get(1).getRatio()).isEqualTo(0.5);
+    }
+
+    @Test
+    void full_clusters_are_the_envelopes_of_the_cell_annotations() {
+        annotationClusterService.fold();
+
+        List<Kmeans> clusters = annotationClusterService.listClusters(listing(), KmeansGeometryService.KMEANSFULL);
+
+        assertThat(clusters.get(0).getLocation()).isEqualTo("POLYGON ((1000 1000, 1000 1100, 1119 1100, 1119 1000, 1000 1000))");
+        assertThat(clusters.get(1).getLocation()).isEqualTo("LINESTRING (30000 30000, 30000 30009)");
+    }
+
+    @Test
+    void pending_deltas_are_listed_before_the_fold() {
+        assertThat(annotationClusterService.countPendingDeltas()).isGreaterThanOrEqualTo(30);
+
+        List<Kmeans> clusters = annotationClusterService.listClusters(listing(), KmeansGeometryService.KMEANSSOFT);
+
+        assertThat(clusters).extracting(Kmeans::getCount).containsExactly(20L, 10L);
+    }
+
+    @Test
+    void deleted_annotations_are_removed_from_the_pyramid() {
+        annotationClusterService.fold();
+        bottomRight.forEach(userAnnotationRepository::delete);
+        userAnnotationRepository.delete(topLeft.get(0));
+        entityManager.flush();
+
+        assertThat(annotationClusterService.listClusters(listing(), KmeansGeometryService.KMEANSSOFT))
+                .extracting(Kmeans::getCount).containsExactly(19L);
+        annotationClusterService.fold();
+        assertThat(annotationClusterService.listClusters(listing(), KmeansGeometryService.KMEANSSOFT))
+                .extracting(Kmeans::getCount).containsExactly(19L);
+    }
+
+    @Test
+    void small_bbox_reads_the_cells_of_a_lower_level() {
+        annotationClusterService.fold();
+        UserAnnotationListing listing = listing();
+        listing.setBbox("POLYGON ((900 900, 1300 900, 1300 1300, 900 1300, 900 900))");
+
+        List<Kmeans> clusters = annotationClusterService.listClusters(listing, KmeansGeometryService.KMEANSSOFT);
+
+        assertThat(clusters).extracting(Kmeans::getCount).containsExactly(20L);
+    }
+
+    @Test
+    void kmeans_listing_is_served_by_the_pyramid() {
+        UserAnnotationListing listing = listing();
+        listing.setKmeans(true);
+        listing.setKmeansValue(KmeansGeometryService.KMEANSSOFT);
+
+        List list = annotationListingService.listGeneric(listing);
+
+        assertThat(list).hasSize(2);
+        assertThat(((Kmeans) list.get(0)).getCount()).isEqualTo(20);
+    }
+
+    @Test
+    void listing_filtered_by_term_is_not_served_by_the_pyramid() {
+        Term term = builder.given_a_term(slice.getProject().getOntology());
+        UserAnnotationListing listing = listing();
+        assertThat(annotationClusterService.canServe(listing)).isTrue();
+        listing.setTerms(List.of(term.getId()));
+        assertThat(annotationClusterService.canServe(listing)).isFalse();
+    }
+
+    @Test
+    void level_has_at_most_the_expected_cells_across_the_view() {
+        assertThat(AnnotationClusterService.level(1000, 4)).isEqualTo(0);
+        assertThat(AnnotationClusterService.level(40000, 4)).isEqualTo(6);
+        assertThat(AnnotationClusterService.level(100000, 4)).isEqualTo(7);
+        assertThat(AnnotationClusterService.level(1_000_000_000, 4)).isEqualTo(AnnotationClusterService.LEVELS - 1);
+    }
+
+    private UserAnnotationListing listing() {
+        UserAnnotationListing listing = new UserAnnotationListing(entityManager);
+        listing.setSlices(List.of(slice.getId()));
+        listing.setBbox(BBOX);
+        return listing;
+    }
+}
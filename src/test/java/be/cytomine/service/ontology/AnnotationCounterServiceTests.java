@@ -0,0 +1,152 @@
+package be.cytomine.service.ontology;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.image.ImageInstance;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.domain.project.Project;
+import be.cytomine.domain.security.User;
+import be.cytomine.repository.image.ImageInstanceRepository;
+import be.cytomine.repository.ontology.UserAnnotationRepository;
+import be.cytomine.repository.project.ProjectRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Not transactional: annotations are inserted and deleted by concurrent transactions,
+ * as done by several annotators (or jobs) working on the same image.
+ */
+@SpringBootTest(classes = CytomineCoreApplication.class)
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+public class AnnotationCounterServiceTests {
+
+    private static final int THREADS = 8;
+
+    private static final int ANNOTATIONS_BY_THREAD = 25;
+
+    @Autowired
+    AnnotationCounterService annotationCounterService;
+
+    @Autowired
+    AnnotationIndexService annotationIndexService;
+
+    @Autowired
+    UserAnnotationRepository userAnnotationRepository;
+
+    @Autowired
+    ProjectRepository projectRepository;
+
+    @Autowired
+    ImageInstanceRepository imageInstanceRepository;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    Project project;
+
+    ImageInstance image;
+
+    SliceInstance slice;
+
+    User user;
+
+    @BeforeEach
+    public void createSlice() {
+        project = builder.given_a_project();
+        image = builder.given_an_image_instance(project);
+        slice = builder.given_a_slice_instance(image, 0, 0, 0);
+        user = builder.given_superadmin();
+    }
+
+    @Test
+    void counters_are_exact_after_parallel_inserts_and_deletes() throws Exception {
+        List<Long> created = insertInParallel(THREADS * ANNOTATIONS_BY_THREAD);
+        assertThat(annotationIndexService.count(slice, user)).isEqualTo((long) created.size());
+
+        // delete half of them while other annotations are inserted
+        List<Long> deleted = new ArrayList<>(created.subList(0, created.size() / 2));
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Long id : deleted) {
+                futures.add(executor.submit(() -> userAnnotationRepository.deleteById(id)));
+            }
+            Future<List<Long>> inserted = executor.submit(() -> insertInParallel(ANNOTATIONS_BY_THREAD * 2));
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            created.addAll(inserted.get(60, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+        long expected = created.size() - deleted.size();
+
+        // pending deltas are added when reading the index
+        assertThat(annotationIndexService.count(slice, user)).isEqualTo(expected);
+        assertThat(annotationIndexService.count(List.of(slice), user)).isEqualTo(expected);
+
+        annotationCounterService.fold();
+
+        assertThat(annotationIndexService.count(slice, user)).isEqualTo(expected);
+        assertThat(projectRepository.findById(project.getId()).get().getCountAnnotations()).isEqualTo(expected);
+        assertThat(imageInstanceRepository.findById(image.getId()).get().getCountImageAnnotations()).isEqualTo(expected);
+    }
+
+    @Test
+    void project_counts_refresh_does_not_count_pending_deltas_twice() throws Exception {
+        long expected = insertInParallel(THREADS).size();
+
+        Project reloaded = projectRepository.findById(project.getId()).get();
+        annotationCounterService.refreshProjectCounts(reloaded);
+        projectRepository.save(reloaded);
+        annotationCounterService.fold();
+
+        assertThat(projectRepository.findById(project.getId()).get().getCountAnnotations()).isEqualTo(expected);
+    }
+
+    private List<Long> insertInParallel(int annotations) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Callable<Long>> tasks = Collections.nCopies(annotations, () -> {
+                UserAnnotation annotation = builder.given_a_not_persisted_user_annotation(slice);
+                annotation.setUser(user);
+                return builder.persistAndReturn(annotation).getId();
+            });
+            List<Long> ids = new ArrayList<>();
+            for (Future<Long> future : executor.invokeAll(tasks, 60, TimeUnit.SECONDS)) {
+                ids.add(future.get());
+            }
+            return ids;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
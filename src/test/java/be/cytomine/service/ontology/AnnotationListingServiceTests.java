@@ -37,16 +37,21 @@ import be.cytomine.repository.ontology.UserAnnotationRepository;
 import be.cytomine.service.AnnotationListingService;
 import be.cytomine.service.CommandService;
 import be.cytomine.service.command.TransactionService;
+import be.cytomine.service.dto.AnnotationPage;
 import be.cytomine.service.dto.AnnotationResult;
 import be.cytomine.service.dto.Kmeans;
 import be.cytomine.service.ontology.UserAnnotationService;
 import be.cytomine.service.utils.KmeansGeometryService;
 import be.cytomine.utils.CommandResponse;
 import be.cytomine.utils.JsonObject;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.io.ParseException;
 import com.vividsolutions.jts.io.WKTReader;
 import org.apache.commons.lang3.time.DateUtils;
 import org.assertj.core.api.AssertionsForClassTypes;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -56,13 +61,16 @@ import org.springframework.security.test.context.support.WithMockUser;
 
 import javax.persistence.EntityManager;
 import javax.transaction.Transactional;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 
 @SpringBootTest(classes = CytomineCoreApplication.class)
@@ -95,6 +103,9 @@ public class AnnotationListingServiceTests {
     @Autowired
     KmeansGeometryService kmeansGeometryService;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
     @Test
     void search_user_annotation_by_project() {
         UserAnnotation userAnnotation = builder.given_a_user_annotation();
@@ -598,4 +609,206 @@ public class AnnotationListingServiceTests {
 
     }
 
+    @Test
+    void tile_envelope_counts_rows_from_the_top_of_the_image() {
+        // 1000 x 600 pixels: zoom 2 is the full resolution
+        assertThat(AnnotationListingService.tileEnvelope(1000, 600, 2, 0, 0)).isEqualTo(new Envelope(0, 256, 344, 600));
+        assertThat(AnnotationListingService.tileEnvelope(1000, 600, 2, 3, 2)).isEqualTo(new Envelope(768, 1024, -168, 88));
+        assertThat(AnnotationListingService.tileEnvelope(1000, 600, 0, 0, 0)).isEqualTo(new Envelope(0, 1024, -424, 600));
+        assertThatThrownBy(() -> AnnotationListingService.tileEnvelope(1000, 600, 2, -1, 0)).isInstanceOf(WrongArgumentException.class);
+    }
+
+    @Test
+    void search_user_annotation_with_keyset_pagination() {
+        SliceInstance sliceInstance = builder.given_a_slice_instance();
+        Term term1 = builder.given_a_term(sliceInstance.getProject().getOntology());
+        Term term2 = builder.given_a_term(sliceInstance.getProject().getOntology());
+        for (int i = 0; i < 150 ; i++) {
+            // each annotation spans two rows, so chunks of rows end in the middle of an annotation
+            UserAnnotation annotation = builder.given_a_user_annotation(sliceInstance);
+            builder.given_an_annotation_term(annotation, term1);
+            builder.given_an_annotation_term(annotation, term2);
+        }
+
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setSlice(sliceInstance.getId());
+        List<Object> expectedIds = ((List<AnnotationResult>) annotationListingService.listGeneric(userAnnotationListing))
+                .stream().map(x -> x.get("id")).collect(Collectors.toList());
+        assertThat(expectedIds).hasSize(150);
+
+        userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setSlice(sliceInstance.getId());
+        assertThat(annotationListingService.isPaginable(userAnnotationListing)).isTrue();
+
+        List<Object> pagedIds = new ArrayList<>();
+        Long cursor = null;
+        int pages = 0;
+        do {
+            AnnotationPage page = annotationListingService.listPage(userAnnotationListing, 0, 40, cursor, cursor == null);
+            if (cursor == null) {
+                assertThat(page.getSize()).isEqualTo(150);
+            } else {
+                assertThat(page.getSize()).isNull();
+            }
+            assertThat(page.getAnnotations()).hasSizeLessThanOrEqualTo(40);
+            for (AnnotationResult annotation : page.getAnnotations()) {
+                assertThat((List) annotation.get("term")).containsExactlyInAnyOrder(term1.getId(), term2.getId());
+                pagedIds.add(annotation.get("id"));
+            }
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertThat(pages).isEqualTo(4);
+        assertThat(pagedIds).isEqualTo(expectedIds);
+    }
+
+    @Test
+    void search_user_annotation_by_terms_with_keyset_pagination() {
+        SliceInstance sliceInstance = builder.given_a_slice_instance();
+        Term term1 = builder.given_a_term(sliceInstance.getProject().getOntology());
+        Term term2 = builder.given_a_term(sliceInstance.getProject().getOntology());
+        for (int i = 0; i < 150 ; i++) {
+            // both terms match, so the inner selection also has two rows per annotation
+            UserAnnotation annotation = builder.given_a_user_annotation(sliceInstance);
+            builder.given_an_annotation_term(annotation, term1);
+            builder.given_an_annotation_term(annotation, term2);
+        }
+
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setSlice(sliceInstance.getId());
+        userAnnotationListing.setTerms(Arrays.asList(term1.getId(), term2.getId()));
+        List<Object> expectedIds = ((List<AnnotationResult>) annotationListingService.listGeneric(userAnnotationListing))
+                .stream().map(x -> x.get("id")).collect(Collectors.toList());
+        assertThat(expectedIds).hasSize(150);
+
+        userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setSlice(sliceInstance.getId());
+        userAnnotationListing.setTerms(Arrays.asList(term1.getId(), term2.getId()));
+        userAnnotationListing.setRowLimit(10);
+        assertThat(userAnnotationListing.getAnnotationsRequest()).contains("SELECT DISTINCT ON (a.id) * FROM (");
+        userAnnotationListing.setRowLimit(null);
+
+        List<Object> pagedIds = new ArrayList<>();
+        Long cursor = null;
+        do {
+            AnnotationPage page = annotationListingService.listPage(userAnnotationListing, 0, 40, cursor, false);
+            for (AnnotationResult annotation : page.getAnnotations()) {
+                assertThat((List) annotation.get("term")).containsExactlyInAnyOrder(term1.getId(), term2.getId());
+                pagedIds.add(annotation.get("id"));
+            }
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertThat(pagedIds).isEqualTo(expectedIds);
+    }
+
+    @Test
+    void search_user_annotation_with_keyset_pagination_and_offset() {
+        SliceInstance sliceInstance = builder.given_a_slice_instance();
+        for (int i = 0; i < 10 ; i++) {
+            builder.given_a_user_annotation(sliceInstance);
+        }
+
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setSlice(sliceInstance.getId());
+        List<Object> expectedIds = ((List<AnnotationResult>) annotationListingService.listGeneric(userAnnotationListing))
+                .stream().map(x -> x.get("id")).collect(Collectors.toList());
+
+        userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setSlice(sliceInstance.getId());
+        AnnotationPage page = annotationListingService.listPage(userAnnotationListing, 8, 5, null, true);
+        assertThat(page.getAnnotations().stream().map(x -> x.get("id"))).containsExactlyElementsOf(expectedIds.subList(8, 10));
+        assertThat(page.getNextCursor()).isNull();
+        assertThat(page.getSize()).isEqualTo(10);
+
+        page = annotationListingService.listPage(userAnnotationListing, 2, 5, null, false);
+        assertThat(page.getAnnotations().stream().map(x -> x.get("id"))).containsExactlyElementsOf(expectedIds.subList(2, 7));
+        assertThat(page.getNextCursor()).isEqualTo(expectedIds.get(6));
+    }
+
+    @Test
+    void keyset_pagination_is_not_available_with_custom_order() {
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setProject(builder.given_a_project().getId());
+        userAnnotationListing.getOrderBy().put("a.created", "asc");
+        assertThat(annotationListingService.isPaginable(userAnnotationListing)).isFalse();
+        Assertions.assertThrows(WrongArgumentException.class,
+                () -> annotationListingService.listPage(userAnnotationListing, 0, 10, null, false));
+    }
+
+    @Test
+    void stream_user_annotations_gives_same_result_as_list() {
+        UserAnnotation userAnnotation = builder.given_an_annotation_term().getUserAnnotation();
+        builder.given_an_annotation_term(userAnnotation, builder.given_a_term(userAnnotation.getProject().getOntology()));
+        builder.given_a_user_annotation(userAnnotation.getSlice());
+        entityManager.refresh(userAnnotation);
+
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setSlice(userAnnotation.getSlice().getId());
+        List expected = annotationListingService.listGeneric(userAnnotationListing);
+
+        userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setSlice(userAnnotation.getSlice().getId());
+        List<Object> streamed = new ArrayList<>();
+        annotationListingService.streamGeneric(userAnnotationListing, streamed::add);
+
+        assertThat(streamed).hasSize(2);
+        assertThat(JsonObject.toJsonString(streamed)).isEqualTo(JsonObject.toJsonString(expected));
+    }
+
+    @Test
+    void stream_user_annotations_while_reading_rows() {
+        UserAnnotation userAnnotation = builder.given_an_annotation_term().getUserAnnotation();
+        entityManager.flush();
+        // seed a large dataset by copying the annotation rows
+        entityManager.createNativeQuery("CREATE TEMP TABLE user_annotation_copy AS SELECT * FROM user_annotation WHERE id = " + userAnnotation.getId()).executeUpdate();
+        entityManager.createNativeQuery("INSERT INTO user_annotation_copy SELECT c.* FROM user_annotation_copy c, generate_series(1, 4999)").executeUpdate();
+        entityManager.createNativeQuery("UPDATE user_annotation_copy SET id = nextval('hibernate_sequence')").executeUpdate();
+        entityManager.createNativeQuery("INSERT INTO user_annotation SELECT * FROM user_annotation_copy").executeUpdate();
+        entityManager.createNativeQuery("DROP TABLE user_annotation_copy").executeUpdate();
+
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setSlice(userAnnotation.getSlice().getId());
+        AtomicLong streamed = new AtomicLong();
+        AtomicLong lastId = new AtomicLong(Long.MAX_VALUE);
+        AtomicLong openCursors = new AtomicLong(-1);
+        annotationListingService.streamGeneric(userAnnotationListing, annotation -> {
+            Long id = (Long) ((AnnotationResult) annotation).get("id");
+            assertThat(id).isLessThan(lastId.get());
+            lastId.set(id);
+            if (streamed.getAndIncrement() == 0) {
+                openCursors.set(((Number) entityManager.createNativeQuery("SELECT COUNT(*) FROM pg_cursors").getSingleResult()).longValue());
+            }
+        });
+        assertThat(streamed.get()).isEqualTo(5001);
+
+        // the first annotation is given to the consumer while the rows are still read through a cursor:
+        // the result is never loaded as a whole, peak memory does not depend on its size
+        assertThat(openCursors.get()).isGreaterThan(0);
+    }
+
+    @Test
+    void listing_times_the_request_apart_from_the_mapping() {
+        UserAnnotation userAnnotation = builder.given_a_user_annotation();
+        long sql = listingCount("sql");
+        long mapping = listingCount("mapping");
+        DistributionSummary rows = meterRegistry.find("cytomine.annotation.listing.rows").tag("listing", "UserAnnotationListing").summary();
+        double rowsBefore = rows == null ? 0 : rows.totalAmount();
+
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setProject(userAnnotation.getProject().getId());
+        assertThat(annotationListingService.listGeneric(userAnnotationListing)).hasSize(1);
+
+        assertThat(listingCount("sql")).isEqualTo(sql + 1);
+        assertThat(listingCount("mapping")).isEqualTo(mapping + 1);
+        rows = meterRegistry.find("cytomine.annotation.listing.rows").tag("listing", "UserAnnotationListing").summary();
+        assertThat(rows.totalAmount()).isEqualTo(rowsBefore + 1);
+    }
+
+    private long listingCount(String phase) {
+        Timer timer = meterRegistry.find("cytomine.annotation.listing")
+                .tags("listing", "UserAnnotationListing", "mode", "full", "phase", phase).timer();
+        return timer == null ? 0 : timer.count();
+    }
 }
@@ -22,6 +22,8 @@ import javax.transaction.Transactional;
 
 import com.github.tomakehurst.wiremock.WireMockServer;
 import com.github.tomakehurst.wiremock.client.WireMock;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
@@ -78,6 +80,9 @@ public class OntologyServiceTests {
     @Autowired
     RelationTermRepository relationTermRepository;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
     @Autowired
     TermRepository termRepository;
 
@@ -387,4 +392,19 @@ public class OntologyServiceTests {
         assertThat(permissionService.hasACLPermission(project, "user", ADMINISTRATION)).isTrue();
         assertThat(permissionService.hasACLPermission(project, "user", READ)).isTrue();
     }
+
+    @Test
+    void add_ontology_is_timed_as_a_command() {
+        long before = addCommandCount();
+
+        ontologyService.add(BasicInstanceBuilder.given_a_not_persisted_ontology().toJsonObject());
+
+        assertThat(addCommandCount()).isEqualTo(before + 1);
+    }
+
+    private long addCommandCount() {
+        Timer timer = meterRegistry.find("cytomine.commands")
+                .tags("type", "AddCommand", "service", "OntologyService", "outcome", "success").timer();
+        return timer == null ? 0 : timer.count();
+    }
 }
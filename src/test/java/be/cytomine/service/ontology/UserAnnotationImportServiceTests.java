@@ -0,0 +1,147 @@
+package be.cytomine.service.ontology;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.ontology.Term;
+import be.cytomine.domain.security.SecUser;
+import be.cytomine.service.CurrentUserService;
+import be.cytomine.utils.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = CytomineCoreApplication.class)
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class UserAnnotationImportServiceTests {
+
+    private static final String LOCATION = "POLYGON ((1983 2168, 2107 2160, 2047 2074, 1983 2168))";
+
+    @Autowired
+    UserAnnotationImportService userAnnotationImportService;
+
+    @Autowired
+    AnnotationIndexService annotationIndexService;
+
+    @Autowired
+    AnnotationCounterService annotationCounterService;
+
+    @Autowired
+    CurrentUserService currentUserService;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Test
+    void import_annotations_with_terms() {
+        SliceInstance slice = builder.given_a_slice_instance();
+        Term term = builder.given_a_term(slice.getProject().getOntology());
+        List<JsonObject> items = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            items.add(JsonObject.of("slice", slice.getId(), "location", LOCATION, "term", List.of(term.getId())));
+        }
+        items.add(JsonObject.of("image", slice.getImage().getId(), "location", LOCATION));
+
+        JsonObject response = userAnnotationImportService.importAnnotations(items, null, null);
+
+        assertThat(response.getJSONAttrInteger("status")).isEqualTo(200);
+        assertThat(((Map<String, Object>) response.get("data")).get("count")).isEqualTo(4);
+        assertThat(count("SELECT count(*) FROM user_annotation WHERE project_id = " + slice.getProject().getId())).isEqualTo(4);
+        assertThat(count("SELECT count(*) FROM annotation_term WHERE term_id = " + term.getId())).isEqualTo(3);
+        assertThat(count("SELECT count(*) FROM command_history WHERE project_id = " + slice.getProject().getId())).isEqualTo(1);
+    }
+
+    @Test
+    void import_reports_the_error_of_each_rejected_item() {
+        SliceInstance slice = builder.given_a_slice_instance();
+        Term termFromAnotherOntology = builder.given_a_term();
+        List<JsonObject> items = List.of(
+                JsonObject.of("slice", slice.getId(), "location", LOCATION),
+                JsonObject.of("slice", slice.getId(), "location", "POLYGON ((1983 2168, 2107"),
+                JsonObject.of("location", LOCATION),
+                JsonObject.of("slice", slice.getId(), "location", LOCATION, "term", List.of(termFromAnotherOntology.getId())),
+                JsonObject.of("slice", slice.getId(), "location", LOCATION, "track", List.of(1L)),
+                JsonObject.of("slice", 0L, "location", LOCATION)
+        );
+
+        JsonObject response = userAnnotationImportService.importAnnotations(items, null, null);
+
+        assertThat(response.getJSONAttrInteger("status")).isEqualTo(206);
+        Map<String, Object> data = (Map<String, Object>) response.get("data");
+        assertThat(data.get("count")).isEqualTo(1);
+        assertThat(((List<JsonObject>) data.get("errors")).stream().map(error -> error.getJSONAttrInteger("index")))
+                .containsExactly(1, 2, 3, 4, 5);
+        assertThat(count("SELECT count(*) FROM user_annotation WHERE project_id = " + slice.getProject().getId())).isEqualTo(1);
+    }
+
+    @Test
+    void import_writes_annotations_in_several_batches_and_updates_the_counters() {
+        int annotations = UserAnnotationImportService.BATCH_SIZE + 1;
+        SliceInstance slice = builder.given_a_slice_instance();
+        Term term = builder.given_a_term(slice.getProject().getOntology());
+        SecUser currentUser = currentUserService.getCurrentUser();
+
+        JsonObject response = userAnnotationImportService.importAnnotations(items(slice, term, annotations), null, null);
+
+        assertThat(response.getJSONAttrInteger("status")).isEqualTo(200);
+        Map<String, Object> data = (Map<String, Object>) response.get("data");
+        assertThat(data.get("count")).isEqualTo(annotations);
+        assertThat((List<Long>) data.get("command")).hasSize(1);
+        assertThat(count("SELECT count(*) FROM user_annotation WHERE slice_id = " + slice.getId())).isEqualTo(annotations);
+        assertThat(count("SELECT count(DISTINCT id) FROM user_annotation WHERE slice_id = " + slice.getId())).isEqualTo(annotations);
+        assertThat(count("SELECT count(*) FROM annotation_term at, user_annotation a WHERE at.user_annotation_id = a.id " +
+                "AND at.term_id = " + term.getId() + " AND a.slice_id = " + slice.getId())).isEqualTo(annotations);
+        assertThat(count("SELECT count(*) FROM command_history WHERE project_id = " + slice.getProject().getId())).isEqualTo(1);
+
+        // the counters are maintained by the annotation triggers, as for annotations added one by one
+        assertThat(annotationIndexService.count(slice, currentUser)).isEqualTo(annotations);
+        annotationCounterService.fold();
+        assertThat(count("SELECT count_annotations FROM project WHERE id = " + slice.getProject().getId())).isEqualTo(annotations);
+        assertThat(count("SELECT count_image_annotations FROM image_instance WHERE id = " + slice.getImage().getId())).isEqualTo(annotations);
+    }
+
+    private List<JsonObject> items(SliceInstance slice, Term term, int count) {
+        List<JsonObject> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int x = (i % 50) * 100;
+            int y = (i / 50) * 100;
+            items.add(JsonObject.of("slice", slice.getId(), "term", List.of(term.getId()),
+                    "location", "POLYGON ((" + x + " " + y + ", " + (x + 80) + " " + y + ", " + (x + 40) + " " + (y + 80) + ", " + x + " " + y + "))"));
+        }
+        return items;
+    }
+
+    private long count(String request) {
+        return ((Number) entityManager.createNativeQuery(request).getSingleResult()).longValue();
+    }
+}
@@ -710,6 +710,39 @@ public class UserAnnotationServiceTests {
     }
 
 
+    @Test
+    void do_annotation_corrections_merges_all_covering_annotations_in_one_transaction() throws ParseException {
+
+        UserAnnotation based = builder.given_a_user_annotation();
+        based.setLocation(new WKTReader().read("POLYGON ((0 0, 0 1000, 1000 1000, 1000 0, 0 0))"));
+        builder.persistAndReturn(based);
+
+        UserAnnotation second = builder.given_a_user_annotation();
+        second.setLocation(new WKTReader().read("POLYGON ((2000 0, 2000 1000, 3000 1000, 3000 0, 2000 0))"));
+        second.setImage(based.getImage());
+        builder.persistAndReturn(second);
+
+        UserAnnotation third = builder.given_a_user_annotation();
+        third.setLocation(new WKTReader().read("POLYGON ((4000 0, 4000 1000, 5000 1000, 5000 0, 4000 0))"));
+        third.setImage(based.getImage());
+        builder.persistAndReturn(third);
+
+        userAnnotationService.doCorrectUserAnnotation(List.of(based.getId(), second.getId(), third.getId()),
+                "POLYGON ((500 500, 500 800, 4500 800, 4500 500, 500 500))", false);
+
+        assertThat(userAnnotationRepository.findById(second.getId())).isEmpty();
+        assertThat(userAnnotationRepository.findById(third.getId())).isEmpty();
+        assertThat(userAnnotationRepository.findById(based.getId()).get().getLocation().getArea())
+                .isEqualTo(3 * 1000 * 1000 + 2 * 1000 * 300);
+
+        commandService.undo();
+
+        assertThat(userAnnotationRepository.findById(second.getId())).isPresent();
+        assertThat(userAnnotationRepository.findById(third.getId())).isPresent();
+        assertThat(userAnnotationRepository.findById(based.getId()).get().getLocation().getArea()).isEqualTo(1000 * 1000);
+    }
+
+
     @Test
     void do_annotation_corrections_with_remove() throws ParseException {
 
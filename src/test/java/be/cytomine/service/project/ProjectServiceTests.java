@@ -292,6 +292,54 @@ public class ProjectServiceTests {
         assertThat(projectBounds.getNumberOfImages().getMax()).isEqualTo(2L);
     }
 
+    @Test
+    void retrieve_project_bounds_match_listed_projects() {
+        for (int i = 0; i < 3; i++) {
+            Project project = builder.given_a_project();
+            project.setName(i % 2 == 0 ? "Bounds" + i : "bounds" + i);
+            project.setCountAnnotations((long) i);
+            project.setCountImages((long) i * 2);
+            for (int j = 0; j < i; j++) {
+                builder.addUserToProject(project, builder.given_a_user().getUsername());
+            }
+            builder.persistAndReturn(project);
+        }
+
+        for (Boolean withMembersCount : List.of(true, false)) {
+            ProjectSearchExtension projectSearchExtension = new ProjectSearchExtension();
+            projectSearchExtension.setWithMembersCount(withMembersCount);
+            ProjectBounds expected = new ProjectBounds();
+            projectService.list(null, projectSearchExtension, new ArrayList<>(), "created", "desc", 0L, 0L).forEach(expected::submit);
+
+            assertThat(projectService.computeBounds(withMembersCount)).usingRecursiveComparison().isEqualTo(expected);
+        }
+    }
+
+    @Test
+    @WithMockUser(username = "bounds_user")
+    void retrieve_project_bounds_restricted_to_user_projects() {
+        User user = builder.given_a_user("bounds_user");
+        Project project1 = builder.given_a_project_with_user(user);
+        project1.setCountImages(3L);
+        builder.persistAndReturn(project1);
+        Project project2 = builder.given_a_project_with_user(user);
+        project2.setCountImages(5L);
+        builder.persistAndReturn(project2);
+        Project other = builder.given_a_project();
+        other.setCountImages(100L);
+        builder.persistAndReturn(other);
+
+        ProjectSearchExtension projectSearchExtension = new ProjectSearchExtension();
+        projectSearchExtension.setWithMembersCount(true);
+        ProjectBounds expected = new ProjectBounds();
+        projectService.list(user, projectSearchExtension, new ArrayList<>(), "created", "desc", 0L, 0L).forEach(expected::submit);
+
+        ProjectBounds projectBounds = projectService.computeBounds(true);
+        assertThat(projectBounds).usingRecursiveComparison().isEqualTo(expected);
+        assertThat(projectBounds.getNumberOfImages().getMin()).isEqualTo(3L);
+        assertThat(projectBounds.getNumberOfImages().getMax()).isEqualTo(5L);
+    }
+
     @Test
     void list_user_project_with_many_filters() {
         Project project1 = builder.given_a_project();
@@ -340,6 +388,43 @@ public class ProjectServiceTests {
         assertThat(page.getContent().get(1).get("id")).isEqualTo(project2.getId());
     }
 
+    @Test
+    void list_command_history_with_cursor() {
+        Project project1 = builder.given_a_project();
+        Project project2 = builder.given_a_project();
+        for (Project project : List.of(project1, project2, project1, project2, project1)) {
+            UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation(project);
+            userAnnotation.getSlice().getBaseSlice().getUploadedFile().getImageServer().setUrl("http://localhost:8888");
+            userAnnotationService.add(userAnnotation.toJsonObject());
+        }
+
+        List<JsonObject> all = projectService.findCommandHistory(List.of(project1, project2), null, 0L, 0L, false, null, null);
+        assertThat(all).hasSize(5);
+
+        List<Object> paged = new ArrayList<>();
+        Long cursor = null;
+        List<JsonObject> page;
+        do {
+            page = projectService.findCommandHistory(List.of(project1, project2), null, 2L, 0L, true, null, null, cursor);
+            assertThat(page).hasSizeLessThanOrEqualTo(2);
+            page.forEach(command -> paged.add(command.get("id")));
+            cursor = page.isEmpty() ? null : ((Number) page.get(page.size() - 1).get("id")).longValue();
+        } while (page.size() == 2);
+        assertThat(paged).containsExactlyElementsOf(all.stream().map(command -> command.get("id")).collect(Collectors.toList()));
+
+        List<JsonObject> afterFirst = projectService.findCommandHistory(List.of(project1), null, 0L, 1L, true, null, null,
+                ((Number) all.get(0).get("id")).longValue());
+        List<Object> expected = all.subList(1, all.size()).stream()
+                .filter(command -> ((Number) command.get("project")).longValue() == project1.getId())
+                .skip(1)
+                .map(command -> command.get("id"))
+                .collect(Collectors.toList());
+        assertThat(afterFirst.stream().map(command -> command.get("id"))).containsExactlyElementsOf(expected);
+        assertThat(afterFirst).allMatch(command -> command.containsKey("data"));
+
+        assertThat(projectService.findCommandHistory(List.of(), null, 0L, 0L, true, null, null)).isEmpty();
+    }
+
     @Test
     void list_command_history_for_project() {
         Project project1 = builder.given_a_project();
@@ -0,0 +1,203 @@
+package be.cytomine.service.project;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.domain.project.Project;
+import be.cytomine.domain.security.User;
+import be.cytomine.service.PermissionService;
+import be.cytomine.service.dto.ProjectBounds;
+import be.cytomine.service.ontology.UserAnnotationService;
+import be.cytomine.service.search.ProjectSearchExtension;
+import be.cytomine.utils.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import javax.transaction.Transactional;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.acls.domain.BasePermission.ADMINISTRATION;
+import static org.springframework.security.acls.domain.BasePermission.READ;
+
+/**
+ * The summaries must give the same results as the aggregates previously done by the project listing.
+ */
+@SpringBootTest(classes = CytomineCoreApplication.class)
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class ProjectSummaryServiceTests {
+
+    @Autowired
+    ProjectSummaryService projectSummaryService;
+
+    @Autowired
+    ProjectService projectService;
+
+    @Autowired
+    UserAnnotationService userAnnotationService;
+
+    @Autowired
+    PermissionService permissionService;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @Autowired
+    EntityManager entityManager;
+
+    Project busy;
+
+    Project quiet;
+
+    Project empty;
+
+    User member;
+
+    @BeforeEach
+    public void seed() {
+        busy = builder.given_a_project();
+        quiet = builder.given_a_project();
+        empty = builder.given_a_project();
+        member = builder.given_a_user();
+
+        builder.addUserToProject(busy, builder.given_superadmin().getUsername());
+        builder.addUserToProject(busy, member.getUsername(), READ);
+        builder.addUserToProject(quiet, member.getUsername(), READ);
+        for (int i = 0; i < 3; i++) {
+            addAnnotation(busy);
+        }
+        addAnnotation(quiet);
+    }
+
+    @Test
+    void summaries_match_aggregates() {
+        assertSummariesMatchAggregates();
+        assertThat(projectSummaryService.countPendingDeltas()).isGreaterThanOrEqualTo(4);
+
+        entityManager.flush();
+        assertThat(projectSummaryService.fold()).isGreaterThanOrEqualTo(4);
+        assertThat(projectSummaryService.countPendingDeltas()).isZero();
+        assertSummariesMatchAggregates();
+    }
+
+    @Test
+    void member_counts_follow_acl_changes() {
+        permissionService.deletePermission(quiet, member.getUsername(), READ);
+        builder.addUserToProject(empty, member.getUsername(), ADMINISTRATION);
+        builder.addUserToProject(empty, builder.given_a_user().getUsername(), READ);
+
+        assertSummariesMatchAggregates();
+        assertThat(list().get(quiet.getId()).get("membersCount")).isEqualTo(0L);
+        assertThat(list().get(empty.getId()).get("membersCount")).isEqualTo(2L);
+    }
+
+    @Test
+    void last_activity_moves_back_when_latest_commands_are_deleted() {
+        entityManager.flush();
+        projectSummaryService.fold();
+        addAnnotation(busy);
+        entityManager.flush();
+
+        entityManager.createNativeQuery("DELETE FROM command_history WHERE id = " +
+                "(SELECT max(id) FROM command_history WHERE project_id = " + busy.getId() + ")").executeUpdate();
+        assertSummariesMatchAggregates();
+
+        entityManager.createNativeQuery("DELETE FROM command_history WHERE project_id = " + quiet.getId()).executeUpdate();
+        assertSummariesMatchAggregates();
+        assertThat(list().get(quiet.getId()).get("lastActivity")).isNull();
+    }
+
+    @Test
+    void bounds_match_aggregates() {
+        ProjectBounds bounds = projectService.computeBounds(true);
+        Map<Long, Long> memberCounts = aggregatedMemberCounts();
+        List<Long> projectMemberCounts = list().keySet().stream()
+                .map(id -> memberCounts.getOrDefault(id, 0L)).collect(Collectors.toList());
+        assertThat(bounds.getMembers().getMin()).isEqualTo(Collections.min(projectMemberCounts));
+        assertThat(bounds.getMembers().getMax()).isEqualTo(Collections.max(projectMemberCounts));
+    }
+
+    private void addAnnotation(Project project) {
+        UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation(project);
+        userAnnotation.getSlice().getBaseSlice().getUploadedFile().getImageServer().setUrl("http://localhost:8888");
+        userAnnotationService.add(userAnnotation.toJsonObject());
+    }
+
+    private void assertSummariesMatchAggregates() {
+        Map<Long, JsonObject> listed = list();
+        Map<Long, Date> activities = aggregatedActivities();
+        Map<Long, Long> memberCounts = aggregatedMemberCounts();
+        for (Project project : List.of(busy, quiet, empty)) {
+            JsonObject listedProject = listed.get(project.getId());
+            assertThat(listedProject.get("lastActivity")).isEqualTo(activities.get(project.getId()));
+            assertThat(listedProject.get("membersCount")).isEqualTo(memberCounts.getOrDefault(project.getId(), 0L));
+        }
+    }
+
+    private Map<Long, JsonObject> list() {
+        ProjectSearchExtension projectSearchExtension = new ProjectSearchExtension();
+        projectSearchExtension.setWithLastActivity(true);
+        projectSearchExtension.setWithMembersCount(true);
+        Page<JsonObject> page = projectService.list(null, projectSearchExtension, new ArrayList<>(), "created", "desc", 0L, 0L);
+        Map<Long, JsonObject> projects = new HashMap<>();
+        page.getContent().forEach(project -> projects.put(project.getJSONAttrLong("id"), project));
+        return projects;
+    }
+
+    /**
+     * Aggregate previously joined by the listing (lastActivity)
+     */
+    private Map<Long, Date> aggregatedActivities() {
+        List<Tuple> rows = entityManager.createNativeQuery(
+                "SELECT project_id, MAX(created) max_date FROM command_history GROUP BY project_id", Tuple.class).getResultList();
+        Map<Long, Date> activities = new HashMap<>();
+        for (Tuple row : rows) {
+            if (row.get("project_id") != null) {
+                activities.put(((BigInteger) row.get("project_id")).longValue(), (Date) row.get("max_date"));
+            }
+        }
+        return activities;
+    }
+
+    /**
+     * Aggregate previously joined by the listing (membersCount)
+     */
+    private Map<Long, Long> aggregatedMemberCounts() {
+        List<Tuple> rows = entityManager.createNativeQuery(
+                "SELECT aclObjectId.object_id_identity as project_id, COUNT(DISTINCT secUser.id) as member_count " +
+                "FROM acl_object_identity as aclObjectId, acl_entry as aclEntry, acl_sid as aclSid, sec_user as secUser " +
+                "WHERE aclEntry.acl_object_identity = aclObjectId.id and aclEntry.sid = aclSid.id and aclSid.sid = secUser.username and secUser.class = 'be.cytomine.domain.security.User' " +
+                "GROUP BY aclObjectId.object_id_identity", Tuple.class).getResultList();
+        Map<Long, Long> memberCounts = new HashMap<>();
+        for (Tuple row : rows) {
+            memberCounts.put(((BigInteger) row.get("project_id")).longValue(), ((BigInteger) row.get("member_count")).longValue());
+        }
+        return memberCounts;
+    }
+}
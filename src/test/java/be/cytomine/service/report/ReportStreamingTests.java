@@ -0,0 +1,140 @@
+package be.cytomine.service.report;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.domain.ontology.Term;
+import be.cytomine.service.dto.Point;
+import be.cytomine.service.ontology.TermService;
+import be.cytomine.service.utils.ReportFormatService;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+
+public class ReportStreamingTests {
+
+    private static final int ANNOTATIONS = 1_000_000;
+
+    private static final long HEAP_BUDGET = 64L * 1024 * 1024;
+
+    @Test
+    void export_large_csv_report_with_a_fixed_heap_budget() {
+        CountingOutputStream output = new CountingOutputStream();
+        long heapGrowth = export("csv", output);
+
+        assertThat(output.lines).isEqualTo(ANNOTATIONS + 1);
+        assertThat(heapGrowth).isLessThan(HEAP_BUDGET);
+    }
+
+    @Test
+    void export_large_xlsx_report_with_a_fixed_heap_budget() {
+        CountingOutputStream output = new CountingOutputStream();
+        long heapGrowth = export("xls", output);
+
+        assertThat(output.firstBytes).startsWith("PK");
+        assertThat(output.count).isGreaterThan(ANNOTATIONS);
+        assertThat(heapGrowth).isLessThan(HEAP_BUDGET);
+    }
+
+    @Test
+    void failed_xlsx_report_is_not_completed() {
+        CountingOutputStream output = new CountingOutputStream();
+        assertThatThrownBy(() -> reportService().writeAnnotationsReport("project", Set.of("term"), Set.of("user"), "xls", output, consumer -> {
+            consumer.accept(annotation(1));
+            throw new IllegalStateException("cursor closed");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(output.count).isZero();
+    }
+
+    private long export(String format, OutputStream output) {
+        ReportService reportService = reportService();
+
+        long baseline = usedHeap();
+        long[] maxUsed = {baseline};
+        long start = System.currentTimeMillis();
+        reportService.writeAnnotationsReport("project", Set.of("term"), Set.of("user"), format, output, consumer -> {
+            for (long i = 1; i <= ANNOTATIONS; i++) {
+                consumer.accept(annotation(i));
+                if (i % 100_000 == 0) {
+                    maxUsed[0] = Math.max(maxUsed[0], usedHeap());
+                }
+            }
+        });
+        System.out.println(ANNOTATIONS + " annotations exported as " + format + " in " + (System.currentTimeMillis() - start) + "ms");
+        return maxUsed[0] - baseline;
+    }
+
+    private static ReportService reportService() {
+        Term term = new Term();
+        term.setName("term");
+        TermService termService = Mockito.mock(TermService.class);
+        Mockito.when(termService.find(anyLong())).thenReturn(Optional.of(term));
+        return new ReportService(new PDFReportService(), new SpreadsheetReportService(),
+                new ReportFormatService(termService, new HashMap<>()));
+    }
+
+    private static Map<String, Object> annotation(long id) {
+        Map<String, Object> annotation = new HashMap<>();
+        annotation.put("id", id);
+        annotation.put("area", 1234.5678d);
+        annotation.put("perimeter", 0.1234d);
+        annotation.put("centroid", new Point((double) (id % 10000), (double) (id / 10000)));
+        annotation.put("image", 42L);
+        annotation.put("instanceFilename", "image.svs");
+        annotation.put("creator", "user");
+        annotation.put("term", "[1]");
+        annotation.put("cropURL", "http://localhost/api/userannotation/" + id + "/crop.png");
+        annotation.put("imageURL", "http://localhost/#/project/1/image/42/annotation/" + id);
+        return annotation;
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+
+        long count = 0;
+
+        long lines = 0;
+
+        String firstBytes = "";
+
+        @Override
+        public void write(int b) {
+            if (count < 2) {
+                firstBytes += (char) b;
+            }
+            if (b == '\n') {
+                lines++;
+            }
+            count++;
+        }
+    }
+}
@@ -45,6 +45,8 @@ import be.cytomine.utils.filters.SearchOperation;
 import be.cytomine.utils.filters.SearchParameterEntry;
 import org.apache.commons.lang3.time.DateUtils;
 import org.assertj.core.api.AssertionsForClassTypes;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -98,6 +100,9 @@ public class SecurityAclServiceTests {
     @Autowired
     PermissionService permissionService;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
     @WithMockUser(username = "user")
     @Test
     void check_is_user_allowed() {
@@ -315,4 +320,68 @@ public class SecurityAclServiceTests {
                 .isTrue();
     }
 
+    @WithMockUser(username = "user")
+    @Test
+    void cached_permission_does_not_survive_revoke() {
+        Project project = builder.given_a_project();
+        User user = builder.given_default_user();
+        builder.addUserToProject(project, user.getUsername(), READ);
+
+        long hits = permissionService.getMaskCache().getHits();
+        securityACLService.check(project, READ);
+        securityACLService.check(project, READ);
+        assertThat(permissionService.getMaskCache().getHits()).isGreaterThan(hits);
+
+        permissionService.deletePermission(project, user.getUsername(), READ);
+
+        Assertions.assertThrows(ForbiddenException.class, () -> {
+            securityACLService.check(project, READ);
+        });
+    }
+
+    @WithMockUser(username = "user")
+    @Test
+    void cached_permission_is_updated_on_grant() {
+        Project project = builder.given_a_project();
+        User user = builder.given_default_user();
+        builder.addUserToProject(project, user.getUsername(), READ);
+
+        securityACLService.check(project, READ);
+        Assertions.assertThrows(ForbiddenException.class, () -> {
+            securityACLService.checkIsAdminContainer(project);
+        });
+
+        builder.addUserToProject(project, user.getUsername(), ADMINISTRATION);
+        securityACLService.checkIsAdminContainer(project);
+
+        permissionService.deletePermission(project, user.getUsername(), ADMINISTRATION);
+        Assertions.assertThrows(ForbiddenException.class, () -> {
+            securityACLService.checkIsAdminContainer(project);
+        });
+        securityACLService.check(project, READ);
+    }
+
+    @WithMockUser(username = "user")
+    @Test
+    void check_is_timed_with_its_outcome() {
+        Project project = builder.given_a_project();
+        User user = builder.given_default_user();
+        long granted = checkCount("granted");
+        long denied = checkCount("denied");
+
+        Assertions.assertThrows(ForbiddenException.class, () -> {
+            securityACLService.check(project, READ);
+        });
+        builder.addUserToProject(project, user.getUsername());
+        securityACLService.check(project, READ);
+        securityACLService.check(project, READ);
+
+        assertThat(checkCount("denied")).isEqualTo(denied + 1);
+        assertThat(checkCount("granted")).isEqualTo(granted + 2);
+    }
+
+    private long checkCount(String outcome) {
+        Timer timer = meterRegistry.find("cytomine.acl.checks").tags("domain", "Project", "permission", "READ", "outcome", outcome).timer();
+        return timer == null ? 0 : timer.count();
+    }
 }
@@ -0,0 +1,195 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.PresenceRegistryProperties;
+import be.cytomine.domain.social.LastConnection;
+import be.cytomine.domain.social.LastUserPosition;
+import be.cytomine.domain.social.PersistentProjectConnection;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+
+public class PresenceRegistryTests {
+
+    MutableClock clock = new MutableClock();
+
+    MongoOperations mongoOperations;
+
+    PresenceRegistry registry;
+
+    @BeforeEach
+    public void setup() {
+        clock.millis = 1_000_000_000L;
+        mongoOperations = Mockito.mock(MongoOperations.class);
+        registry = new PresenceRegistry(new PresenceRegistryProperties(), mongoOperations, clock);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        registry.shutdown();
+    }
+
+    @Test
+    void users_are_online_during_five_minutes_after_their_last_ping() {
+        registry.connection(1L, null, now());
+        registry.connection(2L, 10L, now());
+        clock.millis += 200_000;
+        registry.connection(1L, null, now());
+
+        assertThat(registry.onlineUsers()).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(registry.onlineUsers(10L)).containsExactly(2L);
+
+        clock.millis += 100_001;
+        assertThat(registry.onlineUsers()).containsExactly(1L);
+        assertThat(registry.onlineUsers(10L)).isEmpty();
+    }
+
+    @Test
+    void an_older_event_does_not_hide_a_newer_one() {
+        registry.connection(1L, 10L, now());
+        registry.connection(1L, 10L, new Date(clock.millis - 400_000));
+
+        assertThat(registry.onlineUsers(10L)).containsExactly(1L);
+    }
+
+    @Test
+    void active_projects_count_users_who_opened_them_during_two_minutes() {
+        registry.projectConnection(1L, 10L, new Date(clock.millis - 300_000));
+        registry.projectConnection(1L, 20L, new Date(clock.millis - 5_000));
+        registry.projectConnection(2L, 20L, new Date(clock.millis - 10_000));
+        registry.projectConnection(2L, 20L, new Date(clock.millis - 1_000));
+
+        assertThat(registry.activeProjects()).containsExactly(20L);
+        assertThat(registry.activeProjectsWithNumberOfUsers()).isEqualTo(Map.of(20L, 2));
+
+        clock.millis += 116_000;
+        assertThat(registry.activeProjectsWithNumberOfUsers()).isEqualTo(Map.of(20L, 1));
+    }
+
+    @Test
+    void online_users_on_an_image_are_filtered_by_slice_and_broadcast() {
+        registry.position(1L, 100L, 1000L, false, now());
+        registry.position(2L, 100L, 1001L, true, now());
+        registry.position(3L, 200L, 2000L, true, now());
+
+        assertThat(registry.onlineUsersByImage(100L, null, false)).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(registry.onlineUsersByImage(100L, 1000L, false)).containsExactly(1L);
+        assertThat(registry.onlineUsersByImage(100L, null, true)).containsExactly(2L);
+        assertThat(registry.onlineUsersByImage(300L, null, false)).isEmpty();
+
+        clock.millis += 30_001;
+        assertThat(registry.onlineUsersByImage(100L, null, false)).isEmpty();
+    }
+
+    @Test
+    void purge_removes_entries_out_of_their_window() {
+        registry.connection(1L, 10L, now());
+        registry.position(1L, 100L, 1000L, false, now());
+        clock.millis += 60_000;
+        registry.connection(2L, 10L, now());
+
+        registry.purge();
+        assertThat(registry.size()).isEqualTo(2);
+        assertThat(registry.onlineUsersByImage(100L, null, false)).isEmpty();
+
+        clock.millis += 250_000;
+        registry.purge();
+        assertThat(registry.size()).isEqualTo(1);
+        assertThat(registry.onlineUsers(10L)).containsExactly(2L);
+    }
+
+    @Test
+    void disabled_registry_ignores_events() {
+        PresenceRegistryProperties properties = new PresenceRegistryProperties();
+        properties.setEnabled(false);
+        PresenceRegistry disabled = new PresenceRegistry(properties, mongoOperations, clock);
+
+        disabled.connection(1L, 10L, now());
+        disabled.projectConnection(1L, 10L, now());
+
+        assertThat(disabled.isEnabled()).isFalse();
+        assertThat(disabled.onlineUsers()).isEmpty();
+        assertThat(disabled.activeProjects()).isEmpty();
+    }
+
+    @Test
+    void registry_is_rebuilt_from_recent_mongo_documents() {
+        LastConnection connection = new LastConnection();
+        connection.setUser(1L);
+        connection.setProject(10L);
+        connection.setCreated(new Date(clock.millis - 60_000));
+        PersistentProjectConnection projectConnection = new PersistentProjectConnection();
+        projectConnection.setUser(1L);
+        projectConnection.setProject(10L);
+        projectConnection.setCreated(new Date(clock.millis - 60_000));
+        LastUserPosition position = new LastUserPosition();
+        position.setUser(1L);
+        position.setImage(100L);
+        position.setSlice(1000L);
+        position.setCreated(new Date(clock.millis - 10_000));
+        Mockito.when(mongoOperations.find(any(Query.class), eq(LastConnection.class))).thenReturn(List.of(connection));
+        Mockito.when(mongoOperations.find(any(Query.class), eq(PersistentProjectConnection.class))).thenReturn(List.of(projectConnection));
+        Mockito.when(mongoOperations.find(any(Query.class), eq(LastUserPosition.class))).thenReturn(List.of(position));
+
+        registry.rebuildOnStartup();
+
+        assertThat(registry.onlineUsers()).containsExactly(1L);
+        assertThat(registry.onlineUsers(10L)).containsExactly(1L);
+        assertThat(registry.activeProjects()).containsExactly(10L);
+        assertThat(registry.onlineUsersByImage(100L, 1000L, false)).containsExactly(1L);
+    }
+
+    private Date now() {
+        return new Date(clock.millis);
+    }
+
+    static class MutableClock extends Clock {
+
+        long millis = 0;
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+    }
+}
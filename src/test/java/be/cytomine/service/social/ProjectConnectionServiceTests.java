@@ -31,6 +31,8 @@ import be.cytomine.repositorynosql.social.PersistentProjectConnectionRepository;
 import be.cytomine.service.database.SequenceService;
 import be.cytomine.utils.JsonObject;
 import com.mongodb.client.MongoClient;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.apache.commons.lang3.time.DateUtils;
 import org.assertj.core.api.AssertionsForClassTypes;
 import org.junit.jupiter.api.Assertions;
@@ -81,6 +83,9 @@ public class ProjectConnectionServiceTests {
     @Autowired
     ImageConsultationService imageConsultationService;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
     @BeforeEach
     public void cleanDB() {
         persistentProjectConnectionRepository.deleteAll();
@@ -619,4 +624,21 @@ public class ProjectConnectionServiceTests {
     PersistentImageConsultation given_a_persistent_image_consultation(SecUser user, ImageInstance imageInstance, Date created) {
         return imageConsultationService.add(user, imageInstance.getId(), "xxx", "mode", created);
     }
+
+    @Test
+    void aggregations_are_timed_by_operation() {
+        Project projet = builder.given_a_project();
+        User user = builder.given_superadmin();
+        given_a_persistent_connection_in_project(user, projet);
+        long before = aggregationCount("numberOfConnectionsByProjectAndUser");
+
+        projectConnectionService.numberOfConnectionsByProjectAndUser(projet, List.of(user.getId()), "created", "desc", 100L ,0L);
+
+        assertThat(aggregationCount("numberOfConnectionsByProjectAndUser")).isEqualTo(before + 1);
+    }
+
+    private long aggregationCount(String operation) {
+        Timer timer = meterRegistry.find("cytomine.connections.aggregations").tag("operation", operation).timer();
+        return timer == null ? 0 : timer.count();
+    }
 }
@@ -0,0 +1,242 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.image.ImageInstance;
+import be.cytomine.domain.project.Project;
+import be.cytomine.domain.security.User;
+import be.cytomine.repositorynosql.social.PersistentImageConsultationRepository;
+import be.cytomine.repositorynosql.social.PersistentProjectConnectionRepository;
+import be.cytomine.utils.JsonObject;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import javax.transaction.Transactional;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = CytomineCoreApplication.class)
+@AutoConfigureMockMvc
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class SocialRollupServiceTests {
+
+    @Autowired
+    SocialRollupService socialRollupService;
+
+    @Autowired
+    ProjectConnectionService projectConnectionService;
+
+    @Autowired
+    ImageConsultationService imageConsultationService;
+
+    @Autowired
+    PersistentProjectConnectionRepository persistentProjectConnectionRepository;
+
+    @Autowired
+    PersistentImageConsultationRepository persistentImageConsultationRepository;
+
+    @Autowired
+    ApplicationProperties applicationProperties;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssX");
+
+    @BeforeEach
+    public void cleanDB() {
+        applicationProperties.getSocialRollup().setEnabled(true);
+        persistentProjectConnectionRepository.deleteAll();
+        persistentImageConsultationRepository.deleteAll();
+        socialRollupService.rebuild(SocialRollupService.Kind.CONNECTION);
+        socialRollupService.rebuild(SocialRollupService.Kind.CONSULTATION);
+    }
+
+    @AfterEach
+    public void disableRollups() {
+        applicationProperties.getSocialRollup().setEnabled(false);
+    }
+
+    @Test
+    void rollups_are_built_from_the_existing_connections() throws ParseException {
+        Project project = builder.given_a_project();
+        User user = builder.given_superadmin();
+        User anotherUser = builder.given_a_user();
+
+        applicationProperties.getSocialRollup().setEnabled(false);
+        given_connections(project, user, anotherUser);
+        applicationProperties.getSocialRollup().setEnabled(true);
+        assertThat(socialRollupService.count(SocialRollupService.Kind.CONNECTION, null, null, new Document("project", project.getId())))
+                .isEqualTo(0);
+
+        socialRollupService.rebuild(SocialRollupService.Kind.CONNECTION);
+        assertThat(socialRollupService.canServe(SocialRollupService.Kind.CONNECTION)).isTrue();
+        assertConnectionStatisticsMatchRawAggregations(project, user);
+
+        projectConnectionService.add(user, project, "xxx", "linux", "chrome", "123", date("2022-01-03T08:59:59Z"));
+        assertConnectionStatisticsMatchRawAggregations(project, user);
+    }
+
+    @Test
+    void recent_connections_are_counted_once_by_the_rebuild() throws ParseException {
+        Project project = builder.given_a_project();
+        User user = builder.given_superadmin();
+
+        applicationProperties.getSocialRollup().setEnabled(false);
+        projectConnectionService.add(user, project, "xxx", "linux", "chrome", "123", date("2022-01-01T12:00:00Z"));
+        projectConnectionService.add(user, project, "xxx", "linux", "chrome", "123", new Date());
+        applicationProperties.getSocialRollup().setEnabled(true);
+
+        socialRollupService.rebuild(SocialRollupService.Kind.CONNECTION);
+        assertThat(socialRollupService.count(SocialRollupService.Kind.CONNECTION, null, null, new Document("project", project.getId())))
+                .isEqualTo(2);
+    }
+
+    @Test
+    void rollups_are_maintained_when_connections_are_added() throws ParseException {
+        Project project = builder.given_a_project();
+        User user = builder.given_superadmin();
+        User anotherUser = builder.given_a_user();
+
+        given_connections(project, user, anotherUser);
+
+        assertThat(socialRollupService.count(SocialRollupService.Kind.CONNECTION, null, null, new Document("project", project.getId())))
+                .isEqualTo(6);
+        assertConnectionStatisticsMatchRawAggregations(project, user);
+    }
+
+    @Test
+    void partial_buckets_are_read_from_raw_connections() throws ParseException {
+        Project project = builder.given_a_project();
+        User user = builder.given_superadmin();
+        User anotherUser = builder.given_a_user();
+
+        given_connections(project, user, anotherUser);
+
+        Map<Long, Integer> buckets = socialRollupService.countByBucket(SocialRollupService.Kind.CONNECTION, SocialRollupService.HOUR,
+                date("2022-01-01T12:04:00Z").getTime(), date("2022-01-02T00:30:00Z").getTime(), new Document("project", project.getId()));
+        assertThat(buckets).containsOnly(
+                Map.entry(date("2022-01-01T12:00:00Z").getTime(), 2),
+                Map.entry(date("2022-01-01T13:00:00Z").getTime(), 1));
+
+        buckets = socialRollupService.countByBucket(SocialRollupService.Kind.CONNECTION, SocialRollupService.DAY,
+                date("2022-01-01T12:01:00Z").getTime(), date("2022-01-01T12:31:00Z").getTime(), new Document("project", project.getId()));
+        assertThat(buckets).containsOnly(Map.entry(date("2022-01-01T00:00:00Z").getTime(), 2));
+    }
+
+    @Test
+    void consultation_statistics_match_raw_aggregations() throws ParseException {
+        User user = builder.given_superadmin();
+        ImageInstance image = builder.given_an_image_instance();
+        ImageInstance anotherImage = builder.given_an_image_instance(image.getProject());
+
+        imageConsultationService.add(user, image.getId(), "xxx", "mode", date("2022-01-01T12:00:00Z"));
+        imageConsultationService.add(user, anotherImage.getId(), "xxx", "mode", date("2022-01-01T12:30:00Z"));
+        imageConsultationService.add(user, image.getId(), "xxx", "mode", date("2022-01-02T08:00:00Z"));
+
+        Project project = image.getProject();
+        assertThat(imageConsultationService.countByProject(project, null, null))
+                .isEqualTo(raw(() -> imageConsultationService.countByProject(project, null, null)));
+        Long from = date("2022-01-01T12:00:00Z").getTime();
+        Long to = date("2022-01-02T08:00:00Z").getTime();
+        assertThat(imageConsultationService.countByProject(project, from, to))
+                .isEqualTo(raw(() -> imageConsultationService.countByProject(project, from, to)))
+                .isEqualTo(1);
+        assertThat(imageConsultationService.listLastOpened(5L))
+                .isEqualTo(raw(() -> imageConsultationService.listLastOpened(5L)));
+
+        socialRollupService.deleteConsultationsOfImage(anotherImage.getId());
+        persistentImageConsultationRepository.deleteAllByImage(anotherImage.getId());
+        assertThat(imageConsultationService.countByProject(project, null, null))
+                .isEqualTo(raw(() -> imageConsultationService.countByProject(project, null, null)))
+                .isEqualTo(2);
+    }
+
+    private void given_connections(Project project, User user, User anotherUser) throws ParseException {
+        projectConnectionService.add(user, project, "xxx", "linux", "chrome", "123", date("2022-01-01T12:00:00Z"));
+        projectConnectionService.add(user, project, "xxx", "linux", "chrome", "123", date("2022-01-01T12:05:00Z"));
+        projectConnectionService.add(user, project, "xxx", "linux", "chrome", "123", date("2022-01-01T13:30:00Z"));
+        projectConnectionService.add(anotherUser, project, "xxx", "linux", "chrome", "123", date("2022-01-01T12:30:00Z"));
+        projectConnectionService.add(anotherUser, project, "xxx", "linux", "chrome", "123", date("2022-01-02T23:59:59Z"));
+        projectConnectionService.add(user, project, "xxx", "linux", "chrome", "123", date("2022-01-20T03:00:00Z"));
+    }
+
+    private void assertConnectionStatisticsMatchRawAggregations(Project project, User user) throws ParseException {
+        Long after = date("2022-01-01T12:04:00Z").getTime();
+        Long before = date("2022-01-02T23:59:59Z").getTime();
+        for (String period : List.of("hour", "day")) {
+            assertThat(byTime(projectConnectionService.numberOfProjectConnections(period, null, null, project, null)))
+                    .isEqualTo(byTime(raw(() -> projectConnectionService.numberOfProjectConnections(period, null, null, project, null))));
+            assertThat(byTime(projectConnectionService.numberOfProjectConnections(period, after, before, project, null)))
+                    .isEqualTo(byTime(raw(() -> projectConnectionService.numberOfProjectConnections(period, after, before, project, null))));
+            assertThat(byTime(projectConnectionService.numberOfProjectConnections(period, after, before, project, user)))
+                    .isEqualTo(byTime(raw(() -> projectConnectionService.numberOfProjectConnections(period, after, before, project, user))));
+            assertThat(frequencies(projectConnectionService.averageOfProjectConnections(period, after, before, project, null)))
+                    .isEqualTo(frequencies(raw(() -> projectConnectionService.averageOfProjectConnections(period, after, before, project, null))));
+        }
+        assertThat(byTime(projectConnectionService.numberOfConnectionsByProjectOrderedByHourAndDays(project, after, null)))
+                .isEqualTo(byTime(raw(() -> projectConnectionService.numberOfConnectionsByProjectOrderedByHourAndDays(project, after, null))));
+        assertThat(projectConnectionService.numberOfConnectionsByProjectAndUser(project, null, "frequency", "desc", 0L, 0L))
+                .isEqualTo(raw(() -> projectConnectionService.numberOfConnectionsByProjectAndUser(project, null, "frequency", "desc", 0L, 0L)));
+        assertThat(projectConnectionService.lastConnectionInProject(project, null, "created", "desc", 0L, 0L))
+                .isEqualTo(raw(() -> projectConnectionService.lastConnectionInProject(project, null, "created", "desc", 0L, 0L)));
+        assertThat(projectConnectionService.totalNumberOfConnectionsByProject())
+                .isEqualTo(raw(() -> projectConnectionService.totalNumberOfConnectionsByProject()));
+        assertThat(projectConnectionService.countByProject(project, null, null))
+                .isEqualTo(raw(() -> projectConnectionService.countByProject(project, null, null)));
+        assertThat(projectConnectionService.countByProject(project, after, before))
+                .isEqualTo(raw(() -> projectConnectionService.countByProject(project, after, before)));
+        assertThat(projectConnectionService.countByProject(project, null, before))
+                .isEqualTo(raw(() -> projectConnectionService.countByProject(project, null, before)));
+    }
+
+    private <T> T raw(Supplier<T> statistic) {
+        applicationProperties.getSocialRollup().setEnabled(false);
+        try {
+            return statistic.get();
+        } finally {
+            applicationProperties.getSocialRollup().setEnabled(true);
+        }
+    }
+
+    private static Map<Object, Object> byTime(List<JsonObject> results) {
+        return results.stream().collect(Collectors.toMap(x -> x.get("time"), x -> x.get("frequency")));
+    }
+
+    private static List<Object> frequencies(List<JsonObject> results) {
+        return results.stream().map(x -> x.get("frequency")).sorted(Comparator.comparing(x -> (Double) x)).collect(Collectors.toList());
+    }
+
+    private Date date(String value) throws ParseException {
+        return simpleDateFormat.parse(value);
+    }
+}
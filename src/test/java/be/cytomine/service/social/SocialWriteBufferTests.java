@@ -0,0 +1,215 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.SocialWriteBufferProperties;
+import be.cytomine.domain.social.LastConnection;
+import be.cytomine.domain.social.LastUserPosition;
+import be.cytomine.domain.social.PersistentUserPosition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoOperations;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+
+public class SocialWriteBufferTests {
+
+    /**
+     * In memory stand-in for the mongo collections: documents by class, and number of insert commands
+     */
+    private Map<Class<?>, List<Object>> collections;
+
+    private AtomicInteger insertCommands;
+
+    private MongoOperations mongoOperations;
+
+    private SocialWriteBuffer buffer;
+
+    @BeforeEach
+    public void setup() {
+        collections = new ConcurrentHashMap<>();
+        insertCommands = new AtomicInteger();
+        mongoOperations = Mockito.mock(MongoOperations.class);
+        Mockito.when(mongoOperations.insert(any(Object.class))).thenAnswer(invocation -> {
+            Object document = invocation.getArgument(0);
+            store(document.getClass(), List.of(document));
+            return document;
+        });
+        Mockito.when(mongoOperations.insert(anyCollection(), any(Class.class))).thenAnswer(invocation -> {
+            Collection<?> documents = invocation.getArgument(0);
+            store(invocation.getArgument(1), documents);
+            return documents;
+        });
+    }
+
+    @AfterEach
+    public void cleanup() {
+        if (buffer != null) {
+            buffer.shutdown();
+        }
+    }
+
+    @Test
+    void last_positions_are_coalesced_by_user_and_slice() {
+        buffer = newBuffer(true, 1000);
+        for (int i = 0; i < 1000; i++) {
+            buffer.addLastUserPosition(position(i, (long) (i % 10), false));
+        }
+        assertThat(insertCommands.get()).isEqualTo(0);
+
+        buffer.flush();
+
+        assertThat(collections.get(LastUserPosition.class)).hasSize(10);
+        assertThat(collections.get(LastUserPosition.class).stream().map(x -> ((LastUserPosition) x).getId()))
+                .containsOnly(990L, 991L, 992L, 993L, 994L, 995L, 996L, 997L, 998L, 999L);
+        assertThat(buffer.getCoalesced()).isEqualTo(990);
+        assertThat(insertCommands.get()).isEqualTo(1);
+    }
+
+    @Test
+    void last_connections_are_coalesced_by_user_and_project() {
+        buffer = newBuffer(true, 1000);
+        for (int i = 0; i < 100; i++) {
+            LastConnection connection = new LastConnection();
+            connection.setId((long) i);
+            connection.setUser((long) (i % 2));
+            connection.setProject(i % 4 < 2 ? 1L : null);
+            connection.setCreated(new Date());
+            buffer.addLastConnection(connection);
+        }
+        buffer.flush();
+        assertThat(collections.get(LastConnection.class)).hasSize(4);
+    }
+
+    @Test
+    void pending_position_is_visible_before_flush() {
+        buffer = newBuffer(true, 1000);
+        buffer.addLastUserPosition(position(1, 1L, true));
+        buffer.addLastUserPosition(position(2, 1L, false));
+
+        assertThat(buffer.findLastUserPosition(1L, 1L, 1L, false).get().getId()).isEqualTo(2L);
+        assertThat(buffer.findLastUserPosition(1L, 1L, 1L, true).get().getId()).isEqualTo(1L);
+        assertThat(buffer.findLastUserPosition(2L, 1L, 1L, false)).isEmpty();
+
+        buffer.flush();
+        assertThat(buffer.findLastUserPosition(1L, 1L, 1L, false)).isEmpty();
+    }
+
+    @Test
+    void history_is_inserted_by_batches() {
+        buffer = newBuffer(true, 10000);
+        for (int i = 0; i < 2500; i++) {
+            buffer.addHistory(persistentPosition(i));
+        }
+        buffer.flush();
+        assertThat(collections.get(PersistentUserPosition.class)).hasSize(2500);
+        assertThat(insertCommands.get()).isEqualTo(3);
+        assertThat(buffer.getFlushed()).isEqualTo(2500);
+        assertThat(buffer.getPending()).isEqualTo(0);
+    }
+
+    @Test
+    void full_buffer_makes_the_caller_write() {
+        buffer = newBuffer(true, 10);
+        for (int i = 0; i < 15; i++) {
+            buffer.addHistory(persistentPosition(i));
+        }
+        assertThat(buffer.getDirectWrites()).isEqualTo(5);
+        assertThat(buffer.getRemainingCapacity()).isEqualTo(0);
+        assertThat(collections.get(PersistentUserPosition.class)).hasSize(5);
+
+        buffer.flush();
+        assertThat(collections.get(PersistentUserPosition.class)).hasSize(15);
+        assertThat(buffer.getRemainingCapacity()).isEqualTo(10);
+    }
+
+    @Test
+    void shutdown_flushes_pending_documents() {
+        buffer = newBuffer(true, 1000);
+        buffer.addLastUserPosition(position(1, 1L, false));
+        buffer.addHistory(persistentPosition(2));
+        buffer.shutdown();
+        assertThat(collections.get(LastUserPosition.class)).hasSize(1);
+        assertThat(collections.get(PersistentUserPosition.class)).hasSize(1);
+    }
+
+    @Test
+    void scheduler_flushes_periodically() throws InterruptedException {
+        SocialWriteBufferProperties properties = new SocialWriteBufferProperties();
+        properties.setFlushIntervalInMillis(50L);
+        buffer = new SocialWriteBuffer(properties, mongoOperations);
+        buffer.addHistory(persistentPosition(1));
+        long timeout = System.currentTimeMillis() + 5000;
+        while (!collections.containsKey(PersistentUserPosition.class) && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertThat(collections.get(PersistentUserPosition.class)).hasSize(1);
+    }
+
+    @Test
+    void disabled_buffer_writes_immediately() {
+        buffer = newBuffer(false, 1000);
+        buffer.addLastUserPosition(position(1, 1L, false));
+        buffer.addHistory(persistentPosition(2));
+        assertThat(collections.get(LastUserPosition.class)).hasSize(1);
+        assertThat(collections.get(PersistentUserPosition.class)).hasSize(1);
+        assertThat(buffer.findLastUserPosition(1L, 1L, 1L, false)).isEmpty();
+    }
+
+    private SocialWriteBuffer newBuffer(boolean enabled, int capacity) {
+        SocialWriteBufferProperties properties = new SocialWriteBufferProperties();
+        properties.setEnabled(enabled);
+        properties.setCapacity(capacity);
+        // flushes are triggered by the tests
+        properties.setFlushIntervalInMillis(3_600_000L);
+        return new SocialWriteBuffer(properties, mongoOperations);
+    }
+
+    private void store(Class<?> type, Collection<?> documents) {
+        insertCommands.incrementAndGet();
+        collections.computeIfAbsent(type, key -> new CopyOnWriteArrayList<>()).addAll(documents);
+    }
+
+    private static LastUserPosition position(long id, Long user, boolean broadcast) {
+        LastUserPosition position = new LastUserPosition();
+        position.setId(id);
+        position.setUser(user);
+        position.setImage(1L);
+        position.setSlice(1L);
+        position.setBroadcast(broadcast);
+        position.setCreated(new Date(1_000_000L + id));
+        return position;
+    }
+
+    private static PersistentUserPosition persistentPosition(long id) {
+        PersistentUserPosition position = new PersistentUserPosition();
+        position.setId(id);
+        position.setUser(1L);
+        position.setImage(1L);
+        position.setCreated(new Date());
+        return position;
+    }
+}
@@ -0,0 +1,125 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ExpiringLruCacheTests {
+
+    @Test
+    void value_is_loaded_once_until_expiration() {
+        MutableClock clock = new MutableClock();
+        ExpiringLruCache<String, Integer> cache = new ExpiringLruCache<>(10, 1000, clock);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertThat(cache.get("a", k -> loads.incrementAndGet())).isEqualTo(1);
+        assertThat(cache.get("a", k -> loads.incrementAndGet())).isEqualTo(1);
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(1);
+
+        clock.millis += 1000;
+        assertThat(cache.get("a", k -> loads.incrementAndGet())).isEqualTo(2);
+    }
+
+    @Test
+    void least_recently_used_entry_is_evicted() {
+        ExpiringLruCache<String, String> cache = new ExpiringLruCache<>(2, 60000);
+        cache.get("a", k -> k);
+        cache.get("b", k -> k);
+        cache.get("a", k -> k);
+        cache.get("c", k -> k);
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.getEvictions()).isEqualTo(1);
+        assertThat(cache.get("b", k -> "reloaded")).isEqualTo("reloaded");
+    }
+
+    @Test
+    void null_value_is_not_cached() {
+        ExpiringLruCache<String, String> cache = new ExpiringLruCache<>(10, 60000);
+        assertThat(cache.get("a", k -> null)).isNull();
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(cache.get("a", k -> "loaded")).isEqualTo("loaded");
+    }
+
+    @Test
+    void entries_are_invalidated_by_value() {
+        ExpiringLruCache<String, Integer> cache = new ExpiringLruCache<>(10, 60000);
+        cache.get("a", k -> 1);
+        cache.get("b", k -> 2);
+        cache.get("c", k -> 1);
+
+        cache.invalidateValuesIf(value -> value == 1);
+
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.getInvalidations()).isEqualTo(2);
+        assertThat(cache.get("b", k -> 3)).isEqualTo(2);
+    }
+
+    @Test
+    void value_loaded_before_an_invalidation_is_not_stored() {
+        ExpiringLruCache<String, String> cache = new ExpiringLruCache<>(10, 60000);
+        String value = cache.get("a", k -> {
+            cache.invalidate("a");
+            return "stale";
+        });
+        assertThat(value).isEqualTo("stale");
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(cache.get("a", k -> "fresh")).isEqualTo("fresh");
+    }
+
+    @Test
+    void entries_are_invalidated_by_predicate() {
+        ExpiringLruCache<String, String> cache = new ExpiringLruCache<>(10, 60000);
+        cache.get("1:alice", k -> k);
+        cache.get("2:alice", k -> k);
+        cache.get("1:bob", k -> k);
+
+        cache.invalidateIf(key -> key.endsWith(":alice"));
+
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.getInvalidations()).isEqualTo(2);
+    }
+
+    static class MutableClock extends Clock {
+
+        long millis = 0;
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.exceptions.WrongArgumentException;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+public class GeometryUtilsTests {
+
+    @Test
+    public void union_of_overlapping_polygons_is_the_iterative_union() throws ParseException {
+        List<Geometry> geometries = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            geometries.add(GeometryUtils.createBoundingBox(i * 50, i * 50 + 100, (i % 3) * 30, (i % 3) * 30 + 100));
+        }
+        geometries.add(new WKTReader().read("MULTIPOLYGON (((0 500, 0 600, 100 600, 100 500, 0 500)), ((2000 0, 2000 100, 2100 100, 2100 0, 2000 0)))"));
+
+        Geometry iterative = geometries.get(0);
+        for (Geometry geometry : geometries.subList(1, geometries.size())) {
+            iterative = iterative.union(geometry);
+        }
+
+        Geometry union = GeometryUtils.union(geometries);
+        assertThat(union.isValid()).isTrue();
+        assertThat(union.getNumGeometries()).isEqualTo(3);
+        assertThat(union.equalsTopo(iterative)).isTrue();
+    }
+
+    @Test
+    public void union_of_mixed_geometries() throws ParseException {
+        WKTReader reader = new WKTReader();
+        Geometry union = GeometryUtils.union(List.of(
+                reader.read("POLYGON ((0 0, 0 10, 10 10, 10 0, 0 0))"),
+                reader.read("POINT (5 5)"),
+                reader.read("LINESTRING (20 20, 30 30)")));
+        assertThat(union.getNumGeometries()).isEqualTo(2);
+        assertThat(union.getArea()).isEqualTo(100);
+        assertThat(union.getLength()).isCloseTo(40 + Math.sqrt(200), within(0.001));
+    }
+
+    @Test
+    public void union_of_nothing_is_refused() {
+        assertThatThrownBy(() -> GeometryUtils.union(List.of())).isInstanceOf(WrongArgumentException.class);
+    }
+}
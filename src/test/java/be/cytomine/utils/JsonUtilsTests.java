@@ -0,0 +1,85 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.dto.JsonInput;
+import be.cytomine.dto.JsonMultipleObject;
+import be.cytomine.dto.JsonSingleObject;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class JsonUtilsTests {
+
+    @Test
+    public void request_body_is_read_as_a_list_or_a_single_object() throws JsonProcessingException {
+        JsonInput multiple = JsonUtils.toJsonInput("  [{\"name\":\"a\"},{\"name\":\"b\"}]");
+        assertThat(multiple).isInstanceOf(JsonMultipleObject.class);
+        assertThat(((JsonMultipleObject) multiple)).extracting(x -> x.get("name")).containsExactly("a", "b");
+
+        JsonInput single = JsonUtils.toJsonInput("{\"name\":\"a\",\"ids\":[1,2]}");
+        assertThat(single).isInstanceOf(JsonSingleObject.class);
+        assertThat(((JsonSingleObject) single).getJSONAttrListLong("ids")).containsExactly(1L, 2L);
+    }
+
+    @Test
+    public void invalid_request_body_is_rejected() {
+        assertThatThrownBy(() -> JsonUtils.toJsonInput("[1, 2]")).isInstanceOf(JsonProcessingException.class);
+        assertThatThrownBy(() -> JsonUtils.toJsonInput("{\"name\":")).isInstanceOf(JsonProcessingException.class);
+        assertThatThrownBy(() -> JsonUtils.toJsonInput("")).isInstanceOf(JsonProcessingException.class);
+    }
+
+    @Test
+    public void shared_mapper_keeps_jackson_defaults() {
+        // dates were written as timestamps by the per-call mappers
+        assertThat(JsonObject.toJsonString(JsonObject.of("created", new Date(1000L)))).isEqualTo("{\"created\":1000}");
+        assertThat(JsonObject.toMap("{\"id\":1,\"name\":\"a\"}")).containsEntry("id", 1).containsEntry("name", "a");
+        assertThat(JsonObject.toStringList("[\"a\",\"b\"]")).containsExactly("a", "b");
+        assertThat(JsonObject.toMapList("[{\"id\":1}]")).hasSize(1);
+        assertThat(JsonObject.toJsonObject("{\"id\":1}")).isInstanceOf(JsonObject.class).containsEntry("id", 1);
+    }
+
+    @Test
+    public void shared_mapper_is_used_concurrently() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                long id = i;
+                results.add(executor.submit(() -> {
+                    String json = JsonObject.toJsonString(JsonObject.of("id", id, "term", List.of(id, id + 1)));
+                    JsonObject read = JsonObject.toJsonObject(json);
+                    return read.getJSONAttrLong("id").equals(id) && read.getJSONAttrListLong("term").equals(List.of(id, id + 1));
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertThat(result.get()).isTrue();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}